@@ -0,0 +1,46 @@
+package nom.danielmarreco.train.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so allocation rates are reported along with times, writing the results
+ * as JSON to <code>results.json</code>.
+ * <br/>
+ * Any standard JMH command line option is accepted and overrides these defaults, e.g. <code>-rff baseline/baseline.json</code>
+ * or <code>-p cities=1000</code>.
+ */
+public final class BenchmarkRunner {
+
+	private BenchmarkRunner ()
+	{
+	}
+
+	public static void main (String[] args) throws RunnerException, CommandLineOptionException
+	{
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		// options set on the builder take precedence over the parent ones, so only defaults not given are set
+		if (commandLine.getIncludes().isEmpty()) {
+			builder.include(TravelGuideBenchmark.class.getSimpleName());
+		}
+		if (!commandLine.getResultFormat().hasValue()) {
+			builder.resultFormat(ResultFormatType.JSON);
+		}
+		if (!commandLine.getResult().hasValue()) {
+			builder.result("results.json");
+		}
+		Options options = builder
+				.addProfiler(GCProfiler.class)
+				.parent(commandLine)
+				.build();
+		new Runner(options).run();
+	}
+
+}
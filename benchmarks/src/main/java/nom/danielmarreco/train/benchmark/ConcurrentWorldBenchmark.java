@@ -0,0 +1,139 @@
+package nom.danielmarreco.train.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nom.danielmarreco.train.CompactWorld;
+import nom.danielmarreco.train.ConcurrentWorld;
+import nom.danielmarreco.train.Route;
+import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.exception.NoSuchRouteException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A mixed read/write load over a {@link ConcurrentWorld}: threads querying shortest routes between random cities
+ * while another one applies updates changing the distance of random routes.
+ * <br/>
+ * <code>query</code> alone, run with <code>-t 1</code>, <code>-t 2</code>, ..., measures how queries scale with the threads;
+ * the <code>mixed</code> group runs 3 querying threads and 1 updating thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentWorldBenchmark {
+
+	/**
+	 * The number of distinct updates applied in turn
+	 */
+	static final int UPDATES = 16;
+
+	@Param({"GRID", "RANDOM"})
+	WorldShape shape;
+
+	@Param("10000")
+	int cities;
+
+	/**
+	 * The number of routes changed by each update
+	 */
+	@Param("100")
+	int updateSize;
+
+	@Param("42")
+	long seed;
+
+	private ConcurrentWorld world;
+
+	private TravelGuide guide;
+
+	private ConcurrentWorld.Update[] updates;
+
+	private int nextUpdate;
+
+	@Setup(Level.Trial)
+	public void setup ()
+	{
+		world = new ConcurrentWorld(WorldGenerator.generate(shape, cities, seed));
+		guide = new TravelGuide(world);
+
+		// changes the distance of existing routes, so every version has the same shape
+		CompactWorld graph = world.getSnapshot();
+		Random random = new Random(seed);
+		updates = new ConcurrentWorld.Update[UPDATES];
+		for (int u = 0; u < UPDATES; u++) {
+			updates[u] = new ConcurrentWorld.Update();
+			while (updates[u].size() < updateSize) {
+				int from = random.nextInt(graph.getCityCount());
+				int routes = graph.getRoutesEnd(from) - graph.getRoutesStart(from);
+				if (routes > 0) {
+					int to = graph.getRouteTarget(graph.getRoutesStart(from) + random.nextInt(routes));
+					updates[u].addRoute(graph.getName(from), graph.getName(to), 1 + random.nextInt(WorldGenerator.MAX_DISTANCE));
+				}
+			}
+		}
+	}
+
+	/**
+	 * The random queries of each thread
+	 */
+	@State(Scope.Thread)
+	public static class Queries {
+
+		private Random random;
+
+		@Setup(Level.Trial)
+		public void setup ()
+		{
+			random = new Random(Thread.currentThread().getId());
+		}
+
+	}
+
+	@Benchmark
+	public Route query (Queries queries)
+	{
+		String source = WorldGenerator.name(queries.random.nextInt(cities));
+		String destination = WorldGenerator.name(queries.random.nextInt(cities));
+		try {
+			return guide.findShortestRoute(source, destination);
+		}
+		catch (NoSuchRouteException e) {
+			return null;
+		}
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(3)
+	public Route mixedQuery (Queries queries)
+	{
+		return query(queries);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public CompactWorld mixedUpdate ()
+	{
+		// only this thread updates
+		return world.apply(updates[nextUpdate++ % UPDATES]);
+	}
+
+}
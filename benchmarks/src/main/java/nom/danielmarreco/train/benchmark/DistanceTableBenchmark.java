@@ -0,0 +1,119 @@
+package nom.danielmarreco.train.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.World;
+import nom.danielmarreco.train.exception.NoSuchRouteException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Computes the shortest distances from {@link #SOURCES} random cities to {@link #TARGETS} others: pair by pair with
+ * <code>getShortestDistance</code>, and at once with {@link TravelGuide#getShortestDistances(String[], String[], ForkJoinPool)},
+ * with and without a contraction hierarchy, on a pool of <code>parallelism</code> threads.
+ * <br/>
+ * Scores are milliseconds per table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class DistanceTableBenchmark {
+
+	static final int SOURCES = 20;
+
+	static final int TARGETS = 200;
+
+	@Param({"GRID", "RANDOM"})
+	WorldShape shape;
+
+	@Param("10000")
+	int cities;
+
+	@Param({"1", "4"})
+	int parallelism;
+
+	@Param("42")
+	long seed;
+
+	private TravelGuide guide;
+
+	private TravelGuide hierarchyGuide;
+
+	private ForkJoinPool pool;
+
+	private String[] sources, targets;
+
+	@Setup(Level.Trial)
+	public void setup ()
+	{
+		World world = WorldGenerator.generate(shape, cities, seed);
+		guide = new TravelGuide(world);
+		hierarchyGuide = new TravelGuide(world);
+		hierarchyGuide.precomputeContractionHierarchy();
+		pool = new ForkJoinPool(parallelism);
+
+		Random random = new Random(seed);
+		sources = new String[SOURCES];
+		for (int i = 0; i < sources.length; i++) {
+			sources[i] = WorldGenerator.name(random.nextInt(cities));
+		}
+		targets = new String[TARGETS];
+		for (int i = 0; i < targets.length; i++) {
+			targets[i] = WorldGenerator.name(random.nextInt(cities));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown ()
+	{
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public int[][] pairByPair ()
+	{
+		int[][] table = new int[sources.length][targets.length];
+		for (int i = 0; i < sources.length; i++) {
+			for (int j = 0; j < targets.length; j++) {
+				try {
+					table[i][j] = guide.getShortestDistance(sources[i], targets[j]);
+				}
+				catch (NoSuchRouteException e) {
+					table[i][j] = Integer.MAX_VALUE;
+				}
+			}
+		}
+		return table;
+	}
+
+	@Benchmark
+	public int[][] getShortestDistances () throws NoSuchRouteException
+	{
+		return guide.getShortestDistances(sources, targets, pool);
+	}
+
+	@Benchmark
+	public int[][] getShortestDistancesWithHierarchy () throws NoSuchRouteException
+	{
+		return hierarchyGuide.getShortestDistances(sources, targets, pool);
+	}
+
+}
@@ -0,0 +1,90 @@
+package nom.danielmarreco.train.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+
+import nom.danielmarreco.train.JmxMetricsSink;
+import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.exception.NoSuchRouteException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The overhead of the query metrics: the same queries with no sink and with a {@link JmxMetricsSink}.
+ * <code>getRouteDistance</code> takes a few dozen nanoseconds, so it shows the cost of reporting a query;
+ * <code>getShortestDistance</code> shows it's weight on a search settling half the world.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+	@Param({"NONE", "JMX"})
+	String sink;
+
+	@Param("10000")
+	int cities;
+
+	@Param("42")
+	long seed;
+
+	private TravelGuide guide;
+
+	private JmxMetricsSink jmx;
+
+	private String source;
+
+	private String neighbor;
+
+	private String destination;
+
+	@Setup(Level.Trial)
+	public void setup () throws JMException
+	{
+		guide = new TravelGuide(WorldGenerator.generate(WorldShape.GRID, cities, seed));
+		if (sink.equals("JMX")) {
+			jmx = new JmxMetricsSink("benchmark");
+			guide.setMetricsSink(jmx);
+		}
+		source = WorldGenerator.name(0);
+		neighbor = WorldGenerator.name(1);
+		destination = WorldGenerator.name(cities / 2 + 50);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown ()
+	{
+		if (jmx != null) {
+			jmx.unregister();
+		}
+	}
+
+	@Benchmark
+	public long getRouteDistance ()
+	{
+		return guide.getRouteDistance(source, neighbor);
+	}
+
+	@Benchmark
+	public int getShortestDistance () throws NoSuchRouteException
+	{
+		return guide.getShortestDistance(source, destination);
+	}
+
+}
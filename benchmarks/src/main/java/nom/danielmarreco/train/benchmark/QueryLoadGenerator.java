@@ -0,0 +1,193 @@
+package nom.danielmarreco.train.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nom.danielmarreco.train.QueryServer;
+import nom.danielmarreco.train.TravelGuide;
+
+/**
+ * Drives a {@link QueryServer} over loopback with shortest route requests and reports the throughput and latency percentiles.
+ * <br/>
+ * Options are given as <code>name=value</code> arguments:
+ * <ul>
+ * <li><code>shape</code>, <code>cities</code> and <code>seed</code>: the world served, GRID of 10000 cities by default;</li>
+ * <li><code>clients</code>: the number of client threads sending requests one after the other, 32 by default;</li>
+ * <li><code>sources</code>: the number of distinct sources requested, 8 by default: the fewer, the more requests are coalesced;</li>
+ * <li><code>endpoint</code>: <code>route</code> (the default) or <code>distance</code>;</li>
+ * <li><code>coalescing</code>: <code>true</code> to have concurrent requests from the same source share a search, see
+ * {@link TravelGuide#setRequestCoalescing(boolean)}; each request has a search of it's own by default, as with the server;</li>
+ * <li><code>warmup</code> and <code>seconds</code>: the time spent before measuring, and measuring, 5 and 10 by default.</li>
+ * </ul>
+ * Run with <code>java -cp target/benchmarks.jar nom.danielmarreco.train.benchmark.QueryLoadGenerator clients=64</code>.
+ */
+public final class QueryLoadGenerator {
+
+	private QueryLoadGenerator ()
+	{
+	}
+
+	public static void main (String[] args) throws IOException, InterruptedException
+	{
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals < 0) {
+				throw new IllegalArgumentException("Options are given as name=value: " + arg);
+			}
+			options.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		WorldShape shape = WorldShape.valueOf(option(options, "shape", "GRID"));
+		final int cities = Integer.parseInt(option(options, "cities", "10000"));
+		long seed = Long.parseLong(option(options, "seed", "42"));
+		int clients = Integer.parseInt(option(options, "clients", "32"));
+		final int sources = Integer.parseInt(option(options, "sources", "8"));
+		final String endpoint = option(options, "endpoint", "route");
+		boolean coalescing = Boolean.parseBoolean(option(options, "coalescing", "false"));
+		long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(option(options, "warmup", "5")));
+		long measurement = TimeUnit.SECONDS.toNanos(Long.parseLong(option(options, "seconds", "10")));
+
+		TravelGuide guide = new TravelGuide(WorldGenerator.generate(shape, cities, seed));
+		guide.setRequestCoalescing(coalescing);
+		QueryServer server = new QueryServer(guide, new InetSocketAddress("127.0.0.1", 0));
+		server.start();
+		final int port = server.getAddress().getPort();
+		System.out.println(shape + " world of " + cities + " cities, " + clients + " clients, " + sources + " sources, /" + endpoint
+				+ (server.isUsingVirtualThreads() ? ", virtual threads" : ", platform threads"));
+
+		final long start = System.nanoTime();
+		final long measureFrom = start + warmup;
+		final long end = measureFrom + measurement;
+		List<Client> threads = new ArrayList<Client>();
+		for (int c = 0; c < clients; c++) {
+			Client client = new Client(port, endpoint, cities, sources, seed + c, measureFrom, end);
+			threads.add(client);
+			client.start();
+		}
+		Thread.sleep(TimeUnit.NANOSECONDS.toMillis(warmup));
+		long coalescedBefore = guide.getCoalescedRequestCount();
+		for (Client client : threads) {
+			client.join();
+		}
+		long coalesced = guide.getCoalescedRequestCount() - coalescedBefore;
+		server.stop(0);
+
+		int count = 0, errors = 0;
+		for (Client client : threads) {
+			count += client.count;
+			errors += client.errors;
+		}
+		long[] latencies = new long[count];
+		int position = 0;
+		for (Client client : threads) {
+			System.arraycopy(client.latencies, 0, latencies, position, client.count);
+			position += client.count;
+		}
+		Arrays.sort(latencies);
+		double seconds = measurement / 1e9;
+		System.out.printf("%d requests in %.0f s: %.1f requests/s, %d errors, %d coalesced (%.1f%%)%n",
+				count, seconds, count / seconds, errors, coalesced, count == 0 ? 0 : 100.0 * coalesced / count);
+		System.out.printf("latency (ms): p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f%n",
+				percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99), percentile(latencies, 0.999),
+				percentile(latencies, 1));
+	}
+
+	private static String option (Map<String, String> options, String name, String defaultValue)
+	{
+		String value = options.get(name);
+		return value != null ? value : defaultValue;
+	}
+
+	/**
+	 * @return The given percentile of the sorted latencies, in milliseconds
+	 */
+	private static double percentile (long[] latencies, double percentile)
+	{
+		if (latencies.length == 0) {
+			return Double.NaN;
+		}
+		int index = (int) Math.ceil(percentile * latencies.length) - 1;
+		return latencies[Math.max(0, index)] / 1e6;
+	}
+
+	/**
+	 * Sends requests one after the other, over a kept alive connection, recording the latencies of those sent while measuring
+	 */
+	private static final class Client extends Thread {
+
+		private final int port;
+		private final String endpoint;
+		private final int cities;
+		private final int sources;
+		private final Random random;
+		private final long measureFrom;
+		private final long end;
+
+		long[] latencies = new long[1024];
+		int count;
+		int errors;
+
+		Client (int port, String endpoint, int cities, int sources, long seed, long measureFrom, long end)
+		{
+			this.port = port;
+			this.endpoint = endpoint;
+			this.cities = cities;
+			this.sources = sources;
+			this.random = new Random(seed);
+			this.measureFrom = measureFrom;
+			this.end = end;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run ()
+		{
+			// the sources are spread over the world
+			int sourceStep = Math.max(1, cities / sources);
+			byte[] buffer = new byte[8192];
+			long now;
+			while ((now = System.nanoTime()) < end) {
+				String source = WorldGenerator.name(random.nextInt(sources) * sourceStep % cities);
+				String destination = WorldGenerator.name(random.nextInt(cities));
+				boolean failed;
+				try {
+					URL url = new URL("http", "127.0.0.1", port, "/" + endpoint + "?from=" + source + "&to=" + destination);
+					HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+					int status = connection.getResponseCode();
+					// unreachable destinations are answered with 404, as they should
+					failed = status != 200 && status != 404;
+					InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+					while (in.read(buffer) >= 0) {
+						// reads the whole response, so the connection is kept alive
+					}
+					in.close();
+				}
+				catch (IOException e) {
+					failed = true;
+				}
+				long latency = System.nanoTime() - now;
+				if (now >= measureFrom) {
+					if (failed) {
+						errors++;
+					}
+					if (count == latencies.length) {
+						latencies = Arrays.copyOf(latencies, count * 2);
+					}
+					latencies[count++] = latency;
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,129 @@
+package nom.danielmarreco.train.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import nom.danielmarreco.train.CompactWorld;
+import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.World;
+import nom.danielmarreco.train.exception.NoSuchRouteException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluates the distances of a batch of random itineraries, one in ten of them invalid: one by one with
+ * <code>findRoute(...).getLenght()</code>, and at once with {@link TravelGuide#getRouteDistances(String[], int[], ForkJoinPool)}
+ * on a pool of <code>parallelism</code> threads.
+ * <br/>
+ * Scores are itineraries per microsecond; the throughput per core is the score of <code>getRouteDistances</code> divided by
+ * the smaller of <code>parallelism</code> and the number of cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteDistancesBenchmark {
+
+	/**
+	 * The number of itineraries of a batch
+	 */
+	static final int ITINERARIES = 100000;
+
+	@Param({"GRID", "RANDOM"})
+	WorldShape shape;
+
+	@Param("100000")
+	int cities;
+
+	@Param({"1", "4"})
+	int parallelism;
+
+	@Param("42")
+	long seed;
+
+	private TravelGuide guide;
+
+	private ForkJoinPool pool;
+
+	private String[] names;
+
+	private int[] offsets;
+
+	@Setup(Level.Trial)
+	public void setup ()
+	{
+		World world = WorldGenerator.generate(shape, cities, seed);
+		guide = new TravelGuide(world);
+		pool = new ForkJoinPool(parallelism);
+
+		// random walks of up to 10 cities, one in ten with a step that does not exist
+		CompactWorld graph = world.getCompactWorld();
+		Random random = new Random(seed);
+		List<String> itineraries = new ArrayList<String>();
+		offsets = new int[ITINERARIES + 1];
+		for (int i = 0; i < ITINERARIES; i++) {
+			offsets[i] = itineraries.size();
+			int city = random.nextInt(graph.getCityCount());
+			boolean invalid = random.nextInt(10) == 0;
+			int stops = 1 + random.nextInt(9);
+			itineraries.add(graph.getName(city));
+			for (int stop = 0; stop < stops && graph.getRoutesEnd(city) > graph.getRoutesStart(city); stop++) {
+				int routes = graph.getRoutesEnd(city) - graph.getRoutesStart(city);
+				city = invalid && stop == stops - 1 ? random.nextInt(graph.getCityCount())
+						: graph.getRouteTarget(graph.getRoutesStart(city) + random.nextInt(routes));
+				itineraries.add(graph.getName(city));
+			}
+		}
+		offsets[ITINERARIES] = itineraries.size();
+		names = itineraries.toArray(new String[itineraries.size()]);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown ()
+	{
+		pool.shutdown();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ITINERARIES)
+	public long findRoute ()
+	{
+		long res = 0;
+		for (int i = 0; i < ITINERARIES; i++) {
+			try {
+				res += guide.findRoute(Arrays.copyOfRange(names, offsets[i], offsets[i + 1])).getLenght();
+			}
+			catch (NoSuchRouteException e) {
+				res--;
+			}
+		}
+		return res;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ITINERARIES)
+	public long[] getRouteDistances ()
+	{
+		return guide.getRouteDistances(names, offsets, pool);
+	}
+
+}
@@ -0,0 +1,198 @@
+package nom.danielmarreco.train.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import nom.danielmarreco.train.City;
+import nom.danielmarreco.train.CompactWorld;
+import nom.danielmarreco.train.Route;
+import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.World;
+import nom.danielmarreco.train.exception.NoSuchRouteException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the {@link TravelGuide} queries over synthetic worlds of every {@link WorldShape} and a few sizes.
+ * <br/>
+ * Queries depart from city "0" and arrive at the first city found {@link #DEPTH} stops away from it, so their
+ * cost is comparable across shapes and sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TravelGuideBenchmark {
+
+	/**
+	 * The number of stops between the source and the destination of the queries
+	 */
+	static final int DEPTH = 3;
+
+	/**
+	 * The number of routes asked for by <code>findKShortestRoutes</code>
+	 */
+	static final int K = 10;
+
+	/**
+	 * The number of source and destination pairs taken in turn by <code>findPossibleRoutesToManyDestinations</code>, more
+	 * than a snapshot keeps the route bounds of, so every query computes them
+	 */
+	static final int PAIRS = 64;
+
+	@Param({"GRID", "RANDOM", "SCALE_FREE"})
+	WorldShape shape;
+
+	@Param({"1000", "100000"})
+	int cities;
+
+	@Param("42")
+	long seed;
+
+	private TravelGuide guide;
+
+	private String source;
+
+	private String destination;
+
+	/**
+	 * The cities of the shortest route from source to destination
+	 */
+	private String[] itinerary;
+
+	private Route route;
+
+	private int maxHops;
+
+	private int maxDistance;
+
+	private String[] sources;
+
+	private String[] destinations;
+
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup () throws NoSuchRouteException
+	{
+		World world = WorldGenerator.generate(shape, cities, seed);
+		guide = new TravelGuide(world);
+		source = WorldGenerator.name(0);
+		destination = findDestination(world.getCompactWorld(), 0);
+
+		Route shortest = guide.findShortestRoute(source, destination);
+		itinerary = new String[shortest.size()];
+		int i = 0;
+		for (City city : shortest) {
+			itinerary[i++] = city.getName();
+		}
+		route = guide.findRoute(itinerary);
+		maxHops = DEPTH;
+		maxDistance = shortest.getLenght();
+
+		sources = new String[PAIRS];
+		destinations = new String[PAIRS];
+		for (int pair = 0; pair < PAIRS; pair++) {
+			int id = (int) ((long) pair * cities / PAIRS);
+			sources[pair] = world.getCompactWorld().getName(id);
+			destinations[pair] = findDestination(world.getCompactWorld(), id);
+		}
+	}
+
+	/**
+	 * @return The name of the first city found {@link #DEPTH} stops away from the given one by a breadth-first search
+	 */
+	private static String findDestination (CompactWorld graph, int source)
+	{
+		int[] depths = new int[graph.getCityCount()];
+		Arrays.fill(depths, -1);
+		int[] queue = new int[graph.getCityCount()];
+		int head = 0, tail = 0;
+		queue[tail++] = source;
+		depths[source] = 0;
+		int res = source;
+		while (head < tail) {
+			int city = queue[head++];
+			res = city;
+			if (depths[city] == DEPTH) {
+				break;
+			}
+			for (int r = graph.getRoutesStart(city); r < graph.getRoutesEnd(city); r++) {
+				int next = graph.getRouteTarget(r);
+				if (depths[next] < 0) {
+					depths[next] = depths[city] + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+		return graph.getName(res);
+	}
+
+	@Benchmark
+	public Route findRoute () throws NoSuchRouteException
+	{
+		return guide.findRoute(itinerary);
+	}
+
+	@Benchmark
+	public Integer getLenght () throws NoSuchRouteException
+	{
+		return route.getLenght();
+	}
+
+	@Benchmark
+	public Set<Route> findPossibleRoutes ()
+	{
+		return guide.findPossibleRoutes(source, destination, maxHops);
+	}
+
+	/**
+	 * As {@link #findPossibleRoutes()}, to a different destination every time
+	 */
+	@Benchmark
+	public Set<Route> findPossibleRoutesToManyDestinations ()
+	{
+		int i = next++ & (PAIRS - 1);
+		return guide.findPossibleRoutes(sources[i], destinations[i], maxHops);
+	}
+
+	@Benchmark
+	public Set<Route> findPossibleRoutesExactly ()
+	{
+		return guide.findPossibleRoutes(source, destination, maxHops, maxHops);
+	}
+
+	@Benchmark
+	public Set<Route> findPossibleRoutesShorterThan ()
+	{
+		return guide.findPossibleRoutesShorterThan(source, destination, maxDistance);
+	}
+
+	@Benchmark
+	public Route findShortestRoute () throws NoSuchRouteException
+	{
+		return guide.findShortestRoute(source, destination);
+	}
+
+	@Benchmark
+	public List<Route> findKShortestRoutes () throws NoSuchRouteException
+	{
+		return guide.findKShortestRoutes(source, destination, K);
+	}
+
+}
@@ -0,0 +1,97 @@
+package nom.danielmarreco.train.benchmark;
+
+import java.util.Random;
+
+import nom.danielmarreco.train.World;
+import nom.danielmarreco.train.WorldBuilder;
+
+/**
+ * Generates reproducible synthetic worlds through {@link WorldBuilder}. Cities are named after their number, from "0".
+ */
+public final class WorldGenerator {
+
+	/**
+	 * The maximum distance of a generated route; distances are uniform from 1 to this value
+	 */
+	public static final int MAX_DISTANCE = 9;
+
+	private WorldGenerator ()
+	{
+	}
+
+	/**
+	 * @param shape The topology of the world
+	 * @param cities The number of cities
+	 * @param seed The seed of the generated distances and random routes
+	 * @return A new world
+	 */
+	public static World generate (WorldShape shape, int cities, long seed)
+	{
+		Random random = new Random(seed);
+		WorldBuilder builder = new WorldBuilder();
+		switch (shape) {
+		case GRID:
+			int side = (int) Math.ceil(Math.sqrt(cities));
+			for (int city = 0; city < cities; city++) {
+				if ((city + 1) % side != 0 && city + 1 < cities) {
+					addBothWays(builder, random, city, city + 1);
+				}
+				if (city + side < cities) {
+					addBothWays(builder, random, city, city + side);
+				}
+			}
+			break;
+		case RANDOM:
+			for (int city = 0; city < cities; city++) {
+				for (int i = 0; i < 4; i++) {
+					int to = random.nextInt(cities);
+					if (to != city) {
+						builder.addRoute(name(city), name(to), distance(random));
+					}
+				}
+			}
+			break;
+		case SCALE_FREE:
+			/*
+			 * each new city links to 2 existing ones, picked with a probability proportional to their degree:
+			 * picking a random end of a random existing link does just that
+			 */
+			int[] ends = new int[4 * cities];
+			int endCount = 0;
+			addBothWays(builder, random, 0, 1);
+			ends[endCount++] = 0;
+			ends[endCount++] = 1;
+			for (int city = 2; city < cities; city++) {
+				int first = ends[random.nextInt(endCount)];
+				int second = ends[random.nextInt(endCount)];
+				for (int to : new int[] {first, second}) {
+					addBothWays(builder, random, city, to);
+					ends[endCount++] = city;
+					ends[endCount++] = to;
+				}
+			}
+			break;
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @return The name of the city of the given number
+	 */
+	public static String name (int city)
+	{
+		return String.valueOf(city);
+	}
+
+	private static void addBothWays (WorldBuilder builder, Random random, int city, int other)
+	{
+		builder.addRoute(name(city), name(other), distance(random));
+		builder.addRoute(name(other), name(city), distance(random));
+	}
+
+	private static int distance (Random random)
+	{
+		return 1 + random.nextInt(MAX_DISTANCE);
+	}
+
+}
@@ -0,0 +1,22 @@
+package nom.danielmarreco.train.benchmark;
+
+/**
+ * The topologies of the synthetic worlds benchmarked
+ * 
+ * @see WorldGenerator
+ */
+public enum WorldShape {
+	/**
+	 * A square grid with routes both ways between neighbors, like a city street map: 
+	 * low degree, long shortest routes
+	 */
+	GRID,
+	/**
+	 * Four routes to uniformly random cities leaving each city: short shortest routes, no hubs
+	 */
+	RANDOM,
+	/**
+	 * Barabasi-Albert preferential attachment, routes both ways: a few hubs with most of the routes, like an airline network
+	 */
+	SCALE_FREE
+}
@@ -0,0 +1,125 @@
+package nom.danielmarreco.train;
+
+import java.util.Arrays;
+
+/**
+ * The A* search over a {@link CompactWorld}: Dijkstra's algorithm polling cities by their distance from source
+ * plus the {@link Heuristic} estimate of their distance to the destination, so the search heads towards it.
+ * <br/>
+ * A city reached again by a shorter route after being polled is searched again, so the route found is the shortest
+ * for any admissible heuristic, even one that is not consistent (e.g. one with estimates for some of the cities only).
+ */
+final class AStar implements PointToPointSearch {
+
+	private final CompactWorld graph;
+
+	private final Heuristic heuristic;
+
+	/**
+	 * The distance from source of each city, indexed by id
+	 */
+	private final int[] distances;
+
+	/**
+	 * The previous city in the shortest known route from source to each city, indexed by id; -1 if none
+	 */
+	private final int[] previous;
+
+	/**
+	 * The heuristic estimate of each city, indexed by id; -1 until it is first needed
+	 */
+	private final int[] estimates;
+
+	private final IndexedMinHeap heap;
+
+	private int dest = -1;
+
+	private int settled;
+
+	private long relaxed;
+
+	/**
+	 * @param graph The snapshot to be searched
+	 * @param heuristic The estimates guiding the search
+	 */
+	AStar (CompactWorld graph, Heuristic heuristic)
+	{
+		int cityCount = graph.getCityCount();
+		this.graph = graph;
+		this.heuristic = heuristic;
+		this.distances = new int[cityCount];
+		this.previous = new int[cityCount];
+		this.estimates = new int[cityCount];
+		this.heap = new IndexedMinHeap(cityCount);
+		Arrays.fill(distances, Dijkstra.UNREACHABLE);
+		Arrays.fill(previous, -1);
+		Arrays.fill(estimates, -1);
+	}
+
+	@Override
+	public boolean run (int source, int dest)
+	{
+		this.dest = dest;
+		distances[source] = 0;
+		heap.offer(source, estimate(source));
+		while (!heap.isEmpty()) {
+			int city = heap.poll();
+			settled++;
+			if (city == dest) {
+				return true;
+			}
+			int distance = distances[city];
+			relaxed += graph.getRoutesEnd(city) - graph.getRoutesStart(city);
+			for (int r = graph.getRoutesStart(city), end = graph.getRoutesEnd(city); r < end; r++) {
+				int neighbor = graph.getRouteTarget(r);
+				int newPossibleDistance = distance + graph.getRouteDistance(r);
+				if (newPossibleDistance < distances[neighbor]) {
+					distances[neighbor] = newPossibleDistance;
+					previous[neighbor] = city;
+					heap.offer(neighbor, (int) Math.min((long) newPossibleDistance + estimate(neighbor), Dijkstra.UNREACHABLE));
+				}
+			}
+		}
+		return false;
+	}
+
+	private int estimate (int city)
+	{
+		int res = estimates[city];
+		if (res < 0) {
+			res = estimates[city] = Math.max(0, heuristic.getLowerBound(graph, city, dest));
+		}
+		return res;
+	}
+
+	@Override
+	public int getDistance ()
+	{
+		return distances[dest];
+	}
+
+	@Override
+	public Route getRoute ()
+	{
+		return graph.getShortestRoute(previous, dest, distances[dest]);
+	}
+
+	@Override
+	public int getSettledCount ()
+	{
+		return settled;
+	}
+
+	@Override
+	public long getRelaxedCount ()
+	{
+		return relaxed;
+	}
+
+	@Override
+	public int getPeakFrontier ()
+	{
+		return heap.getPeakSize();
+	}
+
+}
@@ -0,0 +1,225 @@
+package nom.danielmarreco.train;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A {@link CompactWorld} holding it's CSR arrays in the heap, either taken from a {@link World} and sharing it's cities,
+ * or detached from any world, see {@link ConcurrentWorld}, and creating it's own cities as they are needed
+ */
+final class ArrayCompactWorld extends CompactWorld {
+
+	private final int cityCount;
+
+	/**
+	 * The cities of the source world, indexed by id; null for detached snapshots
+	 */
+	private final City[] cities;
+
+	/**
+	 * The names of the cities, shared with the source world, which may since have interned more names
+	 */
+	private final SymbolTable symbols;
+
+	/**
+	 * For each city id, the index of it's first route; has one extra trailing element holding the number of routes
+	 */
+	private final int[] offsets;
+
+	/**
+	 * The destination city id of each route
+	 */
+	private final int[] targets;
+
+	/**
+	 * The distance of each route
+	 */
+	private final int[] distances;
+
+	/**
+	 * The version of the world this snapshot was taken from
+	 */
+	private final long version;
+
+	private ArrayCompactWorld (int cityCount, City[] cities, SymbolTable symbols, int[] offsets, int[] targets, int[] distances, long version)
+	{
+		this.cityCount = cityCount;
+		this.cities = cities;
+		this.symbols = symbols;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.distances = distances;
+		this.version = version;
+	}
+
+	/**
+	 * Takes a snapshot of the given world
+	 * 
+	 * @param world The world to be compacted
+	 * @return A CompactWorld with the same cities and routes of the given world
+	 */
+	static ArrayCompactWorld of (World world)
+	{
+		int cityCount = world.getCityCount();
+		City[] cities = new City[cityCount];
+		int[] offsets = new int[cityCount + 1];
+
+		for (int id = 0; id < cityCount; id++) {
+			City city = world.getCity(id);
+			cities[id] = city;
+			offsets[id + 1] = offsets[id] + city.getAdjacentCitites().size();
+		}
+
+		SymbolTable symbols = world.getSymbolTable();
+		int[] targets = new int[offsets[cityCount]];
+		int[] distances = new int[offsets[cityCount]];
+		long[] row = new long[16];
+		for (int id = 0; id < cityCount; id++) {
+			Map<City, Integer> routes = cities[id].getAdjacentCitites();
+			if (row.length < routes.size()) {
+				row = new long[routes.size()];
+			}
+			// packs (destination, distance) pairs in longs so a plain sort orders them by destination
+			int n = 0;
+			for (Map.Entry<City, Integer> route : routes.entrySet()) {
+				row[n++] = ((long) idOf(route.getKey(), symbols, cityCount) << 32) | (route.getValue() & 0xFFFFFFFFL);
+			}
+			Arrays.sort(row, 0, n);
+			for (int i = 0, r = offsets[id]; i < n; i++, r++) {
+				targets[r] = (int) (row[i] >>> 32);
+				distances[r] = (int) row[i];
+			}
+		}
+
+		return new ArrayCompactWorld(cityCount, cities, symbols, offsets, targets, distances, world.getVersion());
+	}
+
+	/**
+	 * Resolves the destination of a route through the names of the world, so a city that is not one of it's own, as a
+	 * city created outside of it or taken from another world, can never stand for whatever city has the same id
+	 * 
+	 * @return The id, in the world, of the city with the name of the given one
+	 * @throws IllegalStateException If the world has no city with that name
+	 */
+	private static int idOf (City city, SymbolTable symbols, int cityCount)
+	{
+		if (city.id >= 0 && city.id < cityCount && city.getName().equals(symbols.getName(city.id))) {
+			return city.id;
+		}
+		int id = symbols.getId(city.getName());
+		if (id < 0 || id >= cityCount) {
+			throw new IllegalStateException("Route to a city of no world or another one: " + city.getName());
+		}
+		return id;
+	}
+
+	/**
+	 * Creates a snapshot detached from any world, owning it's arrays
+	 * 
+	 * @param symbols The names of the cities, which must not intern any more names while the snapshot is in use
+	 * @param cityCount The number of cities, whose ids are the first ones of the table
+	 * @param offsets The index of the first route of each city, plus the number of routes
+	 * @param targets The destination city id of each route, sorted for each city
+	 * @param distances The distance of each route
+	 * @param version The version of the snapshot
+	 */
+	static ArrayCompactWorld detached (SymbolTable symbols, int cityCount, int[] offsets, int[] targets, int[] distances, long version)
+	{
+		return new ArrayCompactWorld(cityCount, null, symbols, offsets, targets, distances, version);
+	}
+
+	/**
+	 * @return If this snapshot was not taken from a world, see {@link #detached(SymbolTable, int, int[], int[], int[], long)}
+	 */
+	boolean isDetached ()
+	{
+		return cities == null;
+	}
+
+	@Override
+	public int getCityCount ()
+	{
+		return cityCount;
+	}
+
+	@Override
+	public int getRouteCount ()
+	{
+		return targets.length;
+	}
+
+	@Override
+	public int getId (String name)
+	{
+		int id = symbols.getId(name);
+		return id < cityCount ? id : -1;
+	}
+
+	@Override
+	public String getName (int id)
+	{
+		return symbols.getName(id);
+	}
+
+	@Override
+	public City getCity (int id)
+	{
+		return cities != null ? cities[id] : getSnapshotCity(id);
+	}
+
+	@Override
+	public int getRoutesStart (int id)
+	{
+		return offsets[id];
+	}
+
+	@Override
+	public int getRoutesEnd (int id)
+	{
+		return offsets[id + 1];
+	}
+
+	@Override
+	public int getRouteTarget (int route)
+	{
+		return targets[route];
+	}
+
+	@Override
+	public int getRouteDistance (int route)
+	{
+		return distances[route];
+	}
+
+	@Override
+	void copyRoutes (int start, int[] targets, int[] distances, int offset, int count)
+	{
+		System.arraycopy(this.targets, start, targets, offset, count);
+		System.arraycopy(this.distances, start, distances, offset, count);
+	}
+
+	@Override
+	public int getDistance (int from, int to)
+	{
+		int route = Arrays.binarySearch(targets, offsets[from], offsets[from + 1], to);
+		return route < 0 ? -1 : distances[route];
+	}
+
+	@Override
+	public long getVersion ()
+	{
+		return version;
+	}
+
+	@Override
+	public long getMemoryFootprint ()
+	{
+		final int arrayHeader = 16;
+		long res = 3 * arrayHeader + 4L * (offsets.length + targets.length + distances.length);
+		if (cities != null) {
+			res += arrayHeader + 4L * cities.length;
+		}
+		return res + getSnapshotCitiesFootprint() + getReverseIndexFootprint();
+	}
+
+}
@@ -0,0 +1,186 @@
+package nom.danielmarreco.train;
+
+import java.util.Arrays;
+
+/**
+ * Dijkstra's algorithm run from both ends of a route at once: forward from the source over the routes of a {@link CompactWorld},
+ * and backward from the destination over it's {@link ReverseIndex}, always advancing the search with the smaller frontier.
+ * <br/>
+ * Every time a city is reached by one search, it's distance from the other is checked, keeping the best route through
+ * any city reached by both. The searches stop once the closest cities left in their frontiers add up to no less than that route,
+ * having each covered about half the distance: on long routes, far fewer cities than a single search up to the destination.
+ */
+final class BidirectionalDijkstra implements PointToPointSearch {
+
+	private final CompactWorld graph;
+
+	private final ReverseIndex reverse;
+
+	/**
+	 * The distance from source of each city, indexed by id
+	 */
+	private final int[] forward;
+
+	/**
+	 * The distance to destination of each city, indexed by id
+	 */
+	private final int[] backward;
+
+	/**
+	 * The previous city in the shortest known route from source to each city, indexed by id; -1 if none
+	 */
+	private final int[] previous;
+
+	/**
+	 * The next city in the shortest known route from each city to destination, indexed by id; -1 if none
+	 */
+	private final int[] next;
+
+	private final IndexedMinHeap forwardHeap;
+
+	private final IndexedMinHeap backwardHeap;
+
+	/**
+	 * The city where the searches met on the best route found so far, or -1
+	 */
+	private int meeting = -1;
+
+	/**
+	 * The distance of the best route found so far
+	 */
+	private int best = Dijkstra.UNREACHABLE;
+
+	private int settled;
+
+	private long relaxed;
+
+	/**
+	 * @param graph The snapshot to be searched
+	 */
+	BidirectionalDijkstra (CompactWorld graph)
+	{
+		int cityCount = graph.getCityCount();
+		this.graph = graph;
+		this.reverse = graph.getReverseIndex();
+		this.forward = new int[cityCount];
+		this.backward = new int[cityCount];
+		this.previous = new int[cityCount];
+		this.next = new int[cityCount];
+		this.forwardHeap = new IndexedMinHeap(cityCount);
+		this.backwardHeap = new IndexedMinHeap(cityCount);
+		Arrays.fill(forward, Dijkstra.UNREACHABLE);
+		Arrays.fill(backward, Dijkstra.UNREACHABLE);
+		Arrays.fill(previous, -1);
+		Arrays.fill(next, -1);
+	}
+
+	@Override
+	public boolean run (int source, int dest)
+	{
+		forward[source] = 0;
+		backward[dest] = 0;
+		if (source == dest) {
+			meeting = source;
+			best = 0;
+			return true;
+		}
+		forwardHeap.offer(source, 0);
+		backwardHeap.offer(dest, 0);
+		while (!forwardHeap.isEmpty() && !backwardHeap.isEmpty()
+				&& (long) forwardHeap.peekKey() + backwardHeap.peekKey() < best) {
+			if (forwardHeap.size() <= backwardHeap.size()) {
+				int city = forwardHeap.poll();
+				settled++;
+				int distance = forward[city];
+				relaxed += graph.getRoutesEnd(city) - graph.getRoutesStart(city);
+				for (int r = graph.getRoutesStart(city), end = graph.getRoutesEnd(city); r < end; r++) {
+					int neighbor = graph.getRouteTarget(r);
+					int newPossibleDistance = distance + graph.getRouteDistance(r);
+					if (newPossibleDistance < forward[neighbor]) {
+						forward[neighbor] = newPossibleDistance;
+						previous[neighbor] = city;
+						forwardHeap.offer(neighbor, newPossibleDistance);
+						meet(neighbor);
+					}
+				}
+			}
+			else {
+				int city = backwardHeap.poll();
+				settled++;
+				int distance = backward[city];
+				relaxed += reverse.getRoutesEnd(city) - reverse.getRoutesStart(city);
+				for (int r = reverse.getRoutesStart(city), end = reverse.getRoutesEnd(city); r < end; r++) {
+					int neighbor = reverse.getRouteSource(r);
+					int newPossibleDistance = distance + reverse.getRouteDistance(r);
+					if (newPossibleDistance < backward[neighbor]) {
+						backward[neighbor] = newPossibleDistance;
+						next[neighbor] = city;
+						backwardHeap.offer(neighbor, newPossibleDistance);
+						meet(neighbor);
+					}
+				}
+			}
+		}
+		return meeting >= 0;
+	}
+
+	/**
+	 * Keeps the route through the given city, if it was reached by both searches and it is the best so far
+	 */
+	private void meet (int city)
+	{
+		if (forward[city] != Dijkstra.UNREACHABLE && backward[city] != Dijkstra.UNREACHABLE) {
+			long distance = (long) forward[city] + backward[city];
+			if (distance < best) {
+				best = (int) distance;
+				meeting = city;
+			}
+		}
+	}
+
+	@Override
+	public int getDistance ()
+	{
+		return best;
+	}
+
+	@Override
+	public Route getRoute ()
+	{
+		int forward = 0, length = 0;
+		for (int city = meeting; city >= 0; city = previous[city]) {
+			forward++;
+		}
+		for (int city = next[meeting]; city >= 0; city = next[city]) {
+			length++;
+		}
+		int[] ids = new int[forward + length];
+		for (int city = meeting, i = forward; city >= 0; city = previous[city]) {
+			ids[--i] = city;
+		}
+		length = forward;
+		for (int city = next[meeting]; city >= 0; city = next[city]) {
+			ids[length++] = city;
+		}
+		return new Route(graph, ids, length, best);
+	}
+
+	@Override
+	public int getSettledCount ()
+	{
+		return settled;
+	}
+
+	@Override
+	public long getRelaxedCount ()
+	{
+		return relaxed;
+	}
+
+	@Override
+	public int getPeakFrontier ()
+	{
+		return forwardHeap.getPeakSize() + backwardHeap.getPeakSize();
+	}
+
+}
@@ -0,0 +1,102 @@
+package nom.danielmarreco.train;
+
+/**
+ * A point in time copy of the counters of one of the caches kept by a {@link TravelGuide}
+ * 
+ * @see TravelGuide#getShortestPathCacheStatistics()
+ * @see TravelGuide#getRouteCacheStatistics()
+ */
+public final class CacheStatistics {
+
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final long invalidations;
+	private final long repairs;
+	private final int size;
+	private final long memory;
+
+	CacheStatistics (long hits, long misses, long evictions, long invalidations, long repairs, int size, long memory)
+	{
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.invalidations = invalidations;
+		this.repairs = repairs;
+		this.size = size;
+		this.memory = memory;
+	}
+
+	/**
+	 * @return The number of queries answered from the cache
+	 */
+	public long getHits ()
+	{
+		return hits;
+	}
+
+	/**
+	 * @return The number of queries that had to be computed
+	 */
+	public long getMisses ()
+	{
+		return misses;
+	}
+
+	/**
+	 * @return The number of entries dropped to keep the cache within it's bounds
+	 */
+	public long getEvictions ()
+	{
+		return evictions;
+	}
+
+	/**
+	 * @return The number of entries dropped because the world changed
+	 */
+	public long getInvalidations ()
+	{
+		return invalidations;
+	}
+
+	/**
+	 * @return The number of entries updated in place after the world changed
+	 */
+	public long getRepairs ()
+	{
+		return repairs;
+	}
+
+	/**
+	 * @return The number of entries currently in the cache
+	 */
+	public int getSize ()
+	{
+		return size;
+	}
+
+	/**
+	 * @return The estimated number of bytes held by the entries currently in the cache
+	 */
+	public long getMemory ()
+	{
+		return memory;
+	}
+
+	/**
+	 * @return The ratio of queries answered from the cache, or 0 if there were none
+	 */
+	public double getHitRatio ()
+	{
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public String toString ()
+	{
+		return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+				+ ", invalidations=" + invalidations + ", repairs=" + repairs + ", size=" + size + ", memory=" + memory;
+	}
+
+}
@@ -1,6 +1,7 @@
 package nom.danielmarreco.train;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,6 +29,23 @@ public class City {
      * NOTE: it is assumed that there can be only one route from any city "X" to another city "Y".
      */
     private Map<City, Integer> adjacentCities = new HashMap<City, Integer> ();
+
+    /**
+     * The world this city belongs to, or null for a city created outside of a {@link World}
+     */
+    World world;
+
+    /**
+     * The dense index of this city in its {@link World}, used as the city id by {@link CompactWorld}
+     */
+    int id = -1;
+
+    /**
+     * The mapped snapshot this city was read from, until it's routes are loaded from it on first use
+     * 
+     * @see CompactWorld#open(java.nio.file.Path)
+     */
+    private volatile CompactWorld snapshot;
 	
     /**
      * Constructor
@@ -37,15 +55,81 @@ public class City {
 	{
 		this.name = name;
 	}
+
+	/**
+	 * Constructor of a city read from a snapshot
+	 * @param name The name of the city
+	 * @param snapshot The snapshot holding the routes of this city
+	 * @param id The id of this city in the snapshot
+	 */
+	City (String name, CompactWorld snapshot, int id)
+	{
+		this.name = name;
+		this.snapshot = snapshot;
+		this.id = id;
+	}
+
+	/**
+	 * @return The departing routes of this city, loaded from it's snapshot if needed
+	 */
+	private Map<City, Integer> routes ()
+	{
+		if (snapshot != null) {
+			loadRoutes();
+		}
+		return adjacentCities;
+	}
+
+	private synchronized void loadRoutes ()
+	{
+		CompactWorld snapshot = this.snapshot;
+		if (snapshot != null) {
+			for (int r = snapshot.getRoutesStart(id); r < snapshot.getRoutesEnd(id); r++) {
+				adjacentCities.put(snapshot.getCity(snapshot.getRouteTarget(r)), snapshot.getRouteDistance(r));
+			}
+			this.snapshot = null;
+		}
+	}
 	
 	/**
 	 * Adds a leaving Route to this city
 	 * @param city
 	 * @param distance
+	 * @throws IllegalArgumentException If this city belongs to a world that has no city with the name of the given one
 	 */
 	public void addAdjacentCity (City city, Integer distance)
 	{
-		adjacentCities.put(city, distance);
+		if (world != null && world.getCity(city.getName()) == null) {
+			throw new IllegalArgumentException("Not a city of this world: " + city.getName());
+		}
+		Integer previousDistance = routes().put(city, distance);
+		if (world != null) {
+			world.routeChanged(this, city, previousDistance, distance);
+		}
+	}
+
+	/**
+	 * Adds a leaving route to this city without notifying it's world, see {@link WorldBuilder#addRoutes(City[], int[], int[], int[], int)}
+	 */
+	void putAdjacentCity (City city, int distance)
+	{
+		routes().put(city, distance);
+	}
+
+	/**
+	 * @return The name of this city
+	 */
+	public String getName ()
+	{
+		return name;
+	}
+
+	/**
+	 * @return A read-only view of all departing routes from this city, mapping the destination city to it's distance
+	 */
+	public Map<City, Integer> getAdjacentCitites ()
+	{
+		return Collections.unmodifiableMap(routes());
 	}
 
 
@@ -57,7 +141,7 @@ public class City {
 	 * @throws NoSuchRouteException If there is no direct route from this city to the adjacent
 	 */
 	public Integer getDistanceTo(City adjacentCity)  throws NoSuchRouteException {
-		Integer res = this.adjacentCities.get(adjacentCity);
+		Integer res = routes().get(adjacentCity);
 		if (res == null) {
 			throw new NoSuchRouteException("No route from " + this.name + " to " + adjacentCity.name);
 		}
@@ -65,6 +149,16 @@ public class City {
 	}
 
 
+	/**
+	 * Cities are only equal to themselves; their hash code is the one of their name, so that the hash code of a {@link Route}
+	 * can be computed from the names of it's cities
+	 */
+	@Override
+	public int hashCode ()
+	{
+		return name == null ? 0 : name.hashCode();
+	}
+
 	/**
 	 * TODO javadoc
 	 * @param route
@@ -72,10 +166,10 @@ public class City {
 	 */
 	public List<Route> addToRouteAsNeeded (Route route) {
 		List<Route> res = new ArrayList<Route>();
-		for (City city : route.getLast().adjacentCities.keySet()) {
+		for (City city : route.getLast().routes().keySet()) {
 			if (city.equals(this)) {
 				route.addLast(city);
-				res.add((Route)route.clone());
+				res.add(route.clone());
 				route.removeLast();
 				break;
 			}
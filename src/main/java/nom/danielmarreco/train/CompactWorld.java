@@ -0,0 +1,359 @@
+package nom.danielmarreco.train;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An immutable snapshot of a {@link World} in compressed sparse row (CSR) form.
+ * <br/>
+ * Cities are identified by dense int ids (0 to {@link #getCityCount()} - 1). The routes leaving city <i>c</i> are
+ * the indexes from {@link #getRoutesStart(int) getRoutesStart(c)} (inclusive) to {@link #getRoutesEnd(int) getRoutesEnd(c)}
+ * (exclusive) of two parallel arrays holding their destination and distance, sorted by destination.
+ * <br/>
+ * This keeps the whole graph in three int arrays, so searches over it neither chase pointers nor box distances.
+ * The arrays are either in the heap, for snapshots taken from a world, in a memory mapped snapshot file, see {@link #open(Path)},
+ * or in direct buffers owned by an {@link OffHeapArena}.
+ * 
+ * @see World#getCompactWorld()
+ * @see WorldBuilder#buildCompact()
+ */
+public abstract class CompactWorld {
+
+	/**
+	 * The routes indexed by the city they arrive at, built on first use
+	 */
+	private volatile ReverseIndex reverseIndex;
+
+	/**
+	 * The cities created so far by {@link #getSnapshotCity(int)}, by id: sized to the cities used, not to the snapshot
+	 */
+	private final ConcurrentHashMap<Integer, City> snapshotCities = new ConcurrentHashMap<Integer, City>();
+
+	/**
+	 * The bounds to the destinations of the last route enumerations, see {@link RouteBounds#of(CompactWorld, int, int, TravelGuide.RouteLimitStrategy)}
+	 */
+	private final AtomicReferenceArray<RouteBounds> routeBounds = new AtomicReferenceArray<RouteBounds>(RouteBounds.CACHE_SLOTS);
+
+	/**
+	 * The hash of the routes, computed on first use; 0 until then
+	 */
+	private volatile long routesFingerprint;
+
+	CompactWorld ()
+	{
+	}
+
+	/**
+	 * Takes a snapshot of the given world
+	 * 
+	 * @param world The world to be compacted
+	 * @return A CompactWorld with the same cities and routes of the given world
+	 */
+	static CompactWorld of (World world)
+	{
+		return ArrayCompactWorld.of(world);
+	}
+
+	/**
+	 * Opens a snapshot file written by {@link #write(Path)}, mapping it in memory.
+	 * <br/>
+	 * Nothing is read up front: queries run straight off the mapping, and processes opening the same file share
+	 * it's pages in the OS cache. {@link City} instances are only created for the cities returned in routes.
+	 * 
+	 * @param file The snapshot file
+	 * @return A CompactWorld backed by the file
+	 * @throws IOException If the file can not be read or is not a snapshot in a supported format
+	 */
+	public static CompactWorld open (Path file) throws IOException
+	{
+		return MappedCompactWorld.map(file);
+	}
+
+	/**
+	 * Writes this snapshot to a file, to be opened later by {@link #open(Path)}
+	 * 
+	 * @param file The file to be written, replaced if it exists
+	 * @throws IOException If the file can not be written
+	 */
+	public void write (Path file) throws IOException
+	{
+		MappedCompactWorld.write(this, file);
+	}
+
+	/**
+	 * @return The number of cities in this world
+	 */
+	public abstract int getCityCount ();
+
+	/**
+	 * @return The number of routes in this world
+	 */
+	public abstract int getRouteCount ();
+
+	/**
+	 * @param name The name of a city
+	 * @return The id of the city with the given name, or -1 if there is no such city
+	 */
+	public abstract int getId (String name);
+
+	/**
+	 * @param id A city id
+	 * @return The name of the city with the given id
+	 */
+	public abstract String getName (int id);
+
+	/**
+	 * @param id A city id
+	 * @return The {@link String#hashCode()} of the name of the city with the given id; snapshots held outside the heap
+	 * 	keep it, so it is found without decoding the name
+	 */
+	int getNameHash (int id)
+	{
+		return getName(id).hashCode();
+	}
+
+	/**
+	 * @param id A city id
+	 * @return The {@link City} with the given id
+	 */
+	public abstract City getCity (int id);
+
+	/**
+	 * @param ids The ids of the cities in the route
+	 * @param length The number of cities in the route
+	 * @return A {@link Route} visiting the first <code>length</code> cities of ids
+	 */
+	Route getRoute (int[] ids, int length)
+	{
+		return getRoute(ids, length, -1);
+	}
+
+	/**
+	 * @param ids The ids of the cities in the route
+	 * @param length The number of cities in the route
+	 * @param distance The total distance of the route, or -1 if not known
+	 * @return A {@link Route} visiting the first <code>length</code> cities of ids, backed by a copy of them
+	 */
+	Route getRoute (int[] ids, int length, int distance)
+	{
+		return new Route(this, Arrays.copyOf(ids, length), length, distance);
+	}
+
+	/**
+	 * @param previous The previous city in the shortest route from a source to each city, indexed by id; -1 for the source
+	 * @param dest The id of a city reached from the source
+	 * @param distance The distance of the shortest route to dest
+	 * @return The shortest route from the source to dest, built in O(route length)
+	 */
+	Route getShortestRoute (int[] previous, int dest, int distance)
+	{
+		int length = 0;
+		for (int city = dest; city >= 0; city = previous[city]) {
+			length++;
+		}
+		int[] ids = new int[length];
+		for (int city = dest; city >= 0; city = previous[city]) {
+			ids[--length] = city;
+		}
+		return new Route(this, ids, ids.length, distance);
+	}
+
+	/**
+	 * Gets a city backed by this snapshot, for snapshots not taken from a {@link World}: the city is created on first use,
+	 * and it's routes are only loaded from this snapshot when asked for
+	 * 
+	 * @param id A city id
+	 * @return The {@link City} with the given id, the same instance on every call
+	 */
+	City getSnapshotCity (int id)
+	{
+		Integer key = id;
+		City res = snapshotCities.get(key);
+		if (res == null) {
+			// cities racing to be created are the same, so the first one in wins
+			City created = new City(getName(id), this, id);
+			res = snapshotCities.putIfAbsent(key, created);
+			if (res == null) {
+				res = created;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return The heap used by the cities created by {@link #getSnapshotCity(int)}, or 0 if none was
+	 */
+	long getSnapshotCitiesFootprint ()
+	{
+		final int mapObject = 64, arrayHeader = 16, node = 32, integer = 16, cityObject = 24, hashMapObject = 48;
+		long size = snapshotCities.size();
+		if (size == 0) {
+			return 0;
+		}
+		// the table is kept between 3/8 and 3/4 full
+		long table = Long.highestOneBit(size * 4 / 3) * 2;
+		return mapObject + arrayHeader + 4 * table + size * (node + integer + cityObject + hashMapObject);
+	}
+
+	/**
+	 * @param id A city id
+	 * @return The index of the first route leaving the given city
+	 */
+	public abstract int getRoutesStart (int id);
+
+	/**
+	 * @param id A city id
+	 * @return The index following the last route leaving the given city
+	 */
+	public abstract int getRoutesEnd (int id);
+
+	/**
+	 * @param route A route index
+	 * @return The id of the city the given route arrives at
+	 */
+	public abstract int getRouteTarget (int route);
+
+	/**
+	 * @param route A route index
+	 * @return The distance of the given route
+	 */
+	public abstract int getRouteDistance (int route);
+
+	/**
+	 * Copies a range of routes into arrays
+	 * 
+	 * @param start The index of the first route to be copied
+	 * @param targets Receives the id of the city each route arrives at
+	 * @param distances Receives the distance of each route
+	 * @param offset The index in the arrays of the first route copied
+	 * @param count The number of routes to be copied
+	 */
+	void copyRoutes (int start, int[] targets, int[] distances, int offset, int count)
+	{
+		for (int i = 0; i < count; i++) {
+			targets[offset + i] = getRouteTarget(start + i);
+			distances[offset + i] = getRouteDistance(start + i);
+		}
+	}
+
+	/**
+	 * Gets the distance of the direct route between two cities
+	 * 
+	 * @param from The id of the departure city
+	 * @param to The id of the arrival city
+	 * @return The distance of the route, or -1 if there is no direct route between the two cities
+	 */
+	public int getDistance (int from, int to)
+	{
+		int low = getRoutesStart(from), high = getRoutesEnd(from) - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int target = getRouteTarget(middle);
+			if (target < to) {
+				low = middle + 1;
+			}
+			else if (target > to) {
+				high = middle - 1;
+			}
+			else {
+				return getRouteDistance(middle);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the routes arriving at each city, for searches walking routes backwards. The index is built the first time
+	 * it is needed, in O(cities + routes), and takes about as much memory as the routes themselves: in the heap, or outside
+	 * of it for the snapshots of an {@link OffHeapArena}.
+	 * 
+	 * @return The reverse adjacency of this snapshot
+	 */
+	ReverseIndex getReverseIndex ()
+	{
+		ReverseIndex res = reverseIndex;
+		if (res == null) {
+			synchronized (this) {
+				if ((res = reverseIndex) == null) {
+					res = reverseIndex = ReverseIndex.of(this);
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return The heap used by the reverse index, or 0 if it was never built
+	 */
+	long getReverseIndexFootprint ()
+	{
+		ReverseIndex index = reverseIndex;
+		return index == null ? 0 : index.getMemoryFootprint();
+	}
+
+	/**
+	 * @return The version of the {@link World} this snapshot was taken from
+	 * @see World#getVersion()
+	 */
+	public abstract long getVersion ();
+
+	/**
+	 * @return The bounds kept by this snapshot, by destination and kind of limit
+	 */
+	AtomicReferenceArray<RouteBounds> getRouteBoundsCache ()
+	{
+		return routeBounds;
+	}
+
+	/**
+	 * Hashes the routes of this snapshot: the number of routes leaving each city, and the destination and distance of each,
+	 * so structures built for a snapshot, as a {@link ContractionHierarchy}, can tell another one apart even at the same
+	 * version and number of cities. Computed in one pass over the routes on first use.
+	 * 
+	 * @return A 64 bits FNV-1a hash of the routes, never 0
+	 */
+	long getRoutesFingerprint ()
+	{
+		long res = routesFingerprint;
+		if (res == 0) {
+			res = 0xCBF29CE484222325L;
+			for (int city = 0, cityCount = getCityCount(); city < cityCount; city++) {
+				int start = getRoutesStart(city), end = getRoutesEnd(city);
+				res = fingerprint(res, end - start);
+				for (int r = start; r < end; r++) {
+					res = fingerprint(fingerprint(res, getRouteTarget(r)), getRouteDistance(r));
+				}
+			}
+			if (res == 0) {
+				res = 1;
+			}
+			routesFingerprint = res;
+		}
+		return res;
+	}
+
+	private static long fingerprint (long hash, int value)
+	{
+		for (int shift = 0; shift < 32; shift += 8) {
+			hash = (hash ^ ((value >>> shift) & 0xFF)) * 0x100000001B3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Computes the heap used by this snapshot: the CSR arrays and the id array, excluding the {@link SymbolTable}
+	 * and {@link City} instances (shared with the source {@link World}). Mapped, off-heap and detached snapshots count the cities
+	 * they created so far instead, and mapped and off-heap ones only their buffer objects besides, as their arrays are not
+	 * in the heap. All count the reverse index, once built.
+	 * <br/>
+	 * Figures assume a 64 bits HotSpot VM with compressed references.
+	 * 
+	 * @return The size of this snapshot, in bytes
+	 * @see World#getMemoryFootprint()
+	 */
+	public abstract long getMemoryFootprint ();
+
+}
@@ -0,0 +1,289 @@
+package nom.danielmarreco.train;
+
+import java.util.Arrays;
+
+import nom.danielmarreco.train.exception.InvalidArgumentException;
+
+/**
+ * A world shared by threads querying it and threads changing it.
+ * <br/>
+ * The world is a sequence of immutable {@link CompactWorld} versions. Readers get the current one with a single volatile read,
+ * without taking any lock, and may keep using it for as long as they like: it never changes under them. Writers gather new routes
+ * and distance changes in an {@link Update}, and {@link #apply(Update) apply} it to make the next version, which is published
+ * atomically: readers see either none or all of an update.
+ * <br/>
+ * Versions are copied on write: applying an update copies the routes of the current version, merging in the changed ones, in
+ * O(cities + routes) whatever the size of the update, so changes arriving one by one should be batched. Updates are applied one
+ * at a time; readers are never blocked by them.
+ * <br/>
+ * Versions are detached from any {@link World}: their {@link City} instances are created as they are returned in routes, and are
+ * only valid for their version.
+ * 
+ * @see TravelGuide#TravelGuide(ConcurrentWorld)
+ */
+public final class ConcurrentWorld {
+
+	/**
+	 * The current version
+	 */
+	private volatile CompactWorld current;
+
+	/**
+	 * The names of the cities of the current version; copied before any new name is interned, as older versions may be using it
+	 */
+	private SymbolTable symbols;
+
+	/**
+	 * Creates an empty world
+	 */
+	public ConcurrentWorld ()
+	{
+		this(new World());
+	}
+
+	/**
+	 * Creates a world with the cities and routes of the given one, at the same version. Later changes to the given world are not seen.
+	 * 
+	 * @param world The initial state of the world
+	 */
+	public ConcurrentWorld (World world)
+	{
+		CompactWorld snapshot = world.getCompactWorld();
+		symbols = world.getSymbolTable().copy();
+		current = detach(snapshot, symbols);
+	}
+
+	/**
+	 * Creates a world starting at the given snapshot, usually {@link CompactWorld#open(java.nio.file.Path) mapped} from a file
+	 * 
+	 * @param snapshot The initial version of the world
+	 */
+	public ConcurrentWorld (CompactWorld snapshot)
+	{
+		symbols = new SymbolTable();
+		for (int id = 0; id < snapshot.getCityCount(); id++) {
+			symbols.intern(snapshot.getName(id));
+		}
+		if (snapshot instanceof ArrayCompactWorld && ((ArrayCompactWorld) snapshot).isDetached()) {
+			current = snapshot;
+		}
+		else if (snapshot instanceof ArrayCompactWorld) {
+			// the cities of a snapshot taken from a world change along with it
+			current = detach(snapshot, symbols);
+		}
+		else {
+			current = snapshot;
+		}
+	}
+
+	/**
+	 * @return A copy of the given snapshot, with cities of it's own
+	 */
+	private static CompactWorld detach (CompactWorld snapshot, SymbolTable symbols)
+	{
+		int cityCount = snapshot.getCityCount();
+		int routeCount = snapshot.getRouteCount();
+		int[] offsets = new int[cityCount + 1];
+		for (int id = 0; id < cityCount; id++) {
+			offsets[id] = snapshot.getRoutesStart(id);
+		}
+		offsets[cityCount] = routeCount;
+		int[] targets = new int[routeCount];
+		int[] distances = new int[routeCount];
+		snapshot.copyRoutes(0, targets, distances, 0, routeCount);
+		return ArrayCompactWorld.detached(symbols, cityCount, offsets, targets, distances, snapshot.getVersion());
+	}
+
+	/**
+	 * @return The current version of this world, which never changes
+	 */
+	public CompactWorld getSnapshot ()
+	{
+		return current;
+	}
+
+	/**
+	 * @return The number of the current version, increased by each update applied
+	 */
+	public long getVersion ()
+	{
+		return current.getVersion();
+	}
+
+	/**
+	 * Makes the next version of this world: the current one with the routes of the update added, or their distances changed
+	 * if they already exist, and publishes it. Cities are added as needed.
+	 * 
+	 * @param update The changes, which may be applied again to this or other worlds
+	 * @return The version published
+	 */
+	public synchronized CompactWorld apply (Update update)
+	{
+		CompactWorld base = current;
+		int baseCityCount = base.getCityCount();
+		int count = update.size;
+
+		// resolves the names, interning new ones in a copy of the table
+		SymbolTable table = symbols;
+		int[] from = new int[count], to = new int[count];
+		for (int i = 0; i < count; i++) {
+			from[i] = table.getId(update.from[i]);
+			to[i] = table.getId(update.to[i]);
+			if (from[i] < 0 || to[i] < 0) {
+				if (table == symbols) {
+					table = symbols.copy();
+				}
+				from[i] = table.intern(update.from[i]);
+				to[i] = table.intern(update.to[i]);
+			}
+		}
+		int cityCount = table.size();
+
+		/*
+		 * groups the changes by departure city with a counting sort, then sorts each group by arrival city,
+		 * packing (arrival, index in the update) in longs; only the last change of each route is kept
+		 */
+		int[] groupStarts = new int[cityCount + 1];
+		for (int i = 0; i < count; i++) {
+			groupStarts[from[i] + 1]++;
+		}
+		for (int city = 0; city < cityCount; city++) {
+			groupStarts[city + 1] += groupStarts[city];
+		}
+		int[] groupEnds = Arrays.copyOf(groupStarts, cityCount);
+		long[] changes = new long[count];
+		for (int i = 0; i < count; i++) {
+			changes[groupEnds[from[i]]++] = ((long) to[i] << 32) | i;
+		}
+		int added = 0;
+		for (int city = 0; city < cityCount; city++) {
+			int start = groupStarts[city], end = groupStarts[city + 1];
+			if (start == end) {
+				continue;
+			}
+			Arrays.sort(changes, start, end);
+			int last = start;
+			for (int i = start + 1; i < end; i++) {
+				if ((int) (changes[i] >>> 32) != (int) (changes[last] >>> 32)) {
+					last++;
+				}
+				changes[last] = changes[i];
+			}
+			groupEnds[city] = last + 1;
+			for (int i = start; i <= last; i++) {
+				if (city >= baseCityCount || base.getDistance(city, (int) (changes[i] >>> 32)) < 0) {
+					added++;
+				}
+			}
+		}
+
+		// copies the routes of the cities not changed in runs, and merges the changed ones
+		int[] offsets = new int[cityCount + 1];
+		int[] targets = new int[base.getRouteCount() + added];
+		int[] distances = new int[targets.length];
+		int position = 0;
+		for (int city = 0; city < cityCount; ) {
+			if (city < baseCityCount && groupStarts[city] == groupEnds[city]) {
+				int runEnd = city + 1;
+				while (runEnd < baseCityCount && groupStarts[runEnd] == groupEnds[runEnd]) {
+					runEnd++;
+				}
+				int start = base.getRoutesStart(city), end = base.getRoutesEnd(runEnd - 1);
+				base.copyRoutes(start, targets, distances, position, end - start);
+				for (; city < runEnd; city++) {
+					offsets[city] = base.getRoutesStart(city) - start + position;
+				}
+				position += end - start;
+				continue;
+			}
+			offsets[city] = position;
+			int r = city < baseCityCount ? base.getRoutesStart(city) : 0;
+			int routesEnd = city < baseCityCount ? base.getRoutesEnd(city) : 0;
+			for (int i = groupStarts[city]; i < groupEnds[city]; i++) {
+				int target = (int) (changes[i] >>> 32);
+				for (; r < routesEnd && base.getRouteTarget(r) < target; r++, position++) {
+					targets[position] = base.getRouteTarget(r);
+					distances[position] = base.getRouteDistance(r);
+				}
+				if (r < routesEnd && base.getRouteTarget(r) == target) {
+					r++;
+				}
+				targets[position] = target;
+				distances[position++] = update.distances[(int) changes[i]];
+			}
+			for (; r < routesEnd; r++, position++) {
+				targets[position] = base.getRouteTarget(r);
+				distances[position] = base.getRouteDistance(r);
+			}
+			city++;
+		}
+		offsets[cityCount] = position;
+
+		symbols = table;
+		CompactWorld next = ArrayCompactWorld.detached(table, cityCount, offsets, targets, distances, base.getVersion() + 1);
+		current = next;
+		return next;
+	}
+
+	/**
+	 * A batch of changes to be applied to a {@link ConcurrentWorld}: new routes, and new distances for existing ones.
+	 * When the same route is given more than once, the last distance wins.
+	 * <br/>
+	 * An update is meant to be filled by a single thread.
+	 */
+	public static final class Update {
+
+		private String[] from = new String[16];
+
+		private String[] to = new String[16];
+
+		private int[] distances = new int[16];
+
+		private int size;
+
+		/**
+		 * Adds a route to this update, or changes it's distance if the route already exists in the world
+		 * 
+		 * @param cityFromName The name of the city the route departs from
+		 * @param cityToName The name of the city the route arrives at
+		 * @param distance The distance of the route
+		 * @return This update
+		 */
+		public Update addRoute (String cityFromName, String cityToName, int distance)
+		{
+			if (size == from.length) {
+				from = Arrays.copyOf(from, size * 2);
+				to = Arrays.copyOf(to, size * 2);
+				distances = Arrays.copyOf(distances, size * 2);
+			}
+			from[size] = cityFromName;
+			to[size] = cityToName;
+			distances[size++] = distance;
+			return this;
+		}
+
+		/**
+		 * Adds a route to this update, or changes it's distance if the route already exists in the world
+		 * 
+		 * @param arg A route in any of the formats of {@link WorldBuilder#addRoute(String)}, as "AB5"
+		 * @return This update
+		 * @throws InvalidArgumentException If the argument is not a route
+		 */
+		public Update addRoute (String arg) throws InvalidArgumentException
+		{
+			String[] names = new String[2];
+			int distance = WorldBuilder.parseRoute(arg, names);
+			return addRoute(names[0], names[1], distance);
+		}
+
+		/**
+		 * @return The number of changes in this update
+		 */
+		public int size ()
+		{
+			return size;
+		}
+
+	}
+
+}
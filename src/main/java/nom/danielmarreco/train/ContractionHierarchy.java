@@ -0,0 +1,721 @@
+package nom.danielmarreco.train;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A contraction hierarchy of a {@link CompactWorld}: every city is given a rank of importance, and shortcut routes are added
+ * so that every shortest route climbs to it's most important city and then descends, never the other way around.
+ * <br/>
+ * A query is then two tiny Dijkstra searches, one upward from the source and one backward, also upward, from the destination,
+ * which meet at the most important city of the shortest route. They settle a small fraction of the cities a plain Dijkstra settles,
+ * a fraction that shrinks as the world grows. Each shortcut records the city it bypasses, so routes are unpacked back
+ * into the routes of the world.
+ * <br/>
+ * Building the hierarchy is an offline step, see {@link HierarchyBuilder}; once built, it may be written to a file and read back
+ * by other processes. Queries are thread safe: each thread keeps it's own search state, reset in time proportional to the
+ * cities it touched.
+ * 
+ * @see TravelGuide#precomputeContractionHierarchy()
+ */
+public final class ContractionHierarchy {
+
+	/**
+	 * The distance between cities with no route between them
+	 */
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	/**
+	 * "TRNC", the first bytes of every hierarchy file
+	 */
+	static final int MAGIC = 0x434E5254;
+
+	/**
+	 * The version of the file format written, to be increased on any incompatible change
+	 */
+	static final int FORMAT_VERSION = 2;
+
+	static final int HEADER_SIZE = 48;
+
+	private final int cityCount;
+
+	/**
+	 * The order in which each city was contracted: the higher, the more important
+	 */
+	private final int[] ranks;
+
+	/*
+	 * the upward routes in CSR form, grouped by their departure city: the arrival city, the distance and the city bypassed
+	 * (-1 for routes of the world)
+	 */
+	private final int[] upOffsets, upTargets, upDistances, upMiddles;
+
+	/*
+	 * the downward routes in CSR form, grouped by their arrival city: the departure city, the distance and the city bypassed
+	 */
+	private final int[] downOffsets, downSources, downDistances, downMiddles;
+
+	private final int shortcutCount;
+
+	private final long precomputeNanos;
+
+	private final long version;
+
+	/**
+	 * The {@link CompactWorld#getRoutesFingerprint() fingerprint} of the routes of the world this hierarchy was built for
+	 */
+	private final long routesFingerprint;
+
+	private final ThreadLocal<Query> queries = new ThreadLocal<Query>() {
+		@Override
+		protected Query initialValue ()
+		{
+			return new Query();
+		}
+	};
+
+	ContractionHierarchy (CompactWorld graph, int[] ranks, int[][] up, int[][] down, int shortcutCount, long precomputeNanos)
+	{
+		this(graph.getCityCount(), ranks, up, down, shortcutCount, precomputeNanos, graph.getVersion(), graph.getRoutesFingerprint());
+	}
+
+	private ContractionHierarchy (int cityCount, int[] ranks, int[][] up, int[][] down, int shortcutCount, long precomputeNanos, long version,
+			long routesFingerprint)
+	{
+		this.cityCount = cityCount;
+		this.ranks = ranks;
+		this.upOffsets = up[0];
+		this.upTargets = up[1];
+		this.upDistances = up[2];
+		this.upMiddles = up[3];
+		this.downOffsets = down[0];
+		this.downSources = down[1];
+		this.downDistances = down[2];
+		this.downMiddles = down[3];
+		this.shortcutCount = shortcutCount;
+		this.precomputeNanos = precomputeNanos;
+		this.version = version;
+		this.routesFingerprint = routesFingerprint;
+	}
+
+	/**
+	 * Builds the hierarchy of a snapshot. Takes O(cities) memory besides the hierarchy itself, and time growing with the number
+	 * of shortcuts needed: seconds for road-like worlds of a hundred thousand cities, much longer for dense or scale-free ones.
+	 * 
+	 * @param graph The snapshot
+	 * @return The contraction hierarchy of the given snapshot
+	 */
+	public static ContractionHierarchy build (CompactWorld graph)
+	{
+		long start = System.nanoTime();
+		return new HierarchyBuilder(graph).build(graph, start);
+	}
+
+	/**
+	 * Reads a hierarchy written by {@link #write(Path)}, checking it was built for the given snapshot
+	 * 
+	 * @param file The hierarchy file
+	 * @param graph The snapshot the hierarchy is to be used with
+	 * @return The hierarchy read
+	 * @throws IOException If the file can not be read or is not a hierarchy in a supported format
+	 * @throws IllegalArgumentException If the hierarchy was built for another world, or another version of the world
+	 */
+	public static ContractionHierarchy read (Path file, CompactWorld graph) throws IOException
+	{
+		ContractionHierarchy hierarchy = read(file);
+		hierarchy.checkBuiltFor(graph);
+		return hierarchy;
+	}
+
+	/**
+	 * Reads a hierarchy written by {@link #write(Path)}; whether it fits a world is checked when it is used, see
+	 * {@link TravelGuide#useContractionHierarchy(ContractionHierarchy)}
+	 * 
+	 * @param file The hierarchy file
+	 * @return The hierarchy read
+	 * @throws IOException If the file can not be read or is not a hierarchy in a supported format
+	 */
+	public static ContractionHierarchy read (Path file) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Not a contraction hierarchy: " + file);
+			}
+			ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt(0) != MAGIC) {
+				throw new IOException("Not a contraction hierarchy: " + file);
+			}
+			if (buffer.getInt(4) != FORMAT_VERSION) {
+				throw new IOException("Unsupported contraction hierarchy format version " + buffer.getInt(4) + ": " + file);
+			}
+			int cityCount = buffer.getInt(8);
+			int upCount = buffer.getInt(12);
+			int downCount = buffer.getInt(16);
+			int shortcutCount = buffer.getInt(20);
+			long version = buffer.getLong(24);
+			long precomputeNanos = buffer.getLong(32);
+			long routesFingerprint = buffer.getLong(40);
+			if (cityCount < 0 || upCount < 0 || downCount < 0
+					|| channel.size() != HEADER_SIZE + 4L * (3L * cityCount + 2 + 3L * upCount + 3L * downCount)) {
+				throw new IOException("Corrupt contraction hierarchy: " + file);
+			}
+
+			buffer.position(HEADER_SIZE);
+			IntBuffer ints = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			int[] ranks = readInts(ints, cityCount);
+			int[][] up = {readInts(ints, cityCount + 1), readInts(ints, upCount), readInts(ints, upCount), readInts(ints, upCount)};
+			int[][] down = {readInts(ints, cityCount + 1), readInts(ints, downCount), readInts(ints, downCount), readInts(ints, downCount)};
+			if (up[0][cityCount] != upCount || down[0][cityCount] != downCount) {
+				throw new IOException("Corrupt contraction hierarchy: " + file);
+			}
+			return new ContractionHierarchy(cityCount, ranks, up, down, shortcutCount, precomputeNanos, version, routesFingerprint);
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	private static int[] readInts (IntBuffer ints, int count)
+	{
+		int[] res = new int[count];
+		ints.get(res);
+		return res;
+	}
+
+	/**
+	 * Writes this hierarchy to a file, to be read later by {@link #read(Path)}.
+	 * <br/>
+	 * The file holds, in little endian order, a header followed by the ranks and the upward and downward routes, as int arrays.
+	 * The header is made of the magic number, the format version, the city count, the upward and downward route counts and the
+	 * shortcut count (ints), then the world version, the preprocessing time and the fingerprint of the routes of the world (longs).
+	 * 
+	 * @param file The file to be written, replaced if it exists
+	 * @throws IOException If the file can not be written
+	 */
+	public void write (Path file) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(cityCount).putInt(upTargets.length).putInt(downSources.length).putInt(shortcutCount);
+			buffer.putLong(version).putLong(precomputeNanos).putLong(routesFingerprint);
+			for (int[] array : new int[][] {ranks, upOffsets, upTargets, upDistances, upMiddles, downOffsets, downSources, downDistances, downMiddles}) {
+				for (int value : array) {
+					if (buffer.remaining() < 4) {
+						flush(channel, buffer);
+					}
+					buffer.putInt(value);
+				}
+			}
+			flush(channel, buffer);
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	private static void flush (FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * @param source The id of the departure city
+	 * @param dest The id of the arrival city
+	 * @return The shortest distance between the two cities, or {@link #UNREACHABLE}
+	 */
+	public int getDistance (int source, int dest)
+	{
+		return queries.get().run(source, dest);
+	}
+
+	/**
+	 * Computes the shortest distances from many sources to many targets at once, with buckets: a backward upward search from
+	 * each target leaves the target and it's distance in a bucket at every city it settles, then an upward search from each
+	 * source scans the buckets of the cities it settles, as every shortest route meets it's target's search at it's most
+	 * important city. Each city is searched from once, instead of once per pair; the sources are searched in parallel.
+	 * 
+	 * @param sources The ids of the departure cities
+	 * @param targets The ids of the arrival cities
+	 * @param pool The pool running the searches from the sources
+	 * @return The shortest distance from each source to each target, as <code>table[source][target]</code>, or {@link #UNREACHABLE}
+	 */
+	public int[][] getDistances (int[] sources, int[] targets, ForkJoinPool pool)
+	{
+		return getDistances(sources, targets, pool, null);
+	}
+
+	/**
+	 * @param budget The limits of the searches, checked once per search, or null
+	 * @return The table, only partly filled if the budget is exceeded
+	 * @see #getDistances(int[], int[], ForkJoinPool)
+	 */
+	int[][] getDistances (final int[] sources, int[] targets, ForkJoinPool pool, final QueryBudget budget)
+	{
+		// the buckets in CSR form, grouped by city, gathered by a counting sort of the entries left by the backward searches
+		UpwardSearch search = new UpwardSearch();
+		final int[] bucketOffsets = new int[cityCount + 1];
+		int[] entryCities = new int[64], entryTargets = new int[64], entryDistances = new int[64];
+		int entryCount = 0;
+		for (int target = 0; target < targets.length; target++) {
+			int settled = search.run(targets[target], false);
+			if (budget != null && !budget.expand(settled)) {
+				return new int[sources.length][targets.length];
+			}
+			if (entryCount + settled > entryCities.length) {
+				int length = Math.max(entryCities.length * 2, entryCount + settled);
+				entryCities = Arrays.copyOf(entryCities, length);
+				entryTargets = Arrays.copyOf(entryTargets, length);
+				entryDistances = Arrays.copyOf(entryDistances, length);
+			}
+			for (int i = 0; i < settled; i++) {
+				entryCities[entryCount] = search.settled[i];
+				entryTargets[entryCount] = target;
+				entryDistances[entryCount++] = search.settledDistances[i];
+				bucketOffsets[search.settled[i] + 1]++;
+			}
+		}
+		for (int city = 0; city < cityCount; city++) {
+			bucketOffsets[city + 1] += bucketOffsets[city];
+		}
+		final int[] bucketTargets = new int[entryCount], bucketDistances = new int[entryCount];
+		int[] next = Arrays.copyOf(bucketOffsets, cityCount);
+		for (int i = 0; i < entryCount; i++) {
+			int slot = next[entryCities[i]]++;
+			bucketTargets[slot] = entryTargets[i];
+			bucketDistances[slot] = entryDistances[i];
+		}
+
+		final int[][] table = new int[sources.length][targets.length];
+		DistanceTable.invokeInChunks(pool, sources.length, new DistanceTable.Chunk() {
+			public void run (int from, int to)
+			{
+				UpwardSearch search = new UpwardSearch();
+				for (int source = from; source < to; source++) {
+					int[] row = table[source];
+					Arrays.fill(row, UNREACHABLE);
+					int settled = search.run(sources[source], true);
+					if (budget != null && !budget.expand(settled)) {
+						return;
+					}
+					for (int i = 0; i < settled; i++) {
+						int city = search.settled[i], distance = search.settledDistances[i];
+						for (int b = bucketOffsets[city]; b < bucketOffsets[city + 1]; b++) {
+							if (distance + bucketDistances[b] < row[bucketTargets[b]]) {
+								row[bucketTargets[b]] = distance + bucketDistances[b];
+							}
+						}
+					}
+				}
+			}
+		});
+		return table;
+	}
+
+	/**
+	 * @param graph The snapshot this hierarchy was built from, to look the cities up
+	 * @param source The id of the departure city
+	 * @param dest The id of the arrival city
+	 * @return The shortest route between the two cities, in routes of the world, or null if there is none
+	 */
+	Route getRoute (CompactWorld graph, int source, int dest)
+	{
+		Query query = queries.get();
+		int distance = query.run(source, dest);
+		if (distance == UNREACHABLE) {
+			return null;
+		}
+		return query.unpack(graph, source, dest, distance);
+	}
+
+	/**
+	 * @return The number of cities of this hierarchy
+	 */
+	public int getCityCount ()
+	{
+		return cityCount;
+	}
+
+	/**
+	 * @return The number of shortcuts added to the routes of the world
+	 */
+	public int getShortcutCount ()
+	{
+		return shortcutCount;
+	}
+
+	/**
+	 * @return How long it took to build this hierarchy, in nanoseconds
+	 */
+	public long getPrecomputeNanos ()
+	{
+		return precomputeNanos;
+	}
+
+	/**
+	 * Figures assume a 64 bits HotSpot VM with compressed references; the search state kept by each querying thread is not counted.
+	 * 
+	 * @return The heap used by this hierarchy, in bytes
+	 */
+	public long getMemoryFootprint ()
+	{
+		final int object = 64, arrayHeader = 16;
+		return object + 9 * arrayHeader + 4L * (ranks.length + upOffsets.length + downOffsets.length) + 12L * (upTargets.length + downSources.length);
+	}
+
+	/**
+	 * @return The version of the world this hierarchy was built for
+	 * @see CompactWorld#getVersion()
+	 */
+	public long getVersion ()
+	{
+		return version;
+	}
+
+	/**
+	 * @param graph A snapshot
+	 * @return If this hierarchy was built for the given snapshot: the same version, number of cities and routes
+	 */
+	boolean isBuiltFor (CompactWorld graph)
+	{
+		return version == graph.getVersion() && cityCount == graph.getCityCount() && routesFingerprint == graph.getRoutesFingerprint();
+	}
+
+	/**
+	 * @param graph A snapshot
+	 * @throws IllegalArgumentException If this hierarchy was not built for the given snapshot
+	 */
+	void checkBuiltFor (CompactWorld graph)
+	{
+		if (version != graph.getVersion() || cityCount != graph.getCityCount()) {
+			throw new IllegalArgumentException("Contraction hierarchy of version " + version + " with " + cityCount
+					+ " cities, not of version " + graph.getVersion() + " with " + graph.getCityCount());
+		}
+		if (routesFingerprint != graph.getRoutesFingerprint()) {
+			throw new IllegalArgumentException("Contraction hierarchy of other routes than the world's");
+		}
+	}
+
+	@Override
+	public String toString ()
+	{
+		return "Contraction hierarchy of " + cityCount + " cities, " + shortcutCount + " shortcuts: built in " + precomputeNanos / 1000000
+				+ " ms, " + getMemoryFootprint() / 1024 + " KB";
+	}
+
+	/**
+	 * @return The middle city of the route from a city to a less important one, or -1 if it is a route of the world
+	 */
+	private int getDownMiddle (int from, int to)
+	{
+		for (int r = downOffsets[to]; r < downOffsets[to + 1]; r++) {
+			if (downSources[r] == from) {
+				return downMiddles[r];
+			}
+		}
+		throw new IllegalStateException("No route from " + from + " to " + to);
+	}
+
+	/**
+	 * @return The middle city of the route from a city to a more important one, or -1 if it is a route of the world
+	 */
+	private int getUpMiddle (int from, int to)
+	{
+		for (int r = upOffsets[from]; r < upOffsets[from + 1]; r++) {
+			if (upTargets[r] == to) {
+				return upMiddles[r];
+			}
+		}
+		throw new IllegalStateException("No route from " + from + " to " + to);
+	}
+
+	/**
+	 * A single upward search over the whole hierarchy, stalling on demand as {@link Query} does, for {@link #getDistances(int[], int[], ForkJoinPool)}
+	 */
+	private final class UpwardSearch {
+
+		private final int[] distances;
+
+		private final IndexedMinHeap heap;
+
+		private final int[] touched;
+
+		private int touchedCount;
+
+		/**
+		 * The cities settled and not stalled by the last search, in order, and their distances
+		 */
+		final int[] settled, settledDistances;
+
+		UpwardSearch ()
+		{
+			distances = new int[cityCount];
+			heap = new IndexedMinHeap(cityCount);
+			touched = new int[cityCount];
+			settled = new int[cityCount];
+			settledDistances = new int[cityCount];
+			Arrays.fill(distances, UNREACHABLE);
+		}
+
+		/**
+		 * @param start The city the search starts from
+		 * @param forward If the search climbs the upward routes, or else the downward ones backwards
+		 * @return The number of cities settled and not stalled
+		 */
+		int run (int start, boolean forward)
+		{
+			int[] offsets = forward ? upOffsets : downOffsets;
+			int[] others = forward ? upTargets : downSources;
+			int[] routeDistances = forward ? upDistances : downDistances;
+			int[] stallOffsets = forward ? downOffsets : upOffsets;
+			int[] stallOthers = forward ? downSources : upTargets;
+			int[] stallDistances = forward ? downDistances : upDistances;
+
+			for (int i = 0; i < touchedCount; i++) {
+				distances[touched[i]] = UNREACHABLE;
+			}
+			touchedCount = 0;
+			distances[start] = 0;
+			touched[touchedCount++] = start;
+			heap.offer(start, 0);
+			int count = 0;
+			settle: while (!heap.isEmpty()) {
+				int city = heap.poll();
+				int distance = distances[city];
+				for (int r = stallOffsets[city]; r < stallOffsets[city + 1]; r++) {
+					int other = distances[stallOthers[r]];
+					if (other != UNREACHABLE && other + stallDistances[r] < distance) {
+						continue settle;
+					}
+				}
+				settled[count] = city;
+				settledDistances[count++] = distance;
+				for (int r = offsets[city]; r < offsets[city + 1]; r++) {
+					int other = others[r];
+					int newPossibleDistance = distance + routeDistances[r];
+					if (newPossibleDistance < distances[other]) {
+						if (distances[other] == UNREACHABLE) {
+							touched[touchedCount++] = other;
+						}
+						distances[other] = newPossibleDistance;
+						heap.offer(other, newPossibleDistance);
+					}
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * The state of the searches of one thread, reset after each query through the list of touched cities
+	 */
+	private final class Query {
+
+		private final int[] forwardDistances, backwardDistances;
+
+		/**
+		 * The previous city of the forward search and the next city of the backward one, and the middle city of the route
+		 * between them; -1 for none
+		 */
+		private final int[] forwardPrevious, backwardNext, forwardMiddles, backwardMiddles;
+
+		private final IndexedMinHeap forwardHeap, backwardHeap;
+
+		private final int[] touched;
+
+		private int touchedCount;
+
+		/**
+		 * The city where the shortest route found so far turns from climbing to descending
+		 */
+		private int meeting;
+
+		/**
+		 * The cities of the route being unpacked, and the routes still to be unpacked, as (from, to, middle) triples
+		 */
+		private int[] path = new int[64], stack = new int[96];
+
+		Query ()
+		{
+			forwardDistances = new int[cityCount];
+			backwardDistances = new int[cityCount];
+			forwardPrevious = new int[cityCount];
+			backwardNext = new int[cityCount];
+			forwardMiddles = new int[cityCount];
+			backwardMiddles = new int[cityCount];
+			forwardHeap = new IndexedMinHeap(cityCount);
+			backwardHeap = new IndexedMinHeap(cityCount);
+			touched = new int[cityCount];
+			Arrays.fill(forwardDistances, UNREACHABLE);
+			Arrays.fill(backwardDistances, UNREACHABLE);
+		}
+
+		/**
+		 * Runs both searches, alternating on the one with the closest city, until neither can improve the best route found
+		 * 
+		 * @return The shortest distance from source to dest
+		 */
+		int run (int source, int dest)
+		{
+			reset();
+			touch(source);
+			touch(dest);
+			forwardDistances[source] = 0;
+			forwardPrevious[source] = -1;
+			backwardDistances[dest] = 0;
+			backwardNext[dest] = -1;
+			forwardHeap.offer(source, 0);
+			backwardHeap.offer(dest, 0);
+			int best = source == dest ? 0 : UNREACHABLE;
+			meeting = source == dest ? source : -1;
+
+			while (true) {
+				int forwardTop = forwardHeap.isEmpty() ? UNREACHABLE : forwardHeap.peekKey();
+				int backwardTop = backwardHeap.isEmpty() ? UNREACHABLE : backwardHeap.peekKey();
+				if (Math.min(forwardTop, backwardTop) >= best) {
+					return best;
+				}
+				if (forwardTop <= backwardTop) {
+					best = settle(forwardHeap.poll(), best, forwardDistances, backwardDistances, forwardPrevious, forwardMiddles, forwardHeap,
+							upOffsets, upTargets, upDistances, upMiddles, downOffsets, downSources, downDistances);
+				}
+				else {
+					best = settle(backwardHeap.poll(), best, backwardDistances, forwardDistances, backwardNext, backwardMiddles, backwardHeap,
+							downOffsets, downSources, downDistances, downMiddles, upOffsets, upTargets, upDistances);
+				}
+			}
+		}
+
+		/**
+		 * Settles a city of one of the searches: checks if it is a better meeting point, then relaxes it's routes to more important
+		 * cities, unless a route from a more important city already reached it by a shorter distance (stall on demand):
+		 * then it is not on a shortest route, and neither are the cities it would reach.
+		 * 
+		 * @return The distance of the best route found so far
+		 */
+		private int settle (int city, int best, int[] distances, int[] otherDistances, int[] previous, int[] middles, IndexedMinHeap heap,
+				int[] offsets, int[] others, int[] routeDistances, int[] routeMiddles,
+				int[] stallOffsets, int[] stallOthers, int[] stallDistances)
+		{
+			int distance = distances[city];
+			if (otherDistances[city] != UNREACHABLE && distance + otherDistances[city] < best) {
+				best = distance + otherDistances[city];
+				meeting = city;
+			}
+			for (int r = stallOffsets[city]; r < stallOffsets[city + 1]; r++) {
+				int other = distances[stallOthers[r]];
+				if (other != UNREACHABLE && other + stallDistances[r] < distance) {
+					return best;
+				}
+			}
+			for (int r = offsets[city]; r < offsets[city + 1]; r++) {
+				int other = others[r];
+				int newPossibleDistance = distance + routeDistances[r];
+				if (newPossibleDistance < distances[other]) {
+					touch(other);
+					distances[other] = newPossibleDistance;
+					previous[other] = city;
+					middles[other] = routeMiddles[r];
+					heap.offer(other, newPossibleDistance);
+				}
+			}
+			return best;
+		}
+
+		private void touch (int city)
+		{
+			if (forwardDistances[city] == UNREACHABLE && backwardDistances[city] == UNREACHABLE) {
+				touched[touchedCount++] = city;
+			}
+		}
+
+		private void reset ()
+		{
+			for (int i = 0; i < touchedCount; i++) {
+				forwardDistances[touched[i]] = UNREACHABLE;
+				backwardDistances[touched[i]] = UNREACHABLE;
+			}
+			touchedCount = 0;
+			forwardHeap.clear();
+			backwardHeap.clear();
+		}
+
+		/**
+		 * Unpacks the route found by the last run: the upward routes from source to the meeting city, then the downward ones
+		 * to dest, replacing each shortcut by the two routes it bypasses until only routes of the world are left
+		 */
+		Route unpack (CompactWorld graph, int source, int dest, int distance)
+		{
+			int length = 0;
+			path[length++] = source;
+			// the upward routes are walked back from the meeting city, so the first one ends up on top of the stack
+			int top = 0;
+			for (int city = meeting; city != source; city = forwardPrevious[city]) {
+				top = push(top, forwardPrevious[city], city, forwardMiddles[city]);
+			}
+			length = unpack(top, length);
+			// the downward routes are walked forward, so they are pushed again in reverse order
+			top = 0;
+			for (int city = meeting; city != dest; city = backwardNext[city]) {
+				top = push(top, city, backwardNext[city], backwardMiddles[city]);
+			}
+			int[] downward = Arrays.copyOf(stack, top);
+			top = 0;
+			for (int i = downward.length - 3; i >= 0; i -= 3) {
+				top = push(top, downward[i], downward[i + 1], downward[i + 2]);
+			}
+			length = unpack(top, length);
+			return graph.getRoute(path, length, distance);
+		}
+
+		/**
+		 * Pops the routes on the stack, appending the arrival city of the routes of the world to the path
+		 * 
+		 * @return The length of the path
+		 */
+		private int unpack (int top, int length)
+		{
+			while (top > 0) {
+				int middle = stack[--top], to = stack[--top], from = stack[--top];
+				if (middle < 0) {
+					if (length == path.length) {
+						path = Arrays.copyOf(path, length * 2);
+					}
+					path[length++] = to;
+				}
+				else {
+					// the middle city is less important than both ends
+					top = push(top, middle, to, getUpMiddle(middle, to));
+					top = push(top, from, middle, getDownMiddle(from, middle));
+				}
+			}
+			return length;
+		}
+
+		private int push (int top, int from, int to, int middle)
+		{
+			if (top + 3 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			stack[top++] = from;
+			stack[top++] = to;
+			stack[top++] = middle;
+			return top;
+		}
+
+	}
+
+}
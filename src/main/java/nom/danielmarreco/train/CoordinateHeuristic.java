@@ -0,0 +1,77 @@
+package nom.danielmarreco.train;
+
+import java.util.Arrays;
+
+/**
+ * Estimates distances by the straight line between the coordinates of cities on a plane.
+ * <br/>
+ * The estimate is the straight line length times a scale, which must be no greater than the distance of any route
+ * per unit of straight line between it's cities (e.g. 1 if coordinates are in the unit of the distances and every
+ * route is at least as long as the straight line). Cities without coordinates are estimated at 0.
+ */
+public final class CoordinateHeuristic implements Heuristic {
+
+	private final double scale;
+
+	/**
+	 * The coordinates of each city, indexed by id; NaN for cities without coordinates
+	 */
+	private double[] x, y;
+
+	/**
+	 * @param scale The minimum distance per unit of straight line between the cities of any route
+	 */
+	public CoordinateHeuristic (double scale)
+	{
+		this.scale = scale;
+		this.x = new double[0];
+		this.y = new double[0];
+	}
+
+	/**
+	 * Sets the coordinates of a city
+	 * 
+	 * @param graph A snapshot of the world of the city
+	 * @param cityName The name of the city
+	 * @param x The horizontal coordinate of the city (e.g. the longitude, in a suitable projection)
+	 * @param y The vertical coordinate of the city
+	 * @return This heuristic
+	 * @throws IllegalArgumentException If there is no such city
+	 */
+	public CoordinateHeuristic setCoordinates (CompactWorld graph, String cityName, double x, double y)
+	{
+		int id = graph.getId(cityName);
+		if (id < 0) {
+			throw new IllegalArgumentException("No such city: " + cityName);
+		}
+		if (id >= this.x.length) {
+			int length = Math.max(id + 1, Math.max(graph.getCityCount(), this.x.length * 2));
+			this.x = grow(this.x, length);
+			this.y = grow(this.y, length);
+		}
+		this.x[id] = x;
+		this.y[id] = y;
+		return this;
+	}
+
+	private static double[] grow (double[] coordinates, int length)
+	{
+		int previousLength = coordinates.length;
+		double[] res = Arrays.copyOf(coordinates, length);
+		Arrays.fill(res, previousLength, length, Double.NaN);
+		return res;
+	}
+
+	@Override
+	public int getLowerBound (CompactWorld graph, int from, int to)
+	{
+		if (from >= x.length || to >= x.length) {
+			return 0;
+		}
+		double dx = x[from] - x[to], dy = y[from] - y[to];
+		double res = scale * Math.sqrt(dx * dx + dy * dy);
+		// NaN for cities without coordinates, which the cast turns into 0
+		return (int) Math.floor(res);
+	}
+
+}
@@ -0,0 +1,153 @@
+package nom.danielmarreco.train;
+
+import java.util.Arrays;
+
+/**
+ * Dijkstra's algorithm over the int ids of a {@link CompactWorld}, backed by an {@link IndexedMinHeap}
+ * and primitive distance and predecessor arrays; runs in O(E log V).
+ * <br/>
+ * A backward search walks the routes from their arrival to their departure city, finding the distances <i>to</i> the source.
+ */
+final class Dijkstra implements PointToPointSearch {
+
+	/**
+	 * The distance of the cities not reached (yet)
+	 */
+	static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	private final CompactWorld graph;
+
+	/**
+	 * The routes arriving at each city, for backward searches; null for forward ones
+	 */
+	private final ReverseIndex reverse;
+
+	/**
+	 * The distance from source of each city, indexed by id
+	 */
+	final int[] distances;
+
+	/**
+	 * The previous city in the shortest route from source to each city, indexed by id; -1 for the source and unreached cities.
+	 * For backward searches, the next city in the shortest route from each city to source.
+	 */
+	final int[] previous;
+
+	private final IndexedMinHeap heap;
+
+	private int dest = -1;
+
+	private int settled;
+
+	private long relaxed;
+
+	/**
+	 * @param graph The snapshot to be searched
+	 */
+	Dijkstra (CompactWorld graph)
+	{
+		this(graph, false);
+	}
+
+	/**
+	 * @param graph The snapshot to be searched
+	 * @param backward If the routes should be walked backwards
+	 */
+	Dijkstra (CompactWorld graph, boolean backward)
+	{
+		int cityCount = graph.getCityCount();
+		this.graph = graph;
+		this.reverse = backward ? graph.getReverseIndex() : null;
+		this.distances = new int[cityCount];
+		this.previous = new int[cityCount];
+		this.heap = new IndexedMinHeap(cityCount);
+		Arrays.fill(distances, UNREACHABLE);
+		Arrays.fill(previous, -1);
+	}
+
+	/**
+	 * Runs the search from source until the destination is settled, i.e. it's shortest distance is known.
+	 * May only be called once per instance.
+	 * 
+	 * @param source The id of the source city
+	 * @param dest The id of the destination city, or -1 to search the whole graph
+	 * @return If the destination was reached; always true if dest is -1
+	 */
+	@Override
+	public boolean run (int source, int dest)
+	{
+		this.dest = dest;
+		distances[source] = 0;
+		heap.offer(source, 0);
+		while (!heap.isEmpty()) {
+			int city = heap.poll();
+			settled++;
+			if (city == dest) {
+				return true;
+			}
+			int distance = distances[city];
+			if (reverse == null) {
+				relaxed += graph.getRoutesEnd(city) - graph.getRoutesStart(city);
+				for (int r = graph.getRoutesStart(city), end = graph.getRoutesEnd(city); r < end; r++) {
+					relax(city, graph.getRouteTarget(r), distance + graph.getRouteDistance(r));
+				}
+			}
+			else {
+				relaxed += reverse.getRoutesEnd(city) - reverse.getRoutesStart(city);
+				for (int r = reverse.getRoutesStart(city), end = reverse.getRoutesEnd(city); r < end; r++) {
+					relax(city, reverse.getRouteSource(r), distance + reverse.getRouteDistance(r));
+				}
+			}
+		}
+		return dest < 0 || distances[dest] != UNREACHABLE;
+	}
+
+	private void relax (int city, int neighbor, int newPossibleDistance)
+	{
+		if (newPossibleDistance < distances[neighbor]) {
+			distances[neighbor] = newPossibleDistance;
+			previous[neighbor] = city;
+			heap.offer(neighbor, newPossibleDistance);
+		}
+	}
+
+	@Override
+	public int getDistance ()
+	{
+		return distances[dest];
+	}
+
+	@Override
+	public Route getRoute ()
+	{
+		return getRoute(dest);
+	}
+
+	@Override
+	public int getSettledCount ()
+	{
+		return settled;
+	}
+
+	@Override
+	public long getRelaxedCount ()
+	{
+		return relaxed;
+	}
+
+	@Override
+	public int getPeakFrontier ()
+	{
+		return heap.getPeakSize();
+	}
+
+	/**
+	 * @param dest The id of a city reached by a forward search
+	 * @return The shortest route from source to the given city
+	 */
+	Route getRoute (int dest)
+	{
+		return graph.getShortestRoute(previous, dest, distances[dest]);
+	}
+
+}
@@ -0,0 +1,325 @@
+package nom.danielmarreco.train;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The shortest distance between every pair of cities of a {@link CompactWorld}, kept in a flat <code>int[]</code>
+ * so each lookup is O(1) and allocation free.
+ * <br/>
+ * The matrix takes 4 * cities<sup>2</sup> bytes: 40 MB for 3,000 cities, 400 MB for 10,000.
+ * 
+ * @see TravelGuide#precomputeAllPairs()
+ */
+public final class DistanceMatrix {
+
+	/**
+	 * The distance between cities with no route between them
+	 */
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	/**
+	 * The algorithms available to fill the matrix
+	 */
+	public enum Strategy {
+		/**
+		 * Picks one of the others according to the density of the world
+		 */
+		AUTO,
+		/**
+		 * Blocked Floyd-Warshall, O(V<sup>3</sup>) but cache friendly: best for dense worlds
+		 */
+		FLOYD_WARSHALL,
+		/**
+		 * Dijkstra's algorithm from every source, in parallel: O(V E log V), best for sparse worlds
+		 */
+		DIJKSTRA
+	}
+
+	/**
+	 * The side of the square blocks processed by the blocked Floyd-Warshall; 3 blocks of 64 x 64 ints fit in a L2 cache
+	 */
+	private static final int BLOCK = 64;
+
+	/**
+	 * Infinity for the Floyd-Warshall: large, but still safe to add twice
+	 */
+	private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+	/**
+	 * Number of sources computed by a single task of the parallel Dijkstra
+	 */
+	private static final int SOURCES_PER_TASK = 16;
+
+	private final int cityCount;
+
+	/**
+	 * distances[from * cityCount + to]
+	 */
+	private final int[] distances;
+
+	private final Strategy strategy;
+
+	private final long precomputeNanos;
+
+	private final long version;
+
+	private DistanceMatrix (int cityCount, int[] distances, Strategy strategy, long precomputeNanos, long version)
+	{
+		this.cityCount = cityCount;
+		this.distances = distances;
+		this.strategy = strategy;
+		this.precomputeNanos = precomputeNanos;
+		this.version = version;
+	}
+
+	/**
+	 * Computes the matrix of a snapshot, picking the algorithm by the density of the world
+	 * 
+	 * @param graph The snapshot to be computed
+	 * @param pool The pool running the computation
+	 * @return The distance matrix of the given snapshot
+	 */
+	public static DistanceMatrix compute (CompactWorld graph, ForkJoinPool pool)
+	{
+		return compute(graph, Strategy.AUTO, pool);
+	}
+
+	/**
+	 * Computes the matrix of a snapshot
+	 * 
+	 * @param graph The snapshot to be computed
+	 * @param strategy The algorithm to be used
+	 * @param pool The pool running the computation
+	 * @return The distance matrix of the given snapshot
+	 * @throws IllegalArgumentException If the world is too large for a matrix to be allocated
+	 */
+	public static DistanceMatrix compute (CompactWorld graph, Strategy strategy, ForkJoinPool pool)
+	{
+		final int n = graph.getCityCount();
+		if ((long) n * n > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Too many cities for a distance matrix: " + n);
+		}
+		if (strategy == Strategy.AUTO) {
+			/*
+			 * Floyd-Warshall does V^3 cheap sequential steps; Dijkstra does about V E steps, each a little slower 
+			 * because of the heap and the random accesses. Measured, they break even at about half the possible routes
+			 */
+			strategy = graph.getRouteCount() > (long) n * n / 2 ? Strategy.FLOYD_WARSHALL : Strategy.DIJKSTRA;
+		}
+
+		long start = System.nanoTime();
+		int[] distances = new int[n * n];
+		if (strategy == Strategy.FLOYD_WARSHALL) {
+			floydWarshall(graph, distances, pool);
+		}
+		else {
+			pool.invoke(new DijkstraTask(graph, distances, 0, n));
+		}
+		return new DistanceMatrix(n, distances, strategy, System.nanoTime() - start, graph.getVersion());
+	}
+
+	/**
+	 * @param from The id of the departure city
+	 * @param to The id of the arrival city
+	 * @return The shortest distance between the two cities, or {@link #UNREACHABLE}
+	 */
+	public int getDistance (int from, int to)
+	{
+		return distances[from * cityCount + to];
+	}
+
+	/**
+	 * @return The number of cities (rows and columns) of this matrix
+	 */
+	public int getCityCount ()
+	{
+		return cityCount;
+	}
+
+	/**
+	 * @return The algorithm used to compute this matrix
+	 */
+	public Strategy getStrategy ()
+	{
+		return strategy;
+	}
+
+	/**
+	 * @return How long it took to compute this matrix, in nanoseconds
+	 */
+	public long getPrecomputeNanos ()
+	{
+		return precomputeNanos;
+	}
+
+	/**
+	 * @return The heap used by this matrix, in bytes
+	 */
+	public long getMemoryFootprint ()
+	{
+		return 16 + 4L * distances.length;
+	}
+
+	/**
+	 * @return The version of the world this matrix was computed for
+	 * @see CompactWorld#getVersion()
+	 */
+	public long getVersion ()
+	{
+		return version;
+	}
+
+	@Override
+	public String toString ()
+	{
+		return cityCount + "x" + cityCount + " distance matrix (" + strategy + "): computed in " + precomputeNanos / 1000000
+				+ " ms, " + getMemoryFootprint() / 1024 + " KB";
+	}
+
+	/**
+	 * Runs Dijkstra from a range of sources, splitting it among the pool
+	 */
+	private static class DijkstraTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final CompactWorld graph;
+		private final int[] distances;
+		private final int fromSource;
+		private final int toSource;
+
+		DijkstraTask (CompactWorld graph, int[] distances, int fromSource, int toSource)
+		{
+			this.graph = graph;
+			this.distances = distances;
+			this.fromSource = fromSource;
+			this.toSource = toSource;
+		}
+
+		@Override
+		protected void compute ()
+		{
+			if (toSource - fromSource > SOURCES_PER_TASK) {
+				int middle = (fromSource + toSource) >>> 1;
+				invokeAll(new DijkstraTask(graph, distances, fromSource, middle), new DijkstraTask(graph, distances, middle, toSource));
+				return;
+			}
+			int n = graph.getCityCount();
+			for (int source = fromSource; source < toSource; source++) {
+				Dijkstra dijkstra = new Dijkstra(graph);
+				dijkstra.run(source, -1);
+				System.arraycopy(dijkstra.distances, 0, distances, source * n, n);
+			}
+		}
+	}
+
+	/**
+	 * Blocked Floyd-Warshall: for each diagonal block k, updates the block itself, then the blocks in it's row and column,
+	 * then all the remaining ones, which are independent from each other and run in parallel
+	 */
+	private static void floydWarshall (CompactWorld graph, final int[] d, ForkJoinPool pool)
+	{
+		final int n = graph.getCityCount();
+		Arrays.fill(d, INFINITY);
+		for (int from = 0; from < n; from++) {
+			d[from * n + from] = 0;
+			for (int r = graph.getRoutesStart(from), end = graph.getRoutesEnd(from); r < end; r++) {
+				int index = from * n + graph.getRouteTarget(r);
+				d[index] = Math.min(d[index], graph.getRouteDistance(r));
+			}
+		}
+
+		final int blocks = (n + BLOCK - 1) / BLOCK;
+		for (int k = 0; k < blocks; k++) {
+			final int kb = k;
+			updateBlock(d, n, kb, kb, kb);
+
+			List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+			for (int b = 0; b < blocks; b++) {
+				if (b != kb) {
+					final int other = b;
+					tasks.add(new RecursiveAction() {
+						private static final long serialVersionUID = 1L;
+
+						@Override
+						protected void compute ()
+						{
+							updateBlock(d, n, kb, kb, other);
+							updateBlock(d, n, kb, other, kb);
+						}
+					});
+				}
+			}
+			invokeAllIn(pool, tasks);
+
+			tasks.clear();
+			for (int i = 0; i < blocks; i++) {
+				if (i != kb) {
+					final int row = i;
+					tasks.add(new RecursiveAction() {
+						private static final long serialVersionUID = 1L;
+
+						@Override
+						protected void compute ()
+						{
+							for (int j = 0; j < blocks; j++) {
+								if (j != kb) {
+									updateBlock(d, n, kb, row, j);
+								}
+							}
+						}
+					});
+				}
+			}
+			invokeAllIn(pool, tasks);
+		}
+
+		for (int i = 0; i < d.length; i++) {
+			if (d[i] >= INFINITY) {
+				d[i] = UNREACHABLE;
+			}
+		}
+	}
+
+	private static void invokeAllIn (ForkJoinPool pool, final List<RecursiveAction> tasks)
+	{
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute ()
+			{
+				invokeAll(tasks);
+			}
+		});
+	}
+
+	/**
+	 * Relaxes block (ib, jb) through the intermediate cities of block kb: d[i][j] = min(d[i][j], d[i][k] + d[k][j])
+	 */
+	private static void updateBlock (int[] d, int n, int kb, int ib, int jb)
+	{
+		int kEnd = Math.min(n, (kb + 1) * BLOCK);
+		int iEnd = Math.min(n, (ib + 1) * BLOCK);
+		int jStart = jb * BLOCK, jEnd = Math.min(n, (jb + 1) * BLOCK);
+		for (int k = kb * BLOCK; k < kEnd; k++) {
+			int kRow = k * n;
+			for (int i = ib * BLOCK; i < iEnd; i++) {
+				int iRow = i * n;
+				int ik = d[iRow + k];
+				if (ik >= INFINITY) {
+					continue;
+				}
+				// branch free over plain indexes, so the JIT can vectorize it
+				for (int ij = iRow + jStart, kj = kRow + jStart, end = iRow + jEnd; ij < end; ij++, kj++) {
+					d[ij] = Math.min(d[ij], ik + d[kj]);
+				}
+			}
+		}
+	}
+
+}
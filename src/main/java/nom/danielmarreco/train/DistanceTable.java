@@ -0,0 +1,201 @@
+package nom.danielmarreco.train;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the shortest distances from a set of sources to a set of targets of a {@link CompactWorld}, without preprocessing:
+ * one search per city of the smaller set, run in parallel, each stopping as soon as it settled every city of the other set.
+ * A search from a target walks the routes backwards.
+ * 
+ * @see ContractionHierarchy#getDistances(int[], int[], ForkJoinPool)
+ * @see TravelGuide#getShortestDistances(String[], String[], ForkJoinPool)
+ */
+final class DistanceTable {
+
+	/**
+	 * The number of searches run by a single task, sharing their search state
+	 */
+	static final int SEARCHES_PER_TASK = 16;
+
+	/**
+	 * A range of the searches of a table, run by a single task
+	 */
+	interface Chunk {
+
+		/**
+		 * @param from The index of the first search to be run
+		 * @param to The index following the last search to be run
+		 */
+		void run (int from, int to);
+	}
+
+	private DistanceTable ()
+	{
+	}
+
+	/**
+	 * Runs the given number of searches in chunks of {@link #SEARCHES_PER_TASK}, in parallel on the pool
+	 */
+	static void invokeInChunks (ForkJoinPool pool, int count, final Chunk chunk)
+	{
+		final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+		for (int from = 0; from < count; from += SEARCHES_PER_TASK) {
+			final int fromSearch = from;
+			final int toSearch = Math.min(count, from + SEARCHES_PER_TASK);
+			tasks.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute ()
+				{
+					chunk.run(fromSearch, toSearch);
+				}
+			});
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute ()
+			{
+				invokeAll(tasks);
+			}
+		});
+	}
+
+	/**
+	 * @param graph The snapshot to be searched
+	 * @param sources The ids of the departure cities
+	 * @param targets The ids of the arrival cities
+	 * @param pool The pool running the searches
+	 * @param budget The limits of the searches, checked once per search, or null
+	 * @return The shortest distance from each source to each target, as <code>table[source][target]</code>, or
+	 * 	{@link Dijkstra#UNREACHABLE}; only partly filled if the budget is exceeded
+	 */
+	static int[][] compute (final CompactWorld graph, int[] sources, int[] targets, ForkJoinPool pool, final QueryBudget budget)
+	{
+		final int[][] table = new int[sources.length][targets.length];
+		final boolean backward = targets.length < sources.length;
+		final int[] starts = backward ? targets : sources;
+		final int[] goals = backward ? sources : targets;
+
+		final boolean[] isGoal = new boolean[graph.getCityCount()];
+		int goalCount = 0;
+		for (int goal : goals) {
+			if (!isGoal[goal]) {
+				isGoal[goal] = true;
+				goalCount++;
+			}
+		}
+		final int distinctGoals = goalCount;
+
+		invokeInChunks(pool, starts.length, new Chunk() {
+			public void run (int from, int to)
+			{
+				Search search = new Search(graph, backward);
+				for (int i = from; i < to; i++) {
+					int settled = search.run(starts[i], isGoal, distinctGoals);
+					if (budget != null && !budget.expand(settled)) {
+						return;
+					}
+					for (int j = 0; j < goals.length; j++) {
+						if (backward) {
+							table[j][i] = search.distances[goals[j]];
+						}
+						else {
+							table[i][j] = search.distances[goals[j]];
+						}
+					}
+				}
+			}
+		});
+		return table;
+	}
+
+	/**
+	 * Dijkstra's algorithm, reusable from one start to the next at the cost of the cities it touched
+	 */
+	private static final class Search {
+
+		private final CompactWorld graph;
+
+		/**
+		 * The routes arriving at each city, for backward searches; null for forward ones
+		 */
+		private final ReverseIndex reverse;
+
+		final int[] distances;
+
+		private final IndexedMinHeap heap;
+
+		private final int[] touched;
+
+		private int touchedCount;
+
+		Search (CompactWorld graph, boolean backward)
+		{
+			int cityCount = graph.getCityCount();
+			this.graph = graph;
+			this.reverse = backward ? graph.getReverseIndex() : null;
+			this.distances = new int[cityCount];
+			this.heap = new IndexedMinHeap(cityCount);
+			this.touched = new int[cityCount];
+			Arrays.fill(distances, Dijkstra.UNREACHABLE);
+		}
+
+		/**
+		 * Searches from the given city until every goal is settled, or every reachable city is
+		 * 
+		 * @return The number of cities settled
+		 */
+		int run (int start, boolean[] isGoal, int goalCount)
+		{
+			for (int i = 0; i < touchedCount; i++) {
+				distances[touched[i]] = Dijkstra.UNREACHABLE;
+			}
+			touchedCount = 0;
+			heap.clear();
+
+			distances[start] = 0;
+			touched[touchedCount++] = start;
+			heap.offer(start, 0);
+			int remaining = goalCount;
+			int settled = 0;
+			while (!heap.isEmpty()) {
+				int city = heap.poll();
+				settled++;
+				if (isGoal[city] && --remaining == 0) {
+					return settled;
+				}
+				int distance = distances[city];
+				if (reverse == null) {
+					for (int r = graph.getRoutesStart(city), end = graph.getRoutesEnd(city); r < end; r++) {
+						relax(graph.getRouteTarget(r), distance + graph.getRouteDistance(r));
+					}
+				}
+				else {
+					for (int r = reverse.getRoutesStart(city), end = reverse.getRoutesEnd(city); r < end; r++) {
+						relax(reverse.getRouteSource(r), distance + reverse.getRouteDistance(r));
+					}
+				}
+			}
+			return settled;
+		}
+
+		private void relax (int neighbor, int newPossibleDistance)
+		{
+			if (newPossibleDistance < distances[neighbor]) {
+				if (distances[neighbor] == Dijkstra.UNREACHABLE) {
+					touched[touchedCount++] = neighbor;
+				}
+				distances[neighbor] = newPossibleDistance;
+				heap.offer(neighbor, newPossibleDistance);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,23 @@
+package nom.danielmarreco.train;
+
+/**
+ * Estimates the distance between two cities, guiding the {@link TravelGuide.SearchStrategy#A_STAR A*} search
+ * towards the destination.
+ * <br/>
+ * Estimates must be admissible, i.e. never exceed the distance of the shortest route, or the search may miss it;
+ * the closer they are to it, the fewer cities the search visits. 0 is always admissible, and makes A* a plain Dijkstra search.
+ * 
+ * @see LandmarkHeuristic
+ * @see CoordinateHeuristic
+ */
+public interface Heuristic {
+
+	/**
+	 * @param graph The snapshot being searched
+	 * @param from The id of a city
+	 * @param to The id of the destination city
+	 * @return A lower bound of the distance of the shortest route between the two cities
+	 */
+	int getLowerBound (CompactWorld graph, int from, int to);
+
+}
@@ -0,0 +1,409 @@
+package nom.danielmarreco.train;
+
+import java.util.Arrays;
+
+/**
+ * Builds a {@link ContractionHierarchy}: contracts the cities of a {@link CompactWorld} one by one, from the least to the most
+ * important, replacing each city by shortcut routes between it's neighbors wherever it lay on their only shortest route.
+ * <br/>
+ * The next city to be contracted is the one with the lowest priority: mostly the shortcuts it's contraction would add minus the routes
+ * it would remove (the edge difference), plus the number of it's neighbors already contracted and it's depth in the hierarchy so far,
+ * so contractions spread evenly over the world. The neighbors of a city are re-evaluated once it is contracted, and the city polled
+ * is re-evaluated too, and put back if it is no longer the lowest.
+ * <br/>
+ * Whether a shortcut is needed is decided by a witness search, a Dijkstra search from the neighbor before the city which avoids it;
+ * searches are bounded by {@link #MAX_WITNESS_SETTLED} cities, so a shortcut may be added where a longer search would have found
+ * a witness: the hierarchy may be a little larger, but never wrong.
+ */
+final class HierarchyBuilder {
+
+	/**
+	 * The maximum number of cities settled by a witness search
+	 */
+	static final int MAX_WITNESS_SETTLED = 200;
+
+	/**
+	 * The maximum number of cities settled by a witness search when a contraction is only simulated, to compute a priority
+	 */
+	static final int MAX_SIMULATED_WITNESS_SETTLED = 20;
+
+	private final int cityCount;
+
+	/*
+	 * the routes between the cities not yet contracted, shortcuts included, kept per city in both directions (unordered):
+	 * the other city, the distance and the city bypassed by the shortcut (-1 for routes of the world)
+	 */
+	private final int[][] outTargets, outDistances, outMiddles;
+
+	private final int[] outCounts;
+
+	private final int[][] inSources, inDistances, inMiddles;
+
+	private final int[] inCounts;
+
+	/**
+	 * The number of neighbors already contracted of each city
+	 */
+	private final int[] contractedNeighbors;
+
+	/**
+	 * The depth of each city in the hierarchy so far: 1 + the depth of the deepest contracted neighbor
+	 */
+	private final int[] depths;
+
+	/**
+	 * The last city (plus 1) whose contraction updated each city
+	 */
+	private final int[] lastUpdates;
+
+	/**
+	 * The order in which each city was contracted
+	 */
+	private final int[] ranks;
+
+	/*
+	 * the witness search state, reset after each search through the list of touched cities
+	 */
+	private final int[] witnessDistances;
+
+	private final int[] touched;
+
+	private int touchedCount;
+
+	private final IndexedMinHeap witnessHeap;
+
+	/**
+	 * The number of the last witness search each city is a target of
+	 */
+	private final int[] targets;
+
+	private int search;
+
+	/*
+	 * the routes of the hierarchy, collected as each city is contracted:
+	 * upward routes leave a city for a more important one, downward routes arrive at a city from a more important one
+	 */
+	private final EdgeList up, down;
+
+	private int shortcutCount;
+
+	HierarchyBuilder (CompactWorld graph)
+	{
+		cityCount = graph.getCityCount();
+		outTargets = new int[cityCount][];
+		outDistances = new int[cityCount][];
+		outMiddles = new int[cityCount][];
+		outCounts = new int[cityCount];
+		inSources = new int[cityCount][];
+		inDistances = new int[cityCount][];
+		inMiddles = new int[cityCount][];
+		inCounts = new int[cityCount];
+		lastUpdates = new int[cityCount];
+		contractedNeighbors = new int[cityCount];
+		depths = new int[cityCount];
+		ranks = new int[cityCount];
+		witnessDistances = new int[cityCount];
+		touched = new int[cityCount];
+		witnessHeap = new IndexedMinHeap(cityCount);
+		targets = new int[cityCount];
+		Arrays.fill(witnessDistances, Dijkstra.UNREACHABLE);
+		up = new EdgeList(graph.getRouteCount());
+		down = new EdgeList(graph.getRouteCount());
+
+		ReverseIndex reverse = graph.getReverseIndex();
+		for (int city = 0; city < cityCount; city++) {
+			int outDegree = graph.getRoutesEnd(city) - graph.getRoutesStart(city);
+			int inDegree = reverse.getRoutesEnd(city) - reverse.getRoutesStart(city);
+			outTargets[city] = new int[Math.max(2, outDegree)];
+			outDistances[city] = new int[Math.max(2, outDegree)];
+			outMiddles[city] = new int[Math.max(2, outDegree)];
+			inSources[city] = new int[Math.max(2, inDegree)];
+			inDistances[city] = new int[Math.max(2, inDegree)];
+			inMiddles[city] = new int[Math.max(2, inDegree)];
+		}
+		for (int city = 0; city < cityCount; city++) {
+			for (int r = graph.getRoutesStart(city); r < graph.getRoutesEnd(city); r++) {
+				int target = graph.getRouteTarget(r);
+				if (target != city) {
+					addRoute(city, target, graph.getRouteDistance(r), -1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Contracts all cities
+	 * 
+	 * @return The hierarchy
+	 */
+	ContractionHierarchy build (CompactWorld graph, long startNanos)
+	{
+		IndexedMinHeap queue = new IndexedMinHeap(cityCount);
+		for (int city = 0; city < cityCount; city++) {
+			queue.offer(city, priority(city));
+		}
+		int rank = 0;
+		while (!queue.isEmpty()) {
+			int city = queue.poll();
+			int priority = priority(city);
+			if (!queue.isEmpty() && priority > queue.peekKey()) {
+				queue.offer(city, priority);
+				continue;
+			}
+			contract(city, false);
+			ranks[city] = rank++;
+			for (int j = 0; j < outCounts[city]; j++) {
+				int target = outTargets[city][j];
+				inCounts[target] = remove(city, inSources[target], inDistances[target], inMiddles[target], inCounts[target]);
+			}
+			for (int i = 0; i < inCounts[city]; i++) {
+				int source = inSources[city][i];
+				outCounts[source] = remove(city, outTargets[source], outDistances[source], outMiddles[source], outCounts[source]);
+			}
+			for (int j = 0; j < outCounts[city]; j++) {
+				update(city, outTargets[city][j], queue);
+			}
+			for (int i = 0; i < inCounts[city]; i++) {
+				update(city, inSources[city][i], queue);
+			}
+			// the routes of a contracted city are in the hierarchy already
+			outTargets[city] = outDistances[city] = outMiddles[city] = inSources[city] = inDistances[city] = inMiddles[city] = null;
+			outCounts[city] = inCounts[city] = 0;
+		}
+		return new ContractionHierarchy(graph, ranks, up.toCsr(cityCount), down.toCsr(cityCount), shortcutCount, System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Removes the route to or from a city contracted out of the routes of one of it's neighbors
+	 * 
+	 * @return The number of routes left
+	 */
+	private static int remove (int city, int[] others, int[] distances, int[] middles, int count)
+	{
+		for (int i = 0; i < count; i++) {
+			if (others[i] == city) {
+				count--;
+				others[i] = others[count];
+				distances[i] = distances[count];
+				middles[i] = middles[count];
+				break;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Updates a neighbor of a city just contracted: it's shortcuts may have changed, so it's priority is recomputed.
+	 * Priorities are only lowered here, raised ones are caught when the neighbor is polled.
+	 * A neighbor both before and after the city is updated once.
+	 */
+	private void update (int city, int neighbor, IndexedMinHeap queue)
+	{
+		if (lastUpdates[neighbor] == city + 1) {
+			return;
+		}
+		lastUpdates[neighbor] = city + 1;
+		contractedNeighbors[neighbor]++;
+		depths[neighbor] = Math.max(depths[neighbor], depths[city] + 1);
+		queue.offer(neighbor, priority(neighbor));
+	}
+
+	private int priority (int city)
+	{
+		int removed = outCounts[city] + inCounts[city];
+		return 4 * (contract(city, true) - removed) + contractedNeighbors[city] + 2 * depths[city] + 2 * cityCount;
+	}
+
+	/**
+	 * Contracts a city, or simulates it's contraction
+	 * 
+	 * @param simulate If the shortcuts should only be counted
+	 * @return The number of shortcuts needed
+	 */
+	private int contract (int city, boolean simulate)
+	{
+		int shortcuts = 0;
+		for (int i = 0; i < inCounts[city]; i++) {
+			int source = inSources[city][i];
+			int toCity = inDistances[city][i];
+			if (!simulate) {
+				down.add(city, source, toCity, inMiddles[city][i]);
+			}
+			// the search stops once every city after this one is settled, or farther than through it
+			search++;
+			int maxOut = 0, targetCount = 0;
+			for (int j = 0; j < outCounts[city]; j++) {
+				if (outTargets[city][j] != source) {
+					maxOut = Math.max(maxOut, outDistances[city][j]);
+					targets[outTargets[city][j]] = search;
+					targetCount++;
+				}
+			}
+			if (targetCount == 0) {
+				continue;
+			}
+			witnessSearch(source, city, toCity + maxOut, targetCount, simulate ? MAX_SIMULATED_WITNESS_SETTLED : MAX_WITNESS_SETTLED);
+			for (int j = 0; j < outCounts[city]; j++) {
+				int target = outTargets[city][j];
+				if (target == source) {
+					continue;
+				}
+				int distance = toCity + outDistances[city][j];
+				if (witnessDistances[target] > distance) {
+					shortcuts++;
+					if (!simulate) {
+						addRoute(source, target, distance, city);
+					}
+				}
+			}
+			resetWitnessSearch();
+		}
+		if (!simulate) {
+			for (int j = 0; j < outCounts[city]; j++) {
+				up.add(city, outTargets[city][j], outDistances[city][j], outMiddles[city][j]);
+			}
+			shortcutCount += shortcuts;
+		}
+		return shortcuts;
+	}
+
+	/**
+	 * Finds the distance from source to the cities around it without going through the given city, up to maxDistance
+	 * or until the target cities, marked with the number of the search, are settled
+	 */
+	private void witnessSearch (int source, int avoided, int maxDistance, int targetCount, int maxSettled)
+	{
+		witnessDistances[source] = 0;
+		touched[touchedCount++] = source;
+		witnessHeap.offer(source, 0);
+		int settled = 0;
+		while (!witnessHeap.isEmpty() && witnessHeap.peekKey() <= maxDistance && settled++ < maxSettled) {
+			int city = witnessHeap.poll();
+			int distance = witnessDistances[city];
+			if (targets[city] == search && --targetCount == 0) {
+				break;
+			}
+			for (int j = 0; j < outCounts[city]; j++) {
+				int target = outTargets[city][j];
+				if (target == avoided) {
+					continue;
+				}
+				int newPossibleDistance = distance + outDistances[city][j];
+				if (newPossibleDistance < witnessDistances[target]) {
+					if (witnessDistances[target] == Dijkstra.UNREACHABLE) {
+						touched[touchedCount++] = target;
+					}
+					witnessDistances[target] = newPossibleDistance;
+					witnessHeap.offer(target, newPossibleDistance);
+				}
+			}
+		}
+	}
+
+	private void resetWitnessSearch ()
+	{
+		for (int i = 0; i < touchedCount; i++) {
+			witnessDistances[touched[i]] = Dijkstra.UNREACHABLE;
+		}
+		touchedCount = 0;
+		witnessHeap.clear();
+	}
+
+	/**
+	 * Adds a route between two cities not yet contracted, or shortens the existing one
+	 */
+	private void addRoute (int from, int to, int distance, int middle)
+	{
+		for (int j = 0; j < outCounts[from]; j++) {
+			if (outTargets[from][j] == to) {
+				if (distance < outDistances[from][j]) {
+					outDistances[from][j] = distance;
+					outMiddles[from][j] = middle;
+					for (int i = 0; i < inCounts[to]; i++) {
+						if (inSources[to][i] == from) {
+							inDistances[to][i] = distance;
+							inMiddles[to][i] = middle;
+						}
+					}
+				}
+				return;
+			}
+		}
+		int j = outCounts[from]++;
+		if (j == outTargets[from].length) {
+			outTargets[from] = Arrays.copyOf(outTargets[from], j * 2);
+			outDistances[from] = Arrays.copyOf(outDistances[from], j * 2);
+			outMiddles[from] = Arrays.copyOf(outMiddles[from], j * 2);
+		}
+		outTargets[from][j] = to;
+		outDistances[from][j] = distance;
+		outMiddles[from][j] = middle;
+		int i = inCounts[to]++;
+		if (i == inSources[to].length) {
+			inSources[to] = Arrays.copyOf(inSources[to], i * 2);
+			inDistances[to] = Arrays.copyOf(inDistances[to], i * 2);
+			inMiddles[to] = Arrays.copyOf(inMiddles[to], i * 2);
+		}
+		inSources[to][i] = from;
+		inDistances[to][i] = distance;
+		inMiddles[to][i] = middle;
+	}
+
+	/**
+	 * A growable list of routes grouped by a city, turned into compressed sparse rows once complete
+	 */
+	static final class EdgeList {
+
+		private int[] cities, others, distances, middles;
+
+		private int size;
+
+		EdgeList (int capacity)
+		{
+			capacity = Math.max(16, capacity);
+			cities = new int[capacity];
+			others = new int[capacity];
+			distances = new int[capacity];
+			middles = new int[capacity];
+		}
+
+		void add (int city, int other, int distance, int middle)
+		{
+			if (size == cities.length) {
+				cities = Arrays.copyOf(cities, size * 2);
+				others = Arrays.copyOf(others, size * 2);
+				distances = Arrays.copyOf(distances, size * 2);
+				middles = Arrays.copyOf(middles, size * 2);
+			}
+			cities[size] = city;
+			others[size] = other;
+			distances[size] = distance;
+			middles[size++] = middle;
+		}
+
+		/**
+		 * @return The offsets, other cities, distances and middle cities of the routes of each city, by a counting sort
+		 */
+		int[][] toCsr (int cityCount)
+		{
+			int[] offsets = new int[cityCount + 1];
+			for (int i = 0; i < size; i++) {
+				offsets[cities[i] + 1]++;
+			}
+			for (int city = 0; city < cityCount; city++) {
+				offsets[city + 1] += offsets[city];
+			}
+			int[] next = Arrays.copyOf(offsets, cityCount);
+			int[] sortedOthers = new int[size], sortedDistances = new int[size], sortedMiddles = new int[size];
+			for (int i = 0; i < size; i++) {
+				int slot = next[cities[i]]++;
+				sortedOthers[slot] = others[i];
+				sortedDistances[slot] = distances[i];
+				sortedMiddles[slot] = middles[i];
+			}
+			return new int[][] {offsets, sortedOthers, sortedDistances, sortedMiddles};
+		}
+
+	}
+
+}
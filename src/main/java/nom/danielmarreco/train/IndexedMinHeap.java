@@ -0,0 +1,179 @@
+package nom.danielmarreco.train;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of int ids (0 to capacity - 1) prioritized by int keys, supporting decrease-key.
+ * <br/>
+ * The position of every id in the heap is tracked in an array, so neither ids nor keys are ever boxed.
+ */
+final class IndexedMinHeap {
+
+	/**
+	 * The ids in the heap, in heap order
+	 */
+	private final int[] heap;
+
+	/**
+	 * The position of each id in the heap, or -1 if it is not in the heap
+	 */
+	private final int[] positions;
+
+	/**
+	 * The key of each id
+	 */
+	private final int[] keys;
+
+	private int size;
+
+	/**
+	 * The largest size the heap had
+	 */
+	private int peakSize;
+
+	/**
+	 * @param capacity The number of ids this heap should hold
+	 */
+	IndexedMinHeap (int capacity)
+	{
+		heap = new int[capacity];
+		positions = new int[capacity];
+		keys = new int[capacity];
+		Arrays.fill(positions, -1);
+	}
+
+	boolean isEmpty ()
+	{
+		return size == 0;
+	}
+
+	int size ()
+	{
+		return size;
+	}
+
+	/**
+	 * @return The largest number of ids the heap held at once, a measure of the frontier of a search
+	 */
+	int getPeakSize ()
+	{
+		return peakSize;
+	}
+
+	/**
+	 * @return If the given id is currently in the heap
+	 */
+	boolean contains (int id)
+	{
+		return positions[id] >= 0;
+	}
+
+	/**
+	 * @return The key the given id was last offered with
+	 */
+	int getKey (int id)
+	{
+		return keys[id];
+	}
+
+	/**
+	 * Inserts the given id in the heap, or lowers it's key if it is already there with a greater key
+	 * 
+	 * @param id The id to be inserted
+	 * @param key It's priority; the lowest is polled first
+	 */
+	void offer (int id, int key)
+	{
+		int position = positions[id];
+		if (position < 0) {
+			position = size++;
+			heap[position] = id;
+			positions[id] = position;
+			if (size > peakSize) {
+				peakSize = size;
+			}
+		}
+		else if (keys[id] <= key) {
+			return;
+		}
+		keys[id] = key;
+		siftUp(position);
+	}
+
+	/**
+	 * @return The id with the lowest key, which is removed from the heap
+	 */
+	int poll ()
+	{
+		int res = heap[0];
+		positions[res] = -1;
+		if (--size > 0) {
+			int last = heap[size];
+			heap[0] = last;
+			positions[last] = 0;
+			siftDown(0);
+		}
+		return res;
+	}
+
+	/**
+	 * @return The lowest key in the heap
+	 */
+	int peekKey ()
+	{
+		return keys[heap[0]];
+	}
+
+	/**
+	 * Removes all ids from the heap
+	 */
+	void clear ()
+	{
+		for (int i = 0; i < size; i++) {
+			positions[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	private void siftUp (int position)
+	{
+		int id = heap[position];
+		int key = keys[id];
+		while (position > 0) {
+			int parentPosition = (position - 1) >>> 1;
+			int parent = heap[parentPosition];
+			if (keys[parent] <= key) {
+				break;
+			}
+			heap[position] = parent;
+			positions[parent] = position;
+			position = parentPosition;
+		}
+		heap[position] = id;
+		positions[id] = position;
+	}
+
+	private void siftDown (int position)
+	{
+		int id = heap[position];
+		int key = keys[id];
+		int half = size >>> 1;
+		while (position < half) {
+			int childPosition = 2 * position + 1;
+			int child = heap[childPosition];
+			int right = childPosition + 1;
+			if (right < size && keys[heap[right]] < keys[child]) {
+				child = heap[childPosition = right];
+			}
+			if (key <= keys[child]) {
+				break;
+			}
+			heap[position] = child;
+			positions[child] = position;
+			position = childPosition;
+		}
+		heap[position] = id;
+		positions[id] = position;
+	}
+
+}
@@ -0,0 +1,99 @@
+package nom.danielmarreco.train;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The default {@link MetricsSink}: keeps a latency histogram and counters per kind of query, each published as a
+ * {@link QueryMetricsMBean} in the platform MBean server, under
+ * <code>nom.danielmarreco.train:type=TravelGuide,name=&lt;name&gt;,query=&lt;query&gt;</code>; so they can be watched
+ * with JConsole, VisualVM or any JMX exporter.
+ * <br/>
+ * Recording a query takes a few atomic increments, with no allocation nor lock.
+ * 
+ * @see TravelGuide#setMetricsSink(MetricsSink)
+ */
+public final class JmxMetricsSink implements MetricsSink {
+
+	/**
+	 * The domain of the names of the MBeans
+	 */
+	public static final String DOMAIN = "nom.danielmarreco.train";
+
+	private final QueryMetrics[] metrics = new QueryMetrics[Query.values().length];
+
+	private final ObjectName[] names = new ObjectName[metrics.length];
+
+	private final MBeanServer server;
+
+	/**
+	 * Creates the metrics and registers their MBeans
+	 * 
+	 * @param name The name telling the guide reported from the others in the same JVM
+	 * @throws JMException If the name is not valid in an MBean name, or is already taken
+	 */
+	public JmxMetricsSink (String name) throws JMException
+	{
+		server = ManagementFactory.getPlatformMBeanServer();
+		for (Query query : Query.values()) {
+			metrics[query.ordinal()] = new QueryMetrics();
+			names[query.ordinal()] = new ObjectName(DOMAIN + ":type=TravelGuide,name=" + ObjectName.quote(name) + ",query=" + query);
+		}
+		for (int i = 0; i < names.length; i++) {
+			try {
+				server.registerMBean(metrics[i], names[i]);
+			}
+			catch (JMException e) {
+				unregister(i);
+				throw e;
+			}
+		}
+	}
+
+	public void queryCompleted (Query query, long nanos, long settled, long relaxed, long emitted, int peakFrontier)
+	{
+		metrics[query.ordinal()].record(nanos, settled, relaxed, emitted, peakFrontier);
+	}
+
+	/**
+	 * @return The metrics of the given kind of query
+	 */
+	public QueryMetrics getMetrics (Query query)
+	{
+		return metrics[query.ordinal()];
+	}
+
+	/**
+	 * @return The name the MBean of the given kind of query is registered with
+	 */
+	public ObjectName getObjectName (Query query)
+	{
+		return names[query.ordinal()];
+	}
+
+	/**
+	 * Removes the MBeans from the platform MBean server; the metrics are still kept
+	 */
+	public void unregister ()
+	{
+		unregister(names.length);
+	}
+
+	private void unregister (int count)
+	{
+		for (int i = 0; i < count; i++) {
+			try {
+				if (server.isRegistered(names[i])) {
+					server.unregisterMBean(names[i]);
+				}
+			}
+			catch (JMException e) {
+				// unregistered by someone else meanwhile
+			}
+		}
+	}
+
+}
@@ -0,0 +1,427 @@
+package nom.danielmarreco.train;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Yen's algorithm for the k shortest loopless routes to a destination, over a {@link CompactWorld}.
+ * <br/>
+ * Each route after the first deviates from one already found at some spur city: it follows that route up to the spur city,
+ * then takes the shortest route from there to the destination that avoids the cities before the spur and the routes already
+ * found with the same beginning. Only the spur cities from where each route deviates from it's parent on are tried (Lawler's
+ * modification), so every candidate is found once.
+ * <br/>
+ * The spur searches share a single shortest path tree <i>to</i> the destination, grown by a backward Dijkstra search
+ * only as far as the spur cities are:
+ * <ul>
+ * <li>it's distances guide each spur search as an A* heuristic, so the search heads straight to the destination; cities
+ * 	out of the tree yet are estimated at the radius of the tree, which keeps the heuristic consistent;</li>
+ * <li>a spur search ends as soon as it polls a city whose route in the tree avoids the banned cities, as that route is
+ * 	the shortest left; most spur searches end right at the spur city, without any search at all.</li>
+ * </ul>
+ * So the cost grows with k and the length of the routes, rather than with the number of routes in the world.
+ */
+final class KShortestRoutes {
+
+	private final CompactWorld graph;
+
+	private final ReverseIndex reverse;
+
+	private final int dest;
+
+	/**
+	 * The distance to destination of each city, indexed by id; only final for the cities in the tree
+	 */
+	private final int[] toDest;
+
+	/**
+	 * The next city in the shortest route from each city to destination, indexed by id; -1 for destination and cities not reached
+	 */
+	private final int[] next;
+
+	/**
+	 * If each city is in the tree, i.e. it's distance to destination is known, indexed by id
+	 */
+	private final boolean[] settled;
+
+	/**
+	 * The cities reached by the backward search but not in the tree yet
+	 */
+	private final IndexedMinHeap backward;
+
+	/**
+	 * The distance from the spur city of each city reached by the current spur search, indexed by id
+	 */
+	private final int[] distances;
+
+	/**
+	 * The previous city in the route from the spur city of each city reached by the current spur search, indexed by id
+	 */
+	private final int[] previous;
+
+	/**
+	 * The spur search that last reached each city, indexed by id
+	 */
+	private final int[] reached;
+
+	/**
+	 * The spur search during which each city is banned, indexed by id
+	 */
+	private final int[] banned;
+
+	/**
+	 * The spur search during which the route from the spur city to each city is banned, indexed by id
+	 */
+	private final int[] bannedFromSpur;
+
+	/**
+	 * Twice the spur search during which the route in the tree from each city was found to avoid the banned cities,
+	 * plus one if it does not; indexed by id
+	 */
+	private final int[] clean;
+
+	private final IndexedMinHeap heap;
+
+	/**
+	 * The current spur search, starting from 1
+	 */
+	private int search;
+
+	/**
+	 * The number of cities settled by the backward search and polled by the spur searches
+	 */
+	private int settledCount;
+
+	/**
+	 * The number of routes followed by the backward search and the spur searches
+	 */
+	private long relaxedCount;
+
+	/**
+	 * @param graph The snapshot to be searched
+	 * @param dest The id of the destination city
+	 */
+	KShortestRoutes (CompactWorld graph, int dest)
+	{
+		int cityCount = graph.getCityCount();
+		this.graph = graph;
+		this.reverse = graph.getReverseIndex();
+		this.dest = dest;
+		this.toDest = new int[cityCount];
+		this.next = new int[cityCount];
+		this.settled = new boolean[cityCount];
+		this.backward = new IndexedMinHeap(cityCount);
+		this.distances = new int[cityCount];
+		this.previous = new int[cityCount];
+		this.reached = new int[cityCount];
+		this.banned = new int[cityCount];
+		this.bannedFromSpur = new int[cityCount];
+		this.clean = new int[cityCount];
+		this.heap = new IndexedMinHeap(cityCount);
+		Arrays.fill(toDest, Dijkstra.UNREACHABLE);
+		Arrays.fill(next, -1);
+		toDest[dest] = 0;
+		backward.offer(dest, 0);
+	}
+
+	/**
+	 * @param source The id of the source city
+	 * @return The distance of the shortest route from source to destination, or {@link Dijkstra#UNREACHABLE}
+	 */
+	int getDistance (int source)
+	{
+		settle(source);
+		return toDest[source];
+	}
+
+	/**
+	 * Grows the tree until it holds the given city, or every city reaching destination
+	 */
+	private void settle (int city)
+	{
+		while (!settled[city] && !backward.isEmpty()) {
+			int settling = backward.poll();
+			settled[settling] = true;
+			settledCount++;
+			relaxedCount += reverse.getRoutesEnd(settling) - reverse.getRoutesStart(settling);
+			int distance = toDest[settling];
+			for (int r = reverse.getRoutesStart(settling), end = reverse.getRoutesEnd(settling); r < end; r++) {
+				int from = reverse.getRouteSource(r);
+				int newDistance = distance + reverse.getRouteDistance(r);
+				if (!settled[from] && newDistance < toDest[from]) {
+					toDest[from] = newDistance;
+					next[from] = settling;
+					backward.offer(from, newDistance);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The distance to destination of the given city if it is in the tree, or else the radius of the tree, which is
+	 * 	no longer; {@link Dijkstra#UNREACHABLE} if the city does not reach destination at all
+	 */
+	private int estimate (int city)
+	{
+		if (settled[city]) {
+			return toDest[city];
+		}
+		return backward.isEmpty() ? Dijkstra.UNREACHABLE : backward.peekKey();
+	}
+
+	/**
+	 * Finds the k shortest loopless routes from source to destination, shortest first; routes of the same length come
+	 * in no particular order. There is a single loopless route from a city to itself: the city alone.
+	 * 
+	 * @param source The id of the source city
+	 * @param k The maximum number of routes to find
+	 * @param budget The limits of the search, checked once per route found, or null
+	 * @return The routes found, fewer than k if there are no more or the budget was exceeded; empty if destination can not
+	 * 	be reached from source
+	 */
+	List<Route> find (int source, int k, QueryBudget budget)
+	{
+		List<Candidate> found = new ArrayList<Candidate>();
+		if (getDistance(source) == Dijkstra.UNREACHABLE) {
+			return new ArrayList<Route>();
+		}
+		PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+		Set<Candidate> known = new HashSet<Candidate>();
+		Candidate first = new Candidate(treeRoute(source, 0), toDest[source], 0);
+		candidates.add(first);
+		known.add(first);
+
+		List<Candidate> siblings = new ArrayList<Candidate>();
+		int charged = 0;
+		while (found.size() < k && !candidates.isEmpty()) {
+			if (budget != null && (!budget.expand(settledCount - charged) || !budget.emit())) {
+				break;
+			}
+			charged = settledCount;
+			Candidate last = candidates.poll();
+			found.add(last);
+			if (found.size() == k) {
+				break;
+			}
+			int[] cities = last.cities;
+
+			// the routes found with the same beginning as the last one, up to the spur city
+			siblings.clear();
+			for (Candidate route : found) {
+				if (route.cities.length > last.deviation + 1 && samePrefix(route.cities, cities, last.deviation)) {
+					siblings.add(route);
+				}
+			}
+			int rootLength = 0;
+			for (int i = 1; i <= last.deviation; i++) {
+				rootLength += graph.getDistance(cities[i - 1], cities[i]);
+			}
+
+			for (int i = last.deviation; i < cities.length - 1; i++) {
+				search++;
+				for (int j = 0; j < i; j++) {
+					banned[cities[j]] = search;
+				}
+				int count = 0;
+				for (Candidate route : siblings) {
+					if (route.cities.length > i + 1 && route.cities[i] == cities[i]) {
+						bannedFromSpur[route.cities[i + 1]] = search;
+						siblings.set(count++, route);
+					}
+				}
+				siblings.subList(count, siblings.size()).clear();
+
+				Candidate candidate = spur(cities, i, rootLength);
+				if (candidate != null && known.add(candidate)) {
+					candidates.add(candidate);
+				}
+				rootLength += graph.getDistance(cities[i], cities[i + 1]);
+			}
+		}
+
+		List<Route> res = new ArrayList<Route>(found.size());
+		for (Candidate route : found) {
+			res.add(new Route(graph, route.cities, route.cities.length, route.length));
+		}
+		return res;
+	}
+
+	/**
+	 * @return The number of cities settled by the backward search and polled by the spur searches so far
+	 */
+	int getSettledCount ()
+	{
+		return settledCount;
+	}
+
+	/**
+	 * @return The number of routes followed by all searches so far
+	 */
+	long getRelaxedCount ()
+	{
+		return relaxedCount;
+	}
+
+	/**
+	 * @return The largest number of cities reached but not settled at once by any of the searches
+	 */
+	int getPeakFrontier ()
+	{
+		return Math.max(backward.getPeakSize(), heap.getPeakSize());
+	}
+
+	private static boolean samePrefix (int[] a, int[] b, int last)
+	{
+		for (int i = last; i >= 0; i--) {
+			if (a[i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Searches the shortest route from the spur city to destination avoiding the banned cities and routes,
+	 * by A* over the distances to destination
+	 * 
+	 * @param root The route the candidate deviates from
+	 * @param spurIndex The position of the spur city in root
+	 * @param rootLength The distance from source to the spur city along root
+	 * @return The candidate following root up to the spur city, then the route found; null if there is none
+	 */
+	private Candidate spur (int[] root, int spurIndex, int rootLength)
+	{
+		int spur = root[spurIndex];
+		// the spur city is banned for the routes in the tree from other cities, which would come back to it
+		banned[spur] = search;
+		settle(spur);
+		if (next[spur] >= 0 && bannedFromSpur[next[spur]] != search && isClean(next[spur])) {
+			int[] cities = treeRoute(spur, spurIndex);
+			System.arraycopy(root, 0, cities, 0, spurIndex);
+			return new Candidate(cities, rootLength + toDest[spur], spurIndex);
+		}
+
+		heap.clear();
+		reached[spur] = search;
+		distances[spur] = 0;
+		previous[spur] = -1;
+		heap.offer(spur, estimate(spur));
+		while (!heap.isEmpty()) {
+			int city = heap.poll();
+			int distance = distances[city];
+			settledCount++;
+			if (city != spur && settled[city] && isClean(city)) {
+				int hops = 0;
+				for (int c = city; c != spur; c = previous[c]) {
+					hops++;
+				}
+				int[] cities = treeRoute(city, spurIndex + hops);
+				System.arraycopy(root, 0, cities, 0, spurIndex + 1);
+				for (int c = previous[city], i = spurIndex + hops - 1; c != spur; c = previous[c]) {
+					cities[i--] = c;
+				}
+				return new Candidate(cities, rootLength + distance + toDest[city], spurIndex);
+			}
+			relaxedCount += graph.getRoutesEnd(city) - graph.getRoutesStart(city);
+			for (int r = graph.getRoutesStart(city), end = graph.getRoutesEnd(city); r < end; r++) {
+				int target = graph.getRouteTarget(r);
+				int estimate = estimate(target);
+				if (banned[target] == search || estimate == Dijkstra.UNREACHABLE
+						|| city == spur && bannedFromSpur[target] == search) {
+					continue;
+				}
+				int newDistance = distance + graph.getRouteDistance(r);
+				if (reached[target] != search || newDistance < distances[target]) {
+					reached[target] = search;
+					distances[target] = newDistance;
+					previous[target] = city;
+					heap.offer(target, newDistance + estimate);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return If the route in the tree from the given city, which must be in the tree, to destination avoids the cities banned
+	 * 	for the current spur search
+	 */
+	private boolean isClean (int city)
+	{
+		int end = city;
+		while (end != dest && clean[end] >> 1 != search && banned[end] != search) {
+			end = next[end];
+		}
+		boolean res = end == dest || clean[end] >> 1 == search && (clean[end] & 1) == 0;
+		int mark = search << 1 | (res ? 0 : 1);
+		for (int c = city; c != end; c = next[c]) {
+			clean[c] = mark;
+		}
+		return res;
+	}
+
+	/**
+	 * @return A new array holding the route in the tree from the given city to destination from the given position on,
+	 * 	with room for the cities before it
+	 */
+	private int[] treeRoute (int city, int position)
+	{
+		int length = position + 1;
+		for (int c = city; c != dest; c = next[c]) {
+			length++;
+		}
+		int[] res = new int[length];
+		for (int c = city, i = position; i < length; c = next[c]) {
+			res[i++] = c;
+		}
+		return res;
+	}
+
+	/**
+	 * A route from source to destination, found or candidate
+	 */
+	private static final class Candidate implements Comparable<Candidate>
+	{
+		final int[] cities;
+
+		final int length;
+
+		/**
+		 * The position of the spur city where this route deviates from it's parent
+		 */
+		final int deviation;
+
+		private final int hash;
+
+		Candidate (int[] cities, int length, int deviation)
+		{
+			this.cities = cities;
+			this.length = length;
+			this.deviation = deviation;
+			this.hash = Arrays.hashCode(cities);
+		}
+
+		@Override
+		public int compareTo (Candidate other)
+		{
+			return length < other.length ? -1 : length > other.length ? 1 : 0;
+		}
+
+		@Override
+		public boolean equals (Object o)
+		{
+			return o instanceof Candidate && Arrays.equals(cities, ((Candidate) o).cities);
+		}
+
+		@Override
+		public int hashCode ()
+		{
+			return hash;
+		}
+	}
+
+}
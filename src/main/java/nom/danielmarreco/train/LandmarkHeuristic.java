@@ -0,0 +1,117 @@
+package nom.danielmarreco.train;
+
+/**
+ * The ALT (A*, landmarks and triangle inequality) heuristic: the distances from and to a few landmark cities are
+ * precomputed, and bound the distance between any two cities by the triangle inequality.
+ * <br/>
+ * For a landmark <i>L</i>, <i>d(from, to) &ge; d(L, to) - d(L, from)</i> and <i>d(from, to) &ge; d(from, L) - d(to, L)</i>;
+ * the estimate is the best of these bounds over all landmarks. Landmarks are picked one by one as the city farthest
+ * from the ones already picked, so they lie on the edges of the world, behind the cities whose routes they bound.
+ * <br/>
+ * Precomputing takes two Dijkstra searches and two int arrays the size of the world per landmark.
+ * The estimates only hold for the snapshot they were computed for: other snapshots, such as those of the world after it changed, get 0.
+ */
+public final class LandmarkHeuristic implements Heuristic {
+
+	private final CompactWorld graph;
+
+	/**
+	 * The ids of the landmarks
+	 */
+	private final int[] landmarks;
+
+	/**
+	 * The distance from each landmark to each city, indexed by landmark then city id
+	 */
+	private final int[][] fromLandmark;
+
+	/**
+	 * The distance from each city to each landmark, indexed by landmark then city id
+	 */
+	private final int[][] toLandmark;
+
+	/**
+	 * Picks the landmarks and precomputes their distances
+	 * 
+	 * @param graph The snapshot the estimates are for
+	 * @param landmarkCount The number of landmarks; more give better estimates, but cost more memory and time per estimate
+	 */
+	public LandmarkHeuristic (CompactWorld graph, int landmarkCount)
+	{
+		int cityCount = graph.getCityCount();
+		landmarkCount = Math.min(landmarkCount, cityCount);
+		this.graph = graph;
+		this.landmarks = new int[landmarkCount];
+		this.fromLandmark = new int[landmarkCount][];
+		this.toLandmark = new int[landmarkCount][];
+
+		// the distance from the closest landmark picked so far to each city; the first one is the farthest from city 0
+		int[] closest = null;
+		for (int i = 0; i < landmarkCount; i++) {
+			int[] from = closest == null ? search(graph, 0, false) : closest;
+			int landmark = 0;
+			for (int city = 1; city < cityCount; city++) {
+				if (from[city] > from[landmark]) {
+					landmark = city;
+				}
+			}
+			landmarks[i] = landmark;
+			fromLandmark[i] = search(graph, landmark, false);
+			toLandmark[i] = search(graph, landmark, true);
+			if (closest == null) {
+				closest = fromLandmark[i].clone();
+			}
+			else {
+				for (int city = 0; city < cityCount; city++) {
+					closest[city] = Math.min(closest[city], fromLandmark[i][city]);
+				}
+			}
+		}
+	}
+
+	private static int[] search (CompactWorld graph, int source, boolean backward)
+	{
+		Dijkstra dijkstra = new Dijkstra(graph, backward);
+		dijkstra.run(source, -1);
+		return dijkstra.distances;
+	}
+
+	/**
+	 * @return The ids of the landmarks picked
+	 */
+	public int[] getLandmarks ()
+	{
+		return landmarks.clone();
+	}
+
+	@Override
+	public int getLowerBound (CompactWorld graph, int from, int to)
+	{
+		if (graph != this.graph) {
+			return 0;
+		}
+		int res = 0;
+		for (int i = 0; i < landmarks.length; i++) {
+			int[] fromL = fromLandmark[i], toL = toLandmark[i];
+			if (fromL[from] != Dijkstra.UNREACHABLE && fromL[to] != Dijkstra.UNREACHABLE) {
+				res = Math.max(res, fromL[to] - fromL[from]);
+			}
+			if (toL[from] != Dijkstra.UNREACHABLE && toL[to] != Dijkstra.UNREACHABLE) {
+				res = Math.max(res, toL[from] - toL[to]);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Figures assume a 64 bits HotSpot VM with compressed references.
+	 * 
+	 * @return The heap used by the precomputed distances, in bytes
+	 */
+	public long getMemoryFootprint ()
+	{
+		final int arrayHeader = 16;
+		return landmarks.length * (2L * arrayHeader + 8L * graph.getCityCount());
+	}
+
+}
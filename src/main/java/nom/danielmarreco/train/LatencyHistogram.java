@@ -0,0 +1,125 @@
+package nom.danielmarreco.train;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds, with buckets in the manner of HdrHistogram: every power of two is split in
+ * {@link #SUB_BUCKETS} buckets of the same width, so any value from 1 ns to centuries is recorded with a relative error
+ * of at most 1 / {@link #SUB_BUCKETS}, in a fixed array of counters.
+ * <br/>
+ * Values are recorded lock-free and without allocation, by any number of threads.
+ */
+final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+
+	/**
+	 * The number of buckets per power of two
+	 */
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Values below twice {@link #SUB_BUCKETS} have a bucket each; each power of two above them is split in SUB_BUCKETS
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong total = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos The latency to be recorded; negative ones are recorded as 0
+	 */
+	void record (long nanos)
+	{
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		total.addAndGet(value);
+		long previous;
+		while (value > (previous = max.get()) && !max.compareAndSet(previous, value)) {
+			// another thread recorded a value in between, which may be larger
+		}
+	}
+
+	/**
+	 * @return The index of the bucket of the given value: the value itself when small, or else the power of two
+	 * 	and the highest bits of the value below it
+	 */
+	static int indexOf (long value)
+	{
+		int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+
+	/**
+	 * @return The highest value recorded in the bucket of the given index
+	 */
+	static long highestValueOf (int index)
+	{
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index >>> SUB_BUCKET_BITS) - 1;
+		long mantissa = index - (shift << SUB_BUCKET_BITS);
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	long getCount ()
+	{
+		return count.get();
+	}
+
+	long getMax ()
+	{
+		return max.get();
+	}
+
+	/**
+	 * @return The mean of the values recorded, or 0 if none
+	 */
+	double getMean ()
+	{
+		long n = count.get();
+		return n == 0 ? 0 : (double) total.get() / n;
+	}
+
+	/**
+	 * @param percentile The percentile, from 0 to 100
+	 * @return The value under which lie the given percentile of the values recorded, within the precision of the buckets;
+	 * 	0 if none
+	 */
+	long getPercentile (double percentile)
+	{
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forgets every value recorded; values recorded meanwhile may be partially forgotten
+	 */
+	void reset ()
+	{
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+}
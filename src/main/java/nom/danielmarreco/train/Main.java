@@ -1,6 +1,9 @@
 package nom.danielmarreco.train;
 
 import java.io.PrintStream;
+import java.nio.file.Paths;
+
+import nom.danielmarreco.train.RouteLoader.Format;
 
 /**
  * The TRAIN system bootstrap entry point.<br/>
@@ -10,6 +13,9 @@ import java.io.PrintStream;
  * of the edge represents the distance between the two towns.  
  * A given route will never appear more than once, and for a given 
  * route, the starting and ending town will not be the same town.
+ * <br/>
+ * Routes are given as arguments ("AB5", "Auckland-Wellington:640") or loaded from files named by arguments starting with '@' ("@routes.txt"),
+ * holding routes in the same notation, or one 'from,to,distance' route per line if the file name ends with ".csv".
  */
 public class Main {
 
@@ -21,7 +27,13 @@ public class Main {
 			// builds Kiwiland
 			WorldBuilder kiwilandBuilder = new WorldBuilder();
 			for (String arg : args) {
-				kiwilandBuilder.addRoute(arg);
+				if (arg.startsWith("@")) {
+					String file = arg.substring(1);
+					new RouteLoader(kiwilandBuilder, file.endsWith(".csv") ? Format.CSV : Format.NOTATION).load(Paths.get(file));
+				}
+				else {
+					kiwilandBuilder.addRoute(arg);
+				}
 			}
 			World kiwiland = kiwilandBuilder.build();
 
@@ -45,10 +57,10 @@ public class Main {
 					kiwilandGuide.findRoute("A", "E", "D").getLenght());
 
 			OUT.println("6. The number of trips starting at C and ending at C with a maximum of 3 stops is: " + 
-					kiwilandGuide.findPossibleRoutes("C", "C", 3).size());
+					kiwilandGuide.countPossibleRoutes("C", "C", 3));
 
 			OUT.println("7. The number of trips starting at A and ending at C with exactly 4 stops is: " + 
-					kiwilandGuide.findPossibleRoutes("A", "C", 4).size());
+					kiwilandGuide.countPossibleRoutes("A", "C", 4, 4));
 
 			OUT.println("8. The length of the shortest route from A to C is: " + 
 					kiwilandGuide.findShortestRoute("A", "C").getLenght());
@@ -57,7 +69,7 @@ public class Main {
 					kiwilandGuide.findShortestRoute("A", "C").getLenght());
 
 			OUT.println("10. The number of different routes from C to C with a distance of less than 30 is: " +       
-					kiwilandGuide.findPossibleRoutesShorterThan("C", "C", 29)); //less than 30 => max = 29. a matter of notation...
+					kiwilandGuide.countPossibleRoutesShorterThan("C", "C", 29)); //less than 30 => max = 29. a matter of notation...
 
 		}
 		catch (Exception e) {
@@ -0,0 +1,303 @@
+package nom.danielmarreco.train;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link CompactWorld} read straight from a memory mapped snapshot file.
+ * <br/>
+ * The file holds, in little endian order, a header followed by these sections:
+ * <ol>
+ * <li>The CSR arrays: offsets (city count + 1 ints), targets and distances (route count ints each)</li>
+ * <li>The name table: the offset of each name in the name bytes (city count + 1 ints), the {@link String#hashCode()} of
+ * each name (city count ints) and an open addressing hash table of city ids plus 1 (a power of two of ints), placed by
+ * the hash of their names as {@link SymbolTable} does</li>
+ * <li>The UTF-8 bytes of the city names</li>
+ * </ol>
+ * The header is made of the magic number, the format version, the city count, the route count and the hash table size
+ * (ints), a reserved int, then the world version and the size of the name bytes (longs).
+ * <br/>
+ * The int sections are mapped in chunks, see {@link OffHeapInts}, so only the name bytes are limited to 2 GB.
+ */
+final class MappedCompactWorld extends CompactWorld {
+
+	/**
+	 * "TRNW", the first bytes of every snapshot file
+	 */
+	static final int MAGIC = 0x574E5254;
+
+	/**
+	 * The version of the file format written, to be increased on any incompatible change
+	 */
+	static final int FORMAT_VERSION = 2;
+
+	static final int HEADER_SIZE = 40;
+
+	private final int cityCount;
+
+	private final int routeCount;
+
+	private final long version;
+
+	private final OffHeapInts offsets;
+
+	private final OffHeapInts targets;
+
+	private final OffHeapInts distances;
+
+	private final SnapshotNames names;
+
+	private MappedCompactWorld (FileChannel channel, ByteBuffer header) throws IOException
+	{
+		cityCount = header.getInt(8);
+		routeCount = header.getInt(12);
+		version = header.getLong(24);
+		long[] sizes = getSectionSizes(header, channel.size());
+
+		long position = HEADER_SIZE;
+		offsets = OffHeapInts.map(channel, position, cityCount + 1);
+		position += sizes[0];
+		targets = OffHeapInts.map(channel, position, routeCount);
+		position += sizes[1];
+		distances = OffHeapInts.map(channel, position, routeCount);
+		position += sizes[2];
+		OffHeapInts nameOffsets = OffHeapInts.map(channel, position, cityCount + 1);
+		position += sizes[3];
+		OffHeapInts nameHashes = OffHeapInts.map(channel, position, cityCount);
+		position += sizes[4];
+		OffHeapInts slots = OffHeapInts.map(channel, position, header.getInt(16));
+		position += sizes[5];
+		names = new SnapshotNames(nameOffsets, nameHashes, slots, channel.map(MapMode.READ_ONLY, position, sizes[6]));
+	}
+
+	/**
+	 * @see CompactWorld#open(Path)
+	 */
+	static MappedCompactWorld map (Path file) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			// the mappings outlive the channel
+			return new MappedCompactWorld(channel, readHeader(channel, file));
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads and checks the header of a snapshot file, leaving the channel at the first section
+	 * 
+	 * @param channel The snapshot file, at it's beginning
+	 * @param file The path of the file, for the messages
+	 * @return The header, in little endian order
+	 * @throws IOException If the file can not be read or is not a snapshot in a supported format
+	 */
+	static ByteBuffer readHeader (FileChannel channel, Path file) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining() && channel.read(header) >= 0) {
+			// reads the whole header
+		}
+		if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+			throw new IOException("Not a world snapshot: " + file);
+		}
+		if (header.getInt(4) != FORMAT_VERSION) {
+			throw new IOException("Unsupported world snapshot format version " + header.getInt(4) + ": " + file);
+		}
+		return header;
+	}
+
+	/**
+	 * @param header A header read by {@link #readHeader(FileChannel, Path)}
+	 * @param fileSize The size of the snapshot file
+	 * @return The size in bytes of each section of the file, in order
+	 * @throws IOException If the header does not match the size of the file, or the name bytes do not fit in a buffer
+	 */
+	static long[] getSectionSizes (ByteBuffer header, long fileSize) throws IOException
+	{
+		int cityCount = header.getInt(8);
+		int routeCount = header.getInt(12);
+		int slotCount = header.getInt(16);
+		long nameBytes = header.getLong(32);
+
+		long[] sizes = {4L * (cityCount + 1), 4L * routeCount, 4L * routeCount, 4L * (cityCount + 1), 4L * cityCount, 4L * slotCount,
+				nameBytes};
+		long expectedSize = HEADER_SIZE;
+		for (long size : sizes) {
+			expectedSize += size;
+		}
+		if (cityCount < 0 || routeCount < 0 || Integer.bitCount(slotCount) != 1 || nameBytes < 0 || fileSize != expectedSize) {
+			throw new IOException("Corrupt world snapshot");
+		}
+		if (nameBytes > Integer.MAX_VALUE) {
+			throw new IOException("City names too large to be mapped");
+		}
+		return sizes;
+	}
+
+	/**
+	 * @see CompactWorld#write(Path)
+	 */
+	static void write (CompactWorld graph, Path file) throws IOException
+	{
+		int cityCount = graph.getCityCount();
+		int routeCount = graph.getRouteCount();
+		byte[][] names = new byte[cityCount][];
+		long nameBytes = 0;
+		for (int id = 0; id < cityCount; id++) {
+			names[id] = graph.getName(id).getBytes(StandardCharsets.UTF_8);
+			nameBytes += names[id].length;
+		}
+		if (nameBytes > Integer.MAX_VALUE) {
+			throw new IOException("City names too large to be mapped");
+		}
+		int slotCount = SnapshotNames.getSlotCount(cityCount);
+		int[] slots = new int[slotCount];
+		for (int id = 0; id < cityCount; id++) {
+			int slot = SymbolTable.hash(graph.getName(id)) & (slotCount - 1);
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & (slotCount - 1);
+			}
+			slots[slot] = id + 1;
+		}
+
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(cityCount).putInt(routeCount).putInt(slotCount).putInt(0);
+			buffer.putLong(graph.getVersion()).putLong(nameBytes);
+
+			for (int id = 0; id <= cityCount; id++) {
+				putInt(channel, buffer, id < cityCount ? graph.getRoutesStart(id) : routeCount);
+			}
+			for (int route = 0; route < routeCount; route++) {
+				putInt(channel, buffer, graph.getRouteTarget(route));
+			}
+			for (int route = 0; route < routeCount; route++) {
+				putInt(channel, buffer, graph.getRouteDistance(route));
+			}
+			int nameOffset = 0;
+			for (int id = 0; id <= cityCount; id++) {
+				putInt(channel, buffer, nameOffset);
+				nameOffset += id < cityCount ? names[id].length : 0;
+			}
+			for (int id = 0; id < cityCount; id++) {
+				putInt(channel, buffer, graph.getNameHash(id));
+			}
+			for (int slot : slots) {
+				putInt(channel, buffer, slot);
+			}
+			for (byte[] name : names) {
+				for (byte b : name) {
+					if (!buffer.hasRemaining()) {
+						flush(channel, buffer);
+					}
+					buffer.put(b);
+				}
+			}
+			flush(channel, buffer);
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	private static void putInt (FileChannel channel, ByteBuffer buffer, int value) throws IOException
+	{
+		if (buffer.remaining() < 4) {
+			flush(channel, buffer);
+		}
+		buffer.putInt(value);
+	}
+
+	private static void flush (FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public int getCityCount ()
+	{
+		return cityCount;
+	}
+
+	@Override
+	public int getRouteCount ()
+	{
+		return routeCount;
+	}
+
+	@Override
+	public int getId (String name)
+	{
+		return names.getId(name);
+	}
+
+	@Override
+	public String getName (int id)
+	{
+		return names.getName(id);
+	}
+
+	@Override
+	int getNameHash (int id)
+	{
+		return names.getNameHash(id);
+	}
+
+	@Override
+	public City getCity (int id)
+	{
+		return getSnapshotCity(id);
+	}
+
+	@Override
+	public int getRoutesStart (int id)
+	{
+		return offsets.get(id);
+	}
+
+	@Override
+	public int getRoutesEnd (int id)
+	{
+		return offsets.get(id + 1);
+	}
+
+	@Override
+	public int getRouteTarget (int route)
+	{
+		return targets.get(route);
+	}
+
+	@Override
+	public int getRouteDistance (int route)
+	{
+		return distances.get(route);
+	}
+
+	@Override
+	public long getVersion ()
+	{
+		return version;
+	}
+
+	@Override
+	public long getMemoryFootprint ()
+	{
+		final int object = 16, byteBuffer = 64, chunkedArray = 32;
+		int buffers = offsets.getChunkCount() + targets.getChunkCount() + distances.getChunkCount() + names.getBufferCount();
+		return object + 5 * chunkedArray + 2 * buffers * byteBuffer + getSnapshotCitiesFootprint() + getReverseIndexFootprint();
+	}
+
+}
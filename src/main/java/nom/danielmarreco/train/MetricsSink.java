@@ -0,0 +1,81 @@
+package nom.danielmarreco.train;
+
+/**
+ * Receives the latency and the work done by each query of a {@link TravelGuide}, to find out which queries are slow and why.
+ * <br/>
+ * Sinks are called by the thread that ran the query, right after it, including queries ending with an exception;
+ * they must be thread safe and fast, as the query returns only once they do. With no sink set, which is the default,
+ * queries neither allocate nor read the clock for the sake of metrics.
+ * <br/>
+ * Queries answered from a precomputed structure (a {@link ContractionHierarchy}, a {@link DistanceMatrix}, a cached
+ * shortest path tree) or in parallel, as distance tables, report their latency and routes only, with no work counted.
+ * Parallel enumerations report the work of all their tasks, the deepest route being the deepest walked by any of them.
+ * Streamed enumerations are not reported at all, as their latency is the client's.
+ * 
+ * @see TravelGuide#setMetricsSink(MetricsSink)
+ * @see JmxMetricsSink
+ */
+public interface MetricsSink {
+
+	/**
+	 * The kinds of queries reported
+	 */
+	enum Query {
+		/**
+		 * {@link TravelGuide#findRoute(String...)}
+		 */
+		FIND_ROUTE,
+		/**
+		 * {@link TravelGuide#getRouteDistance(String...)}
+		 */
+		ROUTE_DISTANCE,
+		/**
+		 * {@link TravelGuide#getRouteDistances(String[], int[], java.util.concurrent.ForkJoinPool)}, once per batch
+		 */
+		ROUTE_DISTANCES,
+		/**
+		 * {@link TravelGuide#findPossibleRoutes(String, String, Integer, Integer)} and it's siblings
+		 */
+		FIND_POSSIBLE_ROUTES,
+		/**
+		 * {@link TravelGuide#countPossibleRoutes(String, String, Integer, Integer)} and it's siblings
+		 */
+		COUNT_POSSIBLE_ROUTES,
+		/**
+		 * {@link TravelGuide#findShortestRoute(String, String)}
+		 */
+		FIND_SHORTEST_ROUTE,
+		/**
+		 * {@link TravelGuide#getShortestDistance(String, String)}
+		 */
+		SHORTEST_DISTANCE,
+		/**
+		 * {@link TravelGuide#findKShortestRoutes(String, String, int)}
+		 */
+		K_SHORTEST_ROUTES,
+		/**
+		 * {@link TravelGuide#getShortestDistances(String[], String[], java.util.concurrent.ForkJoinPool)}, once per table,
+		 * each cell counted as emitted
+		 */
+		DISTANCE_TABLE,
+		/**
+		 * {@link TravelGuide#findReachableCities(String[], int)}, {@link TravelGuide#findReachableCitiesByHops(String[], int)}
+		 * and their siblings, each city reached counted as emitted
+		 */
+		REACHABLE_CITIES
+	}
+
+	/**
+	 * Called once per query, after it ran
+	 * 
+	 * @param query The kind of query
+	 * @param nanos The time the query took, in nanoseconds
+	 * @param settled The number of cities settled by the searches, or of search states expanded by the enumerations and counts
+	 * @param relaxed The number of routes followed from the cities settled or the states expanded
+	 * @param emitted The number of routes returned, or counted
+	 * @param peakFrontier The largest number of cities waiting to be settled, or the deepest route walked by an enumeration,
+	 * 	or the most states kept at once by a count
+	 */
+	void queryCompleted (Query query, long nanos, long settled, long relaxed, long emitted, int peakFrontier);
+
+}
@@ -0,0 +1,99 @@
+package nom.danielmarreco.train;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Owns {@link CompactWorld}s held outside the Java heap, in direct buffers, and ends their lifetime all at once.
+ * <br/>
+ * The heap only holds a few objects per snapshot, whatever it's size: a world of a billion routes takes about 8 GB of native
+ * memory but no more heap than a small one, so it neither needs a larger heap nor slows the collector down. Cities are
+ * created in the heap only for the names a query resolves or returns, as for snapshots mapped by {@link CompactWorld#open(Path)}.
+ * Searches walking routes backwards build a reverse index the first time they run, also outside the heap and owned by the arena.
+ * <br/>
+ * Unlike mapped snapshots, the whole world is read up front, so queries never wait for the disk, and the file can be changed
+ * or removed afterwards. Snapshots are queried through {@link TravelGuide#TravelGuide(CompactWorld)}, like any other.
+ * <pre>
+ * try (OffHeapArena arena = new OffHeapArena()) {
+ *     TravelGuide guide = new TravelGuide(arena.load(file));
+ *     ...
+ * }
+ * </pre>
+ * Direct memory is limited by <code>-XX:MaxDirectMemorySize</code>, which defaults to the maximum heap size.
+ */
+public final class OffHeapArena implements AutoCloseable {
+
+	private final List<OffHeapCompactWorld> worlds = new ArrayList<OffHeapCompactWorld>();
+
+	private boolean closed;
+
+	/**
+	 * Reads a snapshot file written by {@link CompactWorld#write(Path)} into memory owned by this arena
+	 * 
+	 * @param file The snapshot file
+	 * @return A CompactWorld held outside the heap until this arena is closed
+	 * @throws IOException If the file can not be read or is not a snapshot in a supported format
+	 * @throws IllegalStateException If this arena was closed
+	 */
+	public synchronized CompactWorld load (Path file) throws IOException
+	{
+		checkOpen();
+		return add(OffHeapCompactWorld.read(file));
+	}
+
+	/**
+	 * Copies a snapshot into memory owned by this arena
+	 * 
+	 * @param graph The snapshot to be copied, e.g. {@link World#getCompactWorld()}
+	 * @return A CompactWorld with the same cities, routes and version, held outside the heap until this arena is closed
+	 * @throws IllegalArgumentException If the names of the cities take more than 2 GB
+	 * @throws IllegalStateException If this arena was closed
+	 */
+	public synchronized CompactWorld copy (CompactWorld graph)
+	{
+		checkOpen();
+		return add(OffHeapCompactWorld.copyOf(graph));
+	}
+
+	private CompactWorld add (OffHeapCompactWorld world)
+	{
+		worlds.add(world);
+		return world;
+	}
+
+	private void checkOpen ()
+	{
+		if (closed) {
+			throw new IllegalStateException("Arena closed");
+		}
+	}
+
+	/**
+	 * @return The number of bytes held outside the heap by the worlds of this arena; 0 once closed
+	 */
+	public synchronized long getAllocatedBytes ()
+	{
+		long res = 0;
+		for (OffHeapCompactWorld world : worlds) {
+			res += world.getOffHeapSize();
+		}
+		return res;
+	}
+
+	/**
+	 * Ends the lifetime of the worlds of this arena: any further query on them fails with an {@link IllegalStateException}.
+	 * Their memory is given back once the queries still running are done and the buffer objects are collected,
+	 * as Java 8 offers no way to free a direct buffer explicitly. Closing an arena again does nothing.
+	 */
+	public synchronized void close ()
+	{
+		for (OffHeapCompactWorld world : worlds) {
+			world.release();
+		}
+		worlds.clear();
+		closed = true;
+	}
+
+}
@@ -0,0 +1,267 @@
+package nom.danielmarreco.train;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link CompactWorld} holding it's CSR arrays and the names of it's cities in direct buffers, outside the heap,
+ * owned by an {@link OffHeapArena}.
+ * <br/>
+ * Once the arena is closed the buffers are let go, and any further query fails: their memory is given back as soon
+ * as the queries still running are done and the few buffer objects are collected.
+ */
+final class OffHeapCompactWorld extends CompactWorld {
+
+	/**
+	 * The buffers of a snapshot, dropped all at once when it's arena is closed
+	 */
+	private static final class Memory {
+
+		final OffHeapInts offsets;
+
+		final OffHeapInts targets;
+
+		final OffHeapInts distances;
+
+		final SnapshotNames names;
+
+		/**
+		 * The routes indexed by the city they arrive at, built on first use in buffers of their own
+		 */
+		volatile ReverseIndex reverseIndex;
+
+		Memory (OffHeapInts offsets, OffHeapInts targets, OffHeapInts distances, SnapshotNames names)
+		{
+			this.offsets = offsets;
+			this.targets = targets;
+			this.distances = distances;
+			this.names = names;
+		}
+	}
+
+	private final int cityCount;
+
+	private final int routeCount;
+
+	private final long version;
+
+	/**
+	 * The number of bytes held outside the heap, the reverse index aside
+	 */
+	private final long size;
+
+	/**
+	 * The number of bytes held outside the heap by the reverse index, once built
+	 */
+	private volatile long reverseIndexSize;
+
+	/**
+	 * The buffers, or null once released
+	 */
+	private volatile Memory memory;
+
+	private OffHeapCompactWorld (int cityCount, int routeCount, long version, Memory memory)
+	{
+		this.cityCount = cityCount;
+		this.routeCount = routeCount;
+		this.version = version;
+		this.memory = memory;
+		this.size = 4L * (memory.offsets.length() + memory.targets.length() + memory.distances.length()) + memory.names.getSize();
+	}
+
+	/**
+	 * @see OffHeapArena#copy(CompactWorld)
+	 */
+	static OffHeapCompactWorld copyOf (CompactWorld graph)
+	{
+		int cityCount = graph.getCityCount();
+		int routeCount = graph.getRouteCount();
+		OffHeapInts offsets = OffHeapInts.allocate(cityCount + 1);
+		OffHeapInts targets = OffHeapInts.allocate(routeCount);
+		OffHeapInts distances = OffHeapInts.allocate(routeCount);
+		for (int id = 0; id < cityCount; id++) {
+			offsets.set(id, graph.getRoutesStart(id));
+		}
+		offsets.set(cityCount, routeCount);
+		for (int route = 0; route < routeCount; route++) {
+			targets.set(route, graph.getRouteTarget(route));
+			distances.set(route, graph.getRouteDistance(route));
+		}
+		return new OffHeapCompactWorld(cityCount, routeCount, graph.getVersion(),
+				new Memory(offsets, targets, distances, SnapshotNames.copyOf(graph)));
+	}
+
+	/**
+	 * @see OffHeapArena#load(Path)
+	 */
+	static OffHeapCompactWorld read (Path file) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = MappedCompactWorld.readHeader(channel, file);
+			long[] sizes = MappedCompactWorld.getSectionSizes(header, channel.size());
+			int cityCount = header.getInt(8);
+			int routeCount = header.getInt(12);
+
+			// the sections are read in the order they are written, straight into the buffers
+			OffHeapInts offsets = OffHeapInts.allocate(cityCount + 1);
+			offsets.read(channel);
+			OffHeapInts targets = OffHeapInts.allocate(routeCount);
+			targets.read(channel);
+			OffHeapInts distances = OffHeapInts.allocate(routeCount);
+			distances.read(channel);
+			OffHeapInts nameOffsets = OffHeapInts.allocate(cityCount + 1);
+			nameOffsets.read(channel);
+			OffHeapInts nameHashes = OffHeapInts.allocate(cityCount);
+			nameHashes.read(channel);
+			OffHeapInts slots = OffHeapInts.allocate(header.getInt(16));
+			slots.read(channel);
+			ByteBuffer names = ByteBuffer.allocateDirect((int) sizes[6]);
+			while (names.hasRemaining()) {
+				if (channel.read(names) < 0) {
+					throw new IOException("Unexpected end of world snapshot");
+				}
+			}
+			return new OffHeapCompactWorld(cityCount, routeCount, header.getLong(24),
+					new Memory(offsets, targets, distances, new SnapshotNames(nameOffsets, nameHashes, slots, names)));
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return The buffers of this snapshot
+	 * @throws IllegalStateException If the arena of this snapshot was closed
+	 */
+	private Memory memory ()
+	{
+		Memory res = memory;
+		if (res == null) {
+			throw new IllegalStateException("The arena holding this world was closed");
+		}
+		return res;
+	}
+
+	/**
+	 * Lets go of the buffers of this snapshot
+	 */
+	void release ()
+	{
+		memory = null;
+	}
+
+	/**
+	 * @return The number of bytes held outside the heap, even once released
+	 */
+	long getOffHeapSize ()
+	{
+		return size + reverseIndexSize;
+	}
+
+	/**
+	 * Builds the reverse index outside the heap too, along with the other buffers of this snapshot, so it is let go of
+	 * when the arena is closed
+	 */
+	@Override
+	ReverseIndex getReverseIndex ()
+	{
+		Memory memory = memory();
+		ReverseIndex res = memory.reverseIndex;
+		if (res == null) {
+			synchronized (memory) {
+				if ((res = memory.reverseIndex) == null) {
+					res = memory.reverseIndex = ReverseIndex.offHeap(this);
+					reverseIndexSize = res.getOffHeapSize();
+				}
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public int getCityCount ()
+	{
+		return cityCount;
+	}
+
+	@Override
+	public int getRouteCount ()
+	{
+		return routeCount;
+	}
+
+	@Override
+	public int getId (String name)
+	{
+		return memory().names.getId(name);
+	}
+
+	@Override
+	public String getName (int id)
+	{
+		return memory().names.getName(id);
+	}
+
+	@Override
+	int getNameHash (int id)
+	{
+		return memory().names.getNameHash(id);
+	}
+
+	@Override
+	public City getCity (int id)
+	{
+		return getSnapshotCity(id);
+	}
+
+	@Override
+	public int getRoutesStart (int id)
+	{
+		return memory().offsets.get(id);
+	}
+
+	@Override
+	public int getRoutesEnd (int id)
+	{
+		return memory().offsets.get(id + 1);
+	}
+
+	@Override
+	public int getRouteTarget (int route)
+	{
+		return memory().targets.get(route);
+	}
+
+	@Override
+	public int getRouteDistance (int route)
+	{
+		return memory().distances.get(route);
+	}
+
+	@Override
+	public long getVersion ()
+	{
+		return version;
+	}
+
+	@Override
+	public long getMemoryFootprint ()
+	{
+		final int object = 40, chunkedArray = 32, byteBuffer = 64;
+		Memory buffers = memory;
+		long res = object + getSnapshotCitiesFootprint();
+		if (buffers != null) {
+			ReverseIndex reverseIndex = buffers.reverseIndex;
+			res += reverseIndex == null ? 0 : reverseIndex.getMemoryFootprint();
+			int count = buffers.offsets.getChunkCount() + buffers.targets.getChunkCount() + buffers.distances.getChunkCount()
+					+ buffers.names.getBufferCount();
+			res += 5 * chunkedArray + 2 * count * byteBuffer;
+		}
+		return res;
+	}
+
+}
@@ -0,0 +1,126 @@
+package nom.danielmarreco.train;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * An array of ints held outside the heap, in little endian order, either allocated as direct buffers or mapped from a file.
+ * <br/>
+ * A single buffer holds at most 2 GB, so the array is split in chunks of {@link #CHUNK_SIZE} ints: it may then hold
+ * up to {@link Integer#MAX_VALUE} ints, while the heap only holds a couple of buffer objects per chunk.
+ */
+final class OffHeapInts {
+
+	private static final int CHUNK_BITS = 28;
+
+	/**
+	 * The number of ints per buffer, i.e. 1 GB
+	 */
+	static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final ByteBuffer[] bytes;
+
+	/**
+	 * The int views of {@link #bytes}
+	 */
+	private final IntBuffer[] chunks;
+
+	private final int length;
+
+	private OffHeapInts (ByteBuffer[] bytes, int length)
+	{
+		this.bytes = bytes;
+		this.chunks = new IntBuffer[bytes.length];
+		for (int i = 0; i < bytes.length; i++) {
+			chunks[i] = bytes[i].order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		}
+		this.length = length;
+	}
+
+	/**
+	 * @param length The number of ints
+	 * @return A new array of zeroes in direct buffers
+	 */
+	static OffHeapInts allocate (int length)
+	{
+		ByteBuffer[] bytes = new ByteBuffer[getChunkCount(length)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = ByteBuffer.allocateDirect(4 * getChunkLength(length, i));
+		}
+		return new OffHeapInts(bytes, length);
+	}
+
+	/**
+	 * @param channel An open file; the mappings outlive it
+	 * @param position The position of the first int in the file
+	 * @param length The number of ints
+	 * @return A read only array mapping the given region of the file
+	 * @throws IOException If the file can not be mapped
+	 */
+	static OffHeapInts map (FileChannel channel, long position, int length) throws IOException
+	{
+		ByteBuffer[] bytes = new ByteBuffer[getChunkCount(length)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = channel.map(MapMode.READ_ONLY, position + 4L * i * CHUNK_SIZE, 4L * getChunkLength(length, i));
+		}
+		return new OffHeapInts(bytes, length);
+	}
+
+	private static int getChunkCount (int length)
+	{
+		return (int) ((length + (long) CHUNK_MASK) >>> CHUNK_BITS);
+	}
+
+	private static int getChunkLength (int length, int chunk)
+	{
+		return (int) Math.min(CHUNK_SIZE, length - (long) chunk * CHUNK_SIZE);
+	}
+
+	/**
+	 * Fills this array with the next bytes of the given channel
+	 * 
+	 * @throws IOException If the channel can not be read or ends before the array is filled
+	 */
+	void read (ReadableByteChannel channel) throws IOException
+	{
+		for (ByteBuffer chunk : bytes) {
+			chunk.clear();
+			while (chunk.hasRemaining()) {
+				if (channel.read(chunk) < 0) {
+					throw new IOException("Unexpected end of world snapshot");
+				}
+			}
+		}
+	}
+
+	int get (int index)
+	{
+		return chunks[index >>> CHUNK_BITS].get(index & CHUNK_MASK);
+	}
+
+	void set (int index, int value)
+	{
+		chunks[index >>> CHUNK_BITS].put(index & CHUNK_MASK, value);
+	}
+
+	int length ()
+	{
+		return length;
+	}
+
+	/**
+	 * @return The number of buffers holding this array
+	 */
+	int getChunkCount ()
+	{
+		return chunks.length;
+	}
+
+}
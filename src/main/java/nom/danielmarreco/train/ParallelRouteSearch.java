@@ -0,0 +1,168 @@
+package nom.danielmarreco.train;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+import nom.danielmarreco.train.TravelGuide.RouteLimitStrategy;
+
+/**
+ * Splits the search of {@link RouteIterator} among a fork-join pool: down to a cutoff depth, every route leaving a city
+ * is followed by a task of it's own, holding a private copy of the route walked so far. 
+ * Below the cutoff, each task runs the sequential search. The routes found are merged as the tasks are joined.
+ * All tasks share the {@link RouteBounds} of the destination, taken from the snapshot or computed by the root task.
+ * <br/>
+ * The routes found are the same as the sequential search's, in a different order.
+ * <br/>
+ * All tasks also draw from the same {@link QueryBudget}, if any: once it is exceeded, the tasks not yet started return nothing.
+ * The tasks above the cutoff charge the few route prefixes they walk at once, before forking their subtasks.
+ * <br/>
+ * Each task counts the work done by itself and by it's subtasks, so the root task holds the work of the whole search.
+ */
+final class ParallelRouteSearch extends RecursiveTask<List<Route>> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final CompactWorld graph;
+	private final int dest;
+	private final int minHops;
+	private final RouteLimitStrategy limitStrategy;
+	private final int sequentialCutoff;
+
+	/**
+	 * The least number of stops or distance from each city to dest, according to limitStrategy
+	 */
+	private final RouteBounds bounds;
+
+	/**
+	 * The limits of the search, or null
+	 */
+	private final QueryBudget budget;
+
+	/**
+	 * The ids of the cities of the route walked so far
+	 */
+	private final int[] path;
+
+	/**
+	 * What is left of the limit
+	 */
+	private final int left;
+
+	/*
+	 * the work done by this task and it's subtasks, written by compute() and read once the task is joined
+	 */
+	private long expanded;
+	private long relaxed;
+	private int peakDepth;
+
+	/**
+	 * @param graph The snapshot to be searched
+	 * @param source The id of the city the routes start from
+	 * @param dest The id of the city the routes end at
+	 * @param minHops The minimum number of stops a route must have to be collected
+	 * @param limit The maximum number of stops or the maximum distance of the routes, according to limitStrategy
+	 * @param limitStrategy How routes are limited
+	 * @param sequentialCutoff The depth (number of stops) from which the search is no longer split
+	 * @param budget The limits of the search, or null
+	 */
+	ParallelRouteSearch (CompactWorld graph, int source, int dest, int minHops, int limit, RouteLimitStrategy limitStrategy,
+			int sequentialCutoff, QueryBudget budget)
+	{
+		this(graph, dest, minHops, limitStrategy, sequentialCutoff, RouteBounds.of(graph, dest, limit, limitStrategy), budget,
+				new int[] {source}, limit);
+	}
+
+	private ParallelRouteSearch (CompactWorld graph, int dest, int minHops, RouteLimitStrategy limitStrategy, int sequentialCutoff,
+			RouteBounds bounds, QueryBudget budget, int[] path, int left)
+	{
+		this.graph = graph;
+		this.dest = dest;
+		this.minHops = minHops;
+		this.limitStrategy = limitStrategy;
+		this.sequentialCutoff = sequentialCutoff;
+		this.bounds = bounds;
+		this.budget = budget;
+		this.path = path;
+		this.left = left;
+	}
+
+	@Override
+	protected List<Route> compute ()
+	{
+		List<Route> res = new ArrayList<Route>();
+		int hops = path.length - 1;
+		if (budget != null && budget.isExceeded()) {
+			return res;
+		}
+		if (hops >= sequentialCutoff) {
+			RouteIterator routes = new RouteIterator(graph, path, path.length, dest, minHops, left, limitStrategy, bounds, budget);
+			while (routes.hasNext()) {
+				res.add(routes.next());
+			}
+			expanded = routes.getExpandedCount();
+			relaxed = routes.getRelaxedCount();
+			peakDepth = routes.getPeakDepth();
+			return res;
+		}
+
+		int city = path[hops];
+		List<ParallelRouteSearch> subtasks = new ArrayList<ParallelRouteSearch>();
+		relaxed = graph.getRoutesEnd(city) - graph.getRoutesStart(city);
+		for (int r = graph.getRoutesStart(city), end = graph.getRoutesEnd(city); r < end; r++) {
+			int counter = left - (limitStrategy == RouteLimitStrategy.LIMIT_BY_STOPS ? 1 : graph.getRouteDistance(r));
+			int target = graph.getRouteTarget(r);
+			if (counter < bounds.get(target)) {
+				continue;
+			}
+			int[] subPath = Arrays.copyOf(path, path.length + 1);
+			subPath[path.length] = target;
+			expanded++;
+			peakDepth = hops + 1;
+			if (subPath[path.length] == dest && hops + 1 >= minHops) {
+				if (budget != null && !budget.emit()) {
+					budget.charge(expanded);
+					return res;
+				}
+				res.add(graph.getRoute(subPath, subPath.length));
+			}
+			subtasks.add(new ParallelRouteSearch(graph, dest, minHops, limitStrategy, sequentialCutoff, bounds, budget, subPath, counter));
+		}
+		if (budget != null && !budget.expand(expanded)) {
+			return res;
+		}
+		for (ParallelRouteSearch subtask : invokeAll(subtasks)) {
+			res.addAll(subtask.join());
+			expanded += subtask.expanded;
+			relaxed += subtask.relaxed;
+			peakDepth = Math.max(peakDepth, subtask.peakDepth);
+		}
+		return res;
+	}
+
+	/**
+	 * @return The number of route prefixes walked by this task and it's subtasks, once it is joined
+	 */
+	long getExpandedCount ()
+	{
+		return expanded;
+	}
+
+	/**
+	 * @return The number of routes followed by this task and it's subtasks, pruned or not, once it is joined
+	 */
+	long getRelaxedCount ()
+	{
+		return relaxed;
+	}
+
+	/**
+	 * @return The largest number of stops of the routes walked by this task and it's subtasks, once it is joined
+	 */
+	int getPeakDepth ()
+	{
+		return peakDepth;
+	}
+
+}
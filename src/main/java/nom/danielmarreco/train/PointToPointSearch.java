@@ -0,0 +1,44 @@
+package nom.danielmarreco.train;
+
+/**
+ * A search for the shortest route between two cities of a {@link CompactWorld}; instances are used once.
+ * 
+ * @see TravelGuide.SearchStrategy
+ */
+interface PointToPointSearch {
+
+	/**
+	 * Runs the search
+	 * 
+	 * @param source The id of the source city
+	 * @param dest The id of the destination city
+	 * @return If the destination can be reached from source
+	 */
+	boolean run (int source, int dest);
+
+	/**
+	 * @return The distance of the shortest route found, or {@link Dijkstra#UNREACHABLE}
+	 */
+	int getDistance ();
+
+	/**
+	 * @return The shortest route found
+	 */
+	Route getRoute ();
+
+	/**
+	 * @return The number of cities whose distance was settled by the search, a measure of it's cost
+	 */
+	int getSettledCount ();
+
+	/**
+	 * @return The number of routes followed from the cities settled
+	 */
+	long getRelaxedCount ();
+
+	/**
+	 * @return The largest number of cities reached but not settled at once
+	 */
+	int getPeakFrontier ();
+
+}
@@ -0,0 +1,231 @@
+package nom.danielmarreco.train;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nom.danielmarreco.train.exception.QueryBudgetExceededException;
+
+/**
+ * The limits an expensive query of a {@link TravelGuide} must stay within: a deadline, a number of search states expanded,
+ * a number of routes returned, and a cancellation flag another thread may raise at any time.
+ * <br/>
+ * Once a limit is reached the query stops within a few thousand states. The queries returning routes return those found
+ * so far, which {@link #isExceeded()} then marks as partial; the others throw a {@link QueryBudgetExceededException}.
+ * Either way the budget tells how far the query got.
+ * <br/>
+ * A budget may be shared by the queries of a single request, which then share it's limits; it is thread safe, as the
+ * tasks of a parallel query all draw from it.
+ * 
+ * @see TravelGuide#findPossibleRoutes(String, String, Integer, Integer, QueryBudget)
+ */
+public final class QueryBudget {
+
+	/**
+	 * The limits of a budget
+	 */
+	public enum Limit {
+		/**
+		 * The deadline passed
+		 */
+		DEADLINE,
+		/**
+		 * The budget was cancelled
+		 */
+		CANCELLED,
+		/**
+		 * The searches expanded as many states as allowed
+		 */
+		EXPANDED_STATES,
+		/**
+		 * More routes were found than allowed
+		 */
+		EMITTED_ROUTES
+	}
+
+	/**
+	 * The number of states a search expands between two checks of the budget
+	 */
+	static final int CHECK_INTERVAL = 1024;
+
+	private volatile boolean hasDeadline;
+
+	/**
+	 * The deadline, as a {@link System#nanoTime()}
+	 */
+	private volatile long deadline;
+
+	private volatile long maxExpanded = Long.MAX_VALUE;
+
+	private volatile long maxEmitted = Long.MAX_VALUE;
+
+	private final AtomicLong expanded = new AtomicLong();
+
+	private final AtomicLong emitted = new AtomicLong();
+
+	/**
+	 * The first limit reached, or null
+	 */
+	private volatile Limit exceeded;
+
+	/**
+	 * Creates a budget with no limits, which can only be cancelled
+	 */
+	public QueryBudget ()
+	{
+	}
+
+	/**
+	 * Sets the deadline to the given time from now
+	 * 
+	 * @return This budget
+	 */
+	public QueryBudget withTimeout (long timeout, TimeUnit unit)
+	{
+		return withDeadline(System.nanoTime() + unit.toNanos(timeout));
+	}
+
+	/**
+	 * @param nanoTime The deadline, as a {@link System#nanoTime()}
+	 * @return This budget
+	 */
+	public QueryBudget withDeadline (long nanoTime)
+	{
+		this.deadline = nanoTime;
+		this.hasDeadline = true;
+		return this;
+	}
+
+	/**
+	 * @param states The maximum number of states the searches may expand: route prefixes walked by enumerations,
+	 * 	cities settled by shortest route searches, (city, stops) or (city, distance) states of counts
+	 * @return This budget
+	 */
+	public QueryBudget withMaxExpanded (long states)
+	{
+		this.maxExpanded = states;
+		return this;
+	}
+
+	/**
+	 * @param routes The maximum number of routes the queries may return
+	 * @return This budget
+	 */
+	public QueryBudget withMaxEmitted (long routes)
+	{
+		this.maxEmitted = routes;
+		return this;
+	}
+
+	/**
+	 * Stops the queries drawing from this budget; may be called from any thread
+	 */
+	public void cancel ()
+	{
+		exceed(Limit.CANCELLED);
+	}
+
+	/**
+	 * @return If a limit was reached, i.e. the results of the queries drawing from this budget are partial
+	 */
+	public boolean isExceeded ()
+	{
+		return exceeded != null;
+	}
+
+	/**
+	 * @return The first limit reached, or null if none was
+	 */
+	public Limit getExceededLimit ()
+	{
+		return exceeded;
+	}
+
+	/**
+	 * @return The number of states expanded so far by the queries drawing from this budget, give or take
+	 * 	{@link #CHECK_INTERVAL} per search
+	 */
+	public long getExpandedCount ()
+	{
+		return expanded.get();
+	}
+
+	/**
+	 * @return The number of routes returned so far by the queries drawing from this budget
+	 */
+	public long getEmittedCount ()
+	{
+		return emitted.get();
+	}
+
+	/**
+	 * Charges states expanded by a search
+	 * 
+	 * @return If the search may go on
+	 */
+	boolean expand (long states)
+	{
+		if (expanded.addAndGet(states) > maxExpanded) {
+			exceed(Limit.EXPANDED_STATES);
+		}
+		else if (hasDeadline && System.nanoTime() - deadline >= 0) {
+			exceed(Limit.DEADLINE);
+		}
+		return exceeded == null;
+	}
+
+	/**
+	 * Charges the last states expanded by a search that is over, without checking the limits: the search got all it's
+	 * results within them
+	 */
+	void charge (long states)
+	{
+		expanded.addAndGet(states);
+	}
+
+	/**
+	 * Charges a route about to be returned
+	 * 
+	 * @return If the route may be returned; once it may not, the search should stop
+	 */
+	boolean emit ()
+	{
+		if (exceeded != null) {
+			return false;
+		}
+		long count;
+		do {
+			count = emitted.get();
+			if (count >= maxEmitted) {
+				exceed(Limit.EMITTED_ROUTES);
+				return false;
+			}
+		}
+		while (!emitted.compareAndSet(count, count + 1));
+		return true;
+	}
+
+	/**
+	 * @throws QueryBudgetExceededException If a limit was reached
+	 */
+	void check ()
+	{
+		if (exceeded != null) {
+			throw new QueryBudgetExceededException(this);
+		}
+	}
+
+	private synchronized void exceed (Limit limit)
+	{
+		if (exceeded == null) {
+			exceeded = limit;
+		}
+	}
+
+	@Override
+	public String toString ()
+	{
+		return (exceeded != null ? exceeded + " reached" : "Within budget") + " after " + expanded.get() + " states and "
+				+ emitted.get() + " routes";
+	}
+
+}
@@ -0,0 +1,119 @@
+package nom.danielmarreco.train;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latencies and the work of one kind of query, gathered by a {@link JmxMetricsSink}
+ * 
+ * @see MetricsSink.Query
+ */
+public final class QueryMetrics implements QueryMetricsMBean {
+
+	private final LatencyHistogram latencies = new LatencyHistogram();
+
+	private final AtomicLong settled = new AtomicLong();
+
+	private final AtomicLong relaxed = new AtomicLong();
+
+	private final AtomicLong emitted = new AtomicLong();
+
+	private final AtomicLong peakFrontier = new AtomicLong();
+
+	QueryMetrics ()
+	{
+	}
+
+	void record (long nanos, long settled, long relaxed, long emitted, int peakFrontier)
+	{
+		latencies.record(nanos);
+		this.settled.addAndGet(settled);
+		this.relaxed.addAndGet(relaxed);
+		this.emitted.addAndGet(emitted);
+		long previous;
+		while (peakFrontier > (previous = this.peakFrontier.get()) && !this.peakFrontier.compareAndSet(previous, peakFrontier)) {
+			// another query recorded a frontier in between, which may be larger
+		}
+	}
+
+	public long getCount ()
+	{
+		return latencies.getCount();
+	}
+
+	public double getMeanLatency ()
+	{
+		return latencies.getMean() / 1000;
+	}
+
+	public double getLatency50thPercentile ()
+	{
+		return getLatencyPercentile(50);
+	}
+
+	public double getLatency90thPercentile ()
+	{
+		return getLatencyPercentile(90);
+	}
+
+	public double getLatency99thPercentile ()
+	{
+		return getLatencyPercentile(99);
+	}
+
+	public double getLatency999thPercentile ()
+	{
+		return getLatencyPercentile(99.9);
+	}
+
+	/**
+	 * @param percentile The percentile, from 0 to 100
+	 * @return The latency under which lie the given percentile of the queries, in microseconds, within 1 / 32 of it
+	 */
+	public double getLatencyPercentile (double percentile)
+	{
+		return latencies.getPercentile(percentile) / 1000.0;
+	}
+
+	public double getMaxLatency ()
+	{
+		return latencies.getMax() / 1000.0;
+	}
+
+	public long getSettled ()
+	{
+		return settled.get();
+	}
+
+	public long getRelaxed ()
+	{
+		return relaxed.get();
+	}
+
+	public long getEmitted ()
+	{
+		return emitted.get();
+	}
+
+	public int getPeakFrontier ()
+	{
+		return (int) peakFrontier.get();
+	}
+
+	public void reset ()
+	{
+		latencies.reset();
+		settled.set(0);
+		relaxed.set(0);
+		emitted.set(0);
+		peakFrontier.set(0);
+	}
+
+	@Override
+	public String toString ()
+	{
+		return "count=" + getCount() + ", mean=" + getMeanLatency() + "us, p50=" + getLatency50thPercentile()
+				+ "us, p99=" + getLatency99thPercentile() + "us, max=" + getMaxLatency() + "us, settled=" + getSettled()
+				+ ", relaxed=" + getRelaxed() + ", emitted=" + getEmitted() + ", peakFrontier=" + getPeakFrontier();
+	}
+
+}
@@ -0,0 +1,51 @@
+package nom.danielmarreco.train;
+
+/**
+ * The management interface of the metrics of one kind of query, as registered by {@link JmxMetricsSink}.
+ * Latencies are in microseconds; counters are totals since the last reset.
+ */
+public interface QueryMetricsMBean {
+
+	/**
+	 * @return The number of queries
+	 */
+	long getCount ();
+
+	double getMeanLatency ();
+
+	double getLatency50thPercentile ();
+
+	double getLatency90thPercentile ();
+
+	double getLatency99thPercentile ();
+
+	double getLatency999thPercentile ();
+
+	double getMaxLatency ();
+
+	/**
+	 * @return The number of cities settled, or search states expanded, by all queries
+	 */
+	long getSettled ();
+
+	/**
+	 * @return The number of routes followed by all queries
+	 */
+	long getRelaxed ();
+
+	/**
+	 * @return The number of routes returned or counted by all queries
+	 */
+	long getEmitted ();
+
+	/**
+	 * @return The largest frontier of any query
+	 */
+	int getPeakFrontier ();
+
+	/**
+	 * Zeroes the latencies and counters
+	 */
+	void reset ();
+
+}
@@ -0,0 +1,443 @@
+package nom.danielmarreco.train;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import nom.danielmarreco.train.exception.NoSuchRouteException;
+import nom.danielmarreco.train.exception.QueryBudgetExceededException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small HTTP server answering the queries of a {@link TravelGuide}, built on the JDK {@link HttpServer}.
+ * Every request runs on a thread of it's own: a virtual thread on Java 21 and later, a pooled platform thread before.
+ * <br/>
+ * All endpoints take GET requests with the cities as query parameters, and answer in plain text:
+ * <ul>
+ * <li><code>/distance?from=A&amp;to=C</code>: the distance of the shortest route, as <code>9</code>;
+ * <code>/distance?route=A,B,C</code>: the distance of the given route;</li>
+ * <li><code>/route?from=A&amp;to=C</code>: the distance and the shortest route, tab separated, as <code>9&#9;A -> B -> C</code>;</li>
+ * <li><code>/count?from=C&amp;to=C&amp;maxStops=3</code>: the number of routes with at most 3 stops
+ * (and at least <code>minStops</code>, if given), or with a distance of at most <code>maxDistance</code>;</li>
+ * <li><code>/routes?from=C&amp;to=C&amp;maxStops=3</code>: the same routes, one per line as in <code>/route</code>,
+ * written as they are found, up to <code>limit</code> routes if given.</li>
+ * </ul>
+ * Unknown cities and unreachable destinations are answered with 404, invalid parameters with 400, and counts too large or
+ * routes in a world with routes of distance zero with 422.
+ * <br/>
+ * Counts and routes may be given a {@link QueryBudget} per request, see {@link #setRequestTimeout(long, TimeUnit)} and
+ * {@link #setMaxExpandedStates(long)}: a count running out of time is answered with 503, and one expanding too many states
+ * with 422. Routes are answered as far as they were found within the budget: once some are written, the status can no
+ * longer change, so a response cut short ends with a last line naming the limit reached, as
+ * <code>partial&#9;DEADLINE</code>, instead of a route.
+ * <br/>
+ * Shortest routes are searched as the guide is configured to. When many requests from the same few sources arrive together,
+ * enabling {@link TravelGuide#setRequestCoalescing(boolean) request coalescing} on the guide before serving it lets them
+ * share a single search; it is off by default, as each shared search visits the whole world. A guide made for a
+ * {@link ConcurrentWorld} may be served while the world is updated.
+ */
+public final class QueryServer {
+
+	/**
+	 * The number of connections waiting to be accepted
+	 */
+	private static final int BACKLOG = 1024;
+
+	private final TravelGuide guide;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private final boolean virtualThreads;
+
+	/**
+	 * The time each count or routes request may take, in nanoseconds, or 0 for no limit
+	 */
+	private volatile long requestTimeout;
+
+	/**
+	 * The number of states each count or routes request may expand
+	 */
+	private volatile long maxExpandedStates = Long.MAX_VALUE;
+
+	/**
+	 * Creates a server bound to the given address; it answers no request until started
+	 * 
+	 * @param guide The guide answering the queries, which should not be configured any further
+	 * @param address The address to bind to; port 0 picks any free port, see {@link #getAddress()}
+	 * @throws IOException If the address can not be bound
+	 */
+	public QueryServer (TravelGuide guide, InetSocketAddress address) throws IOException
+	{
+		this.guide = guide;
+		ExecutorService virtualThreadExecutor = newVirtualThreadExecutor();
+		this.virtualThreads = virtualThreadExecutor != null;
+		this.executor = virtualThreads ? virtualThreadExecutor : Executors.newCachedThreadPool();
+		this.server = HttpServer.create(address, BACKLOG);
+		server.setExecutor(executor);
+		server.createContext("/distance", new DistanceEndpoint());
+		server.createContext("/route", new RouteEndpoint());
+		server.createContext("/count", new CountEndpoint());
+		server.createContext("/routes", new RoutesEndpoint());
+	}
+
+	/**
+	 * @return An executor running each task on a new virtual thread, or null before Java 21
+	 */
+	private static ExecutorService newVirtualThreadExecutor ()
+	{
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (ReflectiveOperationException e) {
+			// not there, or a preview feature not enabled on Java 19 and 20
+			return null;
+		}
+	}
+
+	/**
+	 * Starts answering requests, in background threads
+	 */
+	public void start ()
+	{
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests, closes the connections and waits up to the given time for the requests being answered
+	 * 
+	 * @param delaySeconds The maximum time to wait for the requests being answered
+	 */
+	public void stop (int delaySeconds)
+	{
+		server.stop(delaySeconds);
+		executor.shutdown();
+	}
+
+	/**
+	 * @return The address the server is bound to, with the port picked if port 0 was asked for
+	 */
+	public InetSocketAddress getAddress ()
+	{
+		return server.getAddress();
+	}
+
+	/**
+	 * @return If requests run on virtual threads
+	 */
+	public boolean isUsingVirtualThreads ()
+	{
+		return virtualThreads;
+	}
+
+	/**
+	 * Sets the time each count or routes request may take, from when it's query starts
+	 * 
+	 * @param timeout The time allowed, or 0 for no limit, which is the default
+	 */
+	public void setRequestTimeout (long timeout, TimeUnit unit)
+	{
+		this.requestTimeout = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Sets the number of states each count or routes request may expand, see {@link QueryBudget#withMaxExpanded(long)}
+	 * 
+	 * @param states The maximum number of states, {@link Long#MAX_VALUE} for no limit, which is the default
+	 */
+	public void setMaxExpandedStates (long states)
+	{
+		this.maxExpandedStates = states;
+	}
+
+	/**
+	 * @return A budget for a new request, or null if no limits are set
+	 */
+	private QueryBudget newBudget ()
+	{
+		long timeout = requestTimeout, states = maxExpandedStates;
+		if (timeout <= 0 && states == Long.MAX_VALUE) {
+			return null;
+		}
+		QueryBudget budget = new QueryBudget().withMaxExpanded(states);
+		return timeout > 0 ? budget.withTimeout(timeout, TimeUnit.NANOSECONDS) : budget;
+	}
+
+	/**
+	 * @return The guide answering the queries
+	 */
+	public TravelGuide getGuide ()
+	{
+		return guide;
+	}
+
+	/**
+	 * Thrown when a request is not valid; answered with 400
+	 */
+	private static final class BadRequestException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		BadRequestException (String message)
+		{
+			super(message);
+		}
+
+	}
+
+	/**
+	 * The handling common to all endpoints: parses the query parameters and turns errors into status codes
+	 */
+	private abstract static class Endpoint implements HttpHandler {
+
+		public void handle (HttpExchange exchange) throws IOException
+		{
+			try {
+				if (!"GET".equals(exchange.getRequestMethod())) {
+					exchange.getResponseHeaders().set("Allow", "GET");
+					respond(exchange, 405, "Only GET is supported");
+					return;
+				}
+				try {
+					answer(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+				}
+				catch (BadRequestException e) {
+					fail(exchange, 400, e.getMessage());
+				}
+				catch (NoSuchRouteException e) {
+					fail(exchange, 404, e.getMessage());
+				}
+				catch (ArithmeticException e) {
+					fail(exchange, 422, "Too many routes");
+				}
+				catch (QueryBudgetExceededException e) {
+					// running out of time may be the server's load, expanding too many states is the query's size
+					fail(exchange, e.getLimit() == QueryBudget.Limit.EXPANDED_STATES ? 422 : 503, e.getMessage());
+				}
+				catch (IllegalStateException e) {
+					fail(exchange, 422, e.getMessage());
+				}
+				catch (RuntimeException e) {
+					fail(exchange, 500, String.valueOf(e));
+				}
+			}
+			finally {
+				exchange.close();
+			}
+		}
+
+		/**
+		 * Answers a request; errors thrown before the response headers are sent are answered with their status code
+		 * 
+		 * @param parameters The query parameters, by name
+		 */
+		abstract void answer (HttpExchange exchange, Map<String, String> parameters) throws IOException, BadRequestException, NoSuchRouteException;
+
+		/**
+		 * @return The parameters of the given query string, decoded
+		 */
+		private static Map<String, String> parseQuery (String query) throws BadRequestException
+		{
+			Map<String, String> parameters = new HashMap<String, String>();
+			if (query == null) {
+				return parameters;
+			}
+			for (String parameter : query.split("&")) {
+				int equals = parameter.indexOf('=');
+				try {
+					if (equals < 0) {
+						parameters.put(URLDecoder.decode(parameter, "UTF-8"), "");
+					}
+					else {
+						parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"), URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+					}
+				}
+				catch (UnsupportedEncodingException e) {
+					throw new IllegalStateException(e);
+				}
+				catch (IllegalArgumentException e) {
+					throw new BadRequestException("Invalid query: " + query);
+				}
+			}
+			return parameters;
+		}
+
+		/**
+		 * @return The value of a required parameter
+		 */
+		static String get (Map<String, String> parameters, String name) throws BadRequestException
+		{
+			String value = parameters.get(name);
+			if (value == null || value.isEmpty()) {
+				throw new BadRequestException("Missing parameter: " + name);
+			}
+			return value;
+		}
+
+		/**
+		 * @return The value of an optional non negative int parameter, or null if not given
+		 */
+		static Integer getInt (Map<String, String> parameters, String name) throws BadRequestException
+		{
+			String value = parameters.get(name);
+			if (value == null) {
+				return null;
+			}
+			try {
+				int number = Integer.parseInt(value);
+				if (number >= 0) {
+					return number;
+				}
+			}
+			catch (NumberFormatException e) {
+				// answered below
+			}
+			throw new BadRequestException("Invalid " + name + ": " + value);
+		}
+
+		/**
+		 * Answers an error, unless the response has already begun: the connection is then closed, cutting it short
+		 */
+		private static void fail (HttpExchange exchange, int status, String message) throws IOException
+		{
+			if (exchange.getResponseCode() < 0) {
+				respond(exchange, status, message);
+			}
+		}
+
+		/**
+		 * Sends a whole plain text response, ended by a line break
+		 */
+		static void respond (HttpExchange exchange, int status, String body) throws IOException
+		{
+			byte[] bytes = (body + "\n").getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(status, bytes.length);
+			exchange.getResponseBody().write(bytes);
+		}
+
+		/**
+		 * @return A route as answered by the server: it's distance and cities, tab separated
+		 */
+		static String format (Route route) throws NoSuchRouteException
+		{
+			return route.getLenght() + "\t" + route;
+		}
+
+	}
+
+	private final class DistanceEndpoint extends Endpoint {
+
+		@Override
+		void answer (HttpExchange exchange, Map<String, String> parameters) throws IOException, BadRequestException, NoSuchRouteException
+		{
+			String route = parameters.get("route");
+			int distance;
+			if (route != null) {
+				distance = guide.findRoute(route.split(",")).getLenght();
+			}
+			else {
+				distance = guide.getShortestDistance(get(parameters, "from"), get(parameters, "to"));
+			}
+			respond(exchange, 200, String.valueOf(distance));
+		}
+
+	}
+
+	private final class RouteEndpoint extends Endpoint {
+
+		@Override
+		void answer (HttpExchange exchange, Map<String, String> parameters) throws IOException, BadRequestException, NoSuchRouteException
+		{
+			respond(exchange, 200, format(guide.findShortestRoute(get(parameters, "from"), get(parameters, "to"))));
+		}
+
+	}
+
+	private final class CountEndpoint extends Endpoint {
+
+		@Override
+		void answer (HttpExchange exchange, Map<String, String> parameters) throws IOException, BadRequestException, NoSuchRouteException
+		{
+			String from = get(parameters, "from"), to = get(parameters, "to");
+			Integer minStops = getInt(parameters, "minStops"), maxStops = getInt(parameters, "maxStops");
+			Integer maxDistance = getInt(parameters, "maxDistance");
+			QueryBudget budget = newBudget();
+			long count;
+			if (maxStops != null && maxDistance == null) {
+				count = guide.countPossibleRoutes(from, to, minStops != null ? minStops : 1, maxStops, budget);
+			}
+			else if (maxDistance != null && maxStops == null && minStops == null) {
+				count = guide.countPossibleRoutesShorterThan(from, to, maxDistance, budget);
+			}
+			else {
+				throw new BadRequestException("Either maxStops or maxDistance is required");
+			}
+			respond(exchange, 200, String.valueOf(count));
+		}
+
+	}
+
+	private final class RoutesEndpoint extends Endpoint {
+
+		@Override
+		void answer (HttpExchange exchange, Map<String, String> parameters) throws IOException, BadRequestException, NoSuchRouteException
+		{
+			String from = get(parameters, "from"), to = get(parameters, "to");
+			Integer minStops = getInt(parameters, "minStops"), maxStops = getInt(parameters, "maxStops");
+			Integer maxDistance = getInt(parameters, "maxDistance");
+			Integer limit = getInt(parameters, "limit");
+			QueryBudget budget = newBudget();
+			Stream<Route> routes;
+			if (maxStops != null && maxDistance == null) {
+				routes = guide.streamPossibleRoutes(from, to, minStops != null ? minStops : 1, maxStops, budget);
+			}
+			else if (maxDistance != null && maxStops == null && minStops == null) {
+				routes = guide.streamPossibleRoutesShorterThan(from, to, maxDistance, budget);
+			}
+			else {
+				throw new BadRequestException("Either maxStops or maxDistance is required");
+			}
+			if (limit != null) {
+				routes = routes.limit(limit);
+			}
+
+			// the first route is looked for before answering, so a budget exceeded before any is found has it's status code
+			Iterator<Route> iterator = routes.iterator();
+			if (!iterator.hasNext() && budget != null) {
+				budget.check();
+			}
+
+			// the routes are written as they are found, in a chunked response
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(200, 0);
+			Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+			while (iterator.hasNext()) {
+				writer.write(format(iterator.next()));
+				writer.write('\n');
+			}
+			if (budget != null && budget.isExceeded()) {
+				writer.write("partial\t" + budget.getExceededLimit() + "\n");
+			}
+			writer.flush();
+		}
+
+	}
+
+}
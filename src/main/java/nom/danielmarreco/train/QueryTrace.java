@@ -0,0 +1,78 @@
+package nom.danielmarreco.train;
+
+import nom.danielmarreco.train.MetricsSink.Query;
+
+/**
+ * Gathers the work done by a single query, to be reported to a {@link MetricsSink} once it ends.
+ * <br/>
+ * The searches count their work in primitive fields of their own anyway; a trace only exists, and the clock is only read,
+ * while a sink is set: queries hold a null trace otherwise.
+ */
+final class QueryTrace {
+
+	private final MetricsSink sink;
+
+	private final Query query;
+
+	private final long start;
+
+	private long settled;
+
+	private long relaxed;
+
+	private long emitted;
+
+	private int peakFrontier;
+
+	private QueryTrace (MetricsSink sink, Query query)
+	{
+		this.sink = sink;
+		this.query = query;
+		this.start = System.nanoTime();
+	}
+
+	/**
+	 * @param sink The sink the query is reported to, or null if metrics are disabled
+	 * @param query The kind of query
+	 * @return A trace of the query starting now, or null if sink is null
+	 */
+	static QueryTrace start (MetricsSink sink, Query query)
+	{
+		return sink == null ? null : new QueryTrace(sink, query);
+	}
+
+	/**
+	 * Adds the work done by a search run by the query
+	 */
+	void add (PointToPointSearch search)
+	{
+		add(search.getSettledCount(), search.getRelaxedCount(), search.getPeakFrontier());
+	}
+
+	/**
+	 * Adds the work done by a part of the query
+	 */
+	void add (long settled, long relaxed, int peakFrontier)
+	{
+		this.settled += settled;
+		this.relaxed += relaxed;
+		this.peakFrontier = Math.max(this.peakFrontier, peakFrontier);
+	}
+
+	/**
+	 * Adds routes returned or counted by the query
+	 */
+	void emitted (long routes)
+	{
+		emitted += routes;
+	}
+
+	/**
+	 * Reports the query to the sink
+	 */
+	void complete ()
+	{
+		sink.queryCompleted(query, System.nanoTime() - start, settled, relaxed, emitted, peakFrontier);
+	}
+
+}
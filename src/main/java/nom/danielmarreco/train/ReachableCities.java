@@ -0,0 +1,299 @@
+package nom.danielmarreco.train;
+
+import java.util.Arrays;
+
+import nom.danielmarreco.train.exception.QueryBudgetExceededException;
+
+/**
+ * The cities reachable from one or more source cities within a budget of distance or of stops, with the shortest distance
+ * to each of them and, for catchment areas, the source it is closest to.
+ * <br/>
+ * Only the cities reached are kept, in two or three int arrays sorted by id: lookups by name are binary searches.
+ * 
+ * @see TravelGuide#findReachableCities(String[], int)
+ * @see TravelGuide#findReachableCitiesByHops(String[], int)
+ */
+public final class ReachableCities {
+
+	private final CompactWorld graph;
+
+	/**
+	 * The ids of the cities reached, sorted
+	 */
+	private final int[] cities;
+
+	/**
+	 * The shortest distance to each city reached
+	 */
+	private final int[] distances;
+
+	/**
+	 * The index of the closest source of each city reached; null with a single source
+	 */
+	private final int[] sources;
+
+	private ReachableCities (CompactWorld graph, int[] cities, int[] distances, int[] sources)
+	{
+		this.graph = graph;
+		this.cities = cities;
+		this.distances = distances;
+		this.sources = sources;
+	}
+
+	/**
+	 * Runs Dijkstra's algorithm from all the sources at once, not expanding past the budget
+	 * 
+	 * @param graph The snapshot to be searched
+	 * @param starts The ids of the source cities
+	 * @param maxDistance The maximum distance (inclusive) from the closest source
+	 * @param trace Where the work done is added, or null
+	 * @param budget The limits of the search, or null
+	 * @return The cities within maxDistance of any source
+	 * @throws QueryBudgetExceededException If the budget is exceeded
+	 */
+	static ReachableCities withinDistance (CompactWorld graph, int[] starts, int maxDistance, QueryTrace trace, QueryBudget budget)
+	{
+		int cityCount = graph.getCityCount();
+		int[] distances = new int[cityCount];
+		int[] closest = new int[cityCount];
+		Arrays.fill(distances, Dijkstra.UNREACHABLE);
+		IndexedMinHeap heap = new IndexedMinHeap(cityCount);
+		for (int i = 0; i < starts.length; i++) {
+			if (distances[starts[i]] != 0) {
+				distances[starts[i]] = 0;
+				closest[starts[i]] = i;
+				heap.offer(starts[i], 0);
+			}
+		}
+
+		int settled = 0;
+		long relaxed = 0;
+		while (!heap.isEmpty()) {
+			int city = heap.poll();
+			if (++settled % QueryBudget.CHECK_INTERVAL == 0 && budget != null && !budget.expand(QueryBudget.CHECK_INTERVAL)) {
+				break;
+			}
+			int distance = distances[city];
+			relaxed += graph.getRoutesEnd(city) - graph.getRoutesStart(city);
+			for (int r = graph.getRoutesStart(city), end = graph.getRoutesEnd(city); r < end; r++) {
+				int neighbor = graph.getRouteTarget(r);
+				long newPossibleDistance = (long) distance + graph.getRouteDistance(r);
+				if (newPossibleDistance > maxDistance) {
+					continue;
+				}
+				if (newPossibleDistance < distances[neighbor]) {
+					distances[neighbor] = (int) newPossibleDistance;
+					closest[neighbor] = closest[city];
+					heap.offer(neighbor, (int) newPossibleDistance);
+				}
+				// a tie goes to the source given first, as long as the city is not settled
+				else if (newPossibleDistance == distances[neighbor] && closest[city] < closest[neighbor] && heap.contains(neighbor)) {
+					closest[neighbor] = closest[city];
+				}
+			}
+		}
+		if (trace != null) {
+			trace.add(settled, relaxed, heap.getPeakSize());
+		}
+		if (budget != null) {
+			budget.check();
+			budget.charge(settled % QueryBudget.CHECK_INTERVAL);
+		}
+		return collect(graph, distances, closest, starts.length);
+	}
+
+	/**
+	 * Runs as many rounds of Bellman-Ford as stops are allowed, each relaxing only the routes leaving the cities whose
+	 * distance dropped in the previous one: the distances found are those of the shortest routes of at most maxHops stops.
+	 * 
+	 * @param graph The snapshot to be searched
+	 * @param starts The ids of the source cities
+	 * @param maxHops The maximum number of stops (inclusive) from the closest source
+	 * @param trace Where the work done is added, or null
+	 * @param budget The limits of the search, checked once per round, or null
+	 * @return The cities within maxHops stops of any source
+	 * @throws QueryBudgetExceededException If the budget is exceeded
+	 */
+	static ReachableCities withinHops (CompactWorld graph, int[] starts, int maxHops, QueryTrace trace, QueryBudget budget)
+	{
+		int cityCount = graph.getCityCount();
+		int[] distances = new int[cityCount];
+		int[] closest = new int[cityCount];
+		Arrays.fill(distances, Dijkstra.UNREACHABLE);
+
+		/*
+		 * The frontier keeps the distance and source each of it's cities had at the end of the previous round, so a round
+		 * never extends a route found in the same round: that would be one more stop than the round allows
+		 */
+		int[] frontier = new int[cityCount];
+		int[] frontierDistances = new int[cityCount];
+		int[] frontierSources = new int[cityCount];
+		int[] next = new int[cityCount];
+		int[] roundAdded = new int[cityCount];
+		int frontierSize = 0;
+		for (int i = 0; i < starts.length; i++) {
+			if (distances[starts[i]] != 0) {
+				distances[starts[i]] = 0;
+				closest[starts[i]] = i;
+				frontier[frontierSize++] = starts[i];
+			}
+		}
+
+		long expanded = 0, relaxed = 0;
+		int peakFrontier = frontierSize;
+		for (int round = 1; round <= maxHops && frontierSize > 0; round++) {
+			for (int i = 0; i < frontierSize; i++) {
+				frontierDistances[i] = distances[frontier[i]];
+				frontierSources[i] = closest[frontier[i]];
+			}
+			int nextSize = 0;
+			for (int i = 0; i < frontierSize; i++) {
+				int city = frontier[i];
+				int distance = frontierDistances[i];
+				int source = frontierSources[i];
+				relaxed += graph.getRoutesEnd(city) - graph.getRoutesStart(city);
+				for (int r = graph.getRoutesStart(city), end = graph.getRoutesEnd(city); r < end; r++) {
+					int neighbor = graph.getRouteTarget(r);
+					int newPossibleDistance = distance + graph.getRouteDistance(r);
+					if (newPossibleDistance < distances[neighbor]
+							|| newPossibleDistance == distances[neighbor] && source < closest[neighbor]) {
+						distances[neighbor] = newPossibleDistance;
+						closest[neighbor] = source;
+						if (roundAdded[neighbor] != round) {
+							roundAdded[neighbor] = round;
+							next[nextSize++] = neighbor;
+						}
+					}
+				}
+			}
+			expanded += frontierSize;
+			if (budget != null && !budget.expand(frontierSize)) {
+				break;
+			}
+			int[] swap = frontier;
+			frontier = next;
+			next = swap;
+			frontierSize = nextSize;
+			peakFrontier = Math.max(peakFrontier, frontierSize);
+		}
+		if (trace != null) {
+			trace.add(expanded, relaxed, peakFrontier);
+		}
+		if (budget != null) {
+			budget.check();
+		}
+		return collect(graph, distances, closest, starts.length);
+	}
+
+	/**
+	 * Keeps the cities reached, scanning the ids in order
+	 */
+	private static ReachableCities collect (CompactWorld graph, int[] distances, int[] closest, int sourceCount)
+	{
+		int count = 0;
+		for (int distance : distances) {
+			if (distance != Dijkstra.UNREACHABLE) {
+				count++;
+			}
+		}
+		int[] cities = new int[count];
+		int[] cityDistances = new int[count];
+		int[] sources = sourceCount > 1 ? new int[count] : null;
+		for (int id = 0, i = 0; i < count; id++) {
+			if (distances[id] != Dijkstra.UNREACHABLE) {
+				cities[i] = id;
+				cityDistances[i] = distances[id];
+				if (sources != null) {
+					sources[i] = closest[id];
+				}
+				i++;
+			}
+		}
+		return new ReachableCities(graph, cities, cityDistances, sources);
+	}
+
+	/**
+	 * @return The number of cities reached, sources included
+	 */
+	public int size ()
+	{
+		return cities.length;
+	}
+
+	/**
+	 * @param index The index of a city reached, from 0 to {@link #size()} - 1, in the order of their ids
+	 * @return The id of the city
+	 */
+	public int getCityId (int index)
+	{
+		return cities[index];
+	}
+
+	/**
+	 * @param index The index of a city reached
+	 * @return The name of the city
+	 */
+	public String getCityName (int index)
+	{
+		return graph.getName(cities[index]);
+	}
+
+	/**
+	 * @param index The index of a city reached
+	 * @return The shortest distance from the closest source to the city, within the budget
+	 */
+	public int getDistance (int index)
+	{
+		return distances[index];
+	}
+
+	/**
+	 * @param index The index of a city reached
+	 * @return The index, in the sources of the query, of the source closest to the city; ties go to the source given first
+	 */
+	public int getSourceIndex (int index)
+	{
+		return sources == null ? 0 : sources[index];
+	}
+
+	/**
+	 * @param name The name of a city
+	 * @return The index of the city in this set, or a negative number if it was not reached
+	 */
+	public int indexOf (String name)
+	{
+		int id = graph.getId(name);
+		return id < 0 ? -1 : Arrays.binarySearch(cities, id);
+	}
+
+	/**
+	 * @param name The name of a city
+	 * @return If the city was reached within the budget
+	 */
+	public boolean contains (String name)
+	{
+		return indexOf(name) >= 0;
+	}
+
+	/**
+	 * @param name The name of a city
+	 * @return The shortest distance from the closest source to the city, or {@link DistanceMatrix#UNREACHABLE} if it
+	 * 	was not reached within the budget
+	 */
+	public int getDistance (String name)
+	{
+		int index = indexOf(name);
+		return index < 0 ? DistanceMatrix.UNREACHABLE : distances[index];
+	}
+
+	@Override
+	public String toString ()
+	{
+		StringBuilder res = new StringBuilder();
+		for (int i = 0; i < cities.length; i++) {
+			res.append(i == 0 ? "" : ", ").append(getCityName(i)).append(": ").append(distances[i]);
+		}
+		return res.toString();
+	}
+
+}
@@ -0,0 +1,243 @@
+package nom.danielmarreco.train;
+
+/**
+ * The routes of a {@link CompactWorld} indexed by the city they arrive at, in the same compressed sparse row form:
+ * the routes arriving at city <i>c</i> are the indexes from {@link #getRoutesStart(int) getRoutesStart(c)} (inclusive)
+ * to {@link #getRoutesEnd(int) getRoutesEnd(c)} (exclusive) of the sources and distances, sorted by source.
+ * <br/>
+ * The index is held as it's snapshot is: in the heap, or in direct buffers for snapshots held outside the heap.
+ * 
+ * @see CompactWorld#getReverseIndex()
+ */
+abstract class ReverseIndex {
+
+	ReverseIndex ()
+	{
+	}
+
+	/**
+	 * Builds the index of a snapshot in the heap
+	 */
+	static ReverseIndex of (CompactWorld graph)
+	{
+		ReverseIndex res = new HeapReverseIndex(graph.getCityCount(), graph.getRouteCount());
+		res.fill(graph);
+		return res;
+	}
+
+	/**
+	 * Builds the index of a snapshot in direct buffers
+	 */
+	static ReverseIndex offHeap (CompactWorld graph)
+	{
+		ReverseIndex res = new OffHeapReverseIndex(graph.getCityCount(), graph.getRouteCount());
+		res.fill(graph);
+		return res;
+	}
+
+	/**
+	 * Fills the index by a counting sort of the routes by their destination, using the offsets as the cursors of the rows
+	 */
+	private void fill (CompactWorld graph)
+	{
+		int cityCount = graph.getCityCount();
+		int routeCount = graph.getRouteCount();
+		for (int route = 0; route < routeCount; route++) {
+			int target = graph.getRouteTarget(route) + 1;
+			setOffset(target, getRoutesStart(target) + 1);
+		}
+		for (int city = 0; city < cityCount; city++) {
+			setOffset(city + 1, getRoutesStart(city + 1) + getRoutesStart(city));
+		}
+		// departure cities are visited in order, so each row comes out sorted by source
+		for (int city = 0; city < cityCount; city++) {
+			for (int route = graph.getRoutesStart(city), end = graph.getRoutesEnd(city); route < end; route++) {
+				int target = graph.getRouteTarget(route);
+				int slot = getRoutesStart(target);
+				setOffset(target, slot + 1);
+				setRoute(slot, city, graph.getRouteDistance(route));
+			}
+		}
+		// each offset now holds the end of it's row, i.e. the start of the next one
+		for (int city = cityCount; city > 0; city--) {
+			setOffset(city, getRoutesStart(city - 1));
+		}
+		setOffset(0, 0);
+	}
+
+	/**
+	 * @param city A city id
+	 * @return The index of the first route arriving at the city
+	 */
+	abstract int getRoutesStart (int city);
+
+	/**
+	 * @param city A city id
+	 * @return The index after the last route arriving at the city
+	 */
+	final int getRoutesEnd (int city)
+	{
+		return getRoutesStart(city + 1);
+	}
+
+	/**
+	 * @param route A route index
+	 * @return The departure city id of the route
+	 */
+	abstract int getRouteSource (int route);
+
+	/**
+	 * @param route A route index
+	 * @return The distance of the route
+	 */
+	abstract int getRouteDistance (int route);
+
+	abstract void setOffset (int city, int offset);
+
+	abstract void setRoute (int route, int source, int distance);
+
+	/**
+	 * Figures assume a 64 bits HotSpot VM with compressed references.
+	 * 
+	 * @return The heap used by this index, in bytes
+	 */
+	abstract long getMemoryFootprint ();
+
+	/**
+	 * @return The number of bytes held outside the heap by this index
+	 */
+	abstract long getOffHeapSize ();
+
+	private static final class HeapReverseIndex extends ReverseIndex {
+
+		/**
+		 * For each city id, the index of the first route arriving at it; has one extra trailing element holding the number of routes
+		 */
+		private final int[] offsets;
+
+		/**
+		 * The departure city id of each route
+		 */
+		private final int[] sources;
+
+		/**
+		 * The distance of each route
+		 */
+		private final int[] distances;
+
+		HeapReverseIndex (int cityCount, int routeCount)
+		{
+			offsets = new int[cityCount + 1];
+			sources = new int[routeCount];
+			distances = new int[routeCount];
+		}
+
+		@Override
+		int getRoutesStart (int city)
+		{
+			return offsets[city];
+		}
+
+		@Override
+		int getRouteSource (int route)
+		{
+			return sources[route];
+		}
+
+		@Override
+		int getRouteDistance (int route)
+		{
+			return distances[route];
+		}
+
+		@Override
+		void setOffset (int city, int offset)
+		{
+			offsets[city] = offset;
+		}
+
+		@Override
+		void setRoute (int route, int source, int distance)
+		{
+			sources[route] = source;
+			distances[route] = distance;
+		}
+
+		@Override
+		long getMemoryFootprint ()
+		{
+			final int object = 24, arrayHeader = 16;
+			return object + 3 * arrayHeader + 4L * (offsets.length + sources.length + distances.length);
+		}
+
+		@Override
+		long getOffHeapSize ()
+		{
+			return 0;
+		}
+
+	}
+
+	private static final class OffHeapReverseIndex extends ReverseIndex {
+
+		private final OffHeapInts offsets;
+
+		private final OffHeapInts sources;
+
+		private final OffHeapInts distances;
+
+		OffHeapReverseIndex (int cityCount, int routeCount)
+		{
+			offsets = OffHeapInts.allocate(cityCount + 1);
+			sources = OffHeapInts.allocate(routeCount);
+			distances = OffHeapInts.allocate(routeCount);
+		}
+
+		@Override
+		int getRoutesStart (int city)
+		{
+			return offsets.get(city);
+		}
+
+		@Override
+		int getRouteSource (int route)
+		{
+			return sources.get(route);
+		}
+
+		@Override
+		int getRouteDistance (int route)
+		{
+			return distances.get(route);
+		}
+
+		@Override
+		void setOffset (int city, int offset)
+		{
+			offsets.set(city, offset);
+		}
+
+		@Override
+		void setRoute (int route, int source, int distance)
+		{
+			sources.set(route, source);
+			distances.set(route, distance);
+		}
+
+		@Override
+		long getMemoryFootprint ()
+		{
+			final int object = 24, chunkedArray = 32, byteBuffer = 64;
+			int buffers = offsets.getChunkCount() + sources.getChunkCount() + distances.getChunkCount();
+			return object + 3 * chunkedArray + 2 * buffers * byteBuffer;
+		}
+
+		@Override
+		long getOffHeapSize ()
+		{
+			return 4L * (offsets.length() + sources.length() + distances.length());
+		}
+
+	}
+
+}
@@ -1,47 +1,496 @@
 package nom.danielmarreco.train;
 
-import java.util.LinkedList;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+import nom.danielmarreco.train.exception.NoSuchRouteException;
 
 /**
  * A Route is a valid path through two or more cities, following existing train lines.
  * <br/>
  * <b>Attention:</b> this implementation does not check for route validity. It must be checked by the client class.
+ * <br/>
+ * Routes found by the searches are backed by an array of the ids of their cities in a {@link CompactWorld}: the {@link City}
+ * instances are only looked up when asked for, and the length of the route is computed once, when known at all.
+ * Routes built by the client from arbitrary cities hold them in an array instead. Either way, adding or removing cities
+ * at the end of a route is O(1), and {@link #clone()} is O(1) as well: the clone shares the array of the route,
+ * which is only copied once either of them changes.
+ * <br/>
+ * A route is a list (and a deque) of cities, equal to any list of the same cities in the same order.
  * 
  * @author Daniel Marreco
- *
+ * 
  */
-public class Route extends LinkedList<City> 
+public class Route extends AbstractList<City> implements Deque<City>, RandomAccess, Cloneable
 {
-	private static final long serialVersionUID = 5799940691485863114L;
-	
+	private static final City[] NO_CITIES = {};
+
+	/**
+	 * The snapshot holding the cities of this route, or null if they are held by {@link #cities}
+	 */
+	private CompactWorld graph;
+
+	/**
+	 * The ids of the cities in {@link #graph}, in order, when there is a graph
+	 */
+	private int[] ids;
+
+	/**
+	 * The cities, in order, when there is no graph
+	 */
+	private City[] cities;
+
+	/**
+	 * The number of cities in this route
+	 */
+	private int size;
+
+	/**
+	 * If the array of this route is shared with a clone, and must be copied before it is changed
+	 */
+	private boolean shared;
+
+	/**
+	 * The total distance of this route, or -1 if not computed yet; only kept for routes over a snapshot, which never changes
+	 */
+	private int length = -1;
+
+	/**
+	 * The hash code of this route, or 0 if not computed yet
+	 */
+	private int hash;
+
+	/**
+	 * Creates an empty route
+	 */
+	public Route ()
+	{
+		this.cities = NO_CITIES;
+	}
+
+	/**
+	 * Creates a route over a snapshot
+	 * 
+	 * @param graph The snapshot holding the cities
+	 * @param ids The ids of the cities, in order; the array is owned by the route from now on
+	 * @param size The number of cities
+	 * @param length The total distance of the route, or -1 if not known
+	 */
+	Route (CompactWorld graph, int[] ids, int size, int length)
+	{
+		this.graph = graph;
+		this.ids = ids;
+		this.size = size;
+		this.length = length;
+	}
+
 	/**
 	 * Returns the total distance traveled for this route
 	 * @return The total distance traveled for this route
+	 * @throws NoSuchRouteException If two consecutive cities of the route are not linked
+	 * @throws NoSuchElementException If the route is empty
+	 */
+	public Integer getLenght () throws NoSuchRouteException
+	{
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		if (length >= 0) {
+			return length;
+		}
+		int res = 0;
+		if (graph != null) {
+			for (int i = 1; i < size; i++) {
+				int distance = graph.getDistance(ids[i - 1], ids[i]);
+				if (distance < 0) {
+					throw new NoSuchRouteException("No route from " + graph.getName(ids[i - 1]) + " to " + graph.getName(ids[i]));
+				}
+				res += distance;
+			}
+			length = res;
+		}
+		else {
+			// the routes of the cities may still change, so the length is not kept
+			for (int i = 1; i < size; i++) {
+				res += cities[i - 1].getDistanceTo(cities[i]);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @param index The position of a city in this route
+	 * @return The id of the city at the given position in {@link #getGraph()}
+	 */
+	int getId (int index)
+	{
+		return ids[index];
+	}
+
+	/**
+	 * @return The snapshot holding the cities of this route, or null if it holds arbitrary cities
 	 */
-	public Integer getLenght ()
+	CompactWorld getGraph ()
+	{
+		return graph;
+	}
+
+	@Override
+	public int size ()
+	{
+		return size;
+	}
+
+	@Override
+	public City get (int index)
+	{
+		checkIndex(index, size);
+		return graph != null ? graph.getCity(ids[index]) : cities[index];
+	}
+
+	@Override
+	public City set (int index, City city)
 	{
-		City previousCity = this.getFirst();
-		int res = 0;	
-		for (City city : this.subList(1, this.size())) {
-			res += previousCity.getDistanceTo(city);
-			previousCity = city;
+		checkIndex(index, size);
+		City previous = get(index);
+		int id = idOf(city);
+		prepareChange(size);
+		if (graph != null) {
+			ids[index] = id;
 		}
+		else {
+			cities[index] = city;
+		}
+		return previous;
+	}
+
+	@Override
+	public void add (int index, City city)
+	{
+		checkIndex(index, size + 1);
+		int id = idOf(city);
+		prepareChange(size + 1);
+		if (graph != null) {
+			System.arraycopy(ids, index, ids, index + 1, size - index);
+			ids[index] = id;
+		}
+		else {
+			System.arraycopy(cities, index, cities, index + 1, size - index);
+			cities[index] = city;
+		}
+		size++;
+		modCount++;
+	}
+
+	@Override
+	public City remove (int index)
+	{
+		checkIndex(index, size);
+		City res = get(index);
+		prepareChange(size);
+		if (graph != null) {
+			System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+		}
+		else {
+			System.arraycopy(cities, index + 1, cities, index, size - index - 1);
+			cities[size - 1] = null;
+		}
+		size--;
+		modCount++;
 		return res;
 	}
-	
+
+	@Override
+	public void clear ()
+	{
+		prepareChange(0);
+		if (cities != null) {
+			Arrays.fill(cities, 0, size, null);
+		}
+		size = 0;
+		modCount++;
+	}
+
+	private static void checkIndex (int index, int bound)
+	{
+		if (index < 0 || index >= bound) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		}
+	}
+
+	/**
+	 * @return The id of the given city in the graph of this route, or -1 if it has no graph; a city of no graph
+	 * 	takes this route out of it's graph
+	 */
+	private int idOf (City city)
+	{
+		if (graph != null) {
+			if (city != null && city.id >= 0 && city.id < graph.getCityCount() && graph.getCity(city.id) == city) {
+				return city.id;
+			}
+			City[] res = new City[Math.max(size + 1, 10)];
+			for (int i = 0; i < size; i++) {
+				res[i] = graph.getCity(ids[i]);
+			}
+			cities = res;
+			graph = null;
+			ids = null;
+			shared = false;
+		}
+		return -1;
+	}
+
+	/**
+	 * Makes the array of this route it's own, with room for the given number of cities, and forgets what was computed of it
+	 */
+	private void prepareChange (int capacity)
+	{
+		if (graph != null) {
+			if (shared || capacity > ids.length) {
+				ids = Arrays.copyOf(ids, Math.max(capacity, shared ? ids.length : ids.length * 2 + 1));
+			}
+		}
+		else if (shared || capacity > cities.length) {
+			cities = Arrays.copyOf(cities, Math.max(capacity, shared ? cities.length : cities.length * 2 + 1));
+		}
+		shared = false;
+		length = -1;
+		hash = 0;
+	}
+
+	public void addFirst (City city)
+	{
+		add(0, city);
+	}
+
+	public void addLast (City city)
+	{
+		add(size, city);
+	}
+
+	public boolean offerFirst (City city)
+	{
+		addFirst(city);
+		return true;
+	}
+
+	public boolean offerLast (City city)
+	{
+		addLast(city);
+		return true;
+	}
+
+	public City removeFirst ()
+	{
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return remove(0);
+	}
+
+	public City removeLast ()
+	{
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return remove(size - 1);
+	}
+
+	public City pollFirst ()
+	{
+		return size == 0 ? null : remove(0);
+	}
+
+	public City pollLast ()
+	{
+		return size == 0 ? null : remove(size - 1);
+	}
+
+	public City getFirst ()
+	{
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return get(0);
+	}
+
+	public City getLast ()
+	{
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return get(size - 1);
+	}
+
+	public City peekFirst ()
+	{
+		return size == 0 ? null : get(0);
+	}
+
+	public City peekLast ()
+	{
+		return size == 0 ? null : get(size - 1);
+	}
+
+	public boolean removeFirstOccurrence (Object city)
+	{
+		return remove(city);
+	}
+
+	public boolean removeLastOccurrence (Object city)
+	{
+		int index = lastIndexOf(city);
+		if (index < 0) {
+			return false;
+		}
+		remove(index);
+		return true;
+	}
+
+	public boolean offer (City city)
+	{
+		return offerLast(city);
+	}
+
+	public City remove ()
+	{
+		return removeFirst();
+	}
+
+	public City poll ()
+	{
+		return pollFirst();
+	}
+
+	public City element ()
+	{
+		return getFirst();
+	}
+
+	public City peek ()
+	{
+		return peekFirst();
+	}
+
+	public void push (City city)
+	{
+		addFirst(city);
+	}
+
+	public City pop ()
+	{
+		return removeFirst();
+	}
+
+	public Iterator<City> descendingIterator ()
+	{
+		return reversed().iterator();
+	}
+
+	/**
+	 * @return A new route visiting the cities of this one in reverse order, which is usually not a valid route
+	 */
+	public Route reversed ()
+	{
+		Route res = clone();
+		res.prepareChange(size);
+		if (res.graph != null) {
+			for (int i = 0, j = size - 1; i < j; i++, j--) {
+				int id = res.ids[i];
+				res.ids[i] = res.ids[j];
+				res.ids[j] = id;
+			}
+		}
+		else {
+			for (int i = 0, j = size - 1; i < j; i++, j--) {
+				City city = res.cities[i];
+				res.cities[i] = res.cities[j];
+				res.cities[j] = city;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Copies this route in O(1): both routes share the same array until either of them changes
+	 * 
+	 * @return A route of the same cities, independent from this one
+	 */
+	@Override
+	public Route clone ()
+	{
+		try {
+			Route res = (Route) super.clone();
+			res.shared = shared = true;
+			return res;
+		}
+		catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	@Override
+	public boolean equals (Object o)
+	{
+		if (o == this) {
+			return true;
+		}
+		if (o instanceof Route) {
+			Route other = (Route) o;
+			if (other.size != size) {
+				return false;
+			}
+			if (graph != null && other.graph == graph) {
+				for (int i = 0; i < size; i++) {
+					if (ids[i] != other.ids[i]) {
+						return false;
+					}
+				}
+				return true;
+			}
+		}
+		return super.equals(o);
+	}
+
+	/**
+	 * @return The hash code of the list of the cities of this route, as for any list; computed from the hashes of the names
+	 * 	of the cities, without looking them up nor decoding them
+	 * @see City#hashCode()
+	 */
+	@Override
+	public int hashCode ()
+	{
+		int res = hash;
+		if (res == 0) {
+			res = 1;
+			for (int i = 0; i < size; i++) {
+				res = 31 * res + (graph != null ? graph.getNameHash(ids[i]) : cities[i] == null ? 0 : cities[i].hashCode());
+			}
+			hash = res;
+		}
+		return res;
+	}
+
 	/**
 	 * Prints this route in the format:<br/>
 	 * city1 -> city2 -> city3 -> ... -> cityN
 	 */
+	@Override
 	public String toString ()
 	{
 		final String separator = " -> ";
-		StringBuffer sb = new StringBuffer();
-		for (City city : this) {
-			sb.append(city.getName());
-			sb.append(separator);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				sb.append(separator);
+			}
+			sb.append(graph != null ? graph.getName(ids[i]) : cities[i].getName());
 		}
-		return new String (sb.substring(0, sb.length() - separator.length()));
+		return sb.toString();
 	}
 
 }
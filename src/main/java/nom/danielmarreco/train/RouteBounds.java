@@ -0,0 +1,295 @@
+package nom.danielmarreco.train;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import nom.danielmarreco.train.TravelGuide.RouteLimitStrategy;
+
+/**
+ * The least number of stops, or the least distance, from every city to a destination: found by a breadth-first search,
+ * or by Dijkstra's algorithm, walking the routes backwards from the destination.
+ * <br/>
+ * The route enumerations prune every branch that can not reach the destination with what is left of it's limit,
+ * so they only walk routes that lead to at least one route found. The searches stop at the limit, and only keep the
+ * cities they reach, in a hash table sized to them: with a small limit, they cost as many cities as lie within the limit
+ * of the destination, however large the world. The cities further than the limit are all {@link #BEYOND} it.
+ * Once the searches reach a good part of the world, the bounds are turned into an array indexed by id, which is faster
+ * to look up and no larger by then.
+ * <br/>
+ * Each snapshot keeps the bounds of the last few destinations, see {@link #of(CompactWorld, int, int, RouteLimitStrategy)}.
+ * As for the shortest route searches, distances are assumed not to be negative.
+ */
+final class RouteBounds {
+
+	/**
+	 * The bound of the cities further than the limit from the destination, or not reaching it at all
+	 */
+	static final int BEYOND = Integer.MAX_VALUE;
+
+	/**
+	 * The number of bounds kept by each snapshot, a power of two
+	 */
+	static final int CACHE_SLOTS = 16;
+
+	/**
+	 * The share of the cities of the world, as a shift, from which the bounds are kept in an array indexed by id
+	 */
+	private static final int DENSE_SHIFT = 3;
+
+	private final int dest;
+
+	private final int limit;
+
+	private final RouteLimitStrategy limitStrategy;
+
+	/**
+	 * The bound of each city, indexed by id; null while the bounds are in the hash table
+	 */
+	private int[] dense;
+
+	/**
+	 * The ids plus 1 of the cities reached (0 for empty slots), placed by their ids; a power of two of ints
+	 */
+	private int[] keys;
+
+	/**
+	 * The bound of the city in the same slot of {@link #keys}
+	 */
+	private int[] values;
+
+	/**
+	 * The number of cities reached
+	 */
+	private int size;
+
+	private RouteBounds (int dest, int limit, RouteLimitStrategy limitStrategy)
+	{
+		this.dest = dest;
+		this.limit = limit;
+		this.limitStrategy = limitStrategy;
+		this.keys = new int[16];
+		this.values = new int[16];
+	}
+
+	/**
+	 * Gets the bounds to a destination from the snapshot, if it kept bounds for the same destination and a limit at least
+	 * as large, or else computes them and keeps them in place of the bounds of another destination. Bounds computed for a
+	 * larger limit prune the same branches: the cities they know of beyond the smaller limit are out of reach all the same.
+	 * 
+	 * @param graph The snapshot to be searched
+	 * @param dest The id of the city the routes end at
+	 * @param limit The maximum number of stops or the maximum distance of the routes, according to limitStrategy
+	 * @param limitStrategy How routes are limited
+	 * @return The bounds to dest, for limit or more
+	 */
+	static RouteBounds of (CompactWorld graph, int dest, int limit, RouteLimitStrategy limitStrategy)
+	{
+		AtomicReferenceArray<RouteBounds> cache = graph.getRouteBoundsCache();
+		int slot = (dest * 2 + limitStrategy.ordinal()) & (CACHE_SLOTS - 1);
+		RouteBounds cached = cache.get(slot);
+		if (cached != null && cached.dest == dest && cached.limitStrategy == limitStrategy && cached.limit >= limit) {
+			return cached;
+		}
+		RouteBounds res = compute(graph, dest, limit, limitStrategy);
+		cache.set(slot, res);
+		return res;
+	}
+
+	/**
+	 * @param graph The snapshot to be searched
+	 * @param dest The id of the city the routes end at
+	 * @param limit The maximum number of stops or the maximum distance of the routes, according to limitStrategy
+	 * @param limitStrategy How routes are limited
+	 * @return The least number of stops or distance from each city to dest, according to limitStrategy
+	 */
+	static RouteBounds compute (CompactWorld graph, int dest, int limit, RouteLimitStrategy limitStrategy)
+	{
+		RouteBounds bounds = new RouteBounds(dest, limit, limitStrategy);
+		bounds.put(dest, 0);
+		if (limitStrategy == RouteLimitStrategy.LIMIT_BY_STOPS) {
+			bounds.stops(graph.getReverseIndex());
+		}
+		else {
+			bounds.distances(graph.getReverseIndex());
+		}
+		if (bounds.size > graph.getCityCount() >>> DENSE_SHIFT) {
+			bounds.densify(graph.getCityCount());
+		}
+		return bounds;
+	}
+
+	private void stops (ReverseIndex reverse)
+	{
+		int[] queue = new int[16];
+		int head = 0, tail = 0;
+		queue[tail++] = dest;
+		while (head < tail) {
+			int city = queue[head++];
+			int stops = get(city) + 1;
+			if (stops > limit) {
+				break;
+			}
+			for (int r = reverse.getRoutesStart(city), end = reverse.getRoutesEnd(city); r < end; r++) {
+				int from = reverse.getRouteSource(r);
+				if (get(from) == BEYOND) {
+					put(from, stops);
+					if (tail == queue.length) {
+						queue = Arrays.copyOf(queue, tail * 2);
+					}
+					queue[tail++] = from;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Dijkstra's algorithm with a binary heap of (distance, city) pairs packed in longs, sized to the cities reached:
+	 * a city is offered again when it's distance drops, and the stale entries are skipped as they are polled
+	 */
+	private void distances (ReverseIndex reverse)
+	{
+		long[] heap = new long[16];
+		int heapSize = 0;
+		heap[heapSize++] = dest;
+		while (heapSize > 0) {
+			long top = heap[0];
+			heap[0] = heap[--heapSize];
+			siftDown(heap, heapSize);
+			int city = (int) top;
+			int distance = (int) (top >>> 32);
+			if (distance != get(city)) {
+				continue;
+			}
+			for (int r = reverse.getRoutesStart(city), end = reverse.getRoutesEnd(city); r < end; r++) {
+				int from = reverse.getRouteSource(r);
+				// a distance over the limit is no better than BEYOND, so it is not kept
+				long newDistance = (long) distance + reverse.getRouteDistance(r);
+				if (newDistance <= limit && newDistance < get(from)) {
+					put(from, (int) newDistance);
+					if (heapSize == heap.length) {
+						heap = Arrays.copyOf(heap, heapSize * 2);
+					}
+					heap[heapSize] = newDistance << 32 | from;
+					siftUp(heap, heapSize++);
+				}
+			}
+		}
+	}
+
+	private static void siftUp (long[] heap, int i)
+	{
+		long entry = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heap[parent] <= entry) {
+				break;
+			}
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = entry;
+	}
+
+	private static void siftDown (long[] heap, int size)
+	{
+		if (size == 0) {
+			return;
+		}
+		long entry = heap[0];
+		int i = 0;
+		for (int child = 1; child < size; child = 2 * i + 1) {
+			if (child + 1 < size && heap[child + 1] < heap[child]) {
+				child++;
+			}
+			if (entry <= heap[child]) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = entry;
+	}
+
+	/**
+	 * @param city A city id
+	 * @return The least number of stops or distance from the city to the destination, or {@link #BEYOND} if more than
+	 * 	the limit
+	 */
+	int get (int city)
+	{
+		int[] dense = this.dense;
+		if (dense != null) {
+			return dense[city];
+		}
+		int mask = keys.length - 1;
+		for (int slot = hash(city) & mask; ; slot = (slot + 1) & mask) {
+			int key = keys[slot];
+			if (key == city + 1) {
+				return values[slot];
+			}
+			if (key == 0) {
+				return BEYOND;
+			}
+		}
+	}
+
+	private void put (int city, int bound)
+	{
+		int mask = keys.length - 1;
+		int slot = hash(city) & mask;
+		while (keys[slot] != 0 && keys[slot] != city + 1) {
+			slot = (slot + 1) & mask;
+		}
+		values[slot] = bound;
+		if (keys[slot] == 0) {
+			keys[slot] = city + 1;
+			if (++size * 2 > keys.length) {
+				rehash();
+			}
+		}
+	}
+
+	private void rehash ()
+	{
+		int[] oldKeys = keys, oldValues = values;
+		keys = new int[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				int slot = hash(oldKeys[i] - 1) & mask;
+				while (keys[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Moves the bounds to an array indexed by id
+	 */
+	private void densify (int cityCount)
+	{
+		int[] res = new int[cityCount];
+		Arrays.fill(res, BEYOND);
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != 0) {
+				res[keys[i] - 1] = values[i];
+			}
+		}
+		dense = res;
+		keys = values = null;
+	}
+
+	/**
+	 * Spreads consecutive ids over the table, as the cities close to each other often have close ids
+	 */
+	private static int hash (int city)
+	{
+		int h = city * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}
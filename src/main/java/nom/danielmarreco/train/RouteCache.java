@@ -0,0 +1,278 @@
+package nom.danielmarreco.train;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import nom.danielmarreco.train.TravelGuide.RouteLimitStrategy;
+import nom.danielmarreco.train.exception.NoSuchRouteException;
+
+/**
+ * A least-recently-used cache of route enumerations, keyed by source, destination and kind of limit, and bounded by the
+ * number of cities held by it's routes.
+ * <br/>
+ * Each entry keeps every route of at least one stop up to the largest limit enumerated for it's key, so queries with a
+ * smaller limit, or a larger minimum of stops, are answered by filtering it. Entries are only used for the version of the
+ * world they were made for: once a later version is queried, the whole cache is dropped.
+ * <br/>
+ * The routes are shared by all queries answered from an entry, so each query gets clones of them, see {@link Route#clone()}.
+ */
+final class RouteCache {
+
+	/**
+	 * The estimated size in bytes of a route, besides the ids of it's cities: the route, the header of it's array
+	 * and the reference held by the entry
+	 */
+	private static final int ROUTE_BYTES = 64;
+
+	/**
+	 * The entries, in least-recently-used order
+	 */
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+	private final long maxWeight;
+
+	/**
+	 * The total number of cities held by the routes of all entries
+	 */
+	private long weight;
+
+	/**
+	 * The version of the world the entries were made for
+	 */
+	private long version = Long.MIN_VALUE;
+
+	private long hits, misses, evictions, invalidations;
+
+	/**
+	 * @param maxWeight The maximum number of cities held by the routes of all entries
+	 */
+	RouteCache (long maxWeight)
+	{
+		this.maxWeight = maxWeight;
+	}
+
+	/**
+	 * @param graph The current snapshot of the world
+	 * @param minHops The minimum number of stops of the routes
+	 * @param limit The maximum number of stops or the maximum distance of the routes, according to limitStrategy
+	 * @return Clones of the cached routes within the given bounds, or null if no entry covers the given limit
+	 */
+	Set<Route> get (CompactWorld graph, int source, int dest, int minHops, int limit, RouteLimitStrategy limitStrategy)
+	{
+		Entry entry;
+		synchronized (this) {
+			entry = find(graph, source, dest, limit, limitStrategy);
+			if (entry == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+		}
+		// entries never change, so the routes are cloned out of the lock
+		return entry.select(minHops, limit);
+	}
+
+	/**
+	 * @param graph The current snapshot of the world
+	 * @param minHops The minimum number of stops of the routes
+	 * @param limit The maximum number of stops or the maximum distance of the routes, according to limitStrategy
+	 * @return The number of cached routes within the given bounds, or -1 if no entry covers the given limit
+	 */
+	synchronized long count (CompactWorld graph, int source, int dest, int minHops, int limit, RouteLimitStrategy limitStrategy)
+	{
+		Entry entry = find(graph, source, dest, limit, limitStrategy);
+		if (entry == null) {
+			misses++;
+			return -1;
+		}
+		hits++;
+		return entry.count(minHops, limit);
+	}
+
+	/**
+	 * Caches an enumeration, unless it's routes alone exceed the bounds of the cache or a larger limit is already cached
+	 * 
+	 * @param graph The snapshot the routes were enumerated on
+	 * @param limit The limit the routes were enumerated with
+	 * @param routes Every route of at least one stop within the limit; owned by the cache from now on
+	 * @param minHops The minimum number of stops of the routes to be returned
+	 * @return Clones of the routes with at least minHops stops
+	 */
+	Set<Route> put (CompactWorld graph, int source, int dest, int limit, RouteLimitStrategy limitStrategy,
+			List<Route> routes, int minHops)
+	{
+		Entry entry = new Entry(limit, limitStrategy, routes);
+		synchronized (this) {
+			invalidate(graph);
+			Key key = new Key(source, dest, limitStrategy);
+			Entry previous = entries.get(key);
+			// a concurrent query may have cached a larger limit meanwhile
+			if (entry.weight <= maxWeight && graph.getVersion() == version && (previous == null || previous.limit < limit)) {
+				entries.put(key, entry);
+				if (previous != null) {
+					weight -= previous.weight;
+				}
+				weight += entry.weight;
+				Iterator<Entry> eldest = entries.values().iterator();
+				while (weight > maxWeight) {
+					weight -= eldest.next().weight;
+					eldest.remove();
+					evictions++;
+				}
+			}
+		}
+		return entry.select(minHops, limit);
+	}
+
+	/**
+	 * @return The current values of the counters of this cache
+	 */
+	synchronized CacheStatistics getStatistics ()
+	{
+		long memory = 0;
+		for (Entry entry : entries.values()) {
+			memory += entry.getMemory();
+		}
+		return new CacheStatistics(hits, misses, evictions, invalidations, 0, entries.size(), memory);
+	}
+
+	/**
+	 * @return The entry of the given key if it covers the given limit, or null
+	 */
+	private Entry find (CompactWorld graph, int source, int dest, int limit, RouteLimitStrategy limitStrategy)
+	{
+		invalidate(graph);
+		if (graph.getVersion() != version) {
+			// a query still running on an older version
+			return null;
+		}
+		Entry entry = entries.get(new Key(source, dest, limitStrategy));
+		return entry != null && entry.limit >= limit ? entry : null;
+	}
+
+	/**
+	 * Drops every entry if the given snapshot is a later version of the world than the one they were made for
+	 */
+	private void invalidate (CompactWorld graph)
+	{
+		if (graph.getVersion() > version) {
+			invalidations += entries.size();
+			entries.clear();
+			weight = 0;
+			version = graph.getVersion();
+		}
+	}
+
+	private static final class Key {
+
+		private final int source;
+		private final int dest;
+		private final RouteLimitStrategy limitStrategy;
+
+		Key (int source, int dest, RouteLimitStrategy limitStrategy)
+		{
+			this.source = source;
+			this.dest = dest;
+			this.limitStrategy = limitStrategy;
+		}
+
+		@Override
+		public boolean equals (Object o)
+		{
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return other.source == source && other.dest == dest && other.limitStrategy == limitStrategy;
+		}
+
+		@Override
+		public int hashCode ()
+		{
+			return (31 * source + dest) * 2 + limitStrategy.ordinal();
+		}
+	}
+
+	private static final class Entry {
+
+		private final int limit;
+
+		private final Route[] routes;
+
+		/**
+		 * The number of stops or the distance of each route, according to limitStrategy
+		 */
+		private final int[] measures;
+
+		/**
+		 * The number of cities held by the routes
+		 */
+		private final long weight;
+
+		Entry (int limit, RouteLimitStrategy limitStrategy, List<Route> routes)
+		{
+			this.limit = limit;
+			this.routes = routes.toArray(new Route[routes.size()]);
+			this.measures = new int[this.routes.length];
+			long weight = 0;
+			for (int i = 0; i < this.routes.length; i++) {
+				Route route = this.routes[i];
+				weight += route.size();
+				if (limitStrategy == RouteLimitStrategy.LIMIT_BY_STOPS) {
+					measures[i] = route.size() - 1;
+				}
+				else {
+					try {
+						measures[i] = route.getLenght();
+					}
+					catch (NoSuchRouteException e) {
+						throw new AssertionError(e);
+					}
+				}
+			}
+			this.weight = weight;
+		}
+
+		/**
+		 * @return If the route of the given index lies within the given bounds
+		 */
+		private boolean within (int index, int minHops, int limit)
+		{
+			return measures[index] <= limit && routes[index].size() - 1 >= minHops;
+		}
+
+		Set<Route> select (int minHops, int limit)
+		{
+			Set<Route> res = new HashSet<Route>();
+			for (int i = 0; i < routes.length; i++) {
+				if (within(i, minHops, limit)) {
+					res.add(routes[i].clone());
+				}
+			}
+			return res;
+		}
+
+		long count (int minHops, int limit)
+		{
+			long res = 0;
+			for (int i = 0; i < routes.length; i++) {
+				if (within(i, minHops, limit)) {
+					res++;
+				}
+			}
+			return res;
+		}
+
+		/**
+		 * @return The estimated number of bytes held by the routes of this entry
+		 */
+		long getMemory ()
+		{
+			return routes.length * (long) ROUTE_BYTES + 4 * weight;
+		}
+	}
+
+}
@@ -0,0 +1,171 @@
+package nom.danielmarreco.train;
+
+import java.util.Arrays;
+
+import nom.danielmarreco.train.exception.QueryBudgetExceededException;
+
+/**
+ * Counts the routes enumerated by {@link TravelGuide#findPossibleRoutes(String, String, Integer)} and it's siblings
+ * without building them, by dynamic programming over (city, stops) and (city, distance) states.
+ * <br/>
+ * The number of routes grows exponentially with the limits, but the number of states only linearly.
+ */
+final class RouteCounter {
+
+	private RouteCounter ()
+	{
+	}
+
+	/**
+	 * Counts the routes from source to dest with a number of stops between minHops and maxHops.
+	 * Runs in O(maxHops * (V + E)) time and O(V) memory.
+	 * 
+	 * @param trace The trace the work done is added to, or null
+	 * @param budget The limits of the count, checked once per number of stops, or null
+	 * @throws ArithmeticException If the count overflows a long
+	 * @throws QueryBudgetExceededException If the budget is exceeded
+	 */
+	static long countByStops (CompactWorld graph, int source, int dest, int minHops, int maxHops, QueryTrace trace, QueryBudget budget)
+	{
+		int cityCount = graph.getCityCount();
+		// routesTo[c] is the number of routes from source to c with the current number of stops
+		long[] routesTo = new long[cityCount];
+		long[] next = new long[cityCount];
+		routesTo[source] = 1;
+		long res = 0;
+		long states = 0, relaxed = 0;
+		int peakStates = 0;
+		for (int hops = 1; hops <= maxHops; hops++) {
+			Arrays.fill(next, 0);
+			boolean any = false;
+			int rowStates = 0;
+			for (int city = 0; city < cityCount; city++) {
+				long routes = routesTo[city];
+				if (routes == 0) {
+					continue;
+				}
+				rowStates++;
+				relaxed += graph.getRoutesEnd(city) - graph.getRoutesStart(city);
+				for (int r = graph.getRoutesStart(city), end = graph.getRoutesEnd(city); r < end; r++) {
+					int target = graph.getRouteTarget(r);
+					next[target] = Math.addExact(next[target], routes);
+					any = true;
+				}
+			}
+			states += rowStates;
+			peakStates = Math.max(peakStates, rowStates);
+			if (!any) {
+				break;
+			}
+			if (hops >= minHops) {
+				res = Math.addExact(res, next[dest]);
+			}
+			long[] swap = routesTo;
+			routesTo = next;
+			next = swap;
+			if (budget != null && !budget.expand(rowStates)) {
+				break;
+			}
+		}
+		if (trace != null) {
+			trace.add(states, relaxed, peakStates);
+		}
+		if (budget != null) {
+			budget.check();
+		}
+		return res;
+	}
+
+	/**
+	 * Counts the routes from source to dest with at least one stop and a total distance of at most maxDistance.
+	 * Runs in O(maxDistance * (V + E)) time; keeps one row of V counters per distance in the range of a single route,
+	 * allocated only while non empty.
+	 * 
+	 * @param trace The trace the work done is added to, or null
+	 * @param budget The limits of the count, checked once per distance reached, or null
+	 * @throws ArithmeticException If the count overflows a long
+	 * @throws IllegalStateException If the world has a route of distance zero or less, which may lead to infinite routes
+	 * @throws QueryBudgetExceededException If the budget is exceeded
+	 */
+	static long countByDistance (CompactWorld graph, int source, int dest, int maxDistance, QueryTrace trace, QueryBudget budget)
+	{
+		int maxRouteDistance = 0;
+		for (int r = 0; r < graph.getRouteCount(); r++) {
+			int distance = graph.getRouteDistance(r);
+			if (distance <= 0) {
+				throw new IllegalStateException("Routes can not be counted by distance in a world with routes of distance " + distance);
+			}
+			maxRouteDistance = Math.max(maxRouteDistance, distance);
+		}
+		if (maxDistance < 1) {
+			return 0;
+		}
+
+		int cityCount = graph.getCityCount();
+		/*
+		 * rows[d % rows.length][c] is the number of routes from source to c with a distance of exactly d. 
+		 * Routes only lead to longer distances, so once distance d is reached it's row is final, 
+		 * and is pushed forward to the rows d + 1 to d + maxRouteDistance
+		 */
+		long[][] rows = new long[Math.min(maxRouteDistance, maxDistance) + 1][];
+		long[] spare = null;
+		rows[0] = new long[cityCount];
+		rows[0][source] = 1;
+		long res = 0;
+		long states = 0, relaxed = 0;
+		int peakStates = 0;
+		for (int distance = 0; distance <= maxDistance; distance++) {
+			long[] row = rows[distance % rows.length];
+			if (row == null) {
+				continue;
+			}
+			int rowStates = 0;
+			rows[distance % rows.length] = null;
+			if (distance > 0) {
+				res = Math.addExact(res, row[dest]);
+			}
+			for (int city = 0; city < cityCount; city++) {
+				long routes = row[city];
+				if (routes == 0) {
+					continue;
+				}
+				rowStates++;
+				relaxed += graph.getRoutesEnd(city) - graph.getRoutesStart(city);
+				for (int r = graph.getRoutesStart(city), end = graph.getRoutesEnd(city); r < end; r++) {
+					int newDistance = distance + graph.getRouteDistance(r);
+					if (newDistance > maxDistance) {
+						continue;
+					}
+					long[] target = rows[newDistance % rows.length];
+					if (target == null) {
+						if (spare != null) {
+							target = spare;
+							spare = null;
+						}
+						else {
+							target = new long[cityCount];
+						}
+						rows[newDistance % rows.length] = target;
+					}
+					int targetCity = graph.getRouteTarget(r);
+					target[targetCity] = Math.addExact(target[targetCity], routes);
+				}
+			}
+			Arrays.fill(row, 0);
+			spare = row;
+			states += rowStates;
+			peakStates = Math.max(peakStates, rowStates);
+			if (budget != null && !budget.expand(rowStates)) {
+				break;
+			}
+		}
+		if (trace != null) {
+			trace.add(states, relaxed, peakStates);
+		}
+		if (budget != null) {
+			budget.check();
+		}
+		return res;
+	}
+
+}
@@ -0,0 +1,122 @@
+package nom.danielmarreco.train;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates the distances of many given routes at once, as {@link TravelGuide#getRouteDistances(String[], int[])} does.
+ * <br/>
+ * Routes are given in columns: the names of the cities of all routes one after the other, and the offset where each route
+ * starts. No {@link Route} is built and no exception is thrown for invalid routes, which get {@link TravelGuide#NO_SUCH_ROUTE};
+ * the routes are split in chunks run in parallel.
+ */
+final class RouteDistances {
+
+	/**
+	 * The number of routes from which a task is no longer split
+	 */
+	static final int ROUTES_PER_TASK = 4096;
+
+	private RouteDistances ()
+	{
+	}
+
+	/**
+	 * @param graph The snapshot the routes are evaluated against
+	 * @param cities The names of the cities of the route
+	 * @param from The index of the first city of the route
+	 * @param to The index after the last city of the route
+	 * @return The distance of the route, or {@link TravelGuide#NO_SUCH_ROUTE} if it is empty, or any of it's cities
+	 * 	or any of it's steps does not exist
+	 */
+	static long distance (CompactWorld graph, String[] cities, int from, int to)
+	{
+		if (from >= to) {
+			return TravelGuide.NO_SUCH_ROUTE;
+		}
+		int previous = graph.getId(cities[from]);
+		if (previous < 0) {
+			return TravelGuide.NO_SUCH_ROUTE;
+		}
+		long res = 0;
+		for (int i = from + 1; i < to; i++) {
+			int city = graph.getId(cities[i]);
+			int distance = city < 0 ? -1 : graph.getDistance(previous, city);
+			if (distance < 0) {
+				return TravelGuide.NO_SUCH_ROUTE;
+			}
+			res += distance;
+			previous = city;
+		}
+		return res;
+	}
+
+	/**
+	 * @param graph The snapshot the routes are evaluated against
+	 * @param cities The names of the cities of all routes
+	 * @param offsets The index in cities of the first city of each route, followed by the index after the last city
+	 * 	of the last route
+	 * @param pool The pool running the evaluation
+	 * @return The distance of each route, or {@link TravelGuide#NO_SUCH_ROUTE}
+	 * @throws IllegalArgumentException If the offsets are not in order, or out of the cities
+	 */
+	static long[] compute (CompactWorld graph, String[] cities, int[] offsets, ForkJoinPool pool)
+	{
+		if (offsets.length == 0) {
+			throw new IllegalArgumentException("No offsets");
+		}
+		for (int i = 0; i < offsets.length; i++) {
+			if (offsets[i] < (i == 0 ? 0 : offsets[i - 1]) || offsets[i] > cities.length) {
+				throw new IllegalArgumentException("Invalid offset " + offsets[i] + " at " + i);
+			}
+		}
+		long[] distances = new long[offsets.length - 1];
+		if (distances.length <= ROUTES_PER_TASK) {
+			new DistanceTask(graph, cities, offsets, distances, 0, distances.length).compute();
+		}
+		else {
+			pool.invoke(new DistanceTask(graph, cities, offsets, distances, 0, distances.length));
+		}
+		return distances;
+	}
+
+	/**
+	 * Evaluates a range of routes, splitting it among the pool
+	 */
+	private static class DistanceTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final CompactWorld graph;
+		private final String[] cities;
+		private final int[] offsets;
+		private final long[] distances;
+		private final int fromRoute;
+		private final int toRoute;
+
+		DistanceTask (CompactWorld graph, String[] cities, int[] offsets, long[] distances, int fromRoute, int toRoute)
+		{
+			this.graph = graph;
+			this.cities = cities;
+			this.offsets = offsets;
+			this.distances = distances;
+			this.fromRoute = fromRoute;
+			this.toRoute = toRoute;
+		}
+
+		@Override
+		protected void compute ()
+		{
+			if (toRoute - fromRoute > ROUTES_PER_TASK) {
+				int middle = (fromRoute + toRoute) >>> 1;
+				invokeAll(new DistanceTask(graph, cities, offsets, distances, fromRoute, middle),
+						new DistanceTask(graph, cities, offsets, distances, middle, toRoute));
+				return;
+			}
+			for (int route = fromRoute; route < toRoute; route++) {
+				distances[route] = distance(graph, cities, offsets[route], offsets[route + 1]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,232 @@
+package nom.danielmarreco.train;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import nom.danielmarreco.train.TravelGuide.RouteLimitStrategy;
+
+/**
+ * Lazily enumerates the routes between two cities of a {@link CompactWorld}, in depth-first order.
+ * <br/>
+ * The search keeps it's state in an explicit stack of primitive arrays, as deep as the longest route, 
+ * and builds each {@link Route} only when it is asked for; so memory does not grow with the number of routes 
+ * and the search stops as soon as the client stops asking.
+ * <br/>
+ * Branches that can not reach the destination with what is left of the limit are pruned, see {@link RouteBounds}.
+ * <br/>
+ * With a {@link QueryBudget}, the search ends early, as if there were no more routes, once a limit of the budget is reached.
+ */
+final class RouteIterator implements Iterator<Route> {
+
+	private final CompactWorld graph;
+	private final int dest;
+	private final int minHops;
+	private final RouteLimitStrategy limitStrategy;
+
+	/**
+	 * The least number of stops or distance from each city to dest, according to limitStrategy
+	 */
+	private final RouteBounds bounds;
+
+	/**
+	 * The limits of the search, or null
+	 */
+	private final QueryBudget budget;
+
+	/*
+	 * the stack: for each depth, the city, the next of it's routes to be followed and what is left of the limit
+	 */
+	private int[] path = new int[16];
+	private int[] nextRoute = new int[16];
+	private int[] left = new int[16];
+
+	/**
+	 * The depth of the top of the stack (the number of stops of the route being walked)
+	 */
+	private int depth;
+
+	/**
+	 * The depth of the last city of the route prefix given at construction; the search is over once it is left
+	 */
+	private final int floor;
+
+	/**
+	 * The route found ahead by {@link #hasNext()}, not yet returned by {@link #next()}
+	 */
+	private Route pending;
+
+	/*
+	 * the work done so far: the states pushed, the routes followed, the routes found and the deepest state pushed
+	 */
+	private long expanded;
+	private long relaxed;
+	private long emitted;
+	private int peakDepth;
+
+	/**
+	 * @param graph The snapshot to be searched
+	 * @param source The id of the city the routes start from
+	 * @param dest The id of the city the routes end at
+	 * @param minHops The minimum number of stops a route must have to be returned
+	 * @param limit The maximum number of stops or the maximum distance of the routes, according to limitStrategy
+	 * @param limitStrategy How routes are limited
+	 * @param budget The limits of the search, or null
+	 */
+	RouteIterator (CompactWorld graph, int source, int dest, int minHops, int limit, RouteLimitStrategy limitStrategy, QueryBudget budget)
+	{
+		this(graph, new int[] {source}, 1, dest, minHops, limit, limitStrategy, RouteBounds.of(graph, dest, limit, limitStrategy), budget);
+	}
+
+	/**
+	 * Enumerates the routes extending a given prefix; the prefix itself is not returned
+	 * 
+	 * @param graph The snapshot to be searched
+	 * @param prefix The ids of the cities all routes start with
+	 * @param prefixLength The number of cities in the prefix
+	 * @param dest The id of the city the routes end at
+	 * @param minHops The minimum number of stops a route must have to be returned
+	 * @param limit What is left of the limit after the prefix
+	 * @param limitStrategy How routes are limited
+	 * @param bounds The bounds to dest, as given by {@link RouteBounds#of(CompactWorld, int, int, RouteLimitStrategy)}
+	 * 	for the whole limit
+	 * @param budget The limits of the search, or null
+	 */
+	RouteIterator (CompactWorld graph, int[] prefix, int prefixLength, int dest, int minHops, int limit, RouteLimitStrategy limitStrategy,
+			RouteBounds bounds, QueryBudget budget)
+	{
+		this.graph = graph;
+		this.dest = dest;
+		this.minHops = minHops;
+		this.limitStrategy = limitStrategy;
+		this.bounds = bounds;
+		this.budget = budget;
+		if (path.length <= prefixLength) {
+			path = new int[prefixLength * 2];
+			nextRoute = new int[prefixLength * 2];
+			left = new int[prefixLength * 2];
+		}
+		System.arraycopy(prefix, 0, path, 0, prefixLength);
+		depth = floor = prefixLength - 1;
+		nextRoute[depth] = graph.getRoutesStart(path[depth]);
+		left[depth] = limit;
+	}
+
+	public boolean hasNext ()
+	{
+		return pending != null || (pending = advance()) != null;
+	}
+
+	public Route next ()
+	{
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Route res = pending;
+		pending = null;
+		return res;
+	}
+
+	public void remove ()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @return The number of states pushed on the stack so far, i.e. of route prefixes walked
+	 */
+	long getExpandedCount ()
+	{
+		return expanded;
+	}
+
+	/**
+	 * @return The number of routes followed so far from the states pushed, pruned or not
+	 */
+	long getRelaxedCount ()
+	{
+		return relaxed;
+	}
+
+	/**
+	 * @return The number of routes found so far
+	 */
+	long getEmittedCount ()
+	{
+		return emitted;
+	}
+
+	/**
+	 * @return The largest number of stops of the routes walked so far
+	 */
+	int getPeakDepth ()
+	{
+		return peakDepth;
+	}
+
+	/**
+	 * Walks the search tree up to the next route arriving at the destination
+	 * 
+	 * @return The route found, or null if there are no more routes or the budget was exceeded
+	 */
+	private Route advance ()
+	{
+		while (depth >= floor) {
+			int city = path[depth];
+			int r = nextRoute[depth];
+			if (r == graph.getRoutesEnd(city)) {
+				depth--;
+				continue;
+			}
+			nextRoute[depth] = r + 1;
+			relaxed++;
+
+			int counter = left[depth] - (limitStrategy == RouteLimitStrategy.LIMIT_BY_STOPS ? 1 : graph.getRouteDistance(r));
+			int nextCity = graph.getRouteTarget(r);
+			// also true when the limit is exceeded, as bounds are never negative
+			if (counter < bounds.get(nextCity)) {
+				continue;
+			}
+			if (++depth == path.length) {
+				path = Arrays.copyOf(path, depth * 2);
+				nextRoute = Arrays.copyOf(nextRoute, depth * 2);
+				left = Arrays.copyOf(left, depth * 2);
+			}
+			path[depth] = nextCity;
+			nextRoute[depth] = graph.getRoutesStart(nextCity);
+			left[depth] = counter;
+			expanded++;
+			if (depth > peakDepth) {
+				peakDepth = depth;
+			}
+			if (budget != null && expanded % QueryBudget.CHECK_INTERVAL == 0 && !budget.expand(QueryBudget.CHECK_INTERVAL)) {
+				return stop();
+			}
+			if (nextCity == dest && depth >= minHops) {
+				if (budget != null && !budget.emit()) {
+					return stop();
+				}
+				emitted++;
+				return graph.getRoute(path, depth + 1);
+			}
+		}
+		if (budget != null && depth == floor - 1) {
+			// the states expanded since the last check
+			budget.charge(expanded % QueryBudget.CHECK_INTERVAL);
+			depth--;
+		}
+		return null;
+	}
+
+	/**
+	 * Ends the search, as the budget was exceeded
+	 * 
+	 * @return null
+	 */
+	private Route stop ()
+	{
+		depth = floor - 2;
+		return null;
+	}
+
+}
@@ -0,0 +1,480 @@
+package nom.danielmarreco.train;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import nom.danielmarreco.train.exception.InvalidArgumentException;
+
+/**
+ * Loads large sets of routes into a {@link WorldBuilder}, in one of the {@link Format}s below.
+ * <br/>
+ * Input is read from a NIO channel into a large buffer and parsed byte by byte: no String is created per route,
+ * only one per distinct city name. Parsed routes are handed to the builder in batches.
+ * <br/>
+ * A loader keeps the cities it has seen, so it must not be used once it's builder has built the world.
+ * 
+ * @see WorldBuilder#addRoute(String)
+ */
+public class RouteLoader {
+
+	/**
+	 * The formats of the loaded routes
+	 */
+	public enum Format {
+		/**
+		 * The notations of {@link WorldBuilder#addRoute(String)}, with routes separated by commas or blanks.
+		 * Ex.: 'AB5, BC4, Auckland-Wellington:640'
+		 */
+		NOTATION,
+		/**
+		 * One route per line, as 'from,to,distance'. City names may have any character but commas and line breaks;
+		 * blanks around names and distances and empty lines are ignored.
+		 * Ex.: 'Auckland,Wellington,640'
+		 */
+		CSV
+	}
+
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	private static final int DEFAULT_BATCH_SIZE = 1 << 16;
+
+	private final WorldBuilder builder;
+
+	private final Format format;
+
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	/**
+	 * An open addressing hash table of the city names seen so far, holding their index in {@link #names} plus 1 (0 for empty slots)
+	 */
+	private int[] slots = new int[64];
+
+	/**
+	 * The UTF-8 bytes of each city name seen so far
+	 */
+	private byte[][] names = new byte[32][];
+
+	/**
+	 * The hash of each city name seen so far
+	 */
+	private int[] hashes = new int[32];
+
+	/**
+	 * The city of each name seen so far
+	 */
+	private City[] cities = new City[32];
+
+	private int cityCount;
+
+	/**
+	 * The index in {@link #cities} of the city named by each letter, or -1 if it was not seen yet, see {@link Format#NOTATION}
+	 */
+	private int[] letterCities;
+
+	/*
+	 * the batch of routes not yet handed to the builder
+	 */
+	private int[] from, to, distances;
+
+	private int pending;
+
+	private long routeCount;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param builder The builder the routes are added to
+	 * @param format The format of the routes to be loaded
+	 */
+	public RouteLoader (WorldBuilder builder, Format format)
+	{
+		this.builder = builder;
+		this.format = format;
+	}
+
+	/**
+	 * @param bufferSize The size in bytes of the read buffer, which grows as needed to hold a whole route
+	 * @return This loader
+	 */
+	public RouteLoader setBufferSize (int bufferSize)
+	{
+		this.bufferSize = bufferSize;
+		return this;
+	}
+
+	/**
+	 * @param batchSize The number of routes handed to the builder at once
+	 * @return This loader
+	 */
+	public RouteLoader setBatchSize (int batchSize)
+	{
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * @return The number of routes loaded so far
+	 */
+	public long getRouteCount ()
+	{
+		return routeCount;
+	}
+
+	/**
+	 * Loads all routes in the given file
+	 * 
+	 * @param file The file to be read
+	 * @return This loader
+	 * @throws IOException If the file can not be read
+	 * @throws InvalidArgumentException If a route is not in the expected format; the routes before it are loaded
+	 */
+	public RouteLoader load (Path file) throws IOException, InvalidArgumentException
+	{
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			return load(channel);
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Loads all routes read from the given channel, which is left open
+	 * 
+	 * @param channel The channel to be read
+	 * @return This loader
+	 * @throws IOException If the channel can not be read
+	 * @throws InvalidArgumentException If a route is not in the expected format; the routes before it are loaded
+	 */
+	public RouteLoader load (ReadableByteChannel channel) throws IOException, InvalidArgumentException
+	{
+		if (from == null || from.length != batchSize) {
+			from = new int[batchSize];
+			to = new int[batchSize];
+			distances = new int[batchSize];
+		}
+		byte[] buffer = new byte[bufferSize];
+		ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+		try {
+			boolean eof = false;
+			while (!eof) {
+				eof = channel.read(wrapper) < 0;
+				int limit = wrapper.position();
+				// only whole routes are parsed, the incomplete one at the end waits for the next read
+				int end = eof ? limit : lastSeparator(buffer, limit) + 1;
+				if (end > 0) {
+					parse(buffer, 0, end);
+				}
+				System.arraycopy(buffer, end, buffer, 0, limit - end);
+				if (limit - end == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+					wrapper = ByteBuffer.wrap(buffer);
+				}
+				wrapper.position(limit - end);
+			}
+		}
+		finally {
+			flush();
+		}
+		return this;
+	}
+
+	/**
+	 * @return The position of the last byte separating two routes in the given buffer, or -1 if there is none
+	 */
+	private int lastSeparator (byte[] buffer, int limit)
+	{
+		for (int i = limit - 1; i >= 0; i--) {
+			byte b = buffer[i];
+			if (b == '\n' || (format == Format.NOTATION && isNotationSeparator(b))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void parse (byte[] buffer, int start, int end) throws InvalidArgumentException
+	{
+		if (format == Format.NOTATION) {
+			parseNotation(buffer, start, end);
+		}
+		else {
+			parseCsv(buffer, start, end);
+		}
+	}
+
+	private static boolean isNotationSeparator (byte b)
+	{
+		return b == ',' || b == ' ' || b == '\n' || b == '\r' || b == '\t';
+	}
+
+	private static boolean isBlank (byte b)
+	{
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+
+	/**
+	 * Parses routes like 'AB5' or 'FROM-TO:5', checked as {@link WorldBuilder#addRoute(String)} does
+	 */
+	private void parseNotation (byte[] buffer, int start, int end) throws InvalidArgumentException
+	{
+		int i = start;
+		while (i < end) {
+			if (isNotationSeparator(buffer[i])) {
+				i++;
+				continue;
+			}
+			// a single pass reads the letters and accumulates the distance until the next separator
+			int routeStart = i;
+			long distance = -1;
+			if (end - i >= 3 && isCityLetter(buffer[i]) && isCityLetter(buffer[i + 1])) {
+				distance = 0;
+				for (i += 2; i < end && !isNotationSeparator(buffer[i]); i++) {
+					int digit = buffer[i] - '0';
+					if (digit < 0 || digit > 9) {
+						distance = -1;
+						break;
+					}
+					distance = Math.min(distance * 10 + digit, Integer.MAX_VALUE + 1L);
+				}
+			}
+			if (distance < 0 || i - routeStart < 3) {
+				i = parseExtendedRoute(buffer, routeStart, end);
+			}
+			else if (distance > Integer.MAX_VALUE) {
+				throw invalid(buffer, routeStart, i);
+			}
+			else {
+				add(getLetterCity(buffer, routeStart), getLetterCity(buffer, routeStart + 1), (int) distance);
+			}
+		}
+	}
+
+	/**
+	 * Parses a route like 'FROM-TO:5'
+	 * 
+	 * @return The position following the route
+	 */
+	private int parseExtendedRoute (byte[] buffer, int start, int end) throws InvalidArgumentException
+	{
+		int dash = -1, colon = -1, routeEnd = start;
+		boolean valid = true;
+		for (; routeEnd < end && !isNotationSeparator(buffer[routeEnd]); routeEnd++) {
+			byte b = buffer[routeEnd];
+			if (b == '-') {
+				valid &= dash < 0;
+				dash = routeEnd;
+			}
+			else if (b == ':') {
+				valid &= dash >= 0 && colon < 0;
+				colon = routeEnd;
+			}
+		}
+		int distance = valid && dash > start && colon > dash + 1 ? parseDistance(buffer, colon + 1, routeEnd) : -1;
+		if (distance < 0) {
+			throw invalid(buffer, start, routeEnd);
+		}
+		add(getCity(buffer, start, dash - start), getCity(buffer, dash + 1, colon - dash - 1), distance);
+		return routeEnd;
+	}
+
+	/**
+	 * @return The index of the city named by the letter in the given position, skipping the hash table
+	 */
+	private int getLetterCity (byte[] buffer, int position)
+	{
+		if (letterCities == null) {
+			letterCities = new int['Z' - 'A' + 1];
+			Arrays.fill(letterCities, -1);
+		}
+		int letter = buffer[position] - 'A';
+		int res = letterCities[letter];
+		if (res < 0) {
+			res = letterCities[letter] = getCity(buffer, position, 1);
+		}
+		return res;
+	}
+
+	private static boolean isCityLetter (byte b)
+	{
+		return b >= 'A' && b <= 'Z';
+	}
+
+	/**
+	 * Parses one 'from,to,distance' route per line
+	 */
+	private void parseCsv (byte[] buffer, int start, int end) throws InvalidArgumentException
+	{
+		int lineStart = start;
+		while (lineStart < end) {
+			int lineEnd = lineStart;
+			while (lineEnd < end && buffer[lineEnd] != '\n') {
+				lineEnd++;
+			}
+			int firstComma = -1, secondComma = -1;
+			boolean blank = true;
+			for (int i = lineStart; i < lineEnd; i++) {
+				byte b = buffer[i];
+				if (b == ',') {
+					if (firstComma < 0) {
+						firstComma = i;
+					}
+					else if (secondComma < 0) {
+						secondComma = i;
+					}
+				}
+				blank &= isBlank(b);
+			}
+			if (!blank) {
+				if (secondComma < 0) {
+					throw invalid(buffer, lineStart, lineEnd);
+				}
+				int cityFrom = getTrimmedCity(buffer, lineStart, firstComma);
+				int cityTo = getTrimmedCity(buffer, firstComma + 1, secondComma);
+				int distanceStart = secondComma + 1, distanceEnd = lineEnd;
+				while (distanceStart < distanceEnd && isBlank(buffer[distanceStart])) {
+					distanceStart++;
+				}
+				while (distanceEnd > distanceStart && isBlank(buffer[distanceEnd - 1])) {
+					distanceEnd--;
+				}
+				int distance = parseDistance(buffer, distanceStart, distanceEnd);
+				if (cityFrom < 0 || cityTo < 0 || distance < 0) {
+					throw invalid(buffer, lineStart, lineEnd);
+				}
+				add(cityFrom, cityTo, distance);
+			}
+			lineStart = lineEnd + 1;
+		}
+	}
+
+	/**
+	 * @return The index of the city named by the given bytes stripped of blanks, or -1 if the name is empty
+	 */
+	private int getTrimmedCity (byte[] buffer, int start, int end)
+	{
+		while (start < end && isBlank(buffer[start])) {
+			start++;
+		}
+		while (end > start && isBlank(buffer[end - 1])) {
+			end--;
+		}
+		return start == end ? -1 : getCity(buffer, start, end - start);
+	}
+
+	/**
+	 * @return The decimal number in the given bytes, or -1 if they are not one or it exceeds {@link Integer#MAX_VALUE}
+	 */
+	private static int parseDistance (byte[] buffer, int start, int end)
+	{
+		if (start == end) {
+			return -1;
+		}
+		long res = 0;
+		for (int i = start; i < end; i++) {
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9 || (res = res * 10 + digit) > Integer.MAX_VALUE) {
+				return -1;
+			}
+		}
+		return (int) res;
+	}
+
+	private static InvalidArgumentException invalid (byte[] buffer, int start, int end)
+	{
+		return new InvalidArgumentException(new String(buffer, start, end - start, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Gets the index of a city by it's name, looking it up in the builder the first time the name is seen
+	 * 
+	 * @return The index in {@link #cities} of the city named by the given bytes
+	 */
+	private int getCity (byte[] buffer, int start, int length)
+	{
+		int hash = 0x811C9DC5;
+		for (int i = start; i < start + length; i++) {
+			hash = (hash ^ buffer[i]) * 0x01000193;
+		}
+		int mask = slots.length - 1;
+		for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			int city = slots[slot] - 1;
+			if (city < 0) {
+				return addCity(buffer, start, length, hash, slot);
+			}
+			if (hashes[city] == hash && names[city].length == length && equals(names[city], buffer, start)) {
+				return city;
+			}
+		}
+	}
+
+	private static boolean equals (byte[] name, byte[] buffer, int start)
+	{
+		for (int i = 0; i < name.length; i++) {
+			if (name[i] != buffer[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int addCity (byte[] buffer, int start, int length, int hash, int slot)
+	{
+		int city = cityCount++;
+		if (city == cities.length) {
+			names = Arrays.copyOf(names, city * 2);
+			hashes = Arrays.copyOf(hashes, city * 2);
+			cities = Arrays.copyOf(cities, city * 2);
+		}
+		names[city] = Arrays.copyOfRange(buffer, start, start + length);
+		hashes[city] = hash;
+		cities[city] = builder.getOrAddCity(new String(buffer, start, length, StandardCharsets.UTF_8));
+		slots[slot] = city + 1;
+		if (cityCount * 2 > slots.length) {
+			rehash();
+		}
+		return city;
+	}
+
+	private void rehash ()
+	{
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for (int city = 0; city < cityCount; city++) {
+			int slot = hashes[city] & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = city + 1;
+		}
+	}
+
+	private void add (int cityFrom, int cityTo, int distance)
+	{
+		from[pending] = cityFrom;
+		to[pending] = cityTo;
+		distances[pending] = distance;
+		routeCount++;
+		if (++pending == batchSize) {
+			flush();
+		}
+	}
+
+	private void flush ()
+	{
+		if (pending > 0) {
+			builder.addRoutes(cities, from, to, distances, pending);
+			pending = 0;
+		}
+	}
+
+}
@@ -0,0 +1,198 @@
+package nom.danielmarreco.train;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of {@link ShortestPathTree}s, keyed by source city. The cache may be shared by threads querying
+ * a {@link ConcurrentWorld}, whose versions are immutable: trees are then only used for the version they were built on.
+ * <br/>
+ * When made for a {@link World}, the cache listens to it's changes and, on the next lookup, brings every tree up to date:
+ * <ul>
+ * <li>trees that do not reach the departure city of a changed route are kept as they are;</li>
+ * <li>added and shortened routes are repaired in place, see {@link ShortestPathTree#repair(CompactWorld, int[], int)};</li>
+ * <li>trees containing a route that got longer, or a city that was replaced, are dropped.</li>
+ * </ul>
+ */
+final class ShortestPathCache implements WorldListener {
+
+	/**
+	 * Past this number of changes waiting to be applied, the whole cache is dropped instead
+	 */
+	private static final int MAX_PENDING_CHANGES = 4096;
+
+	/**
+	 * The trees, in least-recently-used order
+	 */
+	private final LinkedHashMap<Integer, ShortestPathTree> trees;
+
+	/*
+	 * the changes not applied to the trees yet, as parallel arrays
+	 */
+	private int[] changedFrom = new int[16];
+	/**
+	 * -1 when all routes departing from changedFrom were dropped
+	 */
+	private int[] changedTo = new int[16];
+	private boolean[] lengthened = new boolean[16];
+	private long[] changeVersions = new long[16];
+	private int changeCount;
+
+	/**
+	 * The world this cache listens to, or null
+	 */
+	private final World world;
+
+	private long hits, misses, evictions, invalidations, repairs;
+
+	/**
+	 * @param world The world whose changes should be tracked, or null if the cache is used over an immutable snapshot
+	 * @param maxTrees The maximum number of trees to be kept
+	 */
+	ShortestPathCache (World world, final int maxTrees)
+	{
+		this.world = world;
+		this.trees = new LinkedHashMap<Integer, ShortestPathTree>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry (Map.Entry<Integer, ShortestPathTree> eldest)
+			{
+				if (size() > maxTrees) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+		if (world != null) {
+			world.addListener(this);
+		}
+	}
+
+	/**
+	 * Stops listening to the world
+	 */
+	void close ()
+	{
+		if (world != null) {
+			world.removeListener(this);
+		}
+	}
+
+	/**
+	 * @param graph The current snapshot of the world
+	 * @param source The source city id
+	 * @return The shortest path tree of the given source, up to date with the given snapshot
+	 */
+	ShortestPathTree get (CompactWorld graph, int source)
+	{
+		synchronized (this) {
+			if (changeCount > 0) {
+				applyChanges(graph);
+			}
+			ShortestPathTree tree = trees.get(source);
+			// without a world to listen to, the snapshot may be a later version of a world shared by other threads
+			if (tree != null && (world != null || tree.version == graph.getVersion())) {
+				hits++;
+				return tree;
+			}
+			misses++;
+		}
+		// trees are built out of the lock, so queries from other sources don't wait for them
+		ShortestPathTree tree = new ShortestPathTree(graph, source);
+		synchronized (this) {
+			ShortestPathTree cached = trees.get(source);
+			if (cached == null || cached.version < tree.version) {
+				trees.put(source, tree);
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * @return The current values of the counters of this cache
+	 */
+	synchronized CacheStatistics getStatistics ()
+	{
+		long memory = 0;
+		for (ShortestPathTree tree : trees.values()) {
+			memory += tree.getMemory();
+		}
+		return new CacheStatistics(hits, misses, evictions, invalidations, repairs, trees.size(), memory);
+	}
+
+	public synchronized void routeChanged (City from, City to, Integer previousDistance, Integer distance)
+	{
+		if (distance.equals(previousDistance)) {
+			return;
+		}
+		addChange(from.id, to.id, previousDistance != null && distance > previousDistance);
+	}
+
+	public synchronized void cityAdded (City city, City replaced)
+	{
+		if (replaced != null) {
+			addChange(city.id, -1, true);
+		}
+	}
+
+	private void addChange (int from, int to, boolean longer)
+	{
+		if (trees.isEmpty()) {
+			return;
+		}
+		if (changeCount == MAX_PENDING_CHANGES) {
+			invalidations += trees.size();
+			trees.clear();
+			changeCount = 0;
+			return;
+		}
+		if (changeCount == changedFrom.length) {
+			int length = changeCount * 2;
+			changedFrom = Arrays.copyOf(changedFrom, length);
+			changedTo = Arrays.copyOf(changedTo, length);
+			lengthened = Arrays.copyOf(lengthened, length);
+			changeVersions = Arrays.copyOf(changeVersions, length);
+		}
+		changedFrom[changeCount] = from;
+		changedTo[changeCount] = to;
+		lengthened[changeCount] = longer;
+		changeVersions[changeCount] = world.getVersion();
+		changeCount++;
+	}
+
+	/**
+	 * Brings all trees up to date with the given snapshot, repairing or dropping them
+	 */
+	private void applyChanges (CompactWorld graph)
+	{
+		int[] changedCities = new int[changeCount];
+		Iterator<ShortestPathTree> iterator = trees.values().iterator();
+		treeLoop: while (iterator.hasNext()) {
+			ShortestPathTree tree = iterator.next();
+			int count = 0;
+			for (int i = 0; i < changeCount; i++) {
+				int from = changedFrom[i];
+				if (changeVersions[i] <= tree.version || tree.getDistance(from) == Dijkstra.UNREACHABLE) {
+					continue; // already in the tree, or not reachable from it's source
+				}
+				if (changedTo[i] < 0 || (lengthened[i] && tree.getPrevious(changedTo[i]) == from)) {
+					iterator.remove();
+					invalidations++;
+					continue treeLoop;
+				}
+				if (!lengthened[i]) {
+					changedCities[count++] = from;
+				}
+			}
+			if (tree.repair(graph, changedCities, count)) {
+				repairs++;
+			}
+		}
+		changeCount = 0;
+	}
+
+}
@@ -0,0 +1,111 @@
+package nom.danielmarreco.train;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares the searches of concurrent shortest route queries from the same source: the first query computes the whole
+ * {@link ShortestPathTree} of the source, and the queries arriving while it runs wait for it instead of running
+ * searches of their own. Nothing is kept once the search is done.
+ * <br/>
+ * Each search visits the whole world, not only the cities closer than one destination, so this pays off when many
+ * queries from a few sources arrive at once, as in a busy server.
+ */
+final class ShortestPathCoalescer {
+
+	/**
+	 * The searches running, by source city id
+	 */
+	private final ConcurrentHashMap<Integer, Search> searches = new ConcurrentHashMap<Integer, Search>();
+
+	/**
+	 * The number of queries answered by the search of another
+	 */
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * @param graph The snapshot to be searched
+	 * @param source The source city id
+	 * @return The shortest path tree of the given source over the given snapshot
+	 */
+	ShortestPathTree get (CompactWorld graph, int source)
+	{
+		Search search = new Search(graph, source);
+		Search running = searches.putIfAbsent(source, search);
+		ShortestPathTree tree = null;
+		if (running == null) {
+			try {
+				search.run();
+			}
+			finally {
+				searches.remove(source, search);
+			}
+			tree = search.getTree();
+		}
+		else if (running.version == graph.getVersion()) {
+			tree = running.getTree();
+			if (tree != null) {
+				coalesced.incrementAndGet();
+			}
+		}
+		// a search of another version of the world running, or a search that failed, which is run again to throw it's error
+		return tree != null ? tree : new ShortestPathTree(graph, source);
+	}
+
+	/**
+	 * @return The number of queries answered by the search of another
+	 */
+	long getCoalescedCount ()
+	{
+		return coalesced.get();
+	}
+
+	private static final class Search extends FutureTask<ShortestPathTree> {
+
+		final long version;
+
+		Search (final CompactWorld graph, final int source)
+		{
+			super(new Callable<ShortestPathTree>() {
+				public ShortestPathTree call ()
+				{
+					return new ShortestPathTree(graph, source);
+				}
+			});
+			this.version = graph.getVersion();
+		}
+
+		/**
+		 * Waits for the search to be done, ignoring interrupts
+		 * 
+		 * @return The tree, or null if the search failed
+		 */
+		ShortestPathTree getTree ()
+		{
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						return get();
+					}
+					catch (InterruptedException e) {
+						interrupted = true;
+					}
+					catch (ExecutionException e) {
+						return null;
+					}
+				}
+			}
+			finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,139 @@
+package nom.danielmarreco.train;
+
+import java.util.Arrays;
+
+/**
+ * The shortest routes from one source city to every other city of a {@link CompactWorld},
+ * as computed by {@link Dijkstra}.
+ * <br/>
+ * The tree can be repaired in place when routes get shorter or are added, see {@link #repair(CompactWorld, int[], int)}.
+ */
+final class ShortestPathTree {
+
+	/**
+	 * The id of the source city
+	 */
+	final int source;
+
+	/**
+	 * The distance from source of each city, indexed by id
+	 */
+	private int[] distances;
+
+	/**
+	 * The previous city in the shortest route from source to each city, indexed by id
+	 */
+	private int[] previous;
+
+	/**
+	 * The version of the world this tree reflects
+	 */
+	long version;
+
+	/**
+	 * Computes the tree of the given source over a snapshot
+	 */
+	ShortestPathTree (CompactWorld graph, int source)
+	{
+		Dijkstra dijkstra = new Dijkstra(graph);
+		dijkstra.run(source, -1);
+		this.source = source;
+		this.distances = dijkstra.distances;
+		this.previous = dijkstra.previous;
+		this.version = graph.getVersion();
+	}
+
+	/**
+	 * @param city A city id
+	 * @return The shortest distance from source to the given city, or {@link Dijkstra#UNREACHABLE}
+	 */
+	int getDistance (int city)
+	{
+		return city < distances.length ? distances[city] : Dijkstra.UNREACHABLE;
+	}
+
+	/**
+	 * @param city A city id
+	 * @return The city before the given one in it's shortest route from source, or -1
+	 */
+	int getPrevious (int city)
+	{
+		return city < previous.length ? previous[city] : -1;
+	}
+
+	/**
+	 * @return The estimated number of bytes held by the arrays of this tree
+	 */
+	long getMemory ()
+	{
+		return 2 * (16 + 4L * distances.length);
+	}
+
+	/**
+	 * @param graph The snapshot this tree reflects
+	 * @param dest The id of a city reachable from source
+	 * @return The shortest route from source to dest, built in O(route length)
+	 */
+	Route getRoute (CompactWorld graph, int dest)
+	{
+		return graph.getShortestRoute(previous, dest, distances[dest]);
+	}
+
+	/**
+	 * Updates this tree after routes have been added or shortened. The tree must still be valid for all other routes,
+	 * i.e. no route in the tree got longer.
+	 * <br/>
+	 * The departing routes of the given cities are relaxed once again over the new snapshot,
+	 * and every city whose distance drops propagates the change, as in Dijkstra's algorithm.
+	 * Only the part of the tree that actually changes is visited.
+	 * 
+	 * @param graph The up to date snapshot
+	 * @param changedCities The ids of the cities whose departing routes were added or shortened
+	 * @param count The number of ids in changedCities
+	 * @return If any distance changed
+	 */
+	boolean repair (CompactWorld graph, int[] changedCities, int count)
+	{
+		int cityCount = graph.getCityCount();
+		if (distances.length < cityCount) {
+			int oldLength = distances.length;
+			distances = Arrays.copyOf(distances, cityCount);
+			previous = Arrays.copyOf(previous, cityCount);
+			Arrays.fill(distances, oldLength, cityCount, Dijkstra.UNREACHABLE);
+			Arrays.fill(previous, oldLength, cityCount, -1);
+		}
+		version = graph.getVersion();
+
+		IndexedMinHeap heap = null;
+		for (int i = 0; i < count; i++) {
+			int city = changedCities[i];
+			if (distances[city] != Dijkstra.UNREACHABLE) {
+				if (heap == null) {
+					heap = new IndexedMinHeap(cityCount);
+				}
+				heap.offer(city, distances[city]);
+			}
+		}
+		if (heap == null) {
+			return false;
+		}
+
+		boolean changed = false;
+		while (!heap.isEmpty()) {
+			int city = heap.poll();
+			int distance = distances[city];
+			for (int r = graph.getRoutesStart(city), end = graph.getRoutesEnd(city); r < end; r++) {
+				int neighbor = graph.getRouteTarget(r);
+				int newPossibleDistance = distance + graph.getRouteDistance(r);
+				if (newPossibleDistance < distances[neighbor]) {
+					distances[neighbor] = newPossibleDistance;
+					previous[neighbor] = city;
+					heap.offer(neighbor, newPossibleDistance);
+					changed = true;
+				}
+			}
+		}
+		return changed;
+	}
+
+}
@@ -0,0 +1,160 @@
+package nom.danielmarreco.train;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The names of the cities of a snapshot held outside the heap, as laid out in a snapshot file: the UTF-8 bytes of all names,
+ * the offset and the {@link String#hashCode()} of each name, and an open addressing hash table of city ids plus 1 placed by
+ * the hash of their names, as {@link SymbolTable} does.
+ * <br/>
+ * The hashes are kept so routes can be hashed without decoding the names, see {@link Route#hashCode()}.
+ * 
+ * @see MappedCompactWorld
+ * @see OffHeapCompactWorld
+ */
+final class SnapshotNames {
+
+	/**
+	 * The offset of each name in {@link #bytes}, plus the size of the bytes
+	 */
+	private final OffHeapInts offsets;
+
+	/**
+	 * The {@link String#hashCode()} of each name
+	 */
+	private final OffHeapInts hashes;
+
+	/**
+	 * The ids of the cities plus 1 (0 for empty slots), placed by the hash of their names; a power of two of ints
+	 */
+	private final OffHeapInts slots;
+
+	private final ByteBuffer bytes;
+
+	SnapshotNames (OffHeapInts offsets, OffHeapInts hashes, OffHeapInts slots, ByteBuffer bytes)
+	{
+		this.offsets = offsets;
+		this.hashes = hashes;
+		this.slots = slots;
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Copies the names of the cities of a snapshot to direct buffers
+	 * 
+	 * @param graph A snapshot
+	 * @return The names of the cities of the given snapshot
+	 * @throws IllegalArgumentException If the names take more than 2 GB
+	 */
+	static SnapshotNames copyOf (CompactWorld graph)
+	{
+		int cityCount = graph.getCityCount();
+		OffHeapInts offsets = OffHeapInts.allocate(cityCount + 1);
+		OffHeapInts hashes = OffHeapInts.allocate(cityCount);
+		long size = 0;
+		for (int id = 0; id < cityCount; id++) {
+			offsets.set(id, (int) size);
+			hashes.set(id, graph.getNameHash(id));
+			size += graph.getName(id).getBytes(StandardCharsets.UTF_8).length;
+			if (size > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("City names too large to be held in a buffer");
+			}
+		}
+		offsets.set(cityCount, (int) size);
+
+		OffHeapInts slots = OffHeapInts.allocate(getSlotCount(cityCount));
+		ByteBuffer bytes = ByteBuffer.allocateDirect((int) size);
+		for (int id = 0; id < cityCount; id++) {
+			String name = graph.getName(id);
+			bytes.put(name.getBytes(StandardCharsets.UTF_8));
+			int mask = slots.length() - 1;
+			int slot = SymbolTable.hash(name) & mask;
+			while (slots.get(slot) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots.set(slot, id + 1);
+		}
+		return new SnapshotNames(offsets, hashes, slots, bytes);
+	}
+
+	/**
+	 * @param cityCount A number of cities
+	 * @return The size of the hash table of their ids: a power of two at least twice the number of cities
+	 */
+	static int getSlotCount (int cityCount)
+	{
+		return Integer.highestOneBit(Math.max(1, cityCount) * 2 - 1) * 2;
+	}
+
+	/**
+	 * @see CompactWorld#getId(String)
+	 */
+	int getId (String name)
+	{
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int hash = name.hashCode();
+		int mask = slots.length() - 1;
+		for (int slot = SymbolTable.hash(name) & mask; ; slot = (slot + 1) & mask) {
+			int id = slots.get(slot) - 1;
+			if (id < 0) {
+				return -1;
+			}
+			if (hashes.get(id) == hash && nameEquals(id, bytes)) {
+				return id;
+			}
+		}
+	}
+
+	private boolean nameEquals (int id, byte[] bytes)
+	{
+		int start = offsets.get(id);
+		if (offsets.get(id + 1) - start != bytes.length) {
+			return false;
+		}
+		for (int i = 0; i < bytes.length; i++) {
+			if (this.bytes.get(start + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @see CompactWorld#getName(int)
+	 */
+	String getName (int id)
+	{
+		int start = offsets.get(id);
+		byte[] bytes = new byte[offsets.get(id + 1) - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = this.bytes.get(start + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @see CompactWorld#getNameHash(int)
+	 */
+	int getNameHash (int id)
+	{
+		return hashes.get(id);
+	}
+
+	/**
+	 * @return The number of bytes held by the names and their tables
+	 */
+	long getSize ()
+	{
+		return 4L * (offsets.length() + hashes.length() + slots.length()) + bytes.capacity();
+	}
+
+	/**
+	 * @return The number of buffers holding the names and their tables
+	 */
+	int getBufferCount ()
+	{
+		return offsets.getChunkCount() + hashes.getChunkCount() + slots.getChunkCount() + 1;
+	}
+
+}
@@ -0,0 +1,150 @@
+package nom.danielmarreco.train;
+
+import java.util.Arrays;
+
+/**
+ * Interns city names, mapping each distinct name to a dense int id (0 to {@link #size()} - 1) in the order they were first seen.
+ * <br/>
+ * Names are resolved to ids once, when a route is added or a query starts; from then on cities are compared as ints.
+ * The table is an open addressing hash table of ids, so neither lookups nor ids are boxed, and ids are never removed:
+ * a table may be shared by snapshots of a growing {@link World}, each of them using only the ids it knows of.
+ * 
+ * @see World#getCity(String)
+ * @see CompactWorld#getId(String)
+ */
+public final class SymbolTable {
+
+	/**
+	 * The interned names, indexed by id
+	 */
+	private String[] names = new String[16];
+
+	/**
+	 * The hash of each name, indexed by id
+	 */
+	private int[] hashes = new int[16];
+
+	/**
+	 * The ids of the names, plus 1 (0 for empty slots), placed by their hashes
+	 */
+	private int[] slots = new int[32];
+
+	private int size;
+
+	/**
+	 * @param name A name
+	 * @return The id of the given name, or -1 if it was never interned
+	 */
+	public int getId (String name)
+	{
+		int hash = hash(name);
+		int mask = slots.length - 1;
+		for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			int id = slots[slot] - 1;
+			if (id < 0) {
+				return -1;
+			}
+			if (hashes[id] == hash && names[id].equals(name)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * Gets the id of the given name, giving it the next id if it is new
+	 * 
+	 * @param name A name
+	 * @return The id of the given name
+	 */
+	public int intern (String name)
+	{
+		int hash = hash(name);
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		for (; ; slot = (slot + 1) & mask) {
+			int id = slots[slot] - 1;
+			if (id < 0) {
+				break;
+			}
+			if (hashes[id] == hash && names[id].equals(name)) {
+				return id;
+			}
+		}
+		int id = size++;
+		if (id == names.length) {
+			names = Arrays.copyOf(names, id * 2);
+			hashes = Arrays.copyOf(hashes, id * 2);
+		}
+		names[id] = name;
+		hashes[id] = hash;
+		slots[slot] = id + 1;
+		if (size * 2 > slots.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	/**
+	 * @param id An id given by {@link #intern(String)}
+	 * @return The interned name with the given id
+	 */
+	public String getName (int id)
+	{
+		return names[id];
+	}
+
+	/**
+	 * @return The number of names interned
+	 */
+	public int size ()
+	{
+		return size;
+	}
+
+	/**
+	 * @return A table with the same names and ids as this one, which may intern more names without changing this one
+	 */
+	SymbolTable copy ()
+	{
+		SymbolTable res = new SymbolTable();
+		res.names = names.clone();
+		res.hashes = hashes.clone();
+		res.slots = slots.clone();
+		res.size = size;
+		return res;
+	}
+
+	/**
+	 * Figures assume a 64 bits HotSpot VM with compressed references.
+	 * 
+	 * @return The heap used by this table, in bytes, excluding the names themselves
+	 */
+	public long getMemoryFootprint ()
+	{
+		final int object = 24, arrayHeader = 16;
+		return object + 3 * arrayHeader + 4L * (names.length + hashes.length + slots.length);
+	}
+
+	private void rehash ()
+	{
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = hashes[id] & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id + 1;
+		}
+	}
+
+	/**
+	 * Spreads the higher bits of the string hash, as {@link java.util.HashMap} does, since only the lower ones pick a slot
+	 */
+	static int hash (String name)
+	{
+		int h = name.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+}
@@ -1,16 +1,26 @@
 package nom.danielmarreco.train;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import nom.danielmarreco.train.MetricsSink.Query;
 import nom.danielmarreco.train.exception.NoSuchRouteException;
+import nom.danielmarreco.train.exception.QueryBudgetExceededException;
 
 /**
  * This class provides a facade to the system results.
  * 
- * It provides the client with Routes as desired
+ * It provides the client with Routes as desired. All queries run over the {@link CompactWorld} snapshot
+ * of the world, addressing cities by their int ids.
  * 
  * @author Daniel Marreco
  *
@@ -21,7 +31,7 @@ public class TravelGuide
 	/**
 	 * Used to define the recursion stop criteria of the BFS search
 	 */
-	private enum RouteLimitStrategy {
+	enum RouteLimitStrategy {
 		/**
 		 * Limits the Route by a number of nodes
 		 */
@@ -32,206 +42,1355 @@ public class TravelGuide
 		LIMIT_BY_DISTANCE
 	}
 
+	/**
+	 * The algorithms answering {@link TravelGuide#findShortestRoute(String, String)} and {@link TravelGuide#getShortestDistance(String, String)}
+	 * when neither a cache nor a precomputed matrix does
+	 */
+	public enum SearchStrategy {
+		/**
+		 * Dijkstra's algorithm from the source, stopping once the destination is settled
+		 */
+		DIJKSTRA,
+		/**
+		 * Dijkstra's algorithm from both the source and the destination (walking routes backwards), meeting halfway
+		 */
+		BIDIRECTIONAL,
+		/**
+		 * The A* search from the source, heading towards the destination as told by a {@link Heuristic}
+		 */
+		A_STAR
+	}
+
+	/**
+	 * The distance returned for routes that do not exist by {@link #getRouteDistance(String...)} and {@link #getRouteDistances(String[], int[])}
+	 */
+	public static final long NO_SUCH_ROUTE = -1;
+
 	/**
 	 * The world for which this guide is made for
 	 */
-	World world;
+	World world;
+	
+	/**
+	 * The snapshot this guide is made for, when it was not created from a {@link World}
+	 */
+	private CompactWorld compactWorld;
+	
+	/**
+	 * The shared world this guide is made for, when it was created from a {@link ConcurrentWorld}
+	 */
+	private ConcurrentWorld concurrentWorld;
+	
+	/**
+	 * The shortest path trees of the last sources queried by {@link #findShortestRoute(String, String)}, or null if disabled
+	 */
+	private volatile ShortestPathCache shortestPathCache;
+	
+	/**
+	 * The routes enumerated by {@link #findPossibleRoutes(String, String, Integer)} and it's siblings, or null if disabled
+	 */
+	private volatile RouteCache routeCache;
+	
+	/**
+	 * The all-pairs distances used by {@link #getShortestDistance(String, String)}, or null if not precomputed
+	 */
+	private volatile DistanceMatrix distanceMatrix;
+	
+	/**
+	 * The hierarchy answering shortest route queries, or null if not precomputed
+	 */
+	private volatile ContractionHierarchy contractionHierarchy;
+	
+	/**
+	 * Shares the searches of concurrent shortest route queries from the same source, or null if disabled
+	 */
+	private volatile ShortestPathCoalescer shortestPathCoalescer;
+	
+	/**
+	 * Receives the latency and the work of every query, or null if metrics are disabled
+	 */
+	private volatile MetricsSink metricsSink;
+	
+	/**
+	 * The pool running the route enumerations, or null if they run on the calling thread
+	 */
+	private ForkJoinPool enumerationPool;
+	
+	/**
+	 * The depth (number of stops) from which parallel route enumerations are no longer split into further tasks
+	 */
+	private int sequentialCutoff = 3;
+	
+	/**
+	 * The algorithm answering point-to-point queries
+	 */
+	private SearchStrategy searchStrategy = SearchStrategy.DIJKSTRA;
+	
+	/**
+	 * The estimates guiding the {@link SearchStrategy#A_STAR} search
+	 */
+	private Heuristic heuristic;
+	
+	public TravelGuide(World world)
+	{
+		this.world = world;
+	}
+
+	/**
+	 * Creates a guide for an immutable world snapshot
+	 * 
+	 * @param compactWorld The world snapshot for which this guide is made for
+	 */
+	public TravelGuide(CompactWorld compactWorld)
+	{
+		this.compactWorld = compactWorld;
+	}
+
+	/**
+	 * Creates a guide for a world shared with the threads changing it. The guide may be queried from any number of threads:
+	 * each query runs on the version of the world current when it starts, without waiting for the updates being applied.
+	 * The guide should be configured before it is shared.
+	 * <br/>
+	 * A shortest path cache, an all-pairs matrix or a contraction hierarchy are only used for the version they were made for.
+	 * 
+	 * @param concurrentWorld The world for which this guide is made for
+	 */
+	public TravelGuide(ConcurrentWorld concurrentWorld)
+	{
+		this.concurrentWorld = concurrentWorld;
+	}
+
+	/**
+	 * Enables caching the shortest path trees of the last sources queried by {@link #findShortestRoute(String, String)},
+	 * so further queries from the same source are answered in O(route length).
+	 * <br/>
+	 * Each tree holds two int arrays the size of the world. Trees are kept up to date with the changes made to the world
+	 * through {@link City#addAdjacentCity(City, Integer)} (and therefore {@link WorldBuilder#addRoute(String)}):
+	 * trees not reaching the changed route are kept, added and shortened routes are repaired in place 
+	 * and trees containing a route that got longer are dropped. Over a {@link ConcurrentWorld}, trees are rebuilt
+	 * once the version they were made for is replaced.
+	 * 
+	 * @param maxTrees The maximum number of trees to be kept; the least recently used is evicted first
+	 */
+	public void enableShortestPathCache (int maxTrees)
+	{
+		disableShortestPathCache();
+		shortestPathCache = new ShortestPathCache(world, maxTrees);
+	}
+	
+	/**
+	 * Drops the cache enabled by {@link #enableShortestPathCache(int)}
+	 */
+	public void disableShortestPathCache ()
+	{
+		if (shortestPathCache != null) {
+			shortestPathCache.close();
+			shortestPathCache = null;
+		}
+	}
+	
+	/**
+	 * @return The counters of the cache enabled by {@link #enableShortestPathCache(int)}, or null if it is disabled
+	 */
+	public CacheStatistics getShortestPathCacheStatistics ()
+	{
+		ShortestPathCache cache = shortestPathCache;
+		return cache == null ? null : cache.getStatistics();
+	}
+
+	/**
+	 * Enables caching the routes found by {@link #findPossibleRoutes(String, String, Integer, Integer)} and
+	 * {@link #findPossibleRoutesShorterThan(String, String, Integer)}, so repeated queries are not enumerated again.
+	 * <br/>
+	 * Routes are cached per source, destination and kind of limit, for the largest limit queried. Queries with a smaller
+	 * limit, and the counts of {@link #countPossibleRoutes(String, String, Integer, Integer)} and
+	 * {@link #countPossibleRoutesShorterThan(String, String, Integer)}, are answered by filtering the cached routes.
+	 * The cache is dropped as soon as a later version of the world is queried. Streams are never cached.
+	 * 
+	 * @param maxWeight The maximum number of cities held by all cached routes, i.e. the sum of the number of routes
+	 * 	times their number of cities; the least recently used enumeration is evicted first, and larger ones are not cached
+	 */
+	public void enableRouteCache (long maxWeight)
+	{
+		routeCache = new RouteCache(maxWeight);
+	}
+	
+	/**
+	 * Drops the cache enabled by {@link #enableRouteCache(long)}
+	 */
+	public void disableRouteCache ()
+	{
+		routeCache = null;
+	}
+	
+	/**
+	 * @return The counters of the cache enabled by {@link #enableRouteCache(long)}, or null if it is disabled
+	 */
+	public CacheStatistics getRouteCacheStatistics ()
+	{
+		RouteCache cache = routeCache;
+		return cache == null ? null : cache.getStatistics();
+	}
+
+	/**
+	 * Enables or disables coalescing concurrent shortest route queries: queries from the same source running at the same time,
+	 * and not answered by a cache, a matrix or a hierarchy, share a single search computing the shortest routes from the source
+	 * to every city. The search visits the whole world, so this only pays off when many queries from the same sources
+	 * arrive together, as when a guide is shared by the threads of a server.
+	 * 
+	 * @param coalescing If queries should be coalesced; they are not by default
+	 * @see QueryServer
+	 */
+	public void setRequestCoalescing (boolean coalescing)
+	{
+		shortestPathCoalescer = coalescing ? new ShortestPathCoalescer() : null;
+	}
+	
+	/**
+	 * @return The number of queries answered by the search of another since coalescing was enabled, or 0 if it is disabled
+	 * @see #setRequestCoalescing(boolean)
+	 */
+	public long getCoalescedRequestCount ()
+	{
+		ShortestPathCoalescer coalescer = shortestPathCoalescer;
+		return coalescer == null ? 0 : coalescer.getCoalescedCount();
+	}
+
+	/**
+	 * Reports the latency of every query and the work it did (cities settled, routes followed, routes returned, largest frontier)
+	 * to the given sink, e.g. a {@link JmxMetricsSink}. Metrics are disabled by default, and then cost a null check per query.
+	 * 
+	 * @param sink The sink receiving the metrics, or null to disable them
+	 * @see MetricsSink
+	 */
+	public void setMetricsSink (MetricsSink sink)
+	{
+		metricsSink = sink;
+	}
+	
+	/**
+	 * @return The sink receiving the metrics, or null if they are disabled
+	 */
+	public MetricsSink getMetricsSink ()
+	{
+		return metricsSink;
+	}
+
+	/**
+	 * Enables the all-pairs mode: computes the shortest distance between every pair of cities on the common fork-join pool, 
+	 * so that {@link #getShortestDistance(String, String)} becomes a lookup.
+	 * 
+	 * @return The precomputed matrix, which reports it's computation time and memory footprint
+	 * @see #precomputeAllPairs(DistanceMatrix.Strategy, ForkJoinPool)
+	 */
+	public DistanceMatrix precomputeAllPairs ()
+	{
+		return precomputeAllPairs(DistanceMatrix.Strategy.AUTO, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Enables the all-pairs mode: computes the shortest distance between every pair of cities, 
+	 * so that {@link #getShortestDistance(String, String)} becomes a lookup. 
+	 * The matrix is used until the world changes.
+	 * 
+	 * @param strategy The algorithm to be used; {@link DistanceMatrix.Strategy#AUTO} picks one by the density of the world
+	 * @param pool The pool running the computation
+	 * @return The precomputed matrix, which reports it's computation time and memory footprint
+	 */
+	public DistanceMatrix precomputeAllPairs (DistanceMatrix.Strategy strategy, ForkJoinPool pool)
+	{
+		return distanceMatrix = DistanceMatrix.compute(graph(), strategy, pool);
+	}
+	
+	/**
+	 * Leaves the all-pairs mode, releasing the matrix
+	 */
+	public void dropAllPairs ()
+	{
+		distanceMatrix = null;
+	}
+
+	/**
+	 * Builds a {@link ContractionHierarchy} of the world, so that {@link #findShortestRoute(String, String)} and 
+	 * {@link #getShortestDistance(String, String)} take microseconds instead of a search over the whole world.
+	 * The hierarchy is used until the world changes.
+	 * 
+	 * @return The hierarchy, which reports it's preprocessing time and memory footprint, and may be written to a file
+	 * @see #useContractionHierarchy(ContractionHierarchy)
+	 */
+	public ContractionHierarchy precomputeContractionHierarchy ()
+	{
+		return contractionHierarchy = ContractionHierarchy.build(graph());
+	}
+
+	/**
+	 * Answers shortest route queries with a hierarchy built beforehand, usually {@link ContractionHierarchy#read(java.nio.file.Path) read}
+	 * from a file. It is used as long as the world is at the version it was built for.
+	 * 
+	 * @param hierarchy A hierarchy of the world of this guide, or null to stop using one
+	 * @throws IllegalArgumentException If the hierarchy was built for another world, or another version of the world:
+	 * 	the version, the number of cities and a fingerprint of the routes must match
+	 */
+	public void useContractionHierarchy (ContractionHierarchy hierarchy)
+	{
+		if (hierarchy != null) {
+			hierarchy.checkBuiltFor(graph());
+		}
+		contractionHierarchy = hierarchy;
+	}
+
+	/**
+	 * Stops using the contraction hierarchy, releasing it
+	 */
+	public void dropContractionHierarchy ()
+	{
+		contractionHierarchy = null;
+	}
+
+	/**
+	 * @return The contraction hierarchy, if there is one for the given snapshot
+	 */
+	private ContractionHierarchy contractionHierarchy (CompactWorld graph)
+	{
+		ContractionHierarchy hierarchy = contractionHierarchy;
+		if (hierarchy != null && hierarchy.isBuiltFor(graph)) {
+			return hierarchy;
+		}
+		return null;
+	}
+
+	/**
+	 * Sets the number of threads used by {@link #findPossibleRoutes(String, String, Integer)} and it's siblings.
+	 * <br/>
+	 * With more than one thread, the search tree is split among a dedicated fork-join pool, 
+	 * each task following one of the routes leaving a city, down to the {@link #setSequentialCutoff(int) sequential cutoff}.
+	 * The routes found are the same.
+	 * 
+	 * @param parallelism The number of threads; 1 (the default) runs the enumerations on the calling thread
+	 */
+	public void setParallelism (int parallelism)
+	{
+		if (enumerationPool != null) {
+			enumerationPool.shutdown();
+			enumerationPool = null;
+		}
+		if (parallelism > 1) {
+			enumerationPool = new ForkJoinPool(parallelism);
+		}
+	}
+	
+	/**
+	 * @param depth The number of stops from which a parallel enumeration runs each branch sequentially, 3 by default.
+	 * 	Deeper cutoffs split the work in more, smaller tasks: about <i>(routes per city)<sup>depth</sup></i>
+	 * @see #setParallelism(int)
+	 */
+	public void setSequentialCutoff (int depth)
+	{
+		this.sequentialCutoff = depth;
+	}
+
+	/**
+	 * Sets the algorithm answering point-to-point shortest route queries; {@link SearchStrategy#DIJKSTRA} by default
+	 * 
+	 * @param strategy {@link SearchStrategy#DIJKSTRA} or {@link SearchStrategy#BIDIRECTIONAL}
+	 * @see #setSearchStrategy(SearchStrategy, Heuristic)
+	 */
+	public void setSearchStrategy (SearchStrategy strategy)
+	{
+		setSearchStrategy(strategy, null);
+	}
+
+	/**
+	 * Sets the algorithm answering point-to-point shortest route queries
+	 * 
+	 * @param strategy The algorithm
+	 * @param heuristic The estimates guiding the search, required by {@link SearchStrategy#A_STAR} and ignored by the others
+	 * @throws IllegalArgumentException If no heuristic is given for {@link SearchStrategy#A_STAR}
+	 */
+	public void setSearchStrategy (SearchStrategy strategy, Heuristic heuristic)
+	{
+		if (strategy == SearchStrategy.A_STAR && heuristic == null) {
+			throw new IllegalArgumentException("A* requires a heuristic");
+		}
+		this.searchStrategy = strategy;
+		this.heuristic = heuristic;
+	}
+
+	/**
+	 * @return A search of the strategy set, ready to run
+	 */
+	private PointToPointSearch newSearch (CompactWorld graph)
+	{
+		switch (searchStrategy) {
+		case BIDIRECTIONAL:
+			return new BidirectionalDijkstra(graph);
+		case A_STAR:
+			return new AStar(graph, heuristic);
+		default:
+			return new Dijkstra(graph);
+		}
+	}
+
+	/**
+	 * @return The snapshot the queries should run against: the current state of the world, if this guide was made for one
+	 */
+	private CompactWorld graph ()
+	{
+		if (concurrentWorld != null) {
+			return concurrentWorld.getSnapshot();
+		}
+		return world != null ? world.getCompactWorld() : compactWorld;
+	}
+
+	/**
+	 * @return The id of the city with the given name
+	 * @throws NoSuchRouteException If there is no such city
+	 */
+	private static int getCityId (CompactWorld graph, String cityName) throws NoSuchRouteException
+	{
+		int city = graph.getId(cityName);
+		if (city < 0) {
+			throw new NoSuchRouteException("No such city: " + cityName);
+		}
+		return city;
+	}
+
+	/**
+	 * @return The ids of the cities with the given names, in order
+	 * @throws NoSuchRouteException If any of the cities does not exist
+	 */
+	private static int[] getCityIds (CompactWorld graph, String[] cityNames) throws NoSuchRouteException
+	{
+		int[] cities = new int[cityNames.length];
+		for (int i = 0; i < cities.length; i++) {
+			cities[i] = getCityId(graph, cityNames[i]);
+		}
+		return cities;
+	}
+
+	/**
+	 * Finds a {@link Route} passing by all the given cities, in order
+	 * 
+	 * @param citiesNames the names of the cities, in order, the route should visit
+	 * @return One Route that visits all given cities, in the given order
+	 * @throws NoSuchRouteException If there is no route between some of the given cities
+	 */
+	public Route findRoute (String... citiesNames) throws NoSuchRouteException
+	{
+		QueryTrace trace = QueryTrace.start(metricsSink, Query.FIND_ROUTE);
+		try {
+			CompactWorld graph = graph();
+			Route route = new Route();
+			int previous = -1;
+			for (String cityName : citiesNames) {
+				int city = getCityId(graph, cityName);
+				if (previous >= 0 && graph.getDistance(previous, city) < 0) {
+					throw new NoSuchRouteException("No route from " + graph.getName(previous) + " to " + cityName);
+				}
+
+				route.addLast(graph.getCity(city));
+				previous = city;
+			}
+			if (trace != null) {
+				trace.emitted(1);
+			}
+			return route;
+		}
+		finally {
+			if (trace != null) {
+				trace.complete();
+			}
+		}
+	}
+
+	/**
+	 * Gets the distance of the route passing by all the given cities, in order; the same as <code>findRoute(...).getLenght()</code>,
+	 * without building the route, nor throwing an exception if it does not exist. Meant for evaluating streams of routes,
+	 * e.g. <code>itineraries.parallel().mapToLong(guide::getRouteDistance)</code>.
+	 * 
+	 * @param citiesNames the names of the cities, in order, the route should visit
+	 * @return The distance of the route, or {@link #NO_SUCH_ROUTE} if there is no route between some of the given cities,
+	 * 	or no city at all
+	 * @see #getRouteDistances(String[], int[])
+	 */
+	public long getRouteDistance (String... citiesNames)
+	{
+		QueryTrace trace = QueryTrace.start(metricsSink, Query.ROUTE_DISTANCE);
+		try {
+			long distance = RouteDistances.distance(graph(), citiesNames, 0, citiesNames.length);
+			if (trace != null && distance != NO_SUCH_ROUTE) {
+				trace.emitted(1);
+			}
+			return distance;
+		}
+		finally {
+			if (trace != null) {
+				trace.complete();
+			}
+		}
+	}
+
+	/**
+	 * Gets the distances of many routes at once, in parallel on the common fork-join pool
+	 * 
+	 * @see #getRouteDistances(String[], int[], ForkJoinPool)
+	 */
+	public long[] getRouteDistances (String[] citiesNames, int[] offsets)
+	{
+		return getRouteDistances(citiesNames, offsets, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Gets the distances of many routes at once, given in columns: the names of the cities of all routes one after the other,
+	 * and the index of the first city of each route. Route i visits the cities from <code>offsets[i]</code> to 
+	 * <code>offsets[i + 1] - 1</code>, so routes "A-B-C" and "A-D" are given as <code>{"A", "B", "C", "A", "D"}</code> 
+	 * and <code>{0, 3, 5}</code>.
+	 * <br/>
+	 * Every route is evaluated against the same snapshot of the world, without building the routes nor throwing exceptions 
+	 * for the ones that do not exist. Large batches are split in chunks evaluated in parallel.
+	 * 
+	 * @param citiesNames The names of the cities of all routes
+	 * @param offsets The index of the first city of each route, followed by the number of cities of all routes
+	 * @param pool The pool running the evaluation of large batches
+	 * @return The distance of each route, or {@link #NO_SUCH_ROUTE} for the routes with no city or with cities not linked
+	 * @throws IllegalArgumentException If the offsets are not in order, or out of the cities
+	 */
+	public long[] getRouteDistances (String[] citiesNames, int[] offsets, ForkJoinPool pool)
+	{
+		QueryTrace trace = QueryTrace.start(metricsSink, Query.ROUTE_DISTANCES);
+		try {
+			long[] distances = RouteDistances.compute(graph(), citiesNames, offsets, pool);
+			if (trace != null) {
+				trace.emitted(distances.length);
+			}
+			return distances;
+		}
+		finally {
+			if (trace != null) {
+				trace.complete();
+			}
+		}
+	}
+
+	/**
+	 * Finds all possible routes between two given cities with a maximum number of stops
+	 * 
+	 * @param source The name of the city the routes should start from
+	 * @param dest The name of the city the routes should end at
+	 * @param maxHops The maximum number of cities the routes can visit
+	 * @return A set containing all possible routes between the two given cities with a maximum of maxHops cities
+	 */
+	public Set<Route> findPossibleRoutes (String source, String dest, Integer maxHops)
+	{
+		return findPossibleRoutes(source, dest, 1, maxHops, RouteLimitStrategy.LIMIT_BY_STOPS, null);
+	}
+	
+	/**
+	 * Finds all possible routes between two given cities within a defined maximum and minimum number of stops.
+	 * 
+	 * @param source The name of the city the routes should start from
+	 * @param dest The name of the city the routes should end at
+	 * @param minHops The minimum number of cities the route can visit
+	 * @param maxHops The maximum number of cities the routes can visit
+	 * @return A set containing all possible routes between the two given cities with a maximum of maxHops cities
+	 */
+	public Set<Route> findPossibleRoutes (String source, String dest, Integer minHops, Integer maxHops)
+	{
+		/*
+		 * There is no processing overhead in finding all routes w a maximum number of stops, since the search has to
+		 * go through the smaller routes anyway; they are just not collected 
+		 */
+		return findPossibleRoutes(source, dest, minHops, maxHops, RouteLimitStrategy.LIMIT_BY_STOPS, null);
+	}
+	
+	/**
+	 * Finds the possible routes between two given cities within a defined maximum and minimum number of stops, stopping
+	 * early once a limit of the given budget is reached: the routes found until then are returned, and the budget tells
+	 * the set is partial.
+	 * 
+	 * @param source The name of the city the routes should start from
+	 * @param dest The name of the city the routes should end at
+	 * @param minHops The minimum number of cities the route can visit
+	 * @param maxHops The maximum number of cities the routes can visit
+	 * @param budget The limits of the search, or null
+	 * @return A set containing the possible routes between the two given cities with a maximum of maxHops cities; all of them
+	 * 	unless {@link QueryBudget#isExceeded()}
+	 */
+	public Set<Route> findPossibleRoutes (String source, String dest, Integer minHops, Integer maxHops, QueryBudget budget)
+	{
+		return findPossibleRoutes(source, dest, minHops, maxHops, RouteLimitStrategy.LIMIT_BY_STOPS, budget);
+	}
+	
+	/**
+	 * Finds all possible routes between two given cities with a maximum total distance
+	 * 
+	 * @param source The name of the city the routes should start from
+	 * @param dest The name of the city the routes should end at
+	 * @param maxDistance The maximum distance (inclusive) of the routes
+	 * @return A set containing all possible routes between the two given cities with a distance of at most maxDistance
+	 */
+	public Set<Route> findPossibleRoutesShorterThan (String source, String dest, Integer maxDistance) 
+	{
+		return findPossibleRoutes(source, dest, 1, maxDistance, RouteLimitStrategy.LIMIT_BY_DISTANCE, null);
+	}
+	
+	/**
+	 * Finds the possible routes between two given cities with a maximum total distance, stopping early once a limit
+	 * of the given budget is reached
+	 * 
+	 * @param source The name of the city the routes should start from
+	 * @param dest The name of the city the routes should end at
+	 * @param maxDistance The maximum distance (inclusive) of the routes
+	 * @param budget The limits of the search, or null
+	 * @return A set containing the possible routes between the two given cities with a distance of at most maxDistance;
+	 * 	all of them unless {@link QueryBudget#isExceeded()}
+	 * @see #findPossibleRoutes(String, String, Integer, Integer, QueryBudget)
+	 */
+	public Set<Route> findPossibleRoutesShorterThan (String source, String dest, Integer maxDistance, QueryBudget budget) 
+	{
+		return findPossibleRoutes(source, dest, 1, maxDistance, RouteLimitStrategy.LIMIT_BY_DISTANCE, budget);
+	}
 	
+	/**
+	 * Counts the routes {@link #findPossibleRoutes(String, String, Integer)} would find, without building them.
+	 * Runs in polynomial time: O(maxHops * (cities + routes)).
+	 * 
+	 * @param source The name of the city the routes should start from
+	 * @param dest The name of the city the routes should end at
+	 * @param maxHops The maximum number of stops of the routes
+	 * @return The number of routes between the two given cities with a maximum of maxHops stops
+	 * @throws ArithmeticException If there are more than {@link Long#MAX_VALUE} routes
+	 */
+	public long countPossibleRoutes (String source, String dest, Integer maxHops)
+	{
+		return countPossibleRoutes(source, dest, 1, maxHops);
+	}
 	
-	public TravelGuide(World world)
+	/**
+	 * Counts the routes {@link #findPossibleRoutes(String, String, Integer, Integer)} would find, without building them.
+	 * Runs in polynomial time: O(maxHops * (cities + routes)).
+	 * 
+	 * @param source The name of the city the routes should start from
+	 * @param dest The name of the city the routes should end at
+	 * @param minHops The minimum number of stops of the routes
+	 * @param maxHops The maximum number of stops of the routes
+	 * @return The number of routes between the two given cities with between minHops and maxHops stops
+	 * @throws ArithmeticException If there are more than {@link Long#MAX_VALUE} routes
+	 */
+	public long countPossibleRoutes (String source, String dest, Integer minHops, Integer maxHops)
 	{
-		this.world = world;
+		return countPossibleRoutes(source, dest, minHops, maxHops, null);
 	}
-
+	
 	/**
-	 * Finds a {@link Route} passing by all the given cities, in order
+	 * Counts the routes {@link #findPossibleRoutes(String, String, Integer, Integer)} would find, giving up once a limit
+	 * of the given budget is reached
 	 * 
-	 * @param citiesNames the names of the cities, in order, the route should visit
-	 * @return One Route that visits all given cities, in the given order
-	 * @throws NoSuchRouteException If there is no route between some of the given cities
+	 * @param source The name of the city the routes should start from
+	 * @param dest The name of the city the routes should end at
+	 * @param minHops The minimum number of stops of the routes
+	 * @param maxHops The maximum number of stops of the routes
+	 * @param budget The limits of the count, or null
+	 * @return The number of routes between the two given cities with between minHops and maxHops stops
+	 * @throws ArithmeticException If there are more than {@link Long#MAX_VALUE} routes
+	 * @throws QueryBudgetExceededException If the budget is exceeded
 	 */
-	public Route findRoute (String... citiesNames) throws NoSuchRouteException
+	public long countPossibleRoutes (String source, String dest, Integer minHops, Integer maxHops, QueryBudget budget)
 	{
-		Route route = new Route();
-		for (String cityName : citiesNames) {
-			City city = world.getCity(cityName);
-			if (city == null) {
-				throw new NoSuchRouteException("No such city: " + cityName);
+		QueryTrace trace = QueryTrace.start(metricsSink, Query.COUNT_POSSIBLE_ROUTES);
+		try {
+			CompactWorld graph = graph();
+			int sourceId = graph.getId(source);
+			int destId = graph.getId(dest);
+			if (sourceId < 0 || destId < 0) {
+				return 0;
+			}
+			long count = countCached(graph, sourceId, destId, Math.max(1, minHops), maxHops, RouteLimitStrategy.LIMIT_BY_STOPS);
+			if (count < 0) {
+				count = RouteCounter.countByStops(graph, sourceId, destId, Math.max(1, minHops), maxHops, trace, budget);
+			}
+			if (trace != null) {
+				trace.emitted(count);
+			}
+			return count;
+		}
+		finally {
+			if (trace != null) {
+				trace.complete();
 			}
-
-			route.addLast(city);
 		}
-		return route;
 	}
-
+	
 	/**
-	 * Finds all possible routes between two given cities with a maximum number of stops
+	 * Counts the routes {@link #findPossibleRoutesShorterThan(String, String, Integer)} would find, without building them.
+	 * Runs in polynomial time: O(maxDistance * (cities + routes)).
 	 * 
 	 * @param source The name of the city the routes should start from
 	 * @param dest The name of the city the routes should end at
-	 * @param maxHops The maximum number of cities the routes can visit
-	 * @return A set containing all possible routes between the two given cities with a maximum of maxHops cities
+	 * @param maxDistance The maximum distance (inclusive) of the routes
+	 * @return The number of routes between the two given cities with a distance of at most maxDistance
+	 * @throws ArithmeticException If there are more than {@link Long#MAX_VALUE} routes
+	 * @throws IllegalStateException If the world has routes of distance zero, which may lead to infinite routes
 	 */
-	public Set<Route> findPossibleRoutes (String source, String dest, Integer maxHops)
+	public long countPossibleRoutesShorterThan (String source, String dest, Integer maxDistance)
 	{
-		Route route = new Route();
-		route.addLast(world.getCity(source));
-		Set<Route> possibleRoutes = new HashSet<Route>();
-		findPossibleRoutes(route, possibleRoutes, world.getCity(dest), maxHops, RouteLimitStrategy.LIMIT_BY_STOPS);
-		return possibleRoutes;
+		return countPossibleRoutesShorterThan(source, dest, maxDistance, null);
 	}
 	
 	/**
-	 * Finds all possible routes between two given cities within a defined maximum and minimum number of stops.
+	 * Counts the routes {@link #findPossibleRoutesShorterThan(String, String, Integer)} would find, giving up once a limit
+	 * of the given budget is reached
 	 * 
 	 * @param source The name of the city the routes should start from
 	 * @param dest The name of the city the routes should end at
-	 * @param minHops The minimum number of cities the route can visit
-	 * @param maxHops The maximum number of cities the routes can visit
-	 * @return A set containing all possible routes between the two given cities with a maximum of maxHops cities
+	 * @param maxDistance The maximum distance (inclusive) of the routes
+	 * @param budget The limits of the count, or null
+	 * @return The number of routes between the two given cities with a distance of at most maxDistance
+	 * @throws ArithmeticException If there are more than {@link Long#MAX_VALUE} routes
+	 * @throws IllegalStateException If the world has routes of distance zero, which may lead to infinite routes
+	 * @throws QueryBudgetExceededException If the budget is exceeded
 	 */
-	public Set<Route> findPossibleRoutes (String source, String dest, Integer minHops, Integer maxHops)
+	public long countPossibleRoutesShorterThan (String source, String dest, Integer maxDistance, QueryBudget budget)
 	{
-		/*
-		 * There is no processing overhead in finding all routes w a maximum number of stops and filtering, since BFS would have to
-		 * visit them all and discard the smaller routes anyway 
-		 */
-		Set<Route> routes = new HashSet<Route>();
-		for (Route route : findPossibleRoutes(source, dest, maxHops)) {
-			if (route.size() <= minHops) {
-				routes.add(route);
+		QueryTrace trace = QueryTrace.start(metricsSink, Query.COUNT_POSSIBLE_ROUTES);
+		try {
+			CompactWorld graph = graph();
+			int sourceId = graph.getId(source);
+			int destId = graph.getId(dest);
+			if (sourceId < 0 || destId < 0) {
+				return 0;
+			}
+			long count = countCached(graph, sourceId, destId, 1, maxDistance, RouteLimitStrategy.LIMIT_BY_DISTANCE);
+			if (count < 0) {
+				count = RouteCounter.countByDistance(graph, sourceId, destId, maxDistance, trace, budget);
+			}
+			if (trace != null) {
+				trace.emitted(count);
+			}
+			return count;
+		}
+		finally {
+			if (trace != null) {
+				trace.complete();
 			}
 		}
-		return routes;
 	}
 	
-	public Set<Route> findPossibleRoutesShorterThan (String source, String dest, Integer maxDistance) 
+	/**
+	 * @return The number of routes within the given bounds in the route cache, or -1 if the cache is disabled or does not hold them
+	 */
+	private long countCached (CompactWorld graph, int source, int dest, int minHops, int limit, RouteLimitStrategy limitStrategy)
 	{
-		Route route = new Route();
-		route.addLast(world.getCity(source));
-		Set<Route> possibleRoutes = new HashSet<Route>();
-		findPossibleRoutes(route, possibleRoutes, world.getCity(dest), maxDistance, RouteLimitStrategy.LIMIT_BY_DISTANCE);
-		return possibleRoutes;
+		RouteCache cache = routeCache;
+		return cache == null ? -1 : cache.count(graph, source, dest, minHops, limit, limitStrategy);
 	}
 	
 	/**
-	 * Internally used for recursive evaluation of the result presented by {@link TravelGuide#findPossibleRoutes(String, String, Integer)}
-	 * using a breadth-first-search approach
+	 * Lazily enumerates the routes {@link #findPossibleRoutes(String, String, Integer)} would find, one at a time.
+	 * <br/>
+	 * The search walks the routes as the stream is consumed, so memory use does not depend on the number of routes, 
+	 * and short-circuiting operations such as <code>limit()</code> or <code>findFirst()</code> stop it early.
 	 * 
-	 * @param route A route currently being tested. In the first call, should be a route containing only the source city
-	 * @param allRoutes The return value containing all routes successfully found so far
-	 * @param dest the destination city
-	 * @param counter a counter used as stop criteria to the recursion
-	 * @param limitStrategy the {@link RouteLimitStrategy} chosen to limit the returned routes
+	 * @param source The name of the city the routes should start from
+	 * @param dest The name of the city the routes should end at
+	 * @param maxHops The maximum number of stops of the routes
+	 * @return A sequential stream of the distinct routes between the two given cities with a maximum of maxHops stops
 	 */
-	private void findPossibleRoutes (Route route, Set<Route> allRoutes, City dest, Integer counter, RouteLimitStrategy limitStrategy)
+	public Stream<Route> streamPossibleRoutes (String source, String dest, Integer maxHops)
 	{
-		if (counter <= 0) {
-			return;
-		}
-		
-		for (City city : route.getLast().getAdjacentCitites()) {
-			if (city.equals(dest)) {
-				route.addLast(city);
-				allRoutes.add((Route)route.clone());
-				route.removeLast();
-				break;
+		return streamPossibleRoutes(source, dest, 1, maxHops);
+	}
+	
+	/**
+	 * Lazily enumerates the routes {@link #findPossibleRoutes(String, String, Integer, Integer)} would find, one at a time.
+	 * 
+	 * @param source The name of the city the routes should start from
+	 * @param dest The name of the city the routes should end at
+	 * @param minHops The minimum number of stops of the routes
+	 * @param maxHops The maximum number of stops of the routes
+	 * @return A sequential stream of the distinct routes between the two given cities with between minHops and maxHops stops
+	 * @see #streamPossibleRoutes(String, String, Integer)
+	 */
+	public Stream<Route> streamPossibleRoutes (String source, String dest, Integer minHops, Integer maxHops)
+	{
+		return streamPossibleRoutes(source, dest, minHops, maxHops, null);
+	}
+	
+	/**
+	 * Lazily enumerates the routes {@link #findPossibleRoutes(String, String, Integer, Integer)} would find, the stream ending
+	 * early once a limit of the given budget is reached
+	 * 
+	 * @param source The name of the city the routes should start from
+	 * @param dest The name of the city the routes should end at
+	 * @param minHops The minimum number of stops of the routes
+	 * @param maxHops The maximum number of stops of the routes
+	 * @param budget The limits of the search, or null
+	 * @return A sequential stream of the distinct routes between the two given cities with between minHops and maxHops stops;
+	 * 	all of them unless {@link QueryBudget#isExceeded()} once the stream ended
+	 * @see #streamPossibleRoutes(String, String, Integer)
+	 */
+	public Stream<Route> streamPossibleRoutes (String source, String dest, Integer minHops, Integer maxHops, QueryBudget budget)
+	{
+		return stream(iteratePossibleRoutes(source, dest, minHops, maxHops, RouteLimitStrategy.LIMIT_BY_STOPS, budget));
+	}
+	
+	/**
+	 * Lazily enumerates the routes {@link #findPossibleRoutesShorterThan(String, String, Integer)} would find, one at a time.
+	 * 
+	 * @param source The name of the city the routes should start from
+	 * @param dest The name of the city the routes should end at
+	 * @param maxDistance The maximum distance (inclusive) of the routes
+	 * @return A sequential stream of the distinct routes between the two given cities with a distance of at most maxDistance
+	 * @see #streamPossibleRoutes(String, String, Integer)
+	 */
+	public Stream<Route> streamPossibleRoutesShorterThan (String source, String dest, Integer maxDistance)
+	{
+		return streamPossibleRoutesShorterThan(source, dest, maxDistance, null);
+	}
+	
+	/**
+	 * Lazily enumerates the routes {@link #findPossibleRoutesShorterThan(String, String, Integer)} would find, the stream
+	 * ending early once a limit of the given budget is reached
+	 * 
+	 * @param source The name of the city the routes should start from
+	 * @param dest The name of the city the routes should end at
+	 * @param maxDistance The maximum distance (inclusive) of the routes
+	 * @param budget The limits of the search, or null
+	 * @return A sequential stream of the distinct routes between the two given cities with a distance of at most maxDistance;
+	 * 	all of them unless {@link QueryBudget#isExceeded()} once the stream ended
+	 * @see #streamPossibleRoutes(String, String, Integer)
+	 */
+	public Stream<Route> streamPossibleRoutesShorterThan (String source, String dest, Integer maxDistance, QueryBudget budget)
+	{
+		return stream(iteratePossibleRoutes(source, dest, 1, maxDistance, RouteLimitStrategy.LIMIT_BY_DISTANCE, budget));
+	}
+	
+	private static Stream<Route> stream (Iterator<Route> routes)
+	{
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(routes, 
+				Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+	}
+	
+	/**
+	 * Resolves the given cities and runs the search for {@link TravelGuide#findPossibleRoutes(String, String, Integer)}
+	 * and it's siblings
+	 * 
+	 * @param minHops The minimum number of stops a route must have to be collected
+	 * @param limit The maximum number of stops or the maximum distance of the routes, according to limitStrategy
+	 * @param budget The limits of the search, or null
+	 * @return All routes found; an empty set if any of the cities does not exist
+	 */
+	private Set<Route> findPossibleRoutes (String sourceName, String destName, int minHops, int limit, RouteLimitStrategy limitStrategy,
+			QueryBudget budget)
+	{
+		QueryTrace trace = QueryTrace.start(metricsSink, Query.FIND_POSSIBLE_ROUTES);
+		try {
+			CompactWorld graph = graph();
+			int source = graph.getId(sourceName);
+			int dest = graph.getId(destName);
+			if (source < 0 || dest < 0) {
+				return new HashSet<Route>();
 			}
-		}
-		
-		for (City nextCity : route.getLast().getAdjacentCitites()) {
 			
-			if (limitStrategy.equals(RouteLimitStrategy.LIMIT_BY_STOPS)) {
-				counter -= 1;
+			Set<Route> possibleRoutes;
+			RouteCache cache = routeCache;
+			if (cache == null) {
+				possibleRoutes = new HashSet<Route>(enumeratePossibleRoutes(graph, source, dest, minHops, limit, limitStrategy, trace, budget));
 			}
-			else if (limitStrategy.equals(RouteLimitStrategy.LIMIT_BY_DISTANCE)) {
-				counter -= route.getLast().getDistanceTo(nextCity);
+			else if (budget != null) {
+				possibleRoutes = cache.get(graph, source, dest, minHops, limit, limitStrategy);
+				if (possibleRoutes != null) {
+					for (Iterator<Route> routes = possibleRoutes.iterator(); routes.hasNext(); ) {
+						routes.next();
+						if (!budget.emit()) {
+							routes.remove();
+						}
+					}
+				}
+				else {
+					// routes of fewer stops would be charged to the budget, and partial results can not be cached
+					List<Route> routes = enumeratePossibleRoutes(graph, source, dest, minHops, limit, limitStrategy, trace, budget);
+					if (minHops == 1 && !budget.isExceeded()) {
+						possibleRoutes = cache.put(graph, source, dest, limit, limitStrategy, routes, minHops);
+					}
+					else {
+						possibleRoutes = new HashSet<Route>(routes);
+					}
+				}
 			}
 			else {
-				assert false; //should never get here
+				possibleRoutes = cache.get(graph, source, dest, minHops, limit, limitStrategy);
+				if (possibleRoutes == null) {
+					// routes of fewer stops cost little more to find, and let the entry answer any minimum
+					List<Route> routes = enumeratePossibleRoutes(graph, source, dest, 1, limit, limitStrategy, trace, null);
+					possibleRoutes = cache.put(graph, source, dest, limit, limitStrategy, routes, minHops);
+				}
 			}
-			route.addLast(nextCity);
-			findPossibleRoutes(route, allRoutes, dest, counter, limitStrategy);
-			route.removeLast();
-			
+			if (trace != null) {
+				trace.emitted(possibleRoutes.size());
+			}
+			return possibleRoutes;
+		}
+		finally {
+			if (trace != null) {
+				trace.complete();
+			}
+		}
+	}
+	
+	/**
+	 * Runs the search for {@link #findPossibleRoutes(String, String, int, int, RouteLimitStrategy, QueryBudget)} on the
+	 * enumeration pool, if any, or else on the calling thread
+	 * 
+	 * @return All routes found, each once, or those found until the budget was exceeded
+	 */
+	private List<Route> enumeratePossibleRoutes (CompactWorld graph, int source, int dest, int minHops, int limit,
+			RouteLimitStrategy limitStrategy, QueryTrace trace, QueryBudget budget)
+	{
+		ForkJoinPool pool = enumerationPool;
+		if (pool != null) {
+			ParallelRouteSearch search = new ParallelRouteSearch(graph, source, dest, minHops, limit, limitStrategy, sequentialCutoff, budget);
+			List<Route> routes = pool.invoke(search);
+			if (trace != null) {
+				trace.add(search.getExpandedCount(), search.getRelaxedCount(), search.getPeakDepth());
+			}
+			return routes;
 		}
 		
+		List<Route> routes = new ArrayList<Route>();
+		RouteIterator search = new RouteIterator(graph, source, dest, minHops, limit, limitStrategy, budget);
+		while (search.hasNext()) {
+			routes.add(search.next());
+		}
+		if (trace != null) {
+			trace.add(search.getExpandedCount(), search.getRelaxedCount(), search.getPeakDepth());
+		}
+		return routes;
 	}
-
+	
+	/**
+	 * @return An iterator over the routes between the given cities; an empty one if any of the cities does not exist
+	 * @see RouteIterator
+	 */
+	private Iterator<Route> iteratePossibleRoutes (String sourceName, String destName, int minHops, int limit, RouteLimitStrategy limitStrategy,
+			QueryBudget budget)
+	{
+		CompactWorld graph = graph();
+		int source = graph.getId(sourceName);
+		int dest = graph.getId(destName);
+		if (source < 0 || dest < 0) {
+			return Collections.<Route>emptySet().iterator();
+		}
+		return new RouteIterator(graph, source, dest, minHops, limit, limitStrategy, budget);
+	}
+	
+	/**
+	 * @return The shortest path tree of the given source from the cache, or else shared with concurrent queries from the same source;
+	 * 	null if neither is enabled
+	 */
+	private ShortestPathTree shortestPathTree (CompactWorld graph, int source)
+	{
+		ShortestPathCache cache = shortestPathCache;
+		if (cache != null) {
+			return cache.get(graph, source);
+		}
+		ShortestPathCoalescer coalescer = shortestPathCoalescer;
+		return coalescer != null ? coalescer.get(graph, source) : null;
+	}
+	
 	/**
-	 * Finds the shortest path between two cities using Dijkstra's algorithm
+	 * Finds the shortest path between two cities, with the contraction hierarchy if one was precomputed for the current world,
+	 * or else with the algorithm set by {@link #setSearchStrategy(SearchStrategy)}
 	 * 
 	 * @param sourceName The name of the source city
 	 * @param destName The name of the destination city
-	 * @return
-	 * @throws
+	 * @return The shortest route from source to destination
+	 * @throws NoSuchRouteException If any of the cities does not exist or if destination can not be reached from source
 	 */
 	public Route findShortestRoute(String sourceName, String destName) throws NoSuchRouteException
 	{
-		City source = world.getCity(sourceName);
-		City dest = world.getCity(destName);
+		QueryTrace trace = QueryTrace.start(metricsSink, Query.FIND_SHORTEST_ROUTE);
+		try {
+			CompactWorld graph = graph();
+			int source = getCityId(graph, sourceName);
+			int dest = getCityId(graph, destName);
 		
-		/*
-		 * one could decide to encapsulate the distance from source value in the city object, 
-		 * but it would be of very specific usage; so it's kept in a local map
-		 */
-		Map<City, Integer> distancesFromSource = new HashMap<City, Integer> ();
-		Map<City, City> prev = new HashMap<City, City>();
-		Set<City> cities = world.getCities();
-		// set all nodes distance to infinity
-		for (City city : cities) {
-			distancesFromSource.put(city, Integer.MAX_VALUE);
-		}
-		// replace the root node distance (from itself) to zero
-		distancesFromSource.put(source, 0);
+			ContractionHierarchy hierarchy = contractionHierarchy(graph);
+			if (hierarchy != null) {
+				Route route = hierarchy.getRoute(graph, source, dest);
+				if (route == null) {
+					throw new NoSuchRouteException ("No route found from " + sourceName + " to " + destName);
+				}
+				if (trace != null) {
+					trace.emitted(1);
+				}
+				return route;
+			}
 		
-		mainLoop : while (!cities.isEmpty()) {
-			City city = findClosest (cities, distancesFromSource);
-			if (distancesFromSource.get(city).equals(Integer.MAX_VALUE)) {
-				if (cities.contains(dest)) {
+			ShortestPathTree tree = shortestPathTree(graph, source);
+			if (tree != null) {
+				if (tree.getDistance(dest) == Dijkstra.UNREACHABLE) {
 					throw new NoSuchRouteException ("No route found from " + sourceName + " to " + destName);
 				}
-				break mainLoop; // all remaining cities are inaccessible
-			}
-			cities.remove(city);
-			innerLoop: for (City neighbor : city.getAdjacentCitites()) {
-				if (!cities.contains(neighbor))
-					continue innerLoop;
-				// in this iteration we find it is possible to arrive to neighbor from this path with a new cost, given by:
-				Integer newPossibleDistance = distancesFromSource.get(city) + city.getDistanceTo(neighbor);
-				// so, we keep the best option so far:
-				if (newPossibleDistance < distancesFromSource.get(neighbor)) {
-					distancesFromSource.put(neighbor, newPossibleDistance);
-					prev.put(neighbor, city);
+				if (trace != null) {
+					trace.emitted(1);
 				}
+				return tree.getRoute(graph, dest);
 			}
-		}
 		
-		Route route = new Route();
-		do {
-			route.addFirst(dest);
-		} while ((dest = prev.get(dest)) != null);
-		return route;
+			/*
+			 * the search stops as soon as the destination is settled, 
+			 * so only the cities closer to source than the destination are visited
+			 */
+			PointToPointSearch search = newSearch(graph);
+			boolean found = search.run(source, dest);
+			if (trace != null) {
+				trace.add(search);
+			}
+			if (!found) {
+				throw new NoSuchRouteException ("No route found from " + sourceName + " to " + destName);
+			}
+			if (trace != null) {
+				trace.emitted(1);
+			}
+			return search.getRoute();
+		}
+		finally {
+			if (trace != null) {
+				trace.complete();
+			}
+		}
 	}
 	
 	/**
-	 * Finds the city with the minimal distance from the root node
+	 * Finds the length of the shortest route between two cities; the same as <code>findShortestRoute(...).getLenght()</code>,
+	 * but a constant time lookup in the all-pairs mode, and much faster with a contraction hierarchy
+	 * 
+	 * @param sourceName The name of the source city
+	 * @param destName The name of the destination city
+	 * @return The distance of the shortest route from source to destination
+	 * @throws NoSuchRouteException If any of the cities does not exist or if destination can not be reached from source
+	 * @see #precomputeAllPairs()
+	 */
+	public int getShortestDistance(String sourceName, String destName) throws NoSuchRouteException
+	{
+		QueryTrace trace = QueryTrace.start(metricsSink, Query.SHORTEST_DISTANCE);
+		try {
+			CompactWorld graph = graph();
+			int source = getCityId(graph, sourceName);
+			int dest = getCityId(graph, destName);
+		
+			int distance;
+			DistanceMatrix matrix = distanceMatrix;
+			ContractionHierarchy hierarchy = contractionHierarchy(graph);
+			ShortestPathTree tree;
+			if (matrix != null && matrix.getVersion() == graph.getVersion()) {
+				distance = matrix.getDistance(source, dest);
+			}
+			else if (hierarchy != null) {
+				distance = hierarchy.getDistance(source, dest);
+			}
+			else if ((tree = shortestPathTree(graph, source)) != null) {
+				distance = tree.getDistance(dest);
+			}
+			else {
+				PointToPointSearch search = newSearch(graph);
+				search.run(source, dest);
+				distance = search.getDistance();
+				if (trace != null) {
+					trace.add(search);
+				}
+			}
+			if (distance == Dijkstra.UNREACHABLE) {
+				throw new NoSuchRouteException ("No route found from " + sourceName + " to " + destName);
+			}
+			if (trace != null) {
+				trace.emitted(1);
+			}
+			return distance;
+		}
+		finally {
+			if (trace != null) {
+				trace.complete();
+			}
+		}
+	}
+
+
+	/**
+	 * Finds the shortest distances from many cities to many others at once, in parallel on the common fork-join pool
+	 * 
+	 * @see #getShortestDistances(String[], String[], ForkJoinPool)
+	 */
+	public int[][] getShortestDistances (String[] sourceNames, String[] destNames) throws NoSuchRouteException
+	{
+		return getShortestDistances(sourceNames, destNames, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Finds the shortest distance from each of the given sources to each of the given destinations, all on the same snapshot
+	 * of the world, far cheaper than as many calls to {@link #getShortestDistance(String, String)}:
+	 * <ul>
+	 * <li>in the all-pairs mode, the distances are looked up;</li>
+	 * <li>with a contraction hierarchy, a single upward search is run from each city, see
+	 * {@link ContractionHierarchy#getDistances(int[], int[], ForkJoinPool)};</li>
+	 * <li>otherwise, a search is run from each city of the smaller side, stopping once it reached all the cities of the other.</li>
+	 * </ul>
+	 * The searches run in parallel.
+	 * 
+	 * @param sourceNames The names of the source cities
+	 * @param destNames The names of the destination cities
+	 * @param pool The pool running the searches
+	 * @return The shortest distance from each source to each destination, as <code>table[source][dest]</code>,
+	 * 	or {@link DistanceMatrix#UNREACHABLE} if there is no route between them
+	 * @throws NoSuchRouteException If any of the cities does not exist
+	 */
+	public int[][] getShortestDistances (String[] sourceNames, String[] destNames, ForkJoinPool pool) throws NoSuchRouteException
+	{
+		return getShortestDistances(sourceNames, destNames, pool, null);
+	}
+
+	/**
+	 * Finds the shortest distance from each of the given sources to each of the given destinations, giving up once a limit
+	 * of the given budget is reached; the budget is checked after each search
+	 * 
+	 * @param sourceNames The names of the source cities
+	 * @param destNames The names of the destination cities
+	 * @param pool The pool running the searches
+	 * @param budget The limits of the searches, or null
+	 * @return The shortest distance from each source to each destination, as <code>table[source][dest]</code>,
+	 * 	or {@link DistanceMatrix#UNREACHABLE} if there is no route between them
+	 * @throws NoSuchRouteException If any of the cities does not exist
+	 * @throws QueryBudgetExceededException If the budget is exceeded
+	 * @see #getShortestDistances(String[], String[], ForkJoinPool)
+	 */
+	public int[][] getShortestDistances (String[] sourceNames, String[] destNames, ForkJoinPool pool, QueryBudget budget)
+			throws NoSuchRouteException
+	{
+		QueryTrace trace = QueryTrace.start(metricsSink, Query.DISTANCE_TABLE);
+		try {
+			CompactWorld graph = graph();
+			int[] sources = getCityIds(graph, sourceNames);
+			int[] dests = getCityIds(graph, destNames);
+		
+			int[][] table;
+			DistanceMatrix matrix = distanceMatrix;
+			ContractionHierarchy hierarchy = contractionHierarchy(graph);
+			if (matrix != null && matrix.getVersion() == graph.getVersion()) {
+				table = new int[sources.length][dests.length];
+				for (int i = 0; i < sources.length; i++) {
+					for (int j = 0; j < dests.length; j++) {
+						table[i][j] = matrix.getDistance(sources[i], dests[j]);
+					}
+				}
+			}
+			else if (hierarchy != null) {
+				table = hierarchy.getDistances(sources, dests, pool, budget);
+			}
+			else {
+				table = DistanceTable.compute(graph, sources, dests, pool, budget);
+			}
+			if (budget != null) {
+				budget.check();
+			}
+			if (trace != null) {
+				trace.emitted((long) sources.length * dests.length);
+			}
+			return table;
+		}
+		finally {
+			if (trace != null) {
+				trace.complete();
+			}
+		}
+	}
+
+	/**
+	 * Finds every city reachable from a source within a distance
+	 * 
+	 * @see #findReachableCities(String[], int)
+	 */
+	public ReachableCities findReachableCities (String sourceName, int maxDistance) throws NoSuchRouteException
+	{
+		return findReachableCities(new String[] {sourceName}, maxDistance);
+	}
+
+	/**
+	 * Finds every city reachable from any of the given sources within a distance, with the distance to it from the closest
+	 * source and which source that is, e.g. to draw the catchment area of each of a set of stations.
+	 * <br/>
+	 * Runs a single Dijkstra search from all the sources at once, which stops expanding at the budget: it only visits
+	 * the cities reached and the routes leaving them, unlike a call to {@link #findPossibleRoutesShorterThan(String, String, Integer)}
+	 * per destination.
+	 * 
+	 * @param sourceNames The names of the source cities
+	 * @param maxDistance The maximum distance (inclusive) from the closest source
+	 * @return The cities within maxDistance of any source, the sources included
+	 * @throws NoSuchRouteException If any of the sources does not exist
+	 * @throws IllegalArgumentException If maxDistance is negative
+	 */
+	public ReachableCities findReachableCities (String[] sourceNames, int maxDistance) throws NoSuchRouteException
+	{
+		return findReachableCities(sourceNames, maxDistance, null);
+	}
+
+	/**
+	 * Finds every city reachable from any of the given sources within a distance, giving up once a limit of the given
+	 * budget is reached
+	 * 
+	 * @param sourceNames The names of the source cities
+	 * @param maxDistance The maximum distance (inclusive) from the closest source
+	 * @param budget The limits of the search, or null
+	 * @return The cities within maxDistance of any source, the sources included
+	 * @throws NoSuchRouteException If any of the sources does not exist
+	 * @throws IllegalArgumentException If maxDistance is negative
+	 * @throws QueryBudgetExceededException If the budget is exceeded
+	 * @see #findReachableCities(String[], int)
+	 */
+	public ReachableCities findReachableCities (String[] sourceNames, int maxDistance, QueryBudget budget) throws NoSuchRouteException
+	{
+		QueryTrace trace = QueryTrace.start(metricsSink, Query.REACHABLE_CITIES);
+		try {
+			if (maxDistance < 0) {
+				throw new IllegalArgumentException("Negative distance: " + maxDistance);
+			}
+			CompactWorld graph = graph();
+			ReachableCities cities = ReachableCities.withinDistance(graph, getCityIds(graph, sourceNames), maxDistance, trace, budget);
+			if (trace != null) {
+				trace.emitted(cities.size());
+			}
+			return cities;
+		}
+		finally {
+			if (trace != null) {
+				trace.complete();
+			}
+		}
+	}
+
+	/**
+	 * Finds every city reachable from a source within a number of stops
+	 * 
+	 * @see #findReachableCitiesByHops(String[], int)
+	 */
+	public ReachableCities findReachableCitiesByHops (String sourceName, int maxHops) throws NoSuchRouteException
+	{
+		return findReachableCitiesByHops(new String[] {sourceName}, maxHops);
+	}
+
+	/**
+	 * Finds every city reachable from any of the given sources within a number of stops, with the distance of the shortest
+	 * route of at most that many stops from the closest source, and which source that is.
+	 * <br/>
+	 * Runs one round of Bellman-Ford per stop allowed, each only following the routes leaving the cities it's previous
+	 * round got closer, so it never visits the cities out of reach.
 	 * 
-	 * @param distancesFromSource A map mapping cities and their respective distance from source
-	 * @return The city (key) in the map with the smallest distance from source (value)
+	 * @param sourceNames The names of the source cities
+	 * @param maxHops The maximum number of stops (inclusive) from the closest source
+	 * @return The cities within maxHops stops of any source, the sources included
+	 * @throws NoSuchRouteException If any of the sources does not exist
+	 * @throws IllegalArgumentException If maxHops is negative
 	 */
-	private City findClosest (Set<City> cities, Map<City, Integer> distancesFromSource) 
+	public ReachableCities findReachableCitiesByHops (String[] sourceNames, int maxHops) throws NoSuchRouteException
 	{
-		City res = null;
-		int minVal = Integer.MAX_VALUE;
-		int dist;
-		for (City city : cities) {
-			if ((dist = distancesFromSource.get(city)) <= minVal) {
-				minVal = dist;
-				res = city;
+		return findReachableCitiesByHops(sourceNames, maxHops, null);
+	}
+
+	/**
+	 * Finds every city reachable from any of the given sources within a number of stops, giving up once a limit of the given
+	 * budget is reached
+	 * 
+	 * @param sourceNames The names of the source cities
+	 * @param maxHops The maximum number of stops (inclusive) from the closest source
+	 * @param budget The limits of the search, or null
+	 * @return The cities within maxHops stops of any source, the sources included
+	 * @throws NoSuchRouteException If any of the sources does not exist
+	 * @throws IllegalArgumentException If maxHops is negative
+	 * @throws QueryBudgetExceededException If the budget is exceeded
+	 * @see #findReachableCitiesByHops(String[], int)
+	 */
+	public ReachableCities findReachableCitiesByHops (String[] sourceNames, int maxHops, QueryBudget budget) throws NoSuchRouteException
+	{
+		QueryTrace trace = QueryTrace.start(metricsSink, Query.REACHABLE_CITIES);
+		try {
+			if (maxHops < 0) {
+				throw new IllegalArgumentException("Negative number of stops: " + maxHops);
+			}
+			CompactWorld graph = graph();
+			ReachableCities cities = ReachableCities.withinHops(graph, getCityIds(graph, sourceNames), maxHops, trace, budget);
+			if (trace != null) {
+				trace.emitted(cities.size());
+			}
+			return cities;
+		}
+		finally {
+			if (trace != null) {
+				trace.complete();
+			}
+		}
+	}
+
+	/**
+	 * Finds the k shortest routes between two cities that do not pass twice by the same city, shortest first, e.g. as
+	 * fallback itineraries when the lines of the shortest one are disrupted. Routes of the same length come in no particular order.
+	 * <br/>
+	 * Runs Yen's algorithm, the spur searches sharing a shortest path tree to the destination: the cost grows with k and
+	 * the length of the routes, not with the number of possible routes.
+	 * 
+	 * @param sourceName The name of the source city
+	 * @param destName The name of the destination city
+	 * @param k The maximum number of routes to find
+	 * @return The k shortest loopless routes from source to destination, or all of them if there are fewer; a city alone
+	 * 	if source and destination are the same
+	 * @throws NoSuchRouteException If any of the cities does not exist or if destination can not be reached from source
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public List<Route> findKShortestRoutes (String sourceName, String destName, int k) throws NoSuchRouteException
+	{
+		return findKShortestRoutes(sourceName, destName, k, null);
+	}
+
+	/**
+	 * Finds the k shortest loopless routes between two cities, stopping early once a limit of the given budget is reached:
+	 * the routes found until then, which are the shortest, are returned
+	 * 
+	 * @param sourceName The name of the source city
+	 * @param destName The name of the destination city
+	 * @param k The maximum number of routes to find
+	 * @param budget The limits of the search, or null
+	 * @return The k shortest loopless routes from source to destination, or all of them if there are fewer, or those found
+	 * 	until {@link QueryBudget#isExceeded()}
+	 * @throws NoSuchRouteException If any of the cities does not exist or if destination can not be reached from source
+	 * @throws IllegalArgumentException If k is less than 1
+	 * @see #findKShortestRoutes(String, String, int)
+	 */
+	public List<Route> findKShortestRoutes (String sourceName, String destName, int k, QueryBudget budget) throws NoSuchRouteException
+	{
+		QueryTrace trace = QueryTrace.start(metricsSink, Query.K_SHORTEST_ROUTES);
+		try {
+			if (k < 1) {
+				throw new IllegalArgumentException("k must be at least 1: " + k);
+			}
+			CompactWorld graph = graph();
+			int source = getCityId(graph, sourceName);
+			int dest = getCityId(graph, destName);
+		
+			KShortestRoutes search = new KShortestRoutes(graph, dest);
+			if (search.getDistance(source) == Dijkstra.UNREACHABLE) {
+				throw new NoSuchRouteException ("No route found from " + sourceName + " to " + destName);
+			}
+			List<Route> routes = search.find(source, k, budget);
+			if (trace != null) {
+				trace.add(search.getSettledCount(), search.getRelaxedCount(), search.getPeakFrontier());
+				trace.emitted(routes.size());
+			}
+			return routes;
+		}
+		finally {
+			if (trace != null) {
+				trace.complete();
 			}
 		}
-		return res;
 	}
 
 }
@@ -1,7 +1,11 @@
 package nom.danielmarreco.train;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -10,13 +14,36 @@ import java.util.Set;
  * A representation of a set of cities and the available routes between them.
  * 
  * Can be seen as a graph, where cities are vertices and routes are the edges.
+ * 
+ * A world, and it's cities, are not thread safe: a world queried by some threads while others change it should be
+ * a {@link ConcurrentWorld} instead.
  */
 public class World {
 
 	/**
-	 * A set of cities in this world, mapped by their names
+	 * The names of the cities in this world, giving their dense ids (see {@link City#id})
+	 */
+	private SymbolTable symbols = new SymbolTable ();
+
+	/**
+	 * The cities in this world, indexed by their dense id
+	 */
+	private List<City> citiesById = new ArrayList<City> ();
+
+	/**
+	 * Incremented every time a city or a route is added to this world
+	 */
+	private long version;
+
+	/**
+	 * The last compact snapshot taken from this world, see {@link #getCompactWorld()}
 	 */
-	private Map<String, City> citiesInTheWorld = new HashMap<String, City> ();
+	private CompactWorld compactWorld;
+
+	/**
+	 * The listeners notified of the changes in this world
+	 */
+	private List<WorldListener> listeners = new ArrayList<WorldListener> ();
 
 	/**
 	 * Adds a {@link City} to the World with the given name if it does not already exists.
@@ -27,8 +54,23 @@ public class World {
 	 */
     public City addCity (String name)
     {
-    	City newCity = new City(name);
-    	citiesInTheWorld.put(name, newCity);
+    	int id = symbols.intern(name);
+    	City newCity = new City(symbols.getName(id));
+    	newCity.world = this;
+    	newCity.id = id;
+    	City replaced = null;
+    	if (id < citiesById.size()) {
+    		// the replacement takes over the id, so routes pointing to the old instance still resolve
+    		replaced = citiesById.set(id, newCity);
+    		replaced.world = null;
+    	}
+    	else {
+    		citiesById.add(newCity);
+    	}
+    	version++;
+    	for (WorldListener listener : listeners) {
+    		listener.cityAdded(newCity, replaced);
+    	}
     	return newCity;
     }
     
@@ -38,12 +80,153 @@ public class World {
      */
     public City getCity (String name)
     {
-    	return citiesInTheWorld.get(name);
+    	int id = symbols.getId(name);
+    	return id < 0 ? null : citiesById.get(id);
     }
     
     //TODO javadoc
     public Set<City> getCities () {
-    	return new HashSet<City>(this.citiesInTheWorld.values());
+    	return new HashSet<City>(this.citiesById);
+    }
+
+    /**
+     * @return The table giving the ids of the cities in this world by their names
+     */
+    SymbolTable getSymbolTable ()
+    {
+    	return symbols;
+    }
+
+    /**
+     * @param id The dense id of the city to be obtained
+     * @return The city with the given id
+     */
+    City getCity (int id)
+    {
+    	return citiesById.get(id);
+    }
+
+    /**
+     * @return The number of cities in this world
+     */
+    public int getCityCount ()
+    {
+    	return citiesById.size();
+    }
+
+    /**
+     * @return A number that changes every time a city or a route is added to this world
+     */
+    public long getVersion ()
+    {
+    	return version;
+    }
+
+    /**
+     * Called by the cities of this world whenever one of their routes change
+     * 
+     * @see WorldListener#routeChanged(City, City, Integer, Integer)
+     */
+    void routeChanged (City from, City to, Integer previousDistance, Integer distance)
+    {
+    	version++;
+    	for (WorldListener listener : listeners) {
+    		listener.routeChanged(from, to, previousDistance, distance);
+    	}
+    }
+
+    /**
+     * Called by {@link WorldBuilder} after adding a batch of routes to the cities of this world, which has no listeners yet
+     */
+    void routesAdded ()
+    {
+    	version++;
+    }
+
+    /**
+     * Registers a listener to be notified of the changes in this world
+     * 
+     * @param listener The listener to be added
+     */
+    public void addListener (WorldListener listener)
+    {
+    	listeners.add(listener);
+    }
+
+    /**
+     * @param listener A listener previously registered with {@link #addListener(WorldListener)}
+     */
+    public void removeListener (WorldListener listener)
+    {
+    	listeners.remove(listener);
+    }
+
+    /**
+     * Returns an immutable, array-backed snapshot of this world. The snapshot is cached and only rebuilt
+     * after the world is modified.
+     * 
+     * @return A {@link CompactWorld} reflecting the current state of this world
+     */
+    public CompactWorld getCompactWorld ()
+    {
+    	CompactWorld res = compactWorld;
+    	if (res == null || res.getVersion() != version) {
+    		res = compactWorld = CompactWorld.of(this);
+    	}
+    	return res;
+    }
+
+    /**
+     * Writes a snapshot of this world to a file, which {@link CompactWorld#open(Path)} maps back without rebuilding any object graph
+     * 
+     * @param file The file to be written, replaced if it exists
+     * @throws IOException If the file can not be written
+     * @see CompactWorld#write(Path)
+     */
+    public void writeSnapshot (Path file) throws IOException
+    {
+    	getCompactWorld().write(file);
+    }
+
+    /**
+     * Estimates the heap used by this object graph: the cities, their adjacency maps and this world's own index,
+     * excluding the city names (shared with any {@link CompactWorld} taken from it).
+     * <br/>
+     * Figures assume a 64 bits HotSpot VM with compressed references.
+     * 
+     * @return The estimated size of this world, in bytes
+     * @see CompactWorld#getMemoryFootprint()
+     */
+    public long getMemoryFootprint ()
+    {
+    	final int cityObject = 24, hashMapObject = 48, hashMapNode = 32, boxedInteger = 16, listObject = 24;
+    	long res = symbols.getMemoryFootprint();
+    	res += listObject + 16 + 4L * citiesById.size();
+    	for (City city : citiesById) {
+    		Map<City, Integer> routes = city.getAdjacentCitites();
+    		res += cityObject + hashMapObject + hashTableSize(routes.size()) + (long) hashMapNode * routes.size();
+    		for (Integer distance : routes.values()) {
+    			if (distance < -128 || distance > 127) { // outside of the Integer cache
+    				res += boxedInteger;
+    			}
+    		}
+    	}
+    	return res;
+    }
+
+    /**
+     * @return The size in bytes of the bucket array of a default {@link HashMap} holding the given number of entries
+     */
+    private static long hashTableSize (int entries)
+    {
+    	if (entries == 0) {
+    		return 0;
+    	}
+    	int capacity = 16;
+    	while (capacity * 3 / 4 < entries) {
+    		capacity <<= 1;
+    	}
+    	return 16 + 4L * capacity;
     }
 
 
@@ -20,6 +20,13 @@ public class WorldBuilder
 	 * These strings are a simplified notation, passed as parameters or fed as data to the program.
 	 */
 	private static final Pattern ROUTE_NOTATION = Pattern.compile("([A-Z])([A-Z])([0-9]*)");
+
+	/**
+	 * The mask of the extended notation, for cities with names of any length.
+	 * 
+	 * Names may have any character but blanks, commas, '-' and ':'.
+	 */
+	private static final Pattern EXTENDED_ROUTE_NOTATION = Pattern.compile("([^\\s,:-]+)-([^\\s,:-]+):([0-9]+)");
 	
 	/**
 	 * The World to be build
@@ -47,34 +54,44 @@ public class WorldBuilder
 	 * them to the newly created {@link World}.
 	 * 
 	 * @param arg An argument representing a route, in the format "([A-Z])([A-Z])([0-9]*)". 
-	 * 			Ex.: 'AB4' defines a route from city A to city B with a distance of 4
+	 * 			Ex.: 'AB4' defines a route from city A to city B with a distance of 4.
+	 * 			<br/>
+	 * 			Or in the extended format "FROM-TO:distance", for cities with longer names.
+	 * 			Ex.: 'Auckland-Wellington:640' defines a route from Auckland to Wellington with a distance of 640
 	 * @return An instance of this WorldBuilder object
-	 * @throws InvalidArgumentException In the case the argument is not in the format given above, or the distance exceeds {@link Integer#MAX_VALUE}
+	 * @throws InvalidArgumentException In the case the argument is not in the formats given above, or the distance exceeds {@link Integer#MAX_VALUE}
 	 */
 	public WorldBuilder addRoute(String arg) throws InvalidArgumentException
+	{
+		String[] names = new String[2];
+		int distance = parseRoute(arg, names);
+		return addRoute(names[0], names[1], distance);
+	}
+
+	/**
+	 * Parses a route in any of the formats accepted by {@link #addRoute(String)}
+	 * 
+	 * @param arg An argument representing a route
+	 * @param names Receives the names of the departure and the arrival cities
+	 * @return The distance of the route
+	 * @throws InvalidArgumentException In the case the argument is not in the formats accepted, or the distance exceeds {@link Integer#MAX_VALUE}
+	 */
+	static int parseRoute(String arg, String[] names) throws InvalidArgumentException
 	{
 		Matcher m = ROUTE_NOTATION.matcher(arg);
 		
 		if (! m.matches()) {
-			throw new InvalidArgumentException (arg);
+			m = EXTENDED_ROUTE_NOTATION.matcher(arg);
+			if (! m.matches()) {
+				throw new InvalidArgumentException (arg);
+			}
 		}
 
-		String cityFromName = m.group(1);
-		String cityToName = m.group(2);
-		
-		City cityFrom, cityTo;
-		
-		if ((cityTo = world.getCity(cityToName)) == null) {
-			cityTo = world.addCity(cityToName);
-		}
-		
-		if ((cityFrom = world.getCity(cityFromName)) == null) {
-			cityFrom = world.addCity(cityFromName);
-		}
+		names[0] = m.group(1);
+		names[1] = m.group(2);
 		
 		try {
-			Integer distance = Integer.parseInt(m.group(3));
-			cityFrom.addAdjacentCity(cityTo, distance);
+			return Integer.parseInt(m.group(3));
 		}
 		catch (NumberFormatException nfe) {
 			/*
@@ -83,10 +100,59 @@ public class WorldBuilder
 			 */
 			throw new InvalidArgumentException (arg);
 		}
+	}
+
+	/**
+	 * Adds a route from one city to another with the given distance, creating {@link City} instances as needed.
+	 * Unlike {@link #addRoute(String)}, city names are not restricted to a single letter.
+	 * 
+	 * @param cityFromName The name of the city the route departs from
+	 * @param cityToName The name of the city the route arrives at
+	 * @param distance The distance of the route
+	 * @return An instance of this WorldBuilder object
+	 */
+	public WorldBuilder addRoute(String cityFromName, String cityToName, int distance)
+	{
+		City cityTo = getOrAddCity(cityToName);
+		City cityFrom = getOrAddCity(cityFromName);
+		
+		cityFrom.addAdjacentCity(cityTo, distance);
 		
 		return this; 
 	}
 
+	/**
+	 * @param name The name of a city
+	 * @return The city with the given name, added to the world being built if it is not there yet
+	 */
+	City getOrAddCity (String name)
+	{
+		City res = world.getCity(name);
+		if (res == null) {
+			res = world.addCity(name);
+		}
+		return res;
+	}
+
+	/**
+	 * Adds a batch of routes, the bulk counterpart of {@link #addRoute(String, String, int)} used by {@link RouteLoader}.
+	 * <br/>
+	 * As no one can listen to a world before it is built, the world is told of the whole batch at once instead of route by route.
+	 * 
+	 * @param cities Cities of the world being built, see {@link #getOrAddCity(String)}
+	 * @param from The index in cities of the departure city of each route
+	 * @param to The index in cities of the arrival city of each route
+	 * @param distances The distance of each route
+	 * @param count The number of routes in the batch
+	 */
+	void addRoutes (City[] cities, int[] from, int[] to, int[] distances, int count)
+	{
+		for (int i = 0; i < count; i++) {
+			cities[from[i]].putAdjacentCity(cities[to[i]], distances[i]);
+		}
+		world.routesAdded();
+	}
+
 	/**
 	 * Returns an instance of the newly created world with all the routes previously added to it
 	 * <b>and resets the builder</b>
@@ -100,4 +166,16 @@ public class WorldBuilder
 		return buf;
 	}
 
+	/**
+	 * Returns an immutable, array-backed snapshot of the newly created world with all the routes previously added to it
+	 * <b>and resets the builder</b>
+	 * 
+	 * @return A {@link CompactWorld} holding all the routes previously added
+	 * @see #build()
+	 */
+	public CompactWorld buildCompact()
+	{
+		return build().getCompactWorld();
+	}
+
 }
@@ -0,0 +1,30 @@
+package nom.danielmarreco.train;
+
+/**
+ * Receives the changes made to a {@link World}. Listeners are called right after the change,
+ * when {@link World#getVersion()} already reflects it.
+ * 
+ * @see World#addListener(WorldListener)
+ */
+public interface WorldListener {
+
+	/**
+	 * Called when a route is added or it's distance changes
+	 * 
+	 * @param from The city the route departs from
+	 * @param to The city the route arrives at
+	 * @param previousDistance The former distance of the route, or null if it has just been added
+	 * @param distance The distance of the route
+	 */
+	void routeChanged (City from, City to, Integer previousDistance, Integer distance);
+
+	/**
+	 * Called when a city is added to the world
+	 * 
+	 * @param city The city added
+	 * @param replaced The city of the same name replaced by the new one, which lost all of it's departing routes,
+	 * 	or null if the name is new
+	 */
+	void cityAdded (City city, City replaced);
+
+}
@@ -0,0 +1,43 @@
+package nom.danielmarreco.train.exception;
+
+import nom.danielmarreco.train.QueryBudget;
+
+/**
+ * Thrown when a query that can not return a partial result, as a count or a table of distances, reaches a limit of it's
+ * {@link QueryBudget}
+ * 
+ * @see QueryBudget#getExceededLimit()
+ */
+public class QueryBudgetExceededException extends RuntimeException
+{
+	private static final long serialVersionUID = -2702914738364402816L;
+
+	private final QueryBudget.Limit limit;
+
+	private final long expanded;
+
+	/**
+	 * @param budget The budget exceeded
+	 */
+	public QueryBudgetExceededException (QueryBudget budget) {
+		super(budget.toString());
+		this.limit = budget.getExceededLimit();
+		this.expanded = budget.getExpandedCount();
+	}
+
+	/**
+	 * @return The limit reached
+	 */
+	public QueryBudget.Limit getLimit ()
+	{
+		return limit;
+	}
+
+	/**
+	 * @return How far the query got: the number of states expanded by the queries drawing from the budget
+	 */
+	public long getExpandedCount ()
+	{
+		return expanded;
+	}
+}
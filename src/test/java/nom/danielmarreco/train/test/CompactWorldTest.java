@@ -0,0 +1,412 @@
+package nom.danielmarreco.train.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import nom.danielmarreco.train.City;
+import nom.danielmarreco.train.CompactWorld;
+import nom.danielmarreco.train.OffHeapArena;
+import nom.danielmarreco.train.Route;
+import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.World;
+import nom.danielmarreco.train.WorldBuilder;
+import nom.danielmarreco.train.exception.InvalidArgumentException;
+import nom.danielmarreco.train.exception.NoSuchRouteException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for the CompactWorld class
+ * 
+ * @see CompactWorld
+ */
+public class CompactWorldTest {
+
+	private World world;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void setup () throws InvalidArgumentException
+	{
+		world = new WorldBuilder()
+				.addRoute("AB5")
+				.addRoute("BC4")
+				.addRoute("CD8")
+				.addRoute("DC8")
+				.addRoute("DE6")
+				.addRoute("AD5")
+				.addRoute("CE2")
+				.addRoute("EB3")
+				.addRoute("AE7")
+				.build();
+	}
+
+	/**
+	 * Tests the CSR structure of a snapshot
+	 */
+	@Test
+	public void testStructure ()
+	{
+		CompactWorld compact = world.getCompactWorld();
+
+		assertEquals(5, compact.getCityCount());
+		assertEquals(9, compact.getRouteCount());
+
+		int a = compact.getId("A");
+		assertEquals("A", compact.getName(a));
+		assertSame(world.getCity("A"), compact.getCity(a));
+		assertEquals(3, compact.getRoutesEnd(a) - compact.getRoutesStart(a));
+		assertEquals(-1, compact.getId("Z"));
+
+		assertEquals(5, compact.getDistance(a, compact.getId("B")));
+		assertEquals(5, compact.getDistance(a, compact.getId("D")));
+		assertEquals(7, compact.getDistance(a, compact.getId("E")));
+		assertEquals(-1, compact.getDistance(a, compact.getId("C")));
+		assertEquals(8, compact.getDistance(compact.getId("D"), compact.getId("C")));
+
+		for (int city = 0; city < compact.getCityCount(); city++) {
+			for (int r = compact.getRoutesStart(city) + 1; r < compact.getRoutesEnd(city); r++) {
+				assertTrue(compact.getRouteTarget(r - 1) < compact.getRouteTarget(r));
+			}
+		}
+	}
+
+	/**
+	 * Tests the snapshot is reused until the world changes
+	 */
+	@Test
+	public void testSnapshotFollowsWorld ()
+	{
+		CompactWorld compact = world.getCompactWorld();
+		assertSame(compact, world.getCompactWorld());
+
+		world.getCity("B").addAdjacentCity(world.getCity("A"), 1);
+
+		CompactWorld updated = world.getCompactWorld();
+		assertNotSame(compact, updated);
+		assertEquals(-1, compact.getDistance(compact.getId("B"), compact.getId("A")));
+		assertEquals(1, updated.getDistance(updated.getId("B"), updated.getId("A")));
+
+		// the snapshots share the names of the world, but only know of the cities they were taken with
+		world.addCity("F");
+		assertEquals(-1, updated.getId("F"));
+		assertEquals(5, world.getCompactWorld().getId("F"));
+	}
+
+	/**
+	 * Tests a route to a city of another world leads to the city of the same name, and a route to a city of no world is
+	 * rejected, instead of leading to whatever city has it's id
+	 */
+	@Test
+	public void testForeignCities () throws InvalidArgumentException
+	{
+		World other = new WorldBuilder().addRoute("EC1").build();
+		world.getCity("E").addAdjacentCity(other.getCity("E"), 4);
+		world.getCity("E").addAdjacentCity(other.getCity("C"), 1);
+		CompactWorld compact = world.getCompactWorld();
+		assertEquals(4, compact.getDistance(compact.getId("E"), compact.getId("E")));
+		assertEquals(1, compact.getDistance(compact.getId("E"), compact.getId("C")));
+		assertEquals(3, compact.getDistance(compact.getId("E"), compact.getId("B")));
+
+		try {
+			world.getCity("A").addAdjacentCity(new City("Z"), 1);
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+		}
+		assertEquals(3, world.getCity("A").getAdjacentCitites().size());
+		assertSame(compact, world.getCompactWorld());
+	}
+
+	/**
+	 * Tests a guide made for a snapshot answers as one made for the world
+	 */
+	@Test
+	public void testTravelGuide () throws NoSuchRouteException, InvalidArgumentException
+	{
+		TravelGuide guide = new TravelGuide(new WorldBuilder().addRoute("AB5").addRoute("BC4").buildCompact());
+		assertEquals(9, guide.findRoute("A", "B", "C").getLenght().intValue());
+		assertEquals(9, guide.findShortestRoute("A", "C").getLenght().intValue());
+		assertEquals(1, guide.findPossibleRoutes("A", "C", 2).size());
+	}
+
+	/**
+	 * Tests a snapshot written to a file and mapped back answers as the world it was taken from
+	 */
+	@Test
+	public void testSnapshotFile () throws IOException, NoSuchRouteException, InvalidArgumentException
+	{
+		world.addCity("Taup\u014d").addAdjacentCity(world.getCity("A"), 1);
+		Path file = folder.newFile("kiwiland.snapshot").toPath();
+		world.writeSnapshot(file);
+		CompactWorld mapped = CompactWorld.open(file);
+		CompactWorld compact = world.getCompactWorld();
+
+		assertEquals(compact.getCityCount(), mapped.getCityCount());
+		assertEquals(compact.getRouteCount(), mapped.getRouteCount());
+		assertEquals(compact.getVersion(), mapped.getVersion());
+		for (int id = 0; id < compact.getCityCount(); id++) {
+			assertEquals(compact.getName(id), mapped.getName(id));
+			assertEquals(id, mapped.getId(compact.getName(id)));
+			for (int other = 0; other < compact.getCityCount(); other++) {
+				assertEquals(compact.getDistance(id, other), mapped.getDistance(id, other));
+			}
+		}
+		assertEquals(-1, mapped.getId("Z"));
+		assertSame(mapped.getCity(0), mapped.getCity(0));
+
+		TravelGuide guide = new TravelGuide(mapped);
+		assertEquals(9, guide.findRoute("A", "B", "C").getLenght().intValue());
+		assertEquals(6, guide.findRoute("Taup\u014d", "A", "B").getLenght().intValue());
+		assertEquals(9, guide.findShortestRoute("A", "C").getLenght().intValue());
+		assertEquals(7, guide.findPossibleRoutesShorterThan("C", "C", 29).size());
+		assertEquals(3, guide.countPossibleRoutes("A", "C", 4, 4));
+		assertEquals(3, mapped.getCity(mapped.getId("A")).getAdjacentCitites().size());
+
+		// hashed from the hashes kept in the file, as a route of the world is from the names
+		Route route = guide.findRoute("Taup\u014d", "A", "B", "C");
+		assertEquals(new TravelGuide(world).findRoute("Taup\u014d", "A", "B", "C").hashCode(), route.hashCode());
+		assertEquals(new ArrayList<City>(route).hashCode(), route.hashCode());
+	}
+
+	/**
+	 * Tests snapshots of random worlds survive the round trip
+	 */
+	@Test
+	public void testRandomSnapshotFiles () throws IOException
+	{
+		for (int seed = 0; seed < 5; seed++) {
+			CompactWorld compact = RandomWorlds.create(seed, 200 + seed * 100, 1 + seed, 50).getCompactWorld();
+			Path file = folder.newFile("random" + seed + ".snapshot").toPath();
+			compact.write(file);
+			CompactWorld mapped = CompactWorld.open(file);
+			for (int source = 0; source < compact.getCityCount(); source += 37) {
+				assertArrayEquals(RandomWorlds.distancesFrom(compact, source), RandomWorlds.distancesFrom(mapped, source));
+			}
+		}
+	}
+
+	/**
+	 * Tests snapshots copied or loaded outside the heap answer as the world they were taken from, until their arena is closed
+	 */
+	@Test
+	public void testOffHeapArena () throws IOException, NoSuchRouteException
+	{
+		world.addCity("Taup\u014d").addAdjacentCity(world.getCity("A"), 1);
+		Path file = folder.newFile("kiwiland.snapshot").toPath();
+		world.writeSnapshot(file);
+		CompactWorld compact = world.getCompactWorld();
+
+		OffHeapArena arena = new OffHeapArena();
+		CompactWorld copied = arena.copy(compact);
+		CompactWorld loaded = arena.load(file);
+		Files.delete(file);
+		for (CompactWorld offHeap : new CompactWorld[] {copied, loaded}) {
+			assertEquals(compact.getCityCount(), offHeap.getCityCount());
+			assertEquals(compact.getRouteCount(), offHeap.getRouteCount());
+			assertEquals(compact.getVersion(), offHeap.getVersion());
+			for (int id = 0; id < compact.getCityCount(); id++) {
+				assertEquals(compact.getName(id), offHeap.getName(id));
+				assertEquals(id, offHeap.getId(compact.getName(id)));
+				for (int other = 0; other < compact.getCityCount(); other++) {
+					assertEquals(compact.getDistance(id, other), offHeap.getDistance(id, other));
+				}
+			}
+			assertEquals(-1, offHeap.getId("Z"));
+
+			TravelGuide guide = new TravelGuide(offHeap);
+			assertEquals(6, guide.findRoute("Taup\u014d", "A", "B").getLenght().intValue());
+			assertEquals(9, guide.findShortestRoute("A", "C").getLenght().intValue());
+			assertEquals(7, guide.findPossibleRoutesShorterThan("C", "C", 29).size());
+			assertEquals(new TravelGuide(world).findRoute("Taup\u014d", "A", "B").hashCode(), guide.findRoute("Taup\u014d", "A", "B").hashCode());
+		}
+		assertTrue(arena.getAllocatedBytes() > 2 * 4 * (compact.getCityCount() + 2 * compact.getRouteCount()));
+
+		arena.close();
+		assertEquals(0, arena.getAllocatedBytes());
+		try {
+			new TravelGuide(loaded).findShortestRoute("A", "C");
+			fail();
+		}
+		catch (IllegalStateException e) {
+			// the memory was released
+		}
+		try {
+			arena.copy(compact);
+			fail();
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+		arena.close();
+	}
+
+	/**
+	 * Tests the reverse index of a world held outside the heap, built by the searches walking routes backwards, is held
+	 * outside the heap too and released with the arena
+	 */
+	@Test
+	public void testOffHeapReverseIndex ()
+	{
+		World random = RandomWorlds.create(3, 20000, 3, 50);
+		CompactWorld compact = random.getCompactWorld();
+		OffHeapArena arena = new OffHeapArena();
+		CompactWorld offHeap = arena.copy(compact);
+		long allocated = arena.getAllocatedBytes();
+		long footprint = offHeap.getMemoryFootprint();
+
+		TravelGuide guide = new TravelGuide(offHeap), heapGuide = new TravelGuide(compact);
+		// the cities one and two routes away from city 0, which the routes shorter than 150 reach
+		int found = 0;
+		for (int r = compact.getRoutesStart(0); r < compact.getRoutesEnd(0); r++) {
+			int via = compact.getRouteTarget(r);
+			for (int s = compact.getRoutesStart(via); s < compact.getRoutesEnd(via); s++) {
+				for (String dest : new String[] {compact.getName(via), compact.getName(compact.getRouteTarget(s))}) {
+					List<String> expected = toStrings(heapGuide.findPossibleRoutesShorterThan("0", dest, 150));
+					assertEquals(expected, toStrings(guide.findPossibleRoutesShorterThan("0", dest, 150)));
+					assertEquals(toStrings(heapGuide.findPossibleRoutes("0", dest, 1, 3)), toStrings(guide.findPossibleRoutes("0", dest, 1, 3)));
+					found += expected.size();
+				}
+			}
+		}
+		assertTrue(found > 20);
+		assertEquals(allocated + 4L * (compact.getCityCount() + 1 + 2 * compact.getRouteCount()), arena.getAllocatedBytes());
+		// a few buffer objects, against the 4 * (20000 + 1 + 2 * 60000) bytes of a heap index
+		assertTrue(offHeap.getMemoryFootprint() - footprint < 1024);
+
+		arena.close();
+		assertEquals(0, arena.getAllocatedBytes());
+	}
+
+	/**
+	 * @return The routes as strings, sorted: routes of different snapshots are never equal, as their cities are not
+	 */
+	private static List<String> toStrings (Collection<Route> routes)
+	{
+		List<String> res = new ArrayList<String>();
+		for (Route route : routes) {
+			res.add(route.toString());
+		}
+		Collections.sort(res);
+		return res;
+	}
+
+	/**
+	 * Tests the cities of a world held outside the heap take heap for the cities used only, not for the whole world
+	 */
+	@Test
+	public void testOffHeapSnapshotCities () throws NoSuchRouteException
+	{
+		CompactWorld compact = RandomWorlds.create(5, 200000, 3, 50).getCompactWorld();
+		try (OffHeapArena arena = new OffHeapArena()) {
+			CompactWorld offHeap = arena.copy(compact);
+			long footprint = offHeap.getMemoryFootprint();
+			String dest = compact.getName(compact.getRouteTarget(compact.getRoutesStart(0)));
+			Route route = new TravelGuide(offHeap).findShortestRoute("0", dest);
+			assertSame(route.get(0), route.get(0));
+			assertEquals("0", route.get(0).getName());
+			// a few hundred bytes per city used, against 4 bytes per city of the world for a table indexed by id
+			assertTrue(offHeap.getMemoryFootprint() - footprint < 4096);
+		}
+	}
+
+	/**
+	 * Tests random worlds loaded outside the heap keep their distances, and the heap they take does not grow with them
+	 */
+	@Test
+	public void testRandomOffHeapWorlds () throws IOException
+	{
+		try (OffHeapArena arena = new OffHeapArena()) {
+			long footprint = 0;
+			for (int seed = 0; seed < 5; seed++) {
+				CompactWorld compact = RandomWorlds.create(seed, 200 + seed * 100, 1 + seed, 50).getCompactWorld();
+				Path file = folder.newFile("random" + seed + ".snapshot").toPath();
+				compact.write(file);
+				CompactWorld loaded = arena.load(file);
+				for (int source = 0; source < compact.getCityCount(); source += 37) {
+					assertArrayEquals(RandomWorlds.distancesFrom(compact, source), RandomWorlds.distancesFrom(loaded, source));
+				}
+				if (seed > 0) {
+					assertEquals(footprint, arena.copy(compact).getMemoryFootprint());
+				}
+				footprint = arena.copy(compact).getMemoryFootprint();
+			}
+		}
+	}
+
+	/**
+	 * Tests files which are not snapshots are refused
+	 */
+	@Test
+	public void testInvalidSnapshotFiles () throws IOException
+	{
+		File notSnapshot = folder.newFile("routes.txt");
+		Files.write(notSnapshot.toPath(), "AB5, BC4".getBytes("UTF-8"));
+		Path truncated = folder.newFile("truncated.snapshot").toPath();
+		world.writeSnapshot(truncated);
+		byte[] bytes = Files.readAllBytes(truncated);
+		Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 1));
+
+		for (Path file : new Path[] {notSnapshot.toPath(), truncated, folder.newFile("empty.snapshot").toPath()}) {
+			try {
+				CompactWorld.open(file);
+				throw new AssertionError("Opened " + file);
+			}
+			catch (IOException e) {
+				// expected
+			}
+			try (OffHeapArena arena = new OffHeapArena()) {
+				arena.load(file);
+				throw new AssertionError("Loaded " + file);
+			}
+			catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Compares the footprint of a snapshot against the object graph of a large world
+	 */
+	@Test
+	public void testMemoryFootprint ()
+	{
+		World large = new World();
+		Random random = new Random(42);
+		int cityCount = 10000;
+		for (int i = 0; i < cityCount; i++) {
+			large.addCity("city" + i);
+		}
+		for (int i = 0; i < cityCount; i++) {
+			City city = large.getCity("city" + i);
+			for (int j = 0; j < 10; j++) {
+				city.addAdjacentCity(large.getCity("city" + random.nextInt(cityCount)), 1 + random.nextInt(1000));
+			}
+		}
+
+		long objectGraph = large.getMemoryFootprint();
+		long compact = large.getCompactWorld().getMemoryFootprint();
+		assertTrue(compact * 3 < objectGraph);
+	}
+
+}
@@ -0,0 +1,181 @@
+package nom.danielmarreco.train.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nom.danielmarreco.train.City;
+import nom.danielmarreco.train.CompactWorld;
+import nom.danielmarreco.train.ConcurrentWorld;
+import nom.danielmarreco.train.Route;
+import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.World;
+import nom.danielmarreco.train.WorldBuilder;
+import nom.danielmarreco.train.exception.InvalidArgumentException;
+import nom.danielmarreco.train.exception.NoSuchRouteException;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the ConcurrentWorld class and the TravelGuide made for it
+ * 
+ * @see ConcurrentWorld
+ */
+public class ConcurrentWorldTest {
+
+	@Test
+	public void testUpdates () throws InvalidArgumentException, NoSuchRouteException
+	{
+		World world = new WorldBuilder()
+				.addRoute("AB5")
+				.addRoute("BC4")
+				.addRoute("CD8")
+				.addRoute("DC8")
+				.addRoute("DE6")
+				.addRoute("AD5")
+				.addRoute("CE2")
+				.addRoute("EB3")
+				.addRoute("AE7")
+				.build();
+		ConcurrentWorld concurrentWorld = new ConcurrentWorld(world);
+		TravelGuide guide = new TravelGuide(concurrentWorld);
+		CompactWorld first = concurrentWorld.getSnapshot();
+		assertEquals(world.getVersion(), concurrentWorld.getVersion());
+		assertEquals(9, guide.getShortestDistance("A", "C"));
+
+		// later changes to the source world are not seen
+		world.getCity("A").addAdjacentCity(world.getCity("C"), 1);
+		assertEquals(9, guide.getShortestDistance("A", "C"));
+
+		CompactWorld second = concurrentWorld.apply(new ConcurrentWorld.Update()
+				.addRoute("BC1")
+				.addRoute("Auckland", "A", 100)
+				.addRoute("BC2"));
+		assertEquals(first.getVersion() + 1, second.getVersion());
+		assertEquals(second, concurrentWorld.getSnapshot());
+		assertEquals(6, second.getCityCount());
+		assertEquals(10, second.getRouteCount());
+		assertEquals(7, guide.getShortestDistance("A", "C"));
+		assertEquals(107, guide.getShortestDistance("Auckland", "C"));
+		assertEquals("Auckland -> A -> B -> C", guide.findShortestRoute("Auckland", "C").toString());
+		assertEquals(107, guide.findShortestRoute("Auckland", "C").getLenght().intValue());
+
+		// the first version is unchanged, cities included
+		assertEquals(5, first.getCityCount());
+		assertEquals(-1, first.getId("Auckland"));
+		assertEquals(4, first.getDistance(first.getId("B"), first.getId("C")));
+		City b = first.getCity(first.getId("B"));
+		assertEquals(4, b.getDistanceTo(first.getCity(first.getId("C"))).intValue());
+		assertNotSame(b, second.getCity(second.getId("B")));
+		assertEquals(9, new TravelGuide(first).getShortestDistance("A", "C"));
+	}
+
+	/**
+	 * Applies the same random updates to a world and to a concurrent world, comparing every route of both
+	 */
+	@Test
+	public void testRandomUpdates ()
+	{
+		Random random = new Random(42);
+		World world = RandomWorlds.create(1, 100, 3, 50);
+		ConcurrentWorld concurrentWorld = new ConcurrentWorld(world);
+		for (int round = 0; round < 20; round++) {
+			ConcurrentWorld.Update update = new ConcurrentWorld.Update();
+			int cityCount = world.getCityCount();
+			for (int i = random.nextInt(200); i >= 0; i--) {
+				// about one route in ten departs from or arrives at a new city
+				String from = String.valueOf(random.nextInt(cityCount + cityCount / 10));
+				String to = String.valueOf(random.nextInt(cityCount + cityCount / 10));
+				int distance = 1 + random.nextInt(50);
+				update.addRoute(from, to, distance);
+				City cityFrom = world.getCity(from) != null ? world.getCity(from) : world.addCity(from);
+				City cityTo = world.getCity(to) != null ? world.getCity(to) : world.addCity(to);
+				cityFrom.addAdjacentCity(cityTo, distance);
+			}
+			CompactWorld expected = world.getCompactWorld();
+			CompactWorld actual = concurrentWorld.apply(update);
+			assertEquals(expected.getCityCount(), actual.getCityCount());
+			assertEquals(expected.getRouteCount(), actual.getRouteCount());
+			for (int id = 0; id < expected.getCityCount(); id++) {
+				String name = expected.getName(id);
+				assertEquals(id, actual.getId(name));
+				assertEquals(expected.getRoutesStart(id), actual.getRoutesStart(id));
+				assertEquals(expected.getRoutesEnd(id), actual.getRoutesEnd(id));
+				for (int r = expected.getRoutesStart(id); r < expected.getRoutesEnd(id); r++) {
+					assertEquals(expected.getRouteTarget(r), actual.getRouteTarget(r));
+					assertEquals(expected.getRouteDistance(r), actual.getRouteDistance(r));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Readers query a ring while a writer changes the distance of all it's routes at once, in each update:
+	 * every route a reader gets must have the distances of a single version
+	 */
+	@Test
+	public void testConcurrentReadersAndWriter () throws Throwable
+	{
+		final int cityCount = 50;
+		WorldBuilder builder = new WorldBuilder();
+		for (int i = 0; i < cityCount; i++) {
+			builder.addRoute(String.valueOf(i), String.valueOf((i + 1) % cityCount), 1);
+		}
+		final ConcurrentWorld concurrentWorld = new ConcurrentWorld(builder.build());
+		final TravelGuide guide = new TravelGuide(concurrentWorld);
+		guide.enableShortestPathCache(4);
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int t = 0; t < 3; t++) {
+			final Random random = new Random(t);
+			readers.add(new Thread() {
+				@Override
+				public void run ()
+				{
+					try {
+						while (!done.get()) {
+							int from = random.nextInt(cityCount), to = random.nextInt(cityCount);
+							int hops = (to - from + cityCount) % cityCount;
+							Route route = guide.findShortestRoute(String.valueOf(from), String.valueOf(to));
+							int distance = route.getLenght();
+							assertEquals(hops + 1, route.size());
+							assertTrue(hops == 0 ? distance == 0 : distance % hops == 0);
+							distance = guide.getShortestDistance(String.valueOf(from), String.valueOf(to));
+							assertTrue(hops == 0 ? distance == 0 : distance % hops == 0);
+						}
+					}
+					catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+		}
+		for (Thread reader : readers) {
+			reader.start();
+		}
+		for (int version = 2; version < 200; version++) {
+			ConcurrentWorld.Update update = new ConcurrentWorld.Update();
+			for (int i = 0; i < cityCount; i++) {
+				update.addRoute(String.valueOf(i), String.valueOf((i + 1) % cityCount), version);
+			}
+			concurrentWorld.apply(update);
+		}
+		done.set(true);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		assertEquals((cityCount - 1) * 199, guide.getShortestDistance("0", String.valueOf(cityCount - 1)));
+	}
+
+}
@@ -0,0 +1,204 @@
+package nom.danielmarreco.train.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import nom.danielmarreco.train.CompactWorld;
+import nom.danielmarreco.train.ContractionHierarchy;
+import nom.danielmarreco.train.Route;
+import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.World;
+import nom.danielmarreco.train.WorldBuilder;
+import nom.danielmarreco.train.exception.InvalidArgumentException;
+import nom.danielmarreco.train.exception.NoSuchRouteException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for the ContractionHierarchy class and it's use by TravelGuide
+ * 
+ * @see ContractionHierarchy
+ * @see TravelGuide#precomputeContractionHierarchy()
+ */
+public class ContractionHierarchyTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Checks the distances and the unpacked routes against a brute force search, on sparse and dense random worlds
+	 */
+	@Test
+	public void testRandomWorlds () throws NoSuchRouteException
+	{
+		for (int seed = 0; seed < 6; seed++) {
+			World world = RandomWorlds.create(seed, 150, seed < 3 ? 2 : 8, seed % 2 == 0 ? 10 : 100);
+			CompactWorld compact = world.getCompactWorld();
+			TravelGuide guide = new TravelGuide(world);
+			ContractionHierarchy hierarchy = guide.precomputeContractionHierarchy();
+
+			for (int source = 0; source < compact.getCityCount(); source++) {
+				int[] expected = RandomWorlds.distancesFrom(compact, source);
+				for (int dest = 0; dest < compact.getCityCount(); dest++) {
+					assertEquals(expected[dest], hierarchy.getDistance(source, dest));
+					if (source % 10 == 0) {
+						assertShortestRoute(guide, compact, source, dest, expected[dest]);
+					}
+				}
+			}
+		}
+	}
+
+	private static void assertShortestRoute (TravelGuide guide, CompactWorld graph, int source, int dest, int expected) throws NoSuchRouteException
+	{
+		String sourceName = graph.getName(source), destName = graph.getName(dest);
+		if (expected == ContractionHierarchy.UNREACHABLE) {
+			try {
+				guide.findShortestRoute(sourceName, destName);
+				fail("Found a route from " + sourceName + " to " + destName);
+			}
+			catch (NoSuchRouteException e) {
+				// expected
+			}
+			return;
+		}
+		Route route = guide.findShortestRoute(sourceName, destName);
+		assertEquals(sourceName, route.getFirst().getName());
+		assertEquals(destName, route.getLast().getName());
+		// every step is a route of the world, or getLenght would throw
+		assertEquals(expected, route.getLenght().intValue());
+		assertEquals(expected, guide.getShortestDistance(sourceName, destName));
+	}
+
+	@Test
+	public void testFile () throws IOException, NoSuchRouteException
+	{
+		World world = RandomWorlds.create(7, 300, 3, 50);
+		CompactWorld compact = world.getCompactWorld();
+		ContractionHierarchy hierarchy = ContractionHierarchy.build(compact);
+		Path file = folder.newFile("world.ch").toPath();
+		hierarchy.write(file);
+
+		ContractionHierarchy read = ContractionHierarchy.read(file);
+		assertEquals(hierarchy.getCityCount(), read.getCityCount());
+		assertEquals(hierarchy.getShortcutCount(), read.getShortcutCount());
+		assertEquals(hierarchy.getVersion(), read.getVersion());
+		assertEquals(hierarchy.getMemoryFootprint(), read.getMemoryFootprint());
+
+		TravelGuide guide = new TravelGuide(world);
+		guide.useContractionHierarchy(read);
+		for (int source = 0; source < compact.getCityCount(); source += 17) {
+			int[] expected = RandomWorlds.distancesFrom(compact, source);
+			for (int dest = 0; dest < compact.getCityCount(); dest++) {
+				assertEquals(expected[dest], read.getDistance(source, dest));
+				assertShortestRoute(guide, compact, source, dest, expected[dest]);
+			}
+		}
+	}
+
+	@Test
+	public void testInvalidFile () throws IOException
+	{
+		Path file = folder.newFile("invalid.ch").toPath();
+		Files.write(file, new byte[100]);
+		try {
+			ContractionHierarchy.read(file);
+			fail("Read an invalid file");
+		}
+		catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Not a contraction hierarchy"));
+		}
+
+		Path truncated = folder.newFile("truncated.ch").toPath();
+		ContractionHierarchy.build(RandomWorlds.create(1, 50, 2, 10).getCompactWorld()).write(truncated);
+		byte[] bytes = Files.readAllBytes(truncated);
+		Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 4));
+		try {
+			ContractionHierarchy.read(truncated);
+			fail("Read a truncated file");
+		}
+		catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Corrupt contraction hierarchy"));
+		}
+	}
+
+	@Test
+	public void testTravelGuide () throws InvalidArgumentException, NoSuchRouteException
+	{
+		World world = new WorldBuilder()
+				.addRoute("AB5")
+				.addRoute("BC4")
+				.addRoute("CD8")
+				.addRoute("DC8")
+				.addRoute("DE6")
+				.addRoute("AD5")
+				.addRoute("CE2")
+				.addRoute("EB3")
+				.addRoute("AE7")
+				.build();
+		TravelGuide guide = new TravelGuide(world);
+		guide.precomputeContractionHierarchy();
+
+		assertEquals(9, guide.getShortestDistance("A", "C"));
+		assertEquals("A -> B -> C", guide.findShortestRoute("A", "C").toString());
+		assertEquals(0, guide.getShortestDistance("B", "B"));
+		assertEquals(1, guide.findShortestRoute("B", "B").size());
+
+		// the hierarchy is no longer used once the world changes
+		world.getCity("A").addAdjacentCity(world.getCity("C"), 1);
+		assertEquals(1, guide.getShortestDistance("A", "C"));
+		assertEquals(2, guide.findShortestRoute("A", "C").size());
+	}
+
+	/**
+	 * Tests a hierarchy is refused by a world at the same version and with as many cities, but other routes
+	 */
+	@Test
+	public void testOtherWorld () throws IOException, InvalidArgumentException, NoSuchRouteException
+	{
+		World worldA = new WorldBuilder().addRoute("AB5").addRoute("BC4").build();
+		World worldB = new WorldBuilder().addRoute("AB9").addRoute("BC9").build();
+		assertEquals(5, worldA.getVersion());
+		assertEquals(5, worldB.getVersion());
+		Path file = folder.newFile("a.ch").toPath();
+		ContractionHierarchy.build(worldA.getCompactWorld()).write(file);
+
+		TravelGuide guide = new TravelGuide(worldB);
+		try {
+			guide.useContractionHierarchy(ContractionHierarchy.read(file));
+			fail("Used the hierarchy of another world");
+		}
+		catch (IllegalArgumentException e) {
+			assertEquals("Contraction hierarchy of other routes than the world's", e.getMessage());
+		}
+		try {
+			ContractionHierarchy.read(file, worldB.getCompactWorld());
+			fail("Read the hierarchy of another world");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(18, guide.getShortestDistance("A", "C"));
+
+		guide = new TravelGuide(worldA);
+		guide.useContractionHierarchy(ContractionHierarchy.read(file, worldA.getCompactWorld()));
+		assertEquals(9, guide.getShortestDistance("A", "C"));
+	}
+
+	@Test(expected=NoSuchRouteException.class)
+	public void testUnreachable () throws InvalidArgumentException, NoSuchRouteException
+	{
+		TravelGuide guide = new TravelGuide(new WorldBuilder().addRoute("AB5").build());
+		guide.precomputeContractionHierarchy();
+		guide.findShortestRoute("B", "A");
+	}
+
+}
@@ -0,0 +1,90 @@
+package nom.danielmarreco.train.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ForkJoinPool;
+
+import nom.danielmarreco.train.CompactWorld;
+import nom.danielmarreco.train.DistanceMatrix;
+import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.World;
+import nom.danielmarreco.train.WorldBuilder;
+import nom.danielmarreco.train.exception.InvalidArgumentException;
+import nom.danielmarreco.train.exception.NoSuchRouteException;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the DistanceMatrix class and the all-pairs mode of TravelGuide
+ * 
+ * @see DistanceMatrix
+ * @see TravelGuide#precomputeAllPairs()
+ */
+public class DistanceMatrixTest {
+
+	/**
+	 * Checks both strategies against a brute force search, on a world spanning several blocks
+	 */
+	@Test
+	public void testStrategies ()
+	{
+		for (int routesPerCity : new int[] {2, 40}) {
+			CompactWorld compact = RandomWorlds.create(routesPerCity, 150, routesPerCity, 100).getCompactWorld();
+			DistanceMatrix floydWarshall = DistanceMatrix.compute(compact, DistanceMatrix.Strategy.FLOYD_WARSHALL, ForkJoinPool.commonPool());
+			DistanceMatrix dijkstra = DistanceMatrix.compute(compact, DistanceMatrix.Strategy.DIJKSTRA, ForkJoinPool.commonPool());
+
+			for (int source = 0; source < compact.getCityCount(); source++) {
+				int[] expected = RandomWorlds.distancesFrom(compact, source);
+				for (int dest = 0; dest < compact.getCityCount(); dest++) {
+					assertEquals(expected[dest], floydWarshall.getDistance(source, dest));
+					assertEquals(expected[dest], dijkstra.getDistance(source, dest));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testAutoStrategy ()
+	{
+		DistanceMatrix sparse = DistanceMatrix.compute(RandomWorlds.create(1, 300, 2, 100).getCompactWorld(), ForkJoinPool.commonPool());
+		DistanceMatrix dense = DistanceMatrix.compute(RandomWorlds.create(1, 300, 600, 100).getCompactWorld(), ForkJoinPool.commonPool());
+		assertEquals(DistanceMatrix.Strategy.DIJKSTRA, sparse.getStrategy());
+		assertEquals(DistanceMatrix.Strategy.FLOYD_WARSHALL, dense.getStrategy());
+		assertEquals(16 + 4 * 300 * 300, dense.getMemoryFootprint());
+	}
+
+	@Test
+	public void testTravelGuideAllPairs () throws InvalidArgumentException, NoSuchRouteException
+	{
+		World world = new WorldBuilder()
+				.addRoute("AB5")
+				.addRoute("BC4")
+				.addRoute("CD8")
+				.addRoute("DC8")
+				.addRoute("DE6")
+				.addRoute("AD5")
+				.addRoute("CE2")
+				.addRoute("EB3")
+				.addRoute("AE7")
+				.build();
+		TravelGuide guide = new TravelGuide(world);
+		guide.precomputeAllPairs();
+
+		assertEquals(9, guide.getShortestDistance("A", "C"));
+		assertEquals(0, guide.getShortestDistance("B", "B"));
+		assertEquals(5, guide.getShortestDistance("C", "B"));
+
+		// the matrix is no longer used once the world changes
+		world.getCity("A").addAdjacentCity(world.getCity("C"), 1);
+		assertEquals(1, guide.getShortestDistance("A", "C"));
+	}
+
+	@Test(expected=NoSuchRouteException.class)
+	public void testUnreachable () throws InvalidArgumentException, NoSuchRouteException
+	{
+		TravelGuide guide = new TravelGuide(new WorldBuilder().addRoute("AB5").build());
+		guide.precomputeAllPairs();
+		guide.getShortestDistance("B", "A");
+	}
+
+}
@@ -0,0 +1,184 @@
+package nom.danielmarreco.train.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+
+import nom.danielmarreco.train.JmxMetricsSink;
+import nom.danielmarreco.train.MetricsSink;
+import nom.danielmarreco.train.MetricsSink.Query;
+import nom.danielmarreco.train.QueryMetrics;
+import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.WorldBuilder;
+import nom.danielmarreco.train.exception.InvalidArgumentException;
+import nom.danielmarreco.train.exception.NoSuchRouteException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the metrics reported by the TravelGuide class
+ * 
+ * @see MetricsSink
+ * @see JmxMetricsSink
+ */
+public class MetricsSinkTest {
+
+	private TravelGuide guide;
+
+	/**
+	 * The queries reported to {@link #sink}, as "QUERY settled relaxed emitted peakFrontier"
+	 */
+	private final List<String> reported = new ArrayList<String>();
+
+	private final MetricsSink sink = new MetricsSink() {
+		public void queryCompleted (Query query, long nanos, long settled, long relaxed, long emitted, int peakFrontier)
+		{
+			assertTrue(nanos >= 0);
+			reported.add(query + " " + settled + " " + relaxed + " " + emitted + " " + peakFrontier);
+		}
+	};
+
+	@Before
+	public void setup () throws InvalidArgumentException
+	{
+		guide = new TravelGuide(new WorldBuilder()
+				.addRoute("AB5")
+				.addRoute("BC4")
+				.addRoute("CD8")
+				.addRoute("DC8")
+				.addRoute("DE6")
+				.addRoute("AD5")
+				.addRoute("CE2")
+				.addRoute("EB3")
+				.addRoute("AE7")
+				.build());
+	}
+
+	@Test
+	public void testQueriesReported () throws NoSuchRouteException
+	{
+		guide.findShortestRoute("A", "C");
+		assertTrue(reported.isEmpty());
+
+		guide.setMetricsSink(sink);
+		guide.findShortestRoute("A", "C");
+		guide.findPossibleRoutes("C", "C", 3);
+		guide.countPossibleRoutes("A", "C", 4, 4);
+		guide.getRouteDistance("A", "E", "D");
+		try {
+			guide.findShortestRoute("B", "A");
+			fail();
+		}
+		catch (NoSuchRouteException e) {
+			// reported all the same
+		}
+		guide.findKShortestRoutes("A", "C", 3);
+
+		// A, B, D, E and C settled, following their 3, 1, 2 and 1 routes; B, D and E wait while A is settled
+		assertEquals("FIND_SHORTEST_ROUTE 5 7 1 3", reported.get(0));
+		// C-D-C and C-E-B-C, walking the 5 prefixes of up to 3 stops that may still lead back to C
+		assertEquals("FIND_POSSIBLE_ROUTES 5 10 2 3", reported.get(1));
+		assertEquals("COUNT_POSSIBLE_ROUTES 11 17 3 4", reported.get(2));
+		// E-D does not exist
+		assertEquals("ROUTE_DISTANCE 0 0 0 0", reported.get(3));
+		// every city reached from B is settled in vain
+		assertEquals("FIND_SHORTEST_ROUTE 4 6 0 2", reported.get(4));
+		assertTrue(reported.get(5).startsWith("K_SHORTEST_ROUTES "));
+		assertTrue(reported.get(5).endsWith(" 3 3"));
+		assertEquals(6, reported.size());
+
+		guide.setMetricsSink(null);
+		guide.findShortestRoute("A", "C");
+		assertEquals(6, reported.size());
+	}
+
+	/**
+	 * Tests a parallel enumeration reports the work of all it's tasks, the same as the sequential one
+	 */
+	@Test
+	public void testParallelWorkReported ()
+	{
+		guide.setMetricsSink(sink);
+		guide.findPossibleRoutes("C", "C", 1, 10);
+		guide.setParallelism(2);
+		for (int cutoff = 0; cutoff <= 4; cutoff++) {
+			guide.setSequentialCutoff(cutoff);
+			guide.findPossibleRoutes("C", "C", 1, 10);
+			assertEquals(reported.get(0), reported.get(cutoff + 1));
+		}
+		guide.setParallelism(1);
+	}
+
+	@Test
+	public void testJmx () throws JMException, NoSuchRouteException
+	{
+		JmxMetricsSink jmx = new JmxMetricsSink("test");
+		try {
+			guide.setMetricsSink(jmx);
+			for (int i = 0; i < 10; i++) {
+				guide.getShortestDistance("A", "C");
+			}
+			guide.findPossibleRoutesShorterThan("C", "C", 29);
+
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(10L, server.getAttribute(jmx.getObjectName(Query.SHORTEST_DISTANCE), "Count"));
+			assertEquals(10L, server.getAttribute(jmx.getObjectName(Query.SHORTEST_DISTANCE), "Emitted"));
+			assertEquals(7L, server.getAttribute(jmx.getObjectName(Query.FIND_POSSIBLE_ROUTES), "Emitted"));
+			assertEquals(0L, server.getAttribute(jmx.getObjectName(Query.FIND_ROUTE), "Count"));
+			assertTrue((Double) server.getAttribute(jmx.getObjectName(Query.SHORTEST_DISTANCE), "MaxLatency") > 0);
+
+			server.invoke(jmx.getObjectName(Query.SHORTEST_DISTANCE), "reset", null, null);
+			assertEquals(0L, jmx.getMetrics(Query.SHORTEST_DISTANCE).getCount());
+
+			try {
+				new JmxMetricsSink("test");
+				fail();
+			}
+			catch (InstanceAlreadyExistsException e) {
+				// the name is taken
+			}
+			assertTrue(server.isRegistered(jmx.getObjectName(Query.FIND_ROUTE)));
+		}
+		finally {
+			jmx.unregister();
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(jmx.getObjectName(Query.FIND_ROUTE)));
+	}
+
+	/**
+	 * The latency percentiles are within the precision of the histogram
+	 */
+	@Test
+	public void testLatencyPercentiles () throws JMException
+	{
+		JmxMetricsSink jmx = new JmxMetricsSink("percentiles");
+		try {
+			for (int latency = 1; latency <= 1000000; latency++) {
+				jmx.queryCompleted(Query.FIND_ROUTE, latency * 1000L, 0, 0, 1, 0);
+			}
+			QueryMetrics metrics = jmx.getMetrics(Query.FIND_ROUTE);
+			assertEquals(1000000, metrics.getCount());
+			assertEquals(500000.5, metrics.getMeanLatency(), 0.001);
+			assertEquals(1000000, metrics.getMaxLatency(), 0);
+			for (double percentile : new double[] {1, 50, 90, 99, 99.9}) {
+				double expected = percentile * 10000;
+				assertEquals(expected, metrics.getLatencyPercentile(percentile), expected / 32);
+			}
+			assertEquals(1000000, metrics.getLatencyPercentile(100), 0);
+		}
+		finally {
+			jmx.unregister();
+		}
+	}
+
+}
@@ -0,0 +1,211 @@
+package nom.danielmarreco.train.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import nom.danielmarreco.train.QueryBudget;
+import nom.danielmarreco.train.QueryBudget.Limit;
+import nom.danielmarreco.train.Route;
+import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.World;
+import nom.danielmarreco.train.WorldBuilder;
+import nom.danielmarreco.train.exception.InvalidArgumentException;
+import nom.danielmarreco.train.exception.NoSuchRouteException;
+import nom.danielmarreco.train.exception.QueryBudgetExceededException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the queries of the TravelGuide class stop once their budget is exceeded
+ * 
+ * @see QueryBudget
+ */
+public class QueryBudgetTest {
+
+	private World world;
+
+	private TravelGuide guide;
+
+	@Before
+	public void setup () throws InvalidArgumentException
+	{
+		world = new WorldBuilder()
+				.addRoute("AB5")
+				.addRoute("BC4")
+				.addRoute("CD8")
+				.addRoute("DC8")
+				.addRoute("DE6")
+				.addRoute("AD5")
+				.addRoute("CE2")
+				.addRoute("EB3")
+				.addRoute("AE7")
+				.build();
+		guide = new TravelGuide(world);
+	}
+
+	@Test
+	public void testWithinBudget () throws NoSuchRouteException
+	{
+		QueryBudget budget = new QueryBudget().withTimeout(1, TimeUnit.MINUTES).withMaxExpanded(1000000).withMaxEmitted(1000);
+		assertEquals(guide.findPossibleRoutes("C", "C", 1, 10), guide.findPossibleRoutes("C", "C", 1, 10, budget));
+		assertEquals(7, guide.findPossibleRoutesShorterThan("C", "C", 29, budget).size());
+		assertEquals(guide.countPossibleRoutes("C", "C", 1, 10), guide.countPossibleRoutes("C", "C", 1, 10, budget));
+		assertEquals(4, guide.findKShortestRoutes("A", "C", 10, budget).size());
+		assertArrayEquals(guide.getShortestDistances(new String[] {"A", "B"}, new String[] {"C", "E"}),
+				guide.getShortestDistances(new String[] {"A", "B"}, new String[] {"C", "E"}, ForkJoinPool.commonPool(), budget));
+		assertFalse(budget.isExceeded());
+		assertNull(budget.getExceededLimit());
+		assertTrue(budget.getExpandedCount() > 0);
+	}
+
+	@Test
+	public void testMaxEmitted () throws NoSuchRouteException
+	{
+		QueryBudget budget = new QueryBudget().withMaxEmitted(5);
+		Set<Route> routes = guide.findPossibleRoutes("C", "C", 1, 10, budget);
+		assertEquals(5, routes.size());
+		assertTrue(guide.findPossibleRoutes("C", "C", 1, 10).containsAll(routes));
+		assertEquals(Limit.EMITTED_ROUTES, budget.getExceededLimit());
+		assertEquals(5, budget.getEmittedCount());
+
+		// as many routes as allowed is within budget
+		budget = new QueryBudget().withMaxEmitted(7);
+		assertEquals(7, guide.findPossibleRoutesShorterThan("C", "C", 29, budget).size());
+		assertFalse(budget.isExceeded());
+
+		budget = new QueryBudget().withMaxEmitted(2);
+		List<Route> shortest = guide.findKShortestRoutes("A", "C", 10, budget);
+		assertEquals("[A -> B -> C, A -> D -> C]", shortest.toString());
+		assertTrue(budget.isExceeded());
+
+		guide.setParallelism(2);
+		guide.setSequentialCutoff(1);
+		budget = new QueryBudget().withMaxEmitted(5);
+		assertEquals(5, guide.findPossibleRoutes("C", "C", 1, 10, budget).size());
+		assertEquals(Limit.EMITTED_ROUTES, budget.getExceededLimit());
+		guide.setParallelism(1);
+	}
+
+	@Test
+	public void testMaxExpanded ()
+	{
+		QueryBudget budget = new QueryBudget().withMaxExpanded(10000);
+		Set<Route> routes = guide.findPossibleRoutes("C", "C", 1, 80, budget);
+		assertEquals(Limit.EXPANDED_STATES, budget.getExceededLimit());
+		assertTrue(budget.getExpandedCount() <= 10000 + 1024);
+		for (Route route : routes) {
+			assertEquals("C", route.getFirst().getName());
+			assertEquals("C", route.getLast().getName());
+		}
+
+		budget = new QueryBudget().withMaxExpanded(100);
+		try {
+			guide.countPossibleRoutesShorterThan("C", "C", 100000, budget);
+			fail();
+		}
+		catch (QueryBudgetExceededException e) {
+			assertEquals(Limit.EXPANDED_STATES, e.getLimit());
+			assertTrue(e.getExpandedCount() > 100);
+		}
+	}
+
+	/**
+	 * Tests the states expanded by a parallel search are charged as the sequential search's, above the cutoff too
+	 */
+	@Test
+	public void testParallelMaxExpanded ()
+	{
+		QueryBudget sequential = new QueryBudget();
+		guide.findPossibleRoutes("C", "C", 1, 10, sequential);
+		guide.setParallelism(2);
+		for (int cutoff = 0; cutoff <= 12; cutoff += 3) {
+			guide.setSequentialCutoff(cutoff);
+			QueryBudget budget = new QueryBudget();
+			guide.findPossibleRoutes("C", "C", 1, 10, budget);
+			assertEquals(sequential.getExpandedCount(), budget.getExpandedCount());
+		}
+
+		// most states are above the cutoff, where tasks walk too few of them to reach a check of their own
+		guide.setSequentialCutoff(12);
+		QueryBudget budget = new QueryBudget().withMaxExpanded(100);
+		assertTrue(guide.findPossibleRoutes("C", "C", 1, 14, budget).size() < guide.countPossibleRoutes("C", "C", 1, 14));
+		assertEquals(Limit.EXPANDED_STATES, budget.getExceededLimit());
+		guide.setParallelism(1);
+	}
+
+	@Test
+	public void testDeadline ()
+	{
+		long start = System.nanoTime();
+		QueryBudget budget = new QueryBudget().withTimeout(50, TimeUnit.MILLISECONDS);
+		guide.findPossibleRoutes("C", "C", 1, 200, budget);
+		assertEquals(Limit.DEADLINE, budget.getExceededLimit());
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+	}
+
+	@Test
+	public void testCancel () throws Exception
+	{
+		final QueryBudget budget = new QueryBudget();
+		Iterator<Route> routes = guide.streamPossibleRoutes("C", "C", 1, 200, budget).iterator();
+		assertTrue(routes.hasNext());
+		Thread canceller = new Thread() {
+			@Override
+			public void run ()
+			{
+				budget.cancel();
+			}
+		};
+		canceller.start();
+		canceller.join();
+		long count = 0;
+		while (routes.hasNext()) {
+			routes.next();
+			count++;
+		}
+		assertEquals(Limit.CANCELLED, budget.getExceededLimit());
+		assertTrue(count < 100000);
+
+		try {
+			guide.countPossibleRoutes("C", "C", 1, 10, budget);
+			fail();
+		}
+		catch (QueryBudgetExceededException e) {
+			assertEquals(Limit.CANCELLED, e.getLimit());
+		}
+		try {
+			guide.getShortestDistances(new String[] {"A"}, new String[] {"C"}, ForkJoinPool.commonPool(), budget);
+			fail();
+		}
+		catch (QueryBudgetExceededException e) {
+			assertEquals(Limit.CANCELLED, e.getLimit());
+		}
+		assertTrue(guide.findPossibleRoutes("C", "C", 1, 10, budget).isEmpty());
+	}
+
+	@Test
+	public void testPartialRoutesNotCached ()
+	{
+		guide.enableRouteCache(1000);
+		QueryBudget budget = new QueryBudget().withMaxEmitted(3);
+		assertEquals(3, guide.findPossibleRoutes("C", "C", 1, 10, budget).size());
+		assertEquals(guide.countPossibleRoutes("C", "C", 1, 10), guide.findPossibleRoutes("C", "C", 1, 10).size());
+
+		// answered from the cache, still within the budget
+		budget = new QueryBudget().withMaxEmitted(3);
+		assertEquals(3, guide.findPossibleRoutes("C", "C", 1, 10, budget).size());
+		assertEquals(Limit.EMITTED_ROUTES, budget.getExceededLimit());
+	}
+
+}
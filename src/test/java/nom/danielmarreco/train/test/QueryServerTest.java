@@ -0,0 +1,205 @@
+package nom.danielmarreco.train.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nom.danielmarreco.train.CompactWorld;
+import nom.danielmarreco.train.QueryServer;
+import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.World;
+import nom.danielmarreco.train.WorldBuilder;
+import nom.danielmarreco.train.exception.InvalidArgumentException;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test for the QueryServer class, over loopback
+ * 
+ * @see QueryServer
+ */
+public class QueryServerTest {
+
+	private QueryServer server;
+
+	private void start (World world) throws IOException
+	{
+		server = new QueryServer(new TravelGuide(world), new InetSocketAddress("127.0.0.1", 0));
+		server.start();
+	}
+
+	@After
+	public void stop ()
+	{
+		if (server != null) {
+			server.stop(0);
+		}
+	}
+
+	/**
+	 * @return The status code and the body of the response, as "200 9"
+	 */
+	private String get (String path) throws IOException
+	{
+		return request("GET", path);
+	}
+
+	private String request (String method, String path) throws IOException
+	{
+		URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(method);
+		int status = connection.getResponseCode();
+		InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int read; (read = in.read(buffer)) >= 0; ) {
+			body.write(buffer, 0, read);
+		}
+		in.close();
+		return (status + " " + new String(body.toByteArray(), StandardCharsets.UTF_8)).trim();
+	}
+
+	/**
+	 * The queries of the Kiwiland problem, through the server
+	 */
+	@Test
+	public void testQueries () throws IOException, InvalidArgumentException
+	{
+		start(new WorldBuilder()
+				.addRoute("AB5")
+				.addRoute("BC4")
+				.addRoute("CD8")
+				.addRoute("DC8")
+				.addRoute("DE6")
+				.addRoute("AD5")
+				.addRoute("CE2")
+				.addRoute("EB3")
+				.addRoute("AE7")
+				.build());
+
+		assertEquals("200 9", get("/distance?route=A,B,C"));
+		assertEquals("200 22", get("/distance?route=A,E,B,C,D"));
+		assertEquals("404 No route from E to D", get("/distance?route=A,E,D"));
+		assertEquals("200 2", get("/count?from=C&to=C&maxStops=3"));
+		assertEquals("200 3", get("/count?from=A&to=C&minStops=4&maxStops=4"));
+		assertEquals("200 9", get("/distance?from=A&to=C"));
+		assertEquals("200 9\tA -> B -> C", get("/route?from=A&to=C"));
+		assertEquals("200 0", get("/distance?from=B&to=B"));
+		assertEquals("200 7", get("/count?from=C&to=C&maxDistance=29"));
+
+		String routes = get("/routes?from=C&to=C&maxStops=3");
+		assertEquals("200 ", routes.substring(0, 4));
+		assertEquals(2, routes.substring(4).split("\n").length);
+		assertEquals(7, get("/routes?from=C&to=C&maxDistance=29").split("\n").length);
+		assertEquals(3, get("/routes?from=C&to=C&maxDistance=29&limit=3").split("\n").length);
+		assertEquals("200", get("/routes?from=C&to=Auckland&maxStops=3"));
+	}
+
+	@Test
+	public void testErrors () throws IOException, InvalidArgumentException
+	{
+		start(new WorldBuilder().addRoute("AB5").build());
+
+		assertEquals("404 No such city: Auckland", get("/distance?from=Auckland&to=A"));
+		assertEquals("404 No route found from B to A", get("/route?from=B&to=A"));
+		assertEquals("400 Missing parameter: to", get("/route?from=A"));
+		assertEquals("400 Invalid maxStops: many", get("/count?from=A&to=B&maxStops=many"));
+		assertEquals("400 Either maxStops or maxDistance is required", get("/routes?from=A&to=B"));
+		assertEquals("405 Only GET is supported", request("POST", "/distance?from=A&to=B"));
+	}
+
+	/**
+	 * Tests counts and routes stop within the budget of a request, around a cycle with a route every other unit of distance
+	 */
+	@Test
+	public void testRequestBudget () throws IOException, InvalidArgumentException
+	{
+		start(new WorldBuilder().addRoute("AB1").addRoute("BA1").build());
+		assertEquals("200 5", get("/count?from=A&to=A&maxDistance=10"));
+
+		server.setMaxExpandedStates(10000);
+		assertEquals("200 5", get("/count?from=A&to=A&maxDistance=10"));
+		assertEquals("422 EXPANDED_STATES reached", get("/count?from=A&to=A&maxDistance=1000000000").substring(0, 27));
+		assertEquals("422 EXPANDED_STATES reached", get("/count?from=A&to=A&maxStops=1000000000").substring(0, 27));
+		String routes = get("/routes?from=A&to=A&maxStops=1000000");
+		assertEquals("200 ", routes.substring(0, 4));
+		String[] lines = routes.substring(4).split("\n");
+		assertTrue(lines.length > 1 && lines.length < 10000);
+		assertEquals("2\tA -> B -> A", lines[0]);
+		assertEquals("partial\tEXPANDED_STATES", lines[lines.length - 1]);
+		for (int i = 0; i < lines.length - 1; i++) {
+			assertFalse(lines[i].startsWith("partial"));
+		}
+		// an answer found within the budget is not marked
+		assertEquals("200 2\tA -> B -> A\n4\tA -> B -> A -> B -> A", get("/routes?from=A&to=A&maxStops=4"));
+
+		server.setMaxExpandedStates(Long.MAX_VALUE);
+		server.setRequestTimeout(1, TimeUnit.MILLISECONDS);
+		assertEquals("503 DEADLINE reached", get("/count?from=A&to=A&maxDistance=1000000000").substring(0, 20));
+		server.setRequestTimeout(0, TimeUnit.MILLISECONDS);
+		assertEquals("200 5", get("/count?from=A&to=A&maxDistance=10"));
+	}
+
+	/**
+	 * Threads asking for the shortest routes from a few sources at once, so that their searches are shared
+	 */
+	@Test
+	public void testConcurrentRequests () throws Throwable
+	{
+		World world = RandomWorlds.create(3, 2000, 3, 50);
+		final CompactWorld compact = world.getCompactWorld();
+		final int[][] expected = {RandomWorlds.distancesFrom(compact, 0), RandomWorlds.distancesFrom(compact, 1)};
+		start(world);
+		server.getGuide().setRequestCoalescing(true);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		List<Thread> clients = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			final int source = t % 2;
+			clients.add(new Thread() {
+				@Override
+				public void run ()
+				{
+					try {
+						for (int dest = 0; dest < compact.getCityCount(); dest += 97) {
+							String response = get("/distance?from=" + compact.getName(source) + "&to=" + compact.getName(dest));
+							if (expected[source][dest] == Integer.MAX_VALUE) {
+								assertEquals("404", response.substring(0, 3));
+							}
+							else {
+								assertEquals("200 " + expected[source][dest], response);
+							}
+						}
+					}
+					catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+		}
+		for (Thread client : clients) {
+			client.start();
+		}
+		for (Thread client : clients) {
+			client.join();
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+	}
+
+}
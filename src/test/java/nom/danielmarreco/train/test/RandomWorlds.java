@@ -0,0 +1,134 @@
+package nom.danielmarreco.train.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import nom.danielmarreco.train.City;
+import nom.danielmarreco.train.CompactWorld;
+import nom.danielmarreco.train.World;
+
+/**
+ * Test mass generator: random worlds and a brute force oracle to check the searches against
+ */
+final class RandomWorlds {
+
+	private RandomWorlds ()
+	{
+	}
+
+	/**
+	 * Creates a random world with cities named "0" to "cityCount - 1"
+	 * 
+	 * @param seed The seed of the generated world
+	 * @param cityCount The number of cities
+	 * @param routesPerCity The number of routes leaving each city (repeated destinations are merged)
+	 * @param maxDistance The maximum distance of each route
+	 */
+	static World create (long seed, int cityCount, int routesPerCity, int maxDistance)
+	{
+		Random random = new Random(seed);
+		World world = new World();
+		for (int i = 0; i < cityCount; i++) {
+			world.addCity(String.valueOf(i));
+		}
+		for (int i = 0; i < cityCount; i++) {
+			City city = world.getCity(String.valueOf(i));
+			for (int j = 0; j < routesPerCity; j++) {
+				int to = random.nextInt(cityCount);
+				if (to != i) {
+					city.addAdjacentCity(world.getCity(String.valueOf(to)), 1 + random.nextInt(maxDistance));
+				}
+			}
+		}
+		return world;
+	}
+
+	/**
+	 * Bellman-Ford: slow, but simple enough to be trusted
+	 * 
+	 * @return The distance from source to every city, indexed by id; Integer.MAX_VALUE for unreachable ones
+	 */
+	static int[] distancesFrom (CompactWorld world, int source)
+	{
+		int[] distances = new int[world.getCityCount()];
+		Arrays.fill(distances, Integer.MAX_VALUE);
+		distances[source] = 0;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int city = 0; city < world.getCityCount(); city++) {
+				if (distances[city] == Integer.MAX_VALUE) {
+					continue;
+				}
+				for (int r = world.getRoutesStart(city); r < world.getRoutesEnd(city); r++) {
+					int distance = distances[city] + world.getRouteDistance(r);
+					if (distance < distances[world.getRouteTarget(r)]) {
+						distances[world.getRouteTarget(r)] = distance;
+						changed = true;
+					}
+				}
+			}
+		}
+		return distances;
+	}
+
+	/**
+	 * Bellman-Ford, stopped after the given number of rounds
+	 * 
+	 * @return The distance of the shortest route of at most maxHops stops from source to every city, indexed by id;
+	 * 	Integer.MAX_VALUE for cities further away
+	 */
+	static int[] distancesWithinHops (CompactWorld world, int source, int maxHops)
+	{
+		int[] distances = new int[world.getCityCount()];
+		Arrays.fill(distances, Integer.MAX_VALUE);
+		distances[source] = 0;
+		for (int round = 0; round < maxHops; round++) {
+			int[] previous = distances.clone();
+			for (int city = 0; city < world.getCityCount(); city++) {
+				if (previous[city] == Integer.MAX_VALUE) {
+					continue;
+				}
+				for (int r = world.getRoutesStart(city); r < world.getRoutesEnd(city); r++) {
+					int distance = previous[city] + world.getRouteDistance(r);
+					if (distance < distances[world.getRouteTarget(r)]) {
+						distances[world.getRouteTarget(r)] = distance;
+					}
+				}
+			}
+		}
+		return distances;
+	}
+
+	/**
+	 * Depth first enumeration of every route from source to dest that does not pass twice by the same city
+	 * 
+	 * @return The distances of all such routes, sorted
+	 */
+	static List<Integer> looplessRouteDistances (CompactWorld world, int source, int dest)
+	{
+		List<Integer> res = new ArrayList<Integer>();
+		looplessRouteDistances(world, source, dest, new boolean[world.getCityCount()], 0, res);
+		Collections.sort(res);
+		return res;
+	}
+
+	private static void looplessRouteDistances (CompactWorld world, int city, int dest, boolean[] visited, int distance, List<Integer> res)
+	{
+		if (city == dest) {
+			res.add(distance);
+			return;
+		}
+		visited[city] = true;
+		for (int r = world.getRoutesStart(city); r < world.getRoutesEnd(city); r++) {
+			if (!visited[world.getRouteTarget(r)]) {
+				looplessRouteDistances(world, world.getRouteTarget(r), dest, visited, distance + world.getRouteDistance(r), res);
+			}
+		}
+		visited[city] = false;
+	}
+
+}
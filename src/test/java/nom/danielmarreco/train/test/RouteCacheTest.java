@@ -0,0 +1,159 @@
+package nom.danielmarreco.train.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import nom.danielmarreco.train.CacheStatistics;
+import nom.danielmarreco.train.Route;
+import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.World;
+import nom.danielmarreco.train.WorldBuilder;
+import nom.danielmarreco.train.exception.InvalidArgumentException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the route enumeration cache of the TravelGuide class
+ * 
+ * @see TravelGuide#enableRouteCache(long)
+ */
+public class RouteCacheTest {
+
+	private World world;
+
+	private TravelGuide guide;
+
+	@Before
+	public void setup () throws InvalidArgumentException
+	{
+		world = new WorldBuilder()
+				.addRoute("AB5")
+				.addRoute("BC4")
+				.addRoute("CD8")
+				.addRoute("DC8")
+				.addRoute("DE6")
+				.addRoute("AD5")
+				.addRoute("CE2")
+				.addRoute("EB3")
+				.addRoute("AE7")
+				.build();
+		guide = new TravelGuide(world);
+		guide.enableRouteCache(1000);
+	}
+
+	@Test
+	public void testSmallerLimitsFiltered ()
+	{
+		assertEquals(2, guide.findPossibleRoutes("C", "C", 3).size());
+		assertEquals("[C -> D -> C]", guide.findPossibleRoutes("C", "C", 2).toString());
+		assertEquals("[C -> E -> B -> C]", guide.findPossibleRoutes("C", "C", 3, 3).toString());
+		assertEquals(2, guide.countPossibleRoutes("C", "C", 3));
+		assertEquals(1, guide.countPossibleRoutes("C", "C", 1, 2));
+		assertEquals(7, guide.findPossibleRoutesShorterThan("C", "C", 29).size());
+		assertEquals(3, guide.findPossibleRoutesShorterThan("C", "C", 18).size());
+		assertEquals(7, guide.countPossibleRoutesShorterThan("C", "C", 29));
+
+		CacheStatistics statistics = guide.getRouteCacheStatistics();
+		assertEquals(6, statistics.getHits());
+		assertEquals(2, statistics.getMisses());
+		assertEquals(2, statistics.getSize());
+		assertTrue(statistics.getMemory() > 0);
+		assertEquals(0.75, statistics.getHitRatio(), 0);
+
+		// a larger limit is enumerated again, and replaces the smaller one
+		assertEquals(10, guide.findPossibleRoutes("C", "C", 6).size());
+		assertEquals(2, guide.findPossibleRoutes("C", "C", 3).size());
+		statistics = guide.getRouteCacheStatistics();
+		assertEquals(3, statistics.getMisses());
+		assertEquals(2, statistics.getSize());
+
+		guide.disableRouteCache();
+		assertNull(guide.getRouteCacheStatistics());
+	}
+
+	@Test
+	public void testCachedRoutesNotShared ()
+	{
+		Set<Route> routes = guide.findPossibleRoutes("A", "C", 2);
+		for (Route route : routes) {
+			route.removeLast();
+		}
+		assertEquals("[A -> B -> C, A -> D -> C]", sorted(guide.findPossibleRoutes("A", "C", 2)));
+		assertEquals(1, guide.getRouteCacheStatistics().getHits());
+	}
+
+	/**
+	 * The routes C-D-C and C-E-B-C hold 7 cities, A-B-C and A-D-C hold 6
+	 */
+	@Test
+	public void testEvictionByWeight ()
+	{
+		guide.enableRouteCache(10);
+		guide.findPossibleRoutes("C", "C", 3);
+		guide.findPossibleRoutes("A", "C", 2);
+		guide.findPossibleRoutes("C", "C", 3);
+
+		CacheStatistics statistics = guide.getRouteCacheStatistics();
+		assertEquals(0, statistics.getHits());
+		assertEquals(2, statistics.getEvictions());
+		assertEquals(1, statistics.getSize());
+
+		// too large to be cached at all
+		guide.findPossibleRoutes("C", "C", 10);
+		assertEquals(2, guide.getRouteCacheStatistics().getEvictions());
+		assertEquals(1, guide.getRouteCacheStatistics().getSize());
+	}
+
+	@Test
+	public void testInvalidationOnChange ()
+	{
+		assertEquals(2, guide.findPossibleRoutes("A", "C", 2).size());
+		world.getCity("A").addAdjacentCity(world.getCity("C"), 3);
+		assertEquals(3, guide.findPossibleRoutes("A", "C", 2).size());
+
+		CacheStatistics statistics = guide.getRouteCacheStatistics();
+		assertEquals(0, statistics.getHits());
+		assertEquals(1, statistics.getInvalidations());
+	}
+
+	/**
+	 * Checks cached answers of random limits against an uncached guide on a random world
+	 */
+	@Test
+	public void testRandomWorlds ()
+	{
+		World randomWorld = RandomWorlds.create(21, 30, 3, 20);
+		TravelGuide uncached = new TravelGuide(randomWorld);
+		TravelGuide cached = new TravelGuide(randomWorld);
+		cached.enableRouteCache(100000);
+		Random random = new Random(21);
+
+		for (int i = 0; i < 100; i++) {
+			String source = String.valueOf(random.nextInt(5));
+			String dest = String.valueOf(random.nextInt(5));
+			int maxHops = 1 + random.nextInt(6);
+			int minHops = 1 + random.nextInt(maxHops);
+			int maxDistance = random.nextInt(60);
+			assertEquals(uncached.findPossibleRoutes(source, dest, minHops, maxHops), cached.findPossibleRoutes(source, dest, minHops, maxHops));
+			assertEquals(uncached.findPossibleRoutesShorterThan(source, dest, maxDistance), cached.findPossibleRoutesShorterThan(source, dest, maxDistance));
+			assertEquals(uncached.countPossibleRoutes(source, dest, minHops, maxHops), cached.countPossibleRoutes(source, dest, minHops, maxHops));
+		}
+		assertTrue(cached.getRouteCacheStatistics().getHits() > 0);
+	}
+
+	private static String sorted (Set<Route> routes)
+	{
+		Set<String> res = new TreeSet<String>();
+		for (Route route : routes) {
+			res.add(route.toString());
+		}
+		return res.toString();
+	}
+
+}
@@ -0,0 +1,134 @@
+package nom.danielmarreco.train.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import nom.danielmarreco.train.RouteLoader;
+import nom.danielmarreco.train.RouteLoader.Format;
+import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.World;
+import nom.danielmarreco.train.WorldBuilder;
+import nom.danielmarreco.train.exception.InvalidArgumentException;
+import nom.danielmarreco.train.exception.NoSuchRouteException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the RouteLoader class
+ * 
+ * @see RouteLoader
+ */
+public class RouteLoaderTest {
+
+	private WorldBuilder worldBuilder;
+
+	@Before
+	public void setup ()
+	{
+		worldBuilder = new WorldBuilder();
+	}
+
+	private static RouteLoader load (RouteLoader loader, String input) throws IOException, InvalidArgumentException
+	{
+		return loader.load(Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8))));
+	}
+
+	/**
+	 * Tests loading Kiwiland in the notations of WorldBuilder.addRoute(String)
+	 */
+	@Test
+	public void testLoadNotation () throws IOException, InvalidArgumentException, NoSuchRouteException
+	{
+		RouteLoader loader = new RouteLoader(worldBuilder, Format.NOTATION);
+		load(loader, "AB5, B-C:4, CD8, DC8, DE6,\nAD5\tCE2 E-B:3 AE7\r\n");
+		World world = worldBuilder.build();
+
+		assertEquals(9, loader.getRouteCount());
+		assertEquals(5, world.getCityCount());
+		TravelGuide guide = new TravelGuide(world);
+		assertEquals(9, guide.findRoute("A", "B", "C").getLenght().intValue());
+		assertEquals(9, guide.findShortestRoute("A", "C").getLenght().intValue());
+		assertEquals(7, guide.countPossibleRoutesShorterThan("C", "C", 29));
+	}
+
+	/**
+	 * Tests loading routes between cities with long names, one per line
+	 */
+	@Test
+	public void testLoadCsv () throws IOException, InvalidArgumentException
+	{
+		RouteLoader loader = new RouteLoader(worldBuilder, Format.CSV);
+		load(loader, "Auckland,Wellington,640\r\n\n  Wellington , Auckland , 640 \nWellington,Napier,320\nNapier,Taup\u014d,140");
+		World world = worldBuilder.build();
+
+		assertEquals(4, loader.getRouteCount());
+		assertEquals(4, world.getCityCount());
+		assertTrue(world.getCity("Wellington").getAdjacentCitites().get(world.getCity("Auckland")).equals(640));
+		assertTrue(world.getCity("Napier").getAdjacentCitites().get(world.getCity("Taup\u014d")).equals(140));
+	}
+
+	/**
+	 * Tests routes split between reads and batches load as routes added one by one
+	 */
+	@Test
+	public void testSmallBuffers () throws IOException, InvalidArgumentException
+	{
+		StringBuilder input = new StringBuilder();
+		WorldBuilder expectedBuilder = new WorldBuilder();
+		for (int i = 0; i < 1000; i++) {
+			String from = "city" + (i * 7 % 300), to = "city" + (i * 13 % 300);
+			input.append(from).append(',').append(to).append(',').append(i).append('\n');
+			expectedBuilder.addRoute(from, to, i);
+		}
+		// a buffer smaller than a line has to grow
+		load(new RouteLoader(worldBuilder, Format.CSV).setBufferSize(8).setBatchSize(7), input.toString());
+		World world = worldBuilder.build();
+		World expected = expectedBuilder.build();
+
+		assertEquals(expected.getCityCount(), world.getCityCount());
+		for (int i = 0; i < 300; i++) {
+			String name = "city" + i;
+			assertEquals(expected.getCity(name).getAdjacentCitites().size(), world.getCity(name).getAdjacentCitites().size());
+			assertEquals(expected.getCity(name).getAdjacentCitites().get(expected.getCity("city0")), 
+					world.getCity(name).getAdjacentCitites().get(world.getCity("city0")));
+		}
+	}
+
+	/**
+	 * Tests invalid routes are rejected, keeping the routes before them
+	 */
+	@Test
+	public void testInvalidRoutes () throws IOException
+	{
+		String[] notation = {"AB5 aB5", "AB5 AB", "AB5 ABC", "AB5 AB99999999999", "AB5 A-B", "AB5 A-B:", "AB5 A:B-5", "AB5 A-B-C:5"};
+		for (String input : notation) {
+			assertInvalid(new RouteLoader(worldBuilder, Format.NOTATION), input);
+		}
+		String[] csv = {"A,B,5\nA,B", "A,B,5\nA,,5", "A,B,5\nA,B,-5", "A,B,5\nA,B,5,6"};
+		for (String input : csv) {
+			assertInvalid(new RouteLoader(worldBuilder, Format.CSV), input);
+		}
+	}
+
+	private void assertInvalid (RouteLoader loader, String input) throws IOException
+	{
+		try {
+			load(loader, input);
+			throw new AssertionError("Accepted " + input);
+		}
+		catch (InvalidArgumentException e) {
+			World world = worldBuilder.build();
+			assertEquals(1, loader.getRouteCount());
+			assertTrue(world.getCity("A").getAdjacentCitites().get(world.getCity("B")).equals(5));
+			assertNull(world.getCity("C"));
+		}
+	}
+
+}
@@ -1,8 +1,19 @@
 package nom.danielmarreco.train.test;
 
 import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 import nom.danielmarreco.train.City;
 import nom.danielmarreco.train.Route;
+import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.World;
+import nom.danielmarreco.train.WorldBuilder;
+import nom.danielmarreco.train.exception.InvalidArgumentException;
+import nom.danielmarreco.train.exception.NoSuchRouteException;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -44,9 +55,59 @@ public class RouteTest {
 	 * Tests {@link Route#getLenght()}
 	 */
 	@Test
-	public void testGetLenght ()
+	public void testGetLenght () throws NoSuchRouteException
 	{
 		assertEquals(route.getLenght().intValue(), 110);
 	}
 
+	/**
+	 * Tests {@link Route#clone()}, which shares the cities until either route changes
+	 */
+	@Test
+	public void testClone () throws NoSuchRouteException
+	{
+		Route clone = route.clone();
+		assertEquals(route, clone);
+		City last = clone.removeLast();
+		assertEquals(3, route.size());
+		assertEquals(2, clone.size());
+		assertEquals(100, clone.getLenght().intValue());
+		route.addFirst(last);
+		assertEquals("city3 -> city1 -> city2 -> city3", route.toString());
+		assertEquals("city1 -> city2", clone.toString());
+	}
+
+	/**
+	 * Routes found by a guide are backed by city ids, and are equal to any list of the same cities
+	 */
+	@Test
+	public void testEquals () throws InvalidArgumentException, NoSuchRouteException
+	{
+		World world = new WorldBuilder().addRoute("AB5").addRoute("BC4").addRoute("AC20").build();
+		TravelGuide guide = new TravelGuide(world);
+		Route found = guide.findShortestRoute("A", "C");
+		Route built = new Route();
+		built.add(world.getCity("A"));
+		built.add(world.getCity("B"));
+		built.add(world.getCity("C"));
+		assertEquals(built, found);
+		assertEquals(found, built);
+		assertEquals(built.hashCode(), found.hashCode());
+		assertEquals(new ArrayList<City>(found), found);
+		assertEquals(new ArrayList<City>(found).hashCode(), found.hashCode());
+		assertEquals(guide.findRoute("A", "B", "C"), found);
+
+		Set<Route> routes = new HashSet<Route>(Arrays.asList(found, built, guide.findRoute("A", "B", "C"), guide.findRoute("A", "C")));
+		assertEquals(2, routes.size());
+
+		// changed as a deque, even with cities of no world
+		found.removeLast();
+		found.addLast(world.getCity("C"));
+		assertEquals(built, found);
+		found.push(new City("Z"));
+		assertEquals("Z -> A -> B -> C", found.toString());
+		assertEquals("Z", found.pop().getName());
+		assertEquals(9, found.getLenght().intValue());
+	}
+
 }
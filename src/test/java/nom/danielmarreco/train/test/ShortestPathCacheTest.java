@@ -0,0 +1,121 @@
+package nom.danielmarreco.train.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import nom.danielmarreco.train.CacheStatistics;
+import nom.danielmarreco.train.City;
+import nom.danielmarreco.train.CompactWorld;
+import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.World;
+import nom.danielmarreco.train.WorldBuilder;
+import nom.danielmarreco.train.exception.InvalidArgumentException;
+import nom.danielmarreco.train.exception.NoSuchRouteException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the shortest path tree cache of the TravelGuide class
+ * 
+ * @see TravelGuide#enableShortestPathCache(int)
+ */
+public class ShortestPathCacheTest {
+
+	private World world;
+
+	private TravelGuide guide;
+
+	@Before
+	public void setup () throws InvalidArgumentException
+	{
+		world = new WorldBuilder()
+				.addRoute("AB5")
+				.addRoute("BC4")
+				.addRoute("CD8")
+				.addRoute("DC8")
+				.addRoute("DE6")
+				.addRoute("AD5")
+				.addRoute("CE2")
+				.addRoute("EB3")
+				.addRoute("AE7")
+				.build();
+		guide = new TravelGuide(world);
+		guide.enableShortestPathCache(2);
+	}
+
+	@Test
+	public void testHitsMissesAndEvictions () throws NoSuchRouteException
+	{
+		assertEquals(9, guide.findShortestRoute("A", "C").getLenght().intValue());
+		assertEquals(5, guide.findShortestRoute("A", "D").getLenght().intValue());
+		assertEquals(4, guide.findShortestRoute("B", "C").getLenght().intValue());
+		assertEquals(5, guide.findShortestRoute("C", "B").getLenght().intValue());
+		guide.findShortestRoute("A", "C");
+
+		CacheStatistics statistics = guide.getShortestPathCacheStatistics();
+		assertEquals(1, statistics.getHits());
+		assertEquals(4, statistics.getMisses());
+		assertEquals(2, statistics.getEvictions());
+		assertEquals(2, statistics.getSize());
+
+		guide.disableShortestPathCache();
+		assertNull(guide.getShortestPathCacheStatistics());
+	}
+
+	@Test
+	public void testRepairOnShorterRoute () throws NoSuchRouteException
+	{
+		assertEquals(9, guide.findShortestRoute("A", "C").getLenght().intValue());
+		world.getCity("A").addAdjacentCity(world.getCity("C"), 3);
+		assertEquals(3, guide.findShortestRoute("A", "C").getLenght().intValue());
+		assertEquals(5, guide.findShortestRoute("A", "E").getLenght().intValue());
+
+		CacheStatistics statistics = guide.getShortestPathCacheStatistics();
+		assertEquals(1, statistics.getRepairs());
+		assertEquals(0, statistics.getInvalidations());
+		assertEquals(2, statistics.getHits());
+	}
+
+	@Test
+	public void testInvalidationOnLongerRoute () throws NoSuchRouteException
+	{
+		assertEquals(9, guide.findShortestRoute("A", "C").getLenght().intValue());
+		world.getCity("B").addAdjacentCity(world.getCity("C"), 40);
+		assertEquals(13, guide.findShortestRoute("A", "C").getLenght().intValue());
+
+		assertEquals(1, guide.getShortestPathCacheStatistics().getInvalidations());
+	}
+
+	/**
+	 * Applies random changes to a random world, checking the cached answers against a brute force search
+	 */
+	@Test
+	public void testRandomChanges () throws NoSuchRouteException
+	{
+		World randomWorld = RandomWorlds.create(7, 100, 3, 50);
+		TravelGuide randomGuide = new TravelGuide(randomWorld);
+		randomGuide.enableShortestPathCache(4);
+		Random random = new Random(7);
+
+		for (int step = 0; step < 200; step++) {
+			City from = randomWorld.getCity(String.valueOf(random.nextInt(100)));
+			City to = randomWorld.getCity(String.valueOf(random.nextInt(100)));
+			if (from != to) {
+				from.addAdjacentCity(to, 1 + random.nextInt(50));
+			}
+
+			String source = String.valueOf(random.nextInt(8));
+			CompactWorld compact = randomWorld.getCompactWorld();
+			int[] expected = RandomWorlds.distancesFrom(compact, compact.getId(source));
+			for (int dest = 0; dest < compact.getCityCount(); dest += 7) {
+				if (expected[dest] != Integer.MAX_VALUE) {
+					assertEquals(expected[dest], randomGuide.findShortestRoute(source, compact.getName(dest)).getLenght().intValue());
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+package nom.danielmarreco.train.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import nom.danielmarreco.train.SymbolTable;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the SymbolTable class
+ * 
+ * @see SymbolTable
+ */
+public class SymbolTableTest {
+
+	/**
+	 * Tests names get dense ids in the order they are interned, and keep them
+	 */
+	@Test
+	public void testIntern ()
+	{
+		SymbolTable symbols = new SymbolTable();
+		int count = 100000;
+		for (int i = 0; i < count; i++) {
+			assertEquals(i, symbols.intern("station" + i));
+		}
+		assertEquals(count, symbols.size());
+
+		for (int i = 0; i < count; i++) {
+			String name = "station" + i;
+			assertEquals(i, symbols.getId(name));
+			assertEquals(i, symbols.intern(name));
+			assertEquals(name, symbols.getName(i));
+		}
+		assertEquals(count, symbols.size());
+		assertEquals(-1, symbols.getId("station" + count));
+	}
+
+	/**
+	 * Tests the first instance of a name is the one kept
+	 */
+	@Test
+	public void testInterned ()
+	{
+		SymbolTable symbols = new SymbolTable();
+		String name = new String("Wellington");
+		int id = symbols.intern(name);
+		assertEquals(id, symbols.intern(new String("Wellington")));
+		assertSame(name, symbols.getName(id));
+	}
+
+}
@@ -1,11 +1,27 @@
 package nom.danielmarreco.train.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.stream.Collectors;
 
+import nom.danielmarreco.train.CompactWorld;
+import nom.danielmarreco.train.CoordinateHeuristic;
+import nom.danielmarreco.train.Heuristic;
+import nom.danielmarreco.train.LandmarkHeuristic;
+import nom.danielmarreco.train.ReachableCities;
 import nom.danielmarreco.train.Route;
 import nom.danielmarreco.train.TravelGuide;
+import nom.danielmarreco.train.TravelGuide.SearchStrategy;
 import nom.danielmarreco.train.World;
 import nom.danielmarreco.train.WorldBuilder;
 import nom.danielmarreco.train.exception.InvalidArgumentException;
@@ -72,6 +88,62 @@ public class TravelGuideTest
 		guide.findRoute("A", "E", "D"); 
 	}
 
+	/**
+	 * Tests getRouteDistance() and getRouteDistances() methods, against findRoute()
+	 * 
+	 * @see TravelGuide#getRouteDistances(String[], int[])
+	 */
+	@Test
+	public void testGetRouteDistances() throws NoSuchRouteException
+	{
+		assertEquals(9, guide.getRouteDistance("A", "B", "C"));
+		assertEquals(0, guide.getRouteDistance("A"));
+		assertEquals(TravelGuide.NO_SUCH_ROUTE, guide.getRouteDistance("A", "E", "D"));
+		assertEquals(TravelGuide.NO_SUCH_ROUTE, guide.getRouteDistance("A", "Z"));
+		assertEquals(TravelGuide.NO_SUCH_ROUTE, guide.getRouteDistance());
+
+		long[] distances = guide.getRouteDistances(new String[] {"A", "B", "C", "A", "D", "A", "E", "D", "C"}, new int[] {0, 3, 5, 5, 8, 9});
+		assertArrayEquals(new long[] {9, 5, TravelGuide.NO_SUCH_ROUTE, TravelGuide.NO_SUCH_ROUTE, 0}, distances);
+
+		// random walks, one in ten with a step that does not exist, in more routes than a single task evaluates
+		World randomWorld = RandomWorlds.create(5, 200, 3, 50);
+		CompactWorld compact = randomWorld.getCompactWorld();
+		TravelGuide randomGuide = new TravelGuide(randomWorld);
+		Random random = new Random(5);
+		int routeCount = 10000;
+		int[] offsets = new int[routeCount + 1];
+		List<String> cities = new ArrayList<String>();
+		for (int i = 0; i < routeCount; i++) {
+			offsets[i] = cities.size();
+			int city = random.nextInt(compact.getCityCount());
+			cities.add(compact.getName(city));
+			for (int stops = random.nextInt(8); stops > 0 && compact.getRoutesEnd(city) > compact.getRoutesStart(city); stops--) {
+				city = random.nextInt(10) == 0 ? random.nextInt(compact.getCityCount()) 
+						: compact.getRouteTarget(compact.getRoutesStart(city) + random.nextInt(compact.getRoutesEnd(city) - compact.getRoutesStart(city)));
+				cities.add(compact.getName(city));
+			}
+		}
+		offsets[routeCount] = cities.size();
+		String[] names = cities.toArray(new String[cities.size()]);
+		distances = randomGuide.getRouteDistances(names, offsets);
+		for (int i = 0; i < routeCount; i++) {
+			long expected;
+			try {
+				expected = randomGuide.findRoute(Arrays.copyOfRange(names, offsets[i], offsets[i + 1])).getLenght();
+			}
+			catch (NoSuchRouteException e) {
+				expected = TravelGuide.NO_SUCH_ROUTE;
+			}
+			assertEquals(expected, distances[i]);
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testGetRouteDistancesError ()
+	{
+		guide.getRouteDistances(new String[] {"A", "B"}, new int[] {0, 3});
+	}
+
 	/**
 	 * Tests findPossibleRoutes() method
 	 * 
@@ -94,9 +166,363 @@ public class TravelGuideTest
 		assertEquals(9, guide.findShortestRoute("A", "C").getLenght().intValue());
 		assertEquals(9, guide.findShortestRoute("A", "C").getLenght().intValue());
 	}
+
+	@Test(expected=NoSuchRouteException.class)
+	public void testFindShortestRouteError () throws NoSuchRouteException
+	{
+		guide.findShortestRoute("B", "A");
+	}
+
+	/**
+	 * Checks findShortestRoute() against a brute force search over random worlds
+	 * @see TravelGuide#findShortestRoute(String, String)
+	 */
+	@Test
+	public void testFindShortestRouteRandomWorlds() throws NoSuchRouteException
+	{
+		for (int seed = 0; seed < 5; seed++) {
+			World randomWorld = RandomWorlds.create(seed, 200, 3, 50);
+			CompactWorld compact = randomWorld.getCompactWorld();
+			TravelGuide randomGuide = new TravelGuide(randomWorld);
+			int[] expected = RandomWorlds.distancesFrom(compact, compact.getId("0"));
+			for (int dest = 0; dest < compact.getCityCount(); dest++) {
+				if (expected[dest] != Integer.MAX_VALUE) {
+					assertEquals(expected[dest], randomGuide.findShortestRoute("0", compact.getName(dest)).getLenght().intValue());
+				}
+			}
+		}
+	}
 	
+	/**
+	 * Tests getShortestDistances() method
+	 * 
+	 * @see TravelGuide#getShortestDistances(String[], String[])
+	 */
+	@Test
+	public void testGetShortestDistances() throws NoSuchRouteException
+	{
+		int[][] table = guide.getShortestDistances(new String[] {"A", "B", "C"}, new String[] {"A", "C", "E", "C"});
+		assertArrayEquals(new int[] {0, 9, 7, 9}, table[0]);
+		assertArrayEquals(new int[] {Integer.MAX_VALUE, 4, 6, 4}, table[1]);
+		assertArrayEquals(new int[] {Integer.MAX_VALUE, 0, 2, 0}, table[2]);
+		assertEquals(0, guide.getShortestDistances(new String[0], new String[] {"A"}).length);
+
+		try {
+			guide.getShortestDistances(new String[] {"A"}, new String[] {"Z"});
+			fail();
+		}
+		catch (NoSuchRouteException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Checks getShortestDistances() against a brute force search over random worlds, searching from the sources,
+	 * from the destinations, with a contraction hierarchy and in the all-pairs mode
+	 * 
+	 * @see TravelGuide#getShortestDistances(String[], String[])
+	 */
 	@Test
-	public void testFindRoutesShorterThan()
+	public void testGetShortestDistancesRandomWorlds() throws NoSuchRouteException
+	{
+		for (int seed = 0; seed < 4; seed++) {
+			World randomWorld = RandomWorlds.create(seed, 200, 1 + seed, 50);
+			CompactWorld compact = randomWorld.getCompactWorld();
+			TravelGuide randomGuide = new TravelGuide(randomWorld);
+			Random random = new Random(seed);
+			String[] few = new String[5], many = new String[40];
+			for (int i = 0; i < few.length; i++) {
+				few[i] = String.valueOf(random.nextInt(200));
+			}
+			for (int i = 0; i < many.length; i++) {
+				many[i] = String.valueOf(random.nextInt(200));
+			}
+
+			for (int mode = 0; mode < 3; mode++) {
+				if (mode == 1) {
+					randomGuide.precomputeContractionHierarchy();
+				}
+				else if (mode == 2) {
+					randomGuide.precomputeAllPairs();
+				}
+				int[][] forward = randomGuide.getShortestDistances(few, many);
+				int[][] backward = randomGuide.getShortestDistances(many, few);
+				for (int i = 0; i < few.length; i++) {
+					int[] expected = RandomWorlds.distancesFrom(compact, compact.getId(few[i]));
+					for (int j = 0; j < many.length; j++) {
+						assertEquals(expected[compact.getId(many[j])], forward[i][j]);
+					}
+				}
+				for (int i = 0; i < many.length; i++) {
+					int[] expected = RandomWorlds.distancesFrom(compact, compact.getId(many[i]));
+					for (int j = 0; j < few.length; j++) {
+						assertEquals(expected[compact.getId(few[j])], backward[i][j]);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tests findReachableCities() and findReachableCitiesByHops() methods
+	 * 
+	 * @see TravelGuide#findReachableCities(String[], int)
+	 * @see TravelGuide#findReachableCitiesByHops(String[], int)
+	 */
+	@Test
+	public void testFindReachableCities() throws NoSuchRouteException
+	{
+		ReachableCities cities = guide.findReachableCities("C", 9);
+		assertEquals(4, cities.size());
+		assertEquals(0, cities.getDistance("C"));
+		assertEquals(5, cities.getDistance("B"));
+		assertEquals(8, cities.getDistance("D"));
+		assertEquals(2, cities.getDistance("E"));
+		assertEquals(Integer.MAX_VALUE, cities.getDistance("A"));
+		assertEquals("B: 5, C: 0, D: 8, E: 2", cities.toString());
+
+		cities = guide.findReachableCities("C", 4);
+		assertEquals(2, cities.size());
+		assertTrue(cities.contains("E"));
+		assertFalse(cities.contains("B"));
+		assertFalse(cities.contains("Z"));
+
+		cities = guide.findReachableCities(new String[] {"A", "C"}, 5);
+		assertEquals("B: 5, A: 0, C: 0, D: 5, E: 2", cities.toString());
+		assertEquals(0, cities.getSourceIndex(cities.indexOf("B")));
+		assertEquals(0, cities.getSourceIndex(cities.indexOf("D")));
+		assertEquals(1, cities.getSourceIndex(cities.indexOf("E")));
+
+		assertEquals("C: 0", guide.findReachableCitiesByHops("C", 0).toString());
+		assertEquals("C: 0, D: 8, E: 2", guide.findReachableCitiesByHops("C", 1).toString());
+		assertEquals("B: 5, C: 0, D: 8, E: 2", guide.findReachableCitiesByHops("C", 2).toString());
+		cities = guide.findReachableCitiesByHops(new String[] {"C", "A"}, 1);
+		assertEquals("B: 5, A: 0, C: 0, D: 5, E: 2", cities.toString());
+		assertEquals(1, cities.getSourceIndex(cities.indexOf("D")));
+		assertEquals(0, cities.getSourceIndex(cities.indexOf("E")));
+
+		try {
+			guide.findReachableCities(new String[] {"A", "Z"}, 5);
+			fail();
+		}
+		catch (NoSuchRouteException e) {
+			// expected
+		}
+		try {
+			guide.findReachableCitiesByHops("A", -1);
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Checks findReachableCities() and findReachableCitiesByHops() against brute force searches over random worlds,
+	 * from one source and from several
+	 * 
+	 * @see TravelGuide#findReachableCities(String[], int)
+	 * @see TravelGuide#findReachableCitiesByHops(String[], int)
+	 */
+	@Test
+	public void testFindReachableCitiesRandomWorlds() throws NoSuchRouteException
+	{
+		for (int seed = 0; seed < 4; seed++) {
+			World randomWorld = RandomWorlds.create(seed, 200, 1 + seed, 50);
+			CompactWorld compact = randomWorld.getCompactWorld();
+			TravelGuide randomGuide = new TravelGuide(randomWorld);
+			Random random = new Random(seed);
+			for (int sourceCount = 1; sourceCount <= 3; sourceCount++) {
+				String[] sources = new String[sourceCount];
+				for (int i = 0; i < sources.length; i++) {
+					sources[i] = String.valueOf(random.nextInt(200));
+				}
+				int maxDistance = random.nextInt(150);
+				int maxHops = random.nextInt(6);
+				int[][] distances = new int[sourceCount][], hopDistances = new int[sourceCount][];
+				for (int i = 0; i < sources.length; i++) {
+					distances[i] = RandomWorlds.distancesFrom(compact, compact.getId(sources[i]));
+					hopDistances[i] = RandomWorlds.distancesWithinHops(compact, compact.getId(sources[i]), maxHops);
+				}
+				checkReachableCities(compact, distances, maxDistance, randomGuide.findReachableCities(sources, maxDistance));
+				checkReachableCities(compact, hopDistances, Integer.MAX_VALUE - 1,
+						randomGuide.findReachableCitiesByHops(sources, maxHops));
+			}
+		}
+	}
+
+	/**
+	 * Checks the cities reached are those within the budget of the closest source, which is the first one at that distance
+	 */
+	private static void checkReachableCities (CompactWorld compact, int[][] distances, int maxDistance, ReachableCities cities)
+	{
+		int count = 0;
+		for (int city = 0; city < compact.getCityCount(); city++) {
+			int closest = 0;
+			for (int i = 1; i < distances.length; i++) {
+				if (distances[i][city] < distances[closest][city]) {
+					closest = i;
+				}
+			}
+			int index = cities.indexOf(compact.getName(city));
+			if (distances[closest][city] <= maxDistance) {
+				count++;
+				assertTrue(index >= 0);
+				assertEquals(city, cities.getCityId(index));
+				assertEquals(distances[closest][city], cities.getDistance(index));
+				assertEquals(closest, cities.getSourceIndex(index));
+			}
+			else {
+				assertTrue(index < 0);
+			}
+		}
+		assertEquals(count, cities.size());
+	}
+
+	/**
+	 * Tests findKShortestRoutes() method
+	 * 
+	 * @see TravelGuide#findKShortestRoutes(String, String, int)
+	 */
+	@Test
+	public void testFindKShortestRoutes() throws NoSuchRouteException
+	{
+		List<Route> routes = guide.findKShortestRoutes("A", "C", 10);
+		assertEquals(Arrays.asList("A -> B -> C", "A -> D -> C", "A -> E -> B -> C", "A -> D -> E -> B -> C"),
+				routes.stream().map(Route::toString).collect(Collectors.toList()));
+		assertEquals(18, routes.get(3).getLenght().intValue());
+		assertEquals(2, guide.findKShortestRoutes("A", "C", 2).size());
+		assertEquals("C", guide.findKShortestRoutes("C", "C", 3).get(0).toString());
+		assertEquals(1, guide.findKShortestRoutes("C", "C", 3).size());
+	}
+
+	@Test(expected=NoSuchRouteException.class)
+	public void testFindKShortestRoutesError () throws NoSuchRouteException
+	{
+		guide.findKShortestRoutes("B", "A", 3);
+	}
+
+	/**
+	 * Checks findKShortestRoutes() against the enumeration of every loopless route of random worlds
+	 * 
+	 * @see TravelGuide#findKShortestRoutes(String, String, int)
+	 */
+	@Test
+	public void testFindKShortestRoutesRandomWorlds() throws NoSuchRouteException
+	{
+		for (int seed = 0; seed < 20; seed++) {
+			World randomWorld = RandomWorlds.create(seed, 12, 3, 20);
+			CompactWorld compact = randomWorld.getCompactWorld();
+			TravelGuide randomGuide = new TravelGuide(randomWorld);
+			for (int dest = 1; dest < compact.getCityCount(); dest++) {
+				List<Integer> expected = RandomWorlds.looplessRouteDistances(compact, 0, dest);
+				if (expected.isEmpty()) {
+					continue;
+				}
+				int k = seed % 2 == 0 ? expected.size() + 5 : 1 + expected.size() / 3;
+				List<Route> routes = randomGuide.findKShortestRoutes("0", compact.getName(dest), k);
+				List<Integer> distances = new ArrayList<Integer>();
+				for (Route route : routes) {
+					distances.add(route.getLenght());
+				}
+				assertEquals(expected.subList(0, Math.min(k, expected.size())), distances);
+				assertEquals(routes.size(), new HashSet<Route>(routes).size());
+				for (Route route : routes) {
+					assertEquals("0", route.getFirst().getName());
+					assertEquals(compact.getName(dest), route.getLast().getName());
+					assertEquals(route.size(), new HashSet<Object>(route).size());
+					String[] names = route.stream().map(city -> city.getName()).toArray(String[]::new);
+					assertEquals(route.getLenght(), randomGuide.findRoute(names).getLenght());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests every search strategy finds the shortest routes of random worlds
+	 * 
+	 * @see TravelGuide#setSearchStrategy(SearchStrategy, Heuristic)
+	 */
+	@Test
+	public void testSearchStrategies() throws NoSuchRouteException
+	{
+		for (int seed = 0; seed < 5; seed++) {
+			World randomWorld = RandomWorlds.create(seed, 200, 2, 50);
+			CompactWorld compact = randomWorld.getCompactWorld();
+			TravelGuide randomGuide = new TravelGuide(randomWorld);
+			Heuristic[] heuristics = {null, null, new LandmarkHeuristic(compact, 4)};
+			SearchStrategy[] strategies = {SearchStrategy.DIJKSTRA, SearchStrategy.BIDIRECTIONAL, SearchStrategy.A_STAR};
+			for (int s = 0; s < strategies.length; s++) {
+				randomGuide.setSearchStrategy(strategies[s], heuristics[s]);
+				for (int source = 0; source < compact.getCityCount(); source += 23) {
+					assertShortestRoutes(randomGuide, compact, source, RandomWorlds.distancesFrom(compact, source));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests the A* search guided by the coordinates of the cities of a grid
+	 * 
+	 * @see CoordinateHeuristic
+	 */
+	@Test
+	public void testCoordinateHeuristic() throws NoSuchRouteException
+	{
+		int side = 20;
+		Random random = new Random(42);
+		WorldBuilder builder = new WorldBuilder();
+		for (int x = 0; x < side; x++) {
+			for (int y = 0; y < side; y++) {
+				// routes at least as long as the straight line, 10 units between neighbors
+				if (x + 1 < side) {
+					builder.addRoute(x + "," + y, (x + 1) + "," + y, 10 + random.nextInt(5));
+					builder.addRoute((x + 1) + "," + y, x + "," + y, 10 + random.nextInt(5));
+				}
+				if (y + 1 < side) {
+					builder.addRoute(x + "," + y, x + "," + (y + 1), 10 + random.nextInt(5));
+				}
+			}
+		}
+		CompactWorld grid = builder.buildCompact();
+		CoordinateHeuristic heuristic = new CoordinateHeuristic(1);
+		for (int x = 0; x < side; x++) {
+			for (int y = 0; y < side; y++) {
+				heuristic.setCoordinates(grid, x + "," + y, x * 10, y * 10);
+			}
+		}
+		TravelGuide gridGuide = new TravelGuide(grid);
+		gridGuide.setSearchStrategy(SearchStrategy.A_STAR, heuristic);
+		for (int source = 0; source < grid.getCityCount(); source += 37) {
+			assertShortestRoutes(gridGuide, grid, source, RandomWorlds.distancesFrom(grid, source));
+		}
+	}
+
+	private static void assertShortestRoutes(TravelGuide guide, CompactWorld graph, int source, int[] expected) throws NoSuchRouteException
+	{
+		String sourceName = graph.getName(source);
+		for (int dest = 0; dest < graph.getCityCount(); dest++) {
+			String destName = graph.getName(dest);
+			if (expected[dest] == Integer.MAX_VALUE) {
+				try {
+					guide.findShortestRoute(sourceName, destName);
+					fail("Found a route from " + sourceName + " to " + destName);
+				}
+				catch (NoSuchRouteException e) {
+					// expected
+				}
+				continue;
+			}
+			Route route = guide.findShortestRoute(sourceName, destName);
+			assertEquals(sourceName, route.getFirst().getName());
+			assertEquals(destName, route.getLast().getName());
+			assertEquals(expected[dest], route.getLenght().intValue());
+			assertEquals(expected[dest], guide.getShortestDistance(sourceName, destName));
+		}
+	}
+
+	@Test
+	public void testFindRoutesShorterThan() throws NoSuchRouteException
 	{
 		Set<Route> r = guide.findPossibleRoutes("C", "C", 30);
 		int i = 0;
@@ -108,4 +534,141 @@ public class TravelGuideTest
 		assertEquals(7, guide.findPossibleRoutesShorterThan("C", "C", 29).size());
 	}
 
+	/**
+	 * Tests streamPossibleRoutes() and streamPossibleRoutesShorterThan() methods
+	 * 
+	 * @see TravelGuide#streamPossibleRoutes(String, String, Integer)
+	 * @see TravelGuide#streamPossibleRoutesShorterThan(String, String, Integer)
+	 */
+	@Test
+	public void testStreamPossibleRoutes()
+	{
+		assertEquals(guide.findPossibleRoutes("C", "C", 8), guide.streamPossibleRoutes("C", "C", 8).collect(Collectors.toSet()));
+		assertEquals(guide.findPossibleRoutes("A", "C", 4, 4), guide.streamPossibleRoutes("A", "C", 4, 4).collect(Collectors.toSet()));
+		assertEquals(guide.findPossibleRoutesShorterThan("C", "C", 29), 
+				guide.streamPossibleRoutesShorterThan("C", "C", 29).collect(Collectors.toSet()));
+		assertEquals(0, guide.streamPossibleRoutes("A", "Z", 3).count());
+
+		// there are more of these routes than atoms in the universe; only the ones asked for are walked
+		Set<Route> first = new HashSet<Route>();
+		guide.streamPossibleRoutesShorterThan("C", "C", 100000).limit(1000).forEach(first::add);
+		assertEquals(1000, first.size());
+		assertTrue(guide.streamPossibleRoutes("A", "B", 100000).findFirst().isPresent());
+	}
+
+	/**
+	 * Checks the parallel route enumeration finds the same routes as the sequential one
+	 * 
+	 * @see TravelGuide#setParallelism(int)
+	 */
+	@Test
+	public void testParallelFindPossibleRoutes()
+	{
+		TravelGuide randomGuide = new TravelGuide(RandomWorlds.create(3, 30, 3, 10));
+		Set<Route> expectedByStops = randomGuide.findPossibleRoutes("0", "1", 9);
+		Set<Route> expectedByDistance = randomGuide.findPossibleRoutesShorterThan("0", "0", 40);
+		Set<Route> expectedKiwiland = guide.findPossibleRoutesShorterThan("C", "C", 29);
+
+		for (int cutoff = 0; cutoff < 5; cutoff++) {
+			randomGuide.setParallelism(4);
+			randomGuide.setSequentialCutoff(cutoff);
+			guide.setParallelism(4);
+			guide.setSequentialCutoff(cutoff);
+			assertEquals(expectedByStops, randomGuide.findPossibleRoutes("0", "1", 9));
+			assertEquals(expectedByDistance, randomGuide.findPossibleRoutesShorterThan("0", "0", 40));
+			assertEquals(expectedKiwiland, guide.findPossibleRoutesShorterThan("C", "C", 29));
+			assertEquals(3, guide.findPossibleRoutes("A", "C", 4, 4).size());
+		}
+		randomGuide.setParallelism(1);
+		guide.setParallelism(1);
+	}
+
+	/**
+	 * Tests countPossibleRoutes() and countPossibleRoutesShorterThan() methods
+	 * 
+	 * @see TravelGuide#countPossibleRoutes(String, String, Integer)
+	 * @see TravelGuide#countPossibleRoutes(String, String, Integer, Integer)
+	 * @see TravelGuide#countPossibleRoutesShorterThan(String, String, Integer)
+	 */
+	@Test
+	public void testCountPossibleRoutes()
+	{
+		assertEquals(2, guide.countPossibleRoutes("C", "C", 3));
+		assertEquals(3, guide.countPossibleRoutes("A", "C", 4, 4));
+		assertEquals(7, guide.countPossibleRoutesShorterThan("C", "C", 29));
+		assertEquals(0, guide.countPossibleRoutes("A", "Z", 3));
+
+		for (String source : new String[] {"A", "B", "C", "D", "E"}) {
+			for (String dest : new String[] {"A", "B", "C", "D", "E"}) {
+				for (int limit = 0; limit < 8; limit++) {
+					assertEquals(guide.findPossibleRoutes(source, dest, limit).size(), guide.countPossibleRoutes(source, dest, limit));
+					assertEquals(guide.findPossibleRoutes(source, dest, limit / 2, limit).size(), guide.countPossibleRoutes(source, dest, limit / 2, limit));
+					assertEquals(guide.findPossibleRoutesShorterThan(source, dest, limit * 5).size(), guide.countPossibleRoutesShorterThan(source, dest, limit * 5));
+				}
+			}
+		}
+		
+		// far beyond what could ever be enumerated
+		assertTrue(guide.countPossibleRoutesShorterThan("C", "C", 500) > 1000000000L);
+	}
+
+	/**
+	 * Checks the enumerations, which prune the branches that can not reach the destination, against the counts,
+	 * which do not, over sparse random worlds where many branches do not
+	 */
+	@Test
+	public void testPrunedFindPossibleRoutesRandomWorlds()
+	{
+		for (int seed = 0; seed < 5; seed++) {
+			World randomWorld = RandomWorlds.create(seed, 40, 2, 10);
+			CompactWorld compact = randomWorld.getCompactWorld();
+			TravelGuide randomGuide = new TravelGuide(randomWorld);
+			for (int dest = 0; dest < compact.getCityCount(); dest += 3) {
+				String destName = compact.getName(dest);
+				assertEquals(randomGuide.countPossibleRoutes("0", destName, 12), randomGuide.findPossibleRoutes("0", destName, 12).size());
+				assertEquals(randomGuide.countPossibleRoutes("0", destName, 6, 12), randomGuide.findPossibleRoutes("0", destName, 6, 12).size());
+				assertEquals(randomGuide.countPossibleRoutesShorterThan("0", destName, 60),
+						randomGuide.findPossibleRoutesShorterThan("0", destName, 60).size());
+				for (Route route : randomGuide.findPossibleRoutesShorterThan("0", destName, 60)) {
+					assertEquals(destName, route.getLast().getName());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks enumerations with small limits over a large world, where the bounds only know of the few cities within the
+	 * limit of the destination, and are reused by the enumerations with a smaller limit
+	 */
+	@Test
+	public void testPrunedFindPossibleRoutesLargeWorld()
+	{
+		World randomWorld = RandomWorlds.create(11, 100000, 3, 10);
+		CompactWorld compact = randomWorld.getCompactWorld();
+		TravelGuide randomGuide = new TravelGuide(randomWorld);
+		Random random = new Random(11);
+		long found = 0;
+		for (int i = 0; i < 20; i++) {
+			int source = random.nextInt(compact.getCityCount());
+			// a few random routes away, so there are routes to be found
+			int dest = source;
+			for (int stops = 0; stops < 3 && compact.getRoutesEnd(dest) > compact.getRoutesStart(dest); stops++) {
+				dest = compact.getRouteTarget(compact.getRoutesStart(dest) + random.nextInt(compact.getRoutesEnd(dest) - compact.getRoutesStart(dest)));
+			}
+			String sourceName = compact.getName(source), destName = compact.getName(dest);
+			found += randomGuide.findPossibleRoutes(sourceName, destName, 1, 8).size();
+			for (int maxHops : new int[] {6, 3, 8, 1}) {
+				assertEquals(randomGuide.countPossibleRoutes(sourceName, destName, 1, maxHops),
+						randomGuide.findPossibleRoutes(sourceName, destName, 1, maxHops).size());
+				assertEquals(randomGuide.countPossibleRoutes(destName, destName, 1, maxHops),
+						randomGuide.findPossibleRoutes(destName, destName, 1, maxHops).size());
+			}
+			for (int maxDistance : new int[] {25, 10, 40}) {
+				assertEquals(randomGuide.countPossibleRoutesShorterThan(sourceName, destName, maxDistance),
+						randomGuide.findPossibleRoutesShorterThan(sourceName, destName, maxDistance).size());
+			}
+		}
+		assertTrue(found > 20);
+	}
+
 }
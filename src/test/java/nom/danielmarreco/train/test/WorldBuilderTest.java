@@ -1,7 +1,9 @@
 package nom.danielmarreco.train.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import nom.danielmarreco.train.City;
 import nom.danielmarreco.train.World;
 import nom.danielmarreco.train.WorldBuilder;
@@ -74,5 +76,57 @@ public class WorldBuilderTest {
 
 	}
 	
+	/**
+	 * Tests routes added by city names
+	 * 
+	 * @see WorldBuilder#addRoute(String, String, int)
+	 */
+	@Test
+	public void testAddRouteByNames ()
+	{
+		World testWorld = worldBuilder
+			.addRoute("Auckland", "Wellington", 640)
+			.addRoute("Wellington", "Auckland", 640)
+			.addRoute("Wellington", "Napier", 320)
+			.build();
+		
+		assertTrue(testWorld.getCities().size() == 3);
+		assertTrue(testWorld.getCity("Wellington").getAdjacentCitites().size() == 2);
+		assertTrue(testWorld.getCity("Auckland").getAdjacentCitites().get(testWorld.getCity("Wellington")).equals(640));
+	}
+
+	/**
+	 * Tests the extended "FROM-TO:distance" notation, mixed with the single letter one
+	 * @throws InvalidArgumentException 
+	 * 
+	 * @see WorldBuilder#addRoute(String)
+	 */
+	@Test
+	public void testExtendedNotation () throws InvalidArgumentException
+	{
+		World testWorld = worldBuilder
+			.addRoute("Auckland-Wellington:640")
+			.addRoute("Wellington-A:10")
+			.addRoute("AB5")
+			.addRoute("B-Auckland:1")
+			.build();
+		
+		assertEquals(4, testWorld.getCityCount());
+		assertTrue(testWorld.getCity("Auckland").getAdjacentCitites().get(testWorld.getCity("Wellington")).equals(640));
+		assertTrue(testWorld.getCity("Wellington").getAdjacentCitites().get(testWorld.getCity("A")).equals(10));
+		assertTrue(testWorld.getCity("B").getAdjacentCitites().get(testWorld.getCity("Auckland")).equals(1));
+		
+		String[] invalid = {"Auckland-Wellington", "Auckland:640", "-Wellington:640", "Auckland-:640", "A-B-C:5", "A-B:5:6", "A B-C:5", "A-B:x"};
+		for (String arg : invalid) {
+			try {
+				worldBuilder.addRoute(arg);
+				fail("Accepted " + arg);
+			}
+			catch (InvalidArgumentException e) {
+				// expected
+			}
+		}
+	}
+	
 
 }